@@ -0,0 +1,76 @@
+package com.babyduncan.redis.bench;
+
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.profile.GCProfiler;
+import org.openjdk.jmh.results.format.ResultFormatType;
+import org.openjdk.jmh.runner.Runner;
+import org.openjdk.jmh.runner.RunnerException;
+import org.openjdk.jmh.runner.options.ChainedOptionsBuilder;
+import org.openjdk.jmh.runner.options.OptionsBuilder;
+
+import java.util.concurrent.TimeUnit;
+
+/**
+ * User: zgh
+ * Date: 26-10-18
+ * Time: 14:42
+ */
+
+/**
+ * 按线程数挨个跑benchmark，每个线程数跑两遍：吞吐量（ops/s）和SampleTime（微秒，看p99），
+ * 各输出一个json结果文件，方便和上一次的结果比对。
+ * 不给-Dthreads就只跑一轮，线程数用各个benchmark自己的@Threads（没写的是1），
+ * LockContentionBenchmark这种靠固定线程数制造争用的不会被改掉；给了-Dthreads就所有benchmark都按它跑。
+ * <p/>
+ * 输出里看这几列：
+ * thrpt                              ops/s
+ * sample  p0.99                      p99延迟（us）
+ * gc.alloc.rate.norm                 每次调用分配的字节数
+ * <p/>
+ * java -Dthreads=1,4,16 -cp target/benchmarks.jar com.babyduncan.redis.bench.BenchmarkRunner [include regex]
+ * 测真实redis再加 -Dredis.host=localhost -Dredis.port=6379
+ */
+public final class BenchmarkRunner {
+
+    private BenchmarkRunner() {
+    }
+
+    public static void main(String[] args) throws RunnerException {
+        String include = args.length > 0 ? args[0] : "com.babyduncan.redis.bench.*";
+        String threadCounts = System.getProperty("threads");
+        if (threadCounts == null) {
+            run(include, 0, Mode.Throughput, TimeUnit.SECONDS);
+            run(include, 0, Mode.SampleTime, TimeUnit.MICROSECONDS);
+            return;
+        }
+        for (String t : threadCounts.split(",")) {
+            int threads = Integer.parseInt(t.trim());
+            run(include, threads, Mode.Throughput, TimeUnit.SECONDS);
+            run(include, threads, Mode.SampleTime, TimeUnit.MICROSECONDS);
+        }
+    }
+
+    /**
+     * threads为0表示用benchmark上的@Threads。
+     */
+    private static void run(String include, int threads, Mode mode, TimeUnit unit) throws RunnerException {
+        ChainedOptionsBuilder options = new OptionsBuilder()
+                .include(include)
+                .mode(mode)
+                .timeUnit(unit)
+                .addProfiler(GCProfiler.class)
+                .resultFormat(ResultFormatType.JSON);
+        if (threads > 0) {
+            options.threads(threads)
+                    .result("jmh-result-" + mode.shortLabel() + "-" + threads + "t.json");
+        } else {
+            options.result("jmh-result-" + mode.shortLabel() + ".json");
+        }
+        String host = System.getProperty("redis.host");
+        if (host != null) {
+            options.jvmArgsAppend("-Dredis.host=" + host,
+                    "-Dredis.port=" + System.getProperty("redis.port", "6379"));
+        }
+        new Runner(options.build()).run();
+    }
+}
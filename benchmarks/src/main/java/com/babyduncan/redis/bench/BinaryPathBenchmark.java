@@ -0,0 +1,117 @@
+package com.babyduncan.redis.bench;
+
+import com.babyduncan.redis.client.BinaryKeys;
+import com.babyduncan.redis.client.Codecs;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+import redis.clients.jedis.Jedis;
+
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * User: zgh
+ * Date: 26-10-18
+ * Time: 19:35
+ */
+
+/**
+ * String重载和byte[]重载的对比，主要看 -prof gc 的 gc.alloc.rate.norm（每次调用分配多少字节）。
+ * 同一个Jedis连接，binary这边key是BinaryKeys缓存好的，value是事先编好的byte[]。
+ * 默认的进程内server和benchmark在同一个jvm里，它的分配也算在里面；只看客户端的话用 -Dredis.host 连外面的redis。
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class BinaryPathBenchmark {
+
+    @Param({"16", "1024", "16384"})
+    int valueSize;
+
+    Jedis jedis;
+    String key;
+    String value;
+    String[] keys;
+    byte[] binaryKey;
+    byte[] binaryValue;
+    byte[][] binaryKeys;
+    String counter;
+    byte[] binaryCounter;
+
+    @Setup(Level.Trial)
+    public void setUp() {
+        jedis = Payloads.connect();
+        String prefix = Payloads.threadPrefix("binary");
+        key = prefix + "value";
+        value = Payloads.value(valueSize, 42);
+        keys = Payloads.keys(prefix, 10);
+        binaryKey = BinaryKeys.key(key);
+        binaryValue = Codecs.UTF8.encode(value);
+        binaryKeys = BinaryKeys.shared().get(keys);
+        counter = prefix + "counter";
+        binaryCounter = BinaryKeys.key(counter);
+        jedis.set(key, value);
+        jedis.mset(Payloads.interleave(keys, value));
+    }
+
+    @TearDown(Level.Trial)
+    public void tearDown() {
+        jedis.del(keys);
+        jedis.del(key, counter);
+        jedis.disconnect();
+    }
+
+    @Benchmark
+    public String stringSet() {
+        return jedis.set(key, value);
+    }
+
+    @Benchmark
+    public String binarySet() {
+        return jedis.set(binaryKey, binaryValue);
+    }
+
+    @Benchmark
+    public String stringGet() {
+        return jedis.get(key);
+    }
+
+    @Benchmark
+    public byte[] binaryGet() {
+        return jedis.get(binaryKey);
+    }
+
+    @Benchmark
+    public List<String> stringMget() {
+        return jedis.mget(keys);
+    }
+
+    @Benchmark
+    public List<byte[]> binaryMget() {
+        return jedis.mget(binaryKeys);
+    }
+
+    @Benchmark
+    public Long stringIncr() {
+        return jedis.incrBy(counter, 1);
+    }
+
+    @Benchmark
+    public Long binaryIncr() {
+        return jedis.incrBy(binaryCounter, 1);
+    }
+}
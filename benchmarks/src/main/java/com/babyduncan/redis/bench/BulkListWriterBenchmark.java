@@ -0,0 +1,93 @@
+package com.babyduncan.redis.bench;
+
+import com.babyduncan.redis.client.BulkListWriter;
+import com.babyduncan.redis.client.RedisConnections;
+import com.babyduncan.redis.server.LocalRedis;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+import redis.clients.jedis.Jedis;
+
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * User: zgh
+ * Date: 26-10-18
+ * Time: 16:15
+ */
+
+/**
+ * 往list里写elements个元素：逐个RPUSH vs BulkListWriter按chunkSize分块pipeline。
+ * 一次调用写完整批，结果是“批/秒”，乘上elements就是元素/秒。
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class BulkListWriterBenchmark {
+
+    @Param({"100", "10000"})
+    int elements;
+
+    @Param({"64", "1024"})
+    int chunkSize;
+
+    @Param({"64"})
+    int valueSize;
+
+    RedisConnections connections;
+    BulkListWriter writer;
+    Jedis jedis;
+    String key;
+    List<String> values;
+
+    @Setup(Level.Trial)
+    public void setUp() {
+        connections = RedisConnections.builder().host(LocalRedis.host()).port(LocalRedis.port()).warmUp(1).build();
+        writer = new BulkListWriter(connections, chunkSize);
+        jedis = Payloads.connect();
+        key = Payloads.threadPrefix("bulklist") + "l";
+        String[] array = new String[elements];
+        Arrays.fill(array, Payloads.value(valueSize, 42));
+        values = Arrays.asList(array);
+    }
+
+    @TearDown(Level.Invocation)
+    public void clear() {
+        jedis.del(key);
+    }
+
+    @TearDown(Level.Trial)
+    public void tearDown() {
+        jedis.disconnect();
+        connections.close();
+    }
+
+    @Benchmark
+    public long rpushOneByOne() {
+        long length = 0;
+        for (String v : values) {
+            length = jedis.rpush(key, v);
+        }
+        return length;
+    }
+
+    @Benchmark
+    public long bulkWriter() {
+        return writer.rpush(key, values).getFinalLength();
+    }
+}
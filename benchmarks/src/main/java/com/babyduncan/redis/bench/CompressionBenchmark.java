@@ -0,0 +1,120 @@
+package com.babyduncan.redis.bench;
+
+import com.babyduncan.redis.client.BinaryKeys;
+import com.babyduncan.redis.client.BinaryRedis;
+import com.babyduncan.redis.client.Codecs;
+import com.babyduncan.redis.client.CompressingCodec;
+import com.babyduncan.redis.client.RedisConnections;
+import com.babyduncan.redis.server.LocalRedis;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.util.concurrent.TimeUnit;
+
+/**
+ * User: zgh
+ * Date: 26-10-18
+ * Time: 21:55
+ */
+
+/**
+ * 大的JSON值直接存和经过CompressingCodec存的对比：SET/GET各一次，外加只编解码不走网络的开销。
+ * 进程内server走的是回环，省下的主要是拷贝和server的内存；连真实redis（-Dredis.host）的时候网络字节数才是大头。
+ * TearDown打出codec的压缩比和每次编解码的耗时。
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class CompressionBenchmark {
+
+    @Param({"1024", "16384", "131072"})
+    int valueSize;
+
+    RedisConnections connections;
+    BinaryRedis redis;
+    CompressingCodec<String> codec;
+    String value;
+    byte[] plainKey;
+    byte[] packedKey;
+    byte[] packed;
+
+    @Setup(Level.Trial)
+    public void setUp() {
+        connections = RedisConnections.builder().host(LocalRedis.host()).port(LocalRedis.port()).maxActive(1).build();
+        redis = new BinaryRedis(connections);
+        codec = new CompressingCodec<String>(Codecs.UTF8);
+        value = json(valueSize);
+        String prefix = Payloads.threadPrefix("compress");
+        plainKey = BinaryKeys.key(prefix + "plain");
+        packedKey = BinaryKeys.key(prefix + "packed");
+        packed = codec.encode(value);
+        redis.set(plainKey, value, Codecs.UTF8);
+        redis.set(packedKey, packed);
+    }
+
+    @TearDown(Level.Trial)
+    public void tearDown() {
+        System.out.println();
+        System.out.println(codec);
+        redis.del(plainKey, packedKey);
+        connections.close();
+    }
+
+    /**
+     * 大约size个字符的一个JSON数组，字段名和大部分值都在重复，跟缓存里常见的对象列表差不多。
+     */
+    static String json(int size) {
+        StringBuilder sb = new StringBuilder("[");
+        for (int i = 0; sb.length() < size; i++) {
+            sb.append(i == 0 ? "" : ",").append("{\"id\":").append(i * 7919 % 100003)
+                    .append(",\"name\":\"user-").append(i).append("\",\"city\":\"")
+                    .append(i % 3 == 0 ? "beijing" : "shanghai").append("\",\"score\":").append(i * 31 % 997)
+                    .append(",\"active\":").append(i % 2 == 0).append('}');
+        }
+        return sb.append(']').toString();
+    }
+
+    @Benchmark
+    public String plainSet() {
+        return redis.set(plainKey, value, Codecs.UTF8);
+    }
+
+    @Benchmark
+    public String compressedSet() {
+        return redis.set(packedKey, value, codec);
+    }
+
+    @Benchmark
+    public String plainGet() {
+        return redis.get(plainKey, Codecs.UTF8);
+    }
+
+    @Benchmark
+    public String compressedGet() {
+        return redis.get(packedKey, codec);
+    }
+
+    @Benchmark
+    public byte[] encodeOnly() {
+        return codec.encode(value);
+    }
+
+    @Benchmark
+    public String decodeOnly() {
+        return codec.decode(packed);
+    }
+}
@@ -0,0 +1,88 @@
+package com.babyduncan.redis.bench;
+
+import com.babyduncan.redis.client.CounterAggregator;
+import com.babyduncan.redis.client.RedisConnections;
+import com.babyduncan.redis.server.LocalRedis;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+import redis.clients.jedis.Jedis;
+
+import java.util.concurrent.TimeUnit;
+
+/**
+ * User: zgh
+ * Date: 26-10-18
+ * Time: 20:25
+ */
+
+/**
+ * 几个热点计数器上的+1：每次一个INCR vs CounterAggregator本地累加、后台合并成INCRBY。
+ * 多线程跑（-t 或 -Dthreads）才看得出LongAdder的作用。
+ */
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class CounterAggregatorBenchmark {
+    static final String[] KEYS = {"bench:counter:a", "bench:counter:b", "bench:counter:c", "bench:counter:d"};
+
+    @State(Scope.Benchmark)
+    public static class Shared {
+        RedisConnections connections;
+        CounterAggregator counters;
+
+        @Setup(Level.Trial)
+        public void setUp() {
+            connections = RedisConnections.builder().host(LocalRedis.host()).port(LocalRedis.port()).warmUp(1).build();
+            counters = new CounterAggregator(connections);
+        }
+
+        @TearDown(Level.Trial)
+        public void tearDown() {
+            counters.close();
+            connections.execute(jedis -> jedis.del(KEYS));
+            connections.close();
+        }
+    }
+
+    @State(Scope.Thread)
+    public static class Connection {
+        Jedis jedis;
+        int next;
+
+        @Setup(Level.Trial)
+        public void setUp() {
+            jedis = Payloads.connect();
+        }
+
+        @TearDown(Level.Trial)
+        public void tearDown() {
+            jedis.disconnect();
+        }
+
+        String key() {
+            return KEYS[next++ & (KEYS.length - 1)];
+        }
+    }
+
+    @Benchmark
+    public Long incrRoundTrip(Connection c) {
+        return c.jedis.incr(c.key());
+    }
+
+    @Benchmark
+    public void incrCombined(Shared s, Connection c) {
+        s.counters.incr(c.key());
+    }
+}
@@ -0,0 +1,98 @@
+package com.babyduncan.redis.bench;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+import org.openjdk.jmh.infra.Blackhole;
+import redis.clients.jedis.Jedis;
+
+import java.util.HashMap;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * User: zgh
+ * Date: 26-10-18
+ * Time: 14:20
+ */
+
+/**
+ * HashUsage里的写法：HSET循环 vs HMSET，HGET循环 vs HMGET vs HGETALL。
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class HashBenchmark {
+
+    @Param({"1", "10", "100"})
+    int keyCount;
+
+    @Param({"16", "1024"})
+    int valueSize;
+
+    Jedis jedis;
+    String key;
+    String[] fields;
+    Map<String, String> hash;
+
+    @Setup(Level.Trial)
+    public void setUp() {
+        jedis = Payloads.connect();
+        key = Payloads.threadPrefix("hash") + "h";
+        fields = Payloads.keys("field", keyCount);
+        String value = Payloads.value(valueSize, 42);
+        hash = new HashMap<String, String>();
+        for (String f : fields) {
+            hash.put(f, value);
+        }
+        jedis.hmset(key, hash);
+    }
+
+    @TearDown(Level.Trial)
+    public void tearDown() {
+        jedis.del(key);
+        jedis.disconnect();
+    }
+
+    @Benchmark
+    public void hsetOneByOne() {
+        for (Map.Entry<String, String> e : hash.entrySet()) {
+            jedis.hset(key, e.getKey(), e.getValue());
+        }
+    }
+
+    @Benchmark
+    public String hmset() {
+        return jedis.hmset(key, hash);
+    }
+
+    @Benchmark
+    public void hgetOneByOne(Blackhole bh) {
+        for (String f : fields) {
+            bh.consume(jedis.hget(key, f));
+        }
+    }
+
+    @Benchmark
+    public Object hmget() {
+        return jedis.hmget(key, fields);
+    }
+
+    @Benchmark
+    public Object hgetAll() {
+        return jedis.hgetAll(key);
+    }
+}
@@ -0,0 +1,97 @@
+package com.babyduncan.redis.bench;
+
+import com.babyduncan.redis.client.HashCache;
+import com.babyduncan.redis.client.RedisConnections;
+import com.babyduncan.redis.server.LocalRedis;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Threads;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.util.HashMap;
+import java.util.Map;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * User: zgh
+ * Date: 26-10-18
+ * Time: 23:05
+ */
+
+/**
+ * 热点hash上的字段更新：每次直接HSET，和经过HashCache在本地合并、后台批量HMSET。
+ * fieldCount越小同一个字段被覆盖得越多，合并的效果越明显；TearDown打出合并比例和陈旧度。
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+@Threads(4)
+public class HashCacheBenchmark {
+
+    @Param({"16", "1024"})
+    int fieldCount;
+
+    RedisConnections connections;
+    HashCache cache;
+    String key;
+    String[] fields;
+
+    @Setup(Level.Trial)
+    public void setUp() {
+        connections = RedisConnections.builder().host(LocalRedis.host()).port(LocalRedis.port()).maxActive(8).build();
+        key = Payloads.threadPrefix("hashcache") + "user";
+        fields = new String[fieldCount];
+        final Map<String, String> row = new HashMap<String, String>();
+        for (int i = 0; i < fieldCount; i++) {
+            fields[i] = "field" + i;
+            row.put(fields[i], "0");
+        }
+        cache = new HashCache(connections, k -> row);
+        cache.getAll(key);
+    }
+
+    @TearDown(Level.Trial)
+    public void tearDown() {
+        cache.close();
+        System.out.println();
+        System.out.printf("writes=%d coalesced=%d flushed=%d flushes=%d avgLag=%.2fms maxLag=%.2fms%n",
+                cache.getWrites(), cache.getCoalesced(), cache.getFieldsFlushed(), cache.getFlushes(),
+                cache.getAverageLagMillis(), cache.getMaxLagMillis());
+        connections.execute(jedis -> jedis.del(key));
+        connections.close();
+    }
+
+    private String field() {
+        return fields[ThreadLocalRandom.current().nextInt(fields.length)];
+    }
+
+    @Benchmark
+    public Long directHset() {
+        final String field = field();
+        return connections.execute(jedis -> jedis.hset(key, field, "1"));
+    }
+
+    @Benchmark
+    public void writeBehindHset() {
+        cache.hset(key, field(), "1");
+    }
+
+    @Benchmark
+    public String cachedHget() {
+        return cache.hget(key, field());
+    }
+}
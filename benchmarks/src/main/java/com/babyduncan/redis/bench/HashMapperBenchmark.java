@@ -0,0 +1,140 @@
+package com.babyduncan.redis.bench;
+
+import com.babyduncan.redis.client.HashMapper;
+import com.babyduncan.redis.client.RedisConnections;
+import com.babyduncan.redis.server.LocalRedis;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+import redis.clients.jedis.Jedis;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * User: zgh
+ * Date: 26-10-18
+ * Time: 18:35
+ */
+
+/**
+ * 存取entities个对象：HashUsage那样手写的逐字段HSET/HGET vs HashMapper的HMSET/HGETALL/pipeline。
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class HashMapperBenchmark {
+
+    public static class Order {
+        String id;
+        String customer;
+        long createdAt;
+        int quantity;
+        double price;
+        boolean paid;
+    }
+
+    @Param({"1", "20"})
+    int entities;
+
+    RedisConnections connections;
+    HashMapper<Order> mapper;
+    Jedis jedis;
+    List<String> keys;
+    Order order;
+
+    @Setup(Level.Trial)
+    public void setUp() {
+        connections = RedisConnections.builder().host(LocalRedis.host()).port(LocalRedis.port()).warmUp(1).build();
+        mapper = new HashMapper<Order>(connections, Order.class);
+        jedis = Payloads.connect();
+        String prefix = Payloads.threadPrefix("order");
+        keys = new ArrayList<String>();
+        order = new Order();
+        order.id = "o-1";
+        order.customer = "BabyDuncan";
+        order.createdAt = System.currentTimeMillis();
+        order.quantity = 3;
+        order.price = 9.99;
+        order.paid = true;
+        for (int i = 0; i < entities; i++) {
+            keys.add(prefix + i);
+            mapper.save(prefix + i, order);
+        }
+    }
+
+    @TearDown(Level.Trial)
+    public void tearDown() {
+        jedis.del(keys.toArray(new String[keys.size()]));
+        jedis.disconnect();
+        connections.close();
+    }
+
+    @Benchmark
+    public void handWrittenSave() {
+        for (String key : keys) {
+            jedis.hset(key, "id", order.id);
+            jedis.hset(key, "customer", order.customer);
+            jedis.hset(key, "createdAt", String.valueOf(order.createdAt));
+            jedis.hset(key, "quantity", String.valueOf(order.quantity));
+            jedis.hset(key, "price", String.valueOf(order.price));
+            jedis.hset(key, "paid", String.valueOf(order.paid));
+        }
+    }
+
+    @Benchmark
+    public void mapperSave() {
+        for (String key : keys) {
+            mapper.save(key, order);
+        }
+    }
+
+    @Benchmark
+    public List<Order> handWrittenLoad() {
+        List<Order> result = new ArrayList<Order>(keys.size());
+        for (String key : keys) {
+            Order o = new Order();
+            o.id = jedis.hget(key, "id");
+            o.customer = jedis.hget(key, "customer");
+            o.createdAt = Long.parseLong(jedis.hget(key, "createdAt"));
+            o.quantity = Integer.parseInt(jedis.hget(key, "quantity"));
+            o.price = Double.parseDouble(jedis.hget(key, "price"));
+            o.paid = Boolean.parseBoolean(jedis.hget(key, "paid"));
+            result.add(o);
+        }
+        return result;
+    }
+
+    @Benchmark
+    public List<Order> mapperLoadOneByOne() {
+        List<Order> result = new ArrayList<Order>(keys.size());
+        for (String key : keys) {
+            result.add(mapper.load(key));
+        }
+        return result;
+    }
+
+    @Benchmark
+    public List<Order> mapperLoadAll() {
+        return mapper.loadAll(keys);
+    }
+
+    @Benchmark
+    public List<Order> mapperLoadAllProjected() {
+        return mapper.loadAll(keys, "id", "price");
+    }
+}
@@ -0,0 +1,106 @@
+package com.babyduncan.redis.bench;
+
+import com.babyduncan.redis.client.Leaderboard;
+import com.babyduncan.redis.client.RedisConnections;
+import com.babyduncan.redis.server.LocalRedis;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+import redis.clients.jedis.Jedis;
+import redis.clients.jedis.Tuple;
+
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * User: zgh
+ * Date: 26-10-18
+ * Time: 11:55
+ */
+
+/**
+ * 一万个玩家的排行榜：每次加分一个ZINCRBY vs Leaderboard本地合并；每次看前10名一个ZREVRANGE vs 读缓存。
+ */
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class LeaderboardBenchmark {
+    static final String KEY = "bench:leaderboard";
+    static final int PLAYERS = 10000;
+
+    @State(Scope.Benchmark)
+    public static class Shared {
+        RedisConnections connections;
+        Leaderboard board;
+
+        @Setup(Level.Trial)
+        public void setUp() {
+            connections = RedisConnections.builder().host(LocalRedis.host()).port(LocalRedis.port()).warmUp(1).build();
+            board = new Leaderboard(connections, KEY);
+            for (int i = 0; i < PLAYERS; i++) {
+                board.incrementScore("player:" + i, i);
+            }
+            board.flush();
+        }
+
+        @TearDown(Level.Trial)
+        public void tearDown() {
+            board.close();
+            connections.execute(jedis -> jedis.del(KEY));
+            connections.close();
+        }
+    }
+
+    @State(Scope.Thread)
+    public static class Connection {
+        Jedis jedis;
+        int next;
+
+        @Setup(Level.Trial)
+        public void setUp() {
+            jedis = Payloads.connect();
+        }
+
+        @TearDown(Level.Trial)
+        public void tearDown() {
+            jedis.disconnect();
+        }
+
+        String player() {
+            next = (next + 7919) % PLAYERS;
+            return "player:" + next;
+        }
+    }
+
+    @Benchmark
+    public Double zincrbyRoundTrip(Connection c) {
+        return c.jedis.zincrby(KEY, 1, c.player());
+    }
+
+    @Benchmark
+    public void zincrbyCombined(Shared s, Connection c) {
+        s.board.incrementScore(c.player(), 1);
+    }
+
+    @Benchmark
+    public Set<Tuple> topRoundTrip(Connection c) {
+        return c.jedis.zrevrangeWithScores(KEY, 0, 9);
+    }
+
+    @Benchmark
+    public List<Leaderboard.Entry> topCached(Shared s) {
+        return s.board.top(10);
+    }
+}
@@ -0,0 +1,91 @@
+package com.babyduncan.redis.bench;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+import redis.clients.jedis.Jedis;
+
+import java.util.Arrays;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * User: zgh
+ * Date: 26-10-18
+ * Time: 14:26
+ */
+
+/**
+ * ListUsage里的写法：逐个LPUSH vs 一次多值LPUSH，LRANGE 0 -1 整个读回来 vs LPOP。
+ * 每次调用结束后把list截回初始长度，保证每轮测的是同样大小的list。
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class ListBenchmark {
+
+    @Param({"1", "10", "100"})
+    int keyCount;
+
+    @Param({"16", "1024"})
+    int valueSize;
+
+    Jedis jedis;
+    String key;
+    String[] values;
+
+    @Setup(Level.Trial)
+    public void setUp() {
+        jedis = Payloads.connect();
+        key = Payloads.threadPrefix("list") + "l";
+        values = new String[keyCount];
+        Arrays.fill(values, Payloads.value(valueSize, 42));
+        jedis.del(key);
+        jedis.rpush(key, values);
+    }
+
+    @TearDown(Level.Invocation)
+    public void trim() {
+        jedis.ltrim(key, 0, keyCount - 1);
+    }
+
+    @TearDown(Level.Trial)
+    public void tearDown() {
+        jedis.del(key);
+        jedis.disconnect();
+    }
+
+    @Benchmark
+    public void lpushOneByOne() {
+        for (String v : values) {
+            jedis.lpush(key, v);
+        }
+    }
+
+    @Benchmark
+    public Long lpushVarargs() {
+        return jedis.lpush(key, values);
+    }
+
+    @Benchmark
+    public Object lrangeAll() {
+        return jedis.lrange(key, 0, -1);
+    }
+
+    @Benchmark
+    public Object rpoplpushRotate() {
+        return jedis.rpoplpush(key, key);
+    }
+}
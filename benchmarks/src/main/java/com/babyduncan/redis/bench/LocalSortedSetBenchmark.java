@@ -0,0 +1,105 @@
+package com.babyduncan.redis.bench;
+
+import com.babyduncan.redis.client.LocalSortedSet;
+import com.babyduncan.redis.client.RedisConnections;
+import com.babyduncan.redis.server.LocalRedis;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+import redis.clients.jedis.Jedis;
+
+import java.util.TreeSet;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * User: zgh
+ * Date: 26-10-18
+ * Time: 13:20
+ */
+
+/**
+ * 一万个member的sorted set上求名次/区间个数：ZRANK/ZCOUNT走网络 vs LocalSortedSet本地跳表
+ * vs TreeSet的headSet(x).size()（SortedsetUsage.testSortedset那种，O(n)）。
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class LocalSortedSetBenchmark {
+    static final int MEMBERS = 10000;
+
+    Jedis jedis;
+    String key;
+    LocalSortedSet local;
+    TreeSet<String> tree;
+    String[] members;
+    int next;
+
+    @Setup(Level.Trial)
+    public void setUp() {
+        jedis = Payloads.connect();
+        key = Payloads.threadPrefix("zset");
+        tree = new TreeSet<String>();
+        members = new String[MEMBERS];
+        for (int i = 0; i < MEMBERS; i++) {
+            members[i] = String.format("member:%05d", i);
+            jedis.zadd(key, i, members[i]);
+            tree.add(members[i]);
+        }
+        RedisConnections connections = RedisConnections.builder().host(LocalRedis.host()).port(LocalRedis.port()).build();
+        try {
+            local = LocalSortedSet.load(connections, key);
+        } finally {
+            connections.close();
+        }
+    }
+
+    @TearDown(Level.Trial)
+    public void tearDown() {
+        jedis.del(key);
+        jedis.disconnect();
+    }
+
+    String nextMember() {
+        next = (next + 7919) % MEMBERS;
+        return members[next];
+    }
+
+    @Benchmark
+    public Long zrankRoundTrip() {
+        return jedis.zrank(key, nextMember());
+    }
+
+    @Benchmark
+    public Long zrankLocal() {
+        return local.zrank(nextMember());
+    }
+
+    @Benchmark
+    public int zrankTreeSetHeadSet() {
+        return tree.headSet(nextMember()).size();
+    }
+
+    @Benchmark
+    public Long zcountRoundTrip() {
+        next = (next + 7919) % MEMBERS;
+        return jedis.zcount(key, next, next + 500);
+    }
+
+    @Benchmark
+    public long zcountLocal() {
+        next = (next + 7919) % MEMBERS;
+        return local.zcount(next, next + 500);
+    }
+}
@@ -0,0 +1,117 @@
+package com.babyduncan.redis.bench;
+
+import com.babyduncan.redis.client.RedisConnections;
+import com.babyduncan.redis.client.RedisLock;
+import com.babyduncan.redis.server.LocalRedis;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Threads;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * User: zgh
+ * Date: 26-10-18
+ * Time: 00:20
+ */
+
+/**
+ * 200个线程抢同一把RedisLock，每次拿到马上释放。SampleTime给出从开始等到拿到锁（含释放）的延迟分布，
+ * TearDown按线程统计拿到锁的次数，打出最少/最多和Jain公平指数（1是完全平均，1/n是一个线程全拿走）。
+ * processes个RedisLock实例模拟多个进程，线程轮流分给它们；localQueue对比进程内先排队和所有线程直接去redis抢。
+ * 线程数用 -t 改。
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.SampleTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+@Threads(200)
+public class LockContentionBenchmark {
+
+    @Param({"1", "8"})
+    int processes;
+
+    @Param({"true", "false"})
+    boolean localQueue;
+
+    RedisConnections connections;
+    RedisLock[] locks;
+    String name;
+    final AtomicInteger threadIds = new AtomicInteger();
+    final ConcurrentLinkedQueue<Worker> workers = new ConcurrentLinkedQueue<Worker>();
+
+    @Setup(Level.Trial)
+    public void setUp() {
+        connections = RedisConnections.builder().host(LocalRedis.host()).port(LocalRedis.port())
+                .maxActive(256).maxWaitMillis(30000).build();
+        name = Payloads.threadPrefix("lock") + "contended";
+        locks = new RedisLock[processes];
+        for (int i = 0; i < processes; i++) {
+            locks[i] = new RedisLock(connections, name, 10000, localQueue);
+        }
+    }
+
+    @TearDown(Level.Trial)
+    public void tearDown() {
+        long sum = 0;
+        long sumSquares = 0;
+        long min = Long.MAX_VALUE;
+        long max = 0;
+        for (Worker w : workers) {
+            sum += w.acquired;
+            sumSquares += w.acquired * w.acquired;
+            min = Math.min(min, w.acquired);
+            max = Math.max(max, w.acquired);
+        }
+        long attempts = 0;
+        long acquired = 0;
+        for (RedisLock lock : locks) {
+            attempts += lock.getAttempts();
+            acquired += lock.getAcquired();
+        }
+        System.out.println();
+        System.out.printf("threads=%d acquired=%d min/thread=%d max/thread=%d jain=%.3f attempts/acquire=%.2f%n",
+                workers.size(), sum, min, max, sumSquares == 0 ? 0 : (double) sum * sum / (workers.size() * sumSquares),
+                acquired == 0 ? 0 : (double) attempts / acquired);
+        connections.execute(jedis -> jedis.del(name, name + ":fence"));
+        connections.close();
+    }
+
+    @State(Scope.Thread)
+    public static class Worker {
+        RedisLock lock;
+        long acquired;
+
+        @Setup(Level.Trial)
+        public void setUp(LockContentionBenchmark shared) {
+            lock = shared.locks[shared.threadIds.getAndIncrement() % shared.processes];
+            shared.workers.add(this);
+        }
+    }
+
+    @Benchmark
+    public long acquireRelease(Worker worker) throws InterruptedException {
+        RedisLock.Lease lease = worker.lock.acquire(10, TimeUnit.SECONDS);
+        if (lease == null) {
+            return -1;
+        }
+        worker.acquired++;
+        lease.release();
+        return lease.getToken();
+    }
+}
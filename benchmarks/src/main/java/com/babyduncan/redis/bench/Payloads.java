@@ -0,0 +1,67 @@
+package com.babyduncan.redis.bench;
+
+import com.babyduncan.redis.server.LocalRedis;
+import redis.clients.jedis.Jedis;
+
+import java.util.Random;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * User: zgh
+ * Date: 26-10-18
+ * Time: 14:05
+ */
+
+/**
+ * benchmark共用的小工具：连接、key和value的生成。
+ * <p/>
+ * 默认连进程内的EmbeddedRedisServer（每个JMH fork一个），加 -jvmArgs -Dredis.host=... 就测真实redis。
+ */
+final class Payloads {
+    private static final AtomicInteger THREAD_IDS = new AtomicInteger();
+
+    private Payloads() {
+    }
+
+    static Jedis connect() {
+        Jedis jedis = new Jedis(LocalRedis.host(), LocalRedis.port());
+        jedis.connect();
+        return jedis;
+    }
+
+    /**
+     * 每个benchmark线程一个前缀，多线程跑的时候互相不踩key。
+     */
+    static String threadPrefix(String type) {
+        return "bench:" + type + ":" + THREAD_IDS.incrementAndGet() + ":";
+    }
+
+    static String[] keys(String prefix, int count) {
+        String[] keys = new String[count];
+        for (int i = 0; i < count; i++) {
+            keys[i] = prefix + i;
+        }
+        return keys;
+    }
+
+    static String value(int size, long seed) {
+        Random random = new Random(seed);
+        char[] chars = new char[size];
+        for (int i = 0; i < size; i++) {
+            chars[i] = (char) ('a' + random.nextInt(26));
+        }
+        return new String(chars);
+    }
+
+    /**
+     * MSET/MSETNX要的 k1 v1 k2 v2 ... 形式。
+     */
+    static String[] interleave(String[] keys, String value) {
+        String[] kv = new String[keys.length * 2];
+        for (int i = 0; i < keys.length; i++) {
+            kv[2 * i] = keys[i];
+            kv[2 * i + 1] = value;
+        }
+        return kv;
+    }
+}
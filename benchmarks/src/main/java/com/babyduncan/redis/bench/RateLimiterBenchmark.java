@@ -0,0 +1,87 @@
+package com.babyduncan.redis.bench;
+
+import com.babyduncan.redis.client.RateLimiter;
+import com.babyduncan.redis.client.RedisConnections;
+import com.babyduncan.redis.server.LocalRedis;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Threads;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * User: zgh
+ * Date: 26-10-18
+ * Time: 01:10
+ */
+
+/**
+ * 网关式的限流检查：ids个调用方，每个每秒limit次，8个线程随机挑调用方检查。
+ * fixed和sliding每次检查一个往返，preallocated一次领preAllocate个额度，大部分检查在本地决定；
+ * TearDown打出每次检查平均访问redis几次。
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+@Threads(8)
+public class RateLimiterBenchmark {
+
+    @Param({"fixed", "sliding", "preallocated"})
+    String mode;
+
+    @Param({"100"})
+    int ids;
+
+    @Param({"1000"})
+    int limit;
+
+    RedisConnections connections;
+    RateLimiter limiter;
+    String[] callers;
+
+    @Setup(Level.Trial)
+    public void setUp() {
+        connections = RedisConnections.builder().host(LocalRedis.host()).port(LocalRedis.port()).maxActive(8).build();
+        RateLimiter.Builder b = RateLimiter.builder().connections(connections).limit(limit).window(1, TimeUnit.SECONDS)
+                .prefix(Payloads.threadPrefix("rate"));
+        if ("sliding".equals(mode)) {
+            b.mode(RateLimiter.Mode.SLIDING_LOG);
+        } else if ("preallocated".equals(mode)) {
+            b.preAllocate(Math.max(1, limit / 20));
+        }
+        limiter = b.build();
+        callers = new String[ids];
+        for (int i = 0; i < ids; i++) {
+            callers[i] = "caller" + i;
+        }
+    }
+
+    @TearDown(Level.Trial)
+    public void tearDown() {
+        long checks = limiter.getAllowed() + limiter.getRejected();
+        System.out.println();
+        System.out.printf("checks=%d allowed=%d roundTrips/check=%.3f%n", checks, limiter.getAllowed(),
+                checks == 0 ? 0 : (double) limiter.getRoundTrips() / checks);
+        connections.close();
+    }
+
+    @Benchmark
+    public boolean tryAcquire() {
+        return limiter.tryAcquire(callers[ThreadLocalRandom.current().nextInt(callers.length)]);
+    }
+}
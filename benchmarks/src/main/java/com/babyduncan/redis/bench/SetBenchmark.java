@@ -0,0 +1,103 @@
+package com.babyduncan.redis.bench;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+import redis.clients.jedis.Jedis;
+
+import java.util.concurrent.TimeUnit;
+
+/**
+ * User: zgh
+ * Date: 26-10-18
+ * Time: 14:31
+ */
+
+/**
+ * SetUsage里的写法：逐个SADD vs 多值SADD，以及SMEMBERS/SINTER/SUNION/SDIFF。
+ * 两个集合各keyCount个member，一半重叠。
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class SetBenchmark {
+
+    @Param({"1", "10", "100"})
+    int keyCount;
+
+    @Param({"16", "1024"})
+    int valueSize;
+
+    Jedis jedis;
+    String one;
+    String two;
+    String[] members;
+
+    @Setup(Level.Trial)
+    public void setUp() {
+        jedis = Payloads.connect();
+        String prefix = Payloads.threadPrefix("set");
+        one = prefix + "one";
+        two = prefix + "two";
+        String pad = Payloads.value(valueSize, 42);
+        members = new String[keyCount];
+        String[] shifted = new String[keyCount];
+        for (int i = 0; i < keyCount; i++) {
+            members[i] = i + pad;
+            shifted[i] = (i + keyCount / 2) + pad;
+        }
+        jedis.sadd(one, members);
+        jedis.sadd(two, shifted);
+    }
+
+    @TearDown(Level.Trial)
+    public void tearDown() {
+        jedis.del(one, two);
+        jedis.disconnect();
+    }
+
+    @Benchmark
+    public void saddOneByOne() {
+        for (String m : members) {
+            jedis.sadd(one, m);
+        }
+    }
+
+    @Benchmark
+    public Long saddVarargs() {
+        return jedis.sadd(one, members);
+    }
+
+    @Benchmark
+    public Object smembers() {
+        return jedis.smembers(one);
+    }
+
+    @Benchmark
+    public Object sinter() {
+        return jedis.sinter(one, two);
+    }
+
+    @Benchmark
+    public Object sunion() {
+        return jedis.sunion(one, two);
+    }
+
+    @Benchmark
+    public Object sdiff() {
+        return jedis.sdiff(one, two);
+    }
+}
@@ -0,0 +1,97 @@
+package com.babyduncan.redis.bench;
+
+import com.babyduncan.redis.client.RedisConnections;
+import com.babyduncan.redis.client.SetQuery;
+import com.babyduncan.redis.server.LocalRedis;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+import redis.clients.jedis.Jedis;
+import redis.clients.jedis.Pipeline;
+
+import java.util.Random;
+import java.util.Set;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * User: zgh
+ * Date: 26-10-18
+ * Time: 15:00
+ */
+
+/**
+ * 五个标签集合求交集，key按从大到小传：直接SINTER vs SetQuery（SCARD排序、都小就本地算）vs sinterCached。
+ * small：50到250个元素，从1000个里挑；skewed：50、2万到5万，从6万个里挑；heavy：5000、2万到5万。
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class SetQueryBenchmark {
+    @Param({"small", "skewed", "heavy"})
+    String shape;
+
+    Jedis jedis;
+    RedisConnections connections;
+    SetQuery query;
+    String[] keys;
+
+    @Setup(Level.Trial)
+    public void setUp() {
+        jedis = Payloads.connect();
+        connections = RedisConnections.builder().host(LocalRedis.host()).port(LocalRedis.port()).build();
+        query = new SetQuery(connections);
+        String prefix = Payloads.threadPrefix("setquery");
+        int universe = "small".equals(shape) ? 1000 : 60000;
+        int[] sizes = "small".equals(shape) ? new int[]{250, 200, 150, 100, 50}
+                : new int[]{50000, 40000, 30000, 20000, "skewed".equals(shape) ? 50 : 5000};
+        keys = new String[sizes.length];
+        Random random = new Random(42);
+        for (int k = 0; k < sizes.length; k++) {
+            keys[k] = prefix + "tag" + k;
+            Pipeline p = jedis.pipelined();
+            for (int i = 0; i < sizes[k]; i++) {
+                p.sadd(keys[k], "item:" + random.nextInt(universe));
+            }
+            p.sync();
+        }
+    }
+
+    @TearDown(Level.Trial)
+    public void tearDown() {
+        jedis.del(keys);
+        Set<String> cached = jedis.keys(SetQuery.CACHE_PREFIX + "*");
+        if (!cached.isEmpty()) {
+            jedis.del(cached.toArray(new String[cached.size()]));
+        }
+        jedis.disconnect();
+        connections.close();
+    }
+
+    @Benchmark
+    public Set<String> naiveSinter() {
+        return jedis.sinter(keys);
+    }
+
+    @Benchmark
+    public Set<String> plannedSinter() {
+        return query.sinter(keys);
+    }
+
+    @Benchmark
+    public Set<String> cachedSinter() {
+        return query.sinterCached(60, keys);
+    }
+}
@@ -0,0 +1,114 @@
+package com.babyduncan.redis.bench;
+
+import com.babyduncan.redis.client.KeySpaceSnapshot;
+import com.babyduncan.redis.client.RedisConnections;
+import com.babyduncan.redis.server.LocalRedis;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+import redis.clients.jedis.Jedis;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Set;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * User: zgh
+ * Date: 26-10-18
+ * Time: 18:20
+ */
+
+/**
+ * 重建一份测试数据（keyCount个key，string/hash/list/set/zset各占1/5，集合类型每个10个元素）：
+ * 一条一条写 vs KeySpaceSnapshot.restore（pipeline + 多个连接并行）。一次操作是整份数据导一遍。
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class SnapshotRestoreBenchmark {
+    @Param({"5000"})
+    int keyCount;
+
+    @Param({"4"})
+    int threads;
+
+    Jedis jedis;
+    RedisConnections connections;
+    KeySpaceSnapshot snapshot;
+    Path file;
+    String prefix;
+
+    @Setup(Level.Trial)
+    public void setUp() throws IOException {
+        jedis = Payloads.connect();
+        connections = RedisConnections.builder().host(LocalRedis.host()).port(LocalRedis.port()).maxActive(threads).build();
+        snapshot = new KeySpaceSnapshot(connections);
+        prefix = Payloads.threadPrefix("snapshot");
+        singleWrites();
+        file = Files.createTempFile("snapshot", ".snap");
+        snapshot.dump(file, prefix + "*");
+    }
+
+    @TearDown(Level.Trial)
+    public void tearDown() throws IOException {
+        Set<String> keys = jedis.keys(prefix + "*");
+        if (!keys.isEmpty()) {
+            jedis.del(keys.toArray(new String[keys.size()]));
+        }
+        jedis.disconnect();
+        connections.close();
+        Files.deleteIfExists(file);
+    }
+
+    @Benchmark
+    public void singleWrites() {
+        for (int i = 0; i < keyCount; i++) {
+            String key = prefix + i;
+            jedis.del(key);
+            switch (i % 5) {
+                case 0:
+                    jedis.set(key, "value-" + i);
+                    break;
+                case 1:
+                    for (int j = 0; j < 10; j++) {
+                        jedis.hset(key, "f" + j, "v" + j);
+                    }
+                    break;
+                case 2:
+                    for (int j = 0; j < 10; j++) {
+                        jedis.rpush(key, "v" + j);
+                    }
+                    break;
+                case 3:
+                    for (int j = 0; j < 10; j++) {
+                        jedis.sadd(key, "v" + j);
+                    }
+                    break;
+                default:
+                    for (int j = 0; j < 10; j++) {
+                        jedis.zadd(key, j, "v" + j);
+                    }
+            }
+        }
+    }
+
+    @Benchmark
+    public KeySpaceSnapshot.Result restore() throws IOException {
+        return snapshot.restore(file, threads);
+    }
+}
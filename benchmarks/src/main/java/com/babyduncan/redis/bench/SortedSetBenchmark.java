@@ -0,0 +1,100 @@
+package com.babyduncan.redis.bench;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+import org.openjdk.jmh.infra.Blackhole;
+import redis.clients.jedis.Jedis;
+
+import java.util.HashMap;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * User: zgh
+ * Date: 26-10-18
+ * Time: 14:36
+ */
+
+/**
+ * SortedsetUsage里的写法：逐个ZADD vs 一次多值ZADD，ZINCRBY、ZRANK、ZRANGE。
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class SortedSetBenchmark {
+
+    @Param({"1", "10", "100"})
+    int keyCount;
+
+    @Param({"16", "1024"})
+    int valueSize;
+
+    Jedis jedis;
+    String key;
+    String[] members;
+    Map<Double, String> scoreMembers;
+
+    @Setup(Level.Trial)
+    public void setUp() {
+        jedis = Payloads.connect();
+        key = Payloads.threadPrefix("zset") + "z";
+        String pad = Payloads.value(valueSize, 42);
+        members = new String[keyCount];
+        // jedis 2.1的多值zadd参数是 score -> member
+        scoreMembers = new HashMap<Double, String>();
+        for (int i = 0; i < keyCount; i++) {
+            members[i] = i + pad;
+            scoreMembers.put((double) i, members[i]);
+        }
+        jedis.zadd(key, scoreMembers);
+    }
+
+    @TearDown(Level.Trial)
+    public void tearDown() {
+        jedis.del(key);
+        jedis.disconnect();
+    }
+
+    @Benchmark
+    public void zaddOneByOne() {
+        for (int i = 0; i < members.length; i++) {
+            jedis.zadd(key, i, members[i]);
+        }
+    }
+
+    @Benchmark
+    public Long zaddVarargs() {
+        return jedis.zadd(key, scoreMembers);
+    }
+
+    @Benchmark
+    public Double zincrby() {
+        return jedis.zincrby(key, 0, members[members.length - 1]);
+    }
+
+    @Benchmark
+    public void zrankEach(Blackhole bh) {
+        for (String m : members) {
+            bh.consume(jedis.zrank(key, m));
+        }
+    }
+
+    @Benchmark
+    public Object zrangeAll() {
+        return jedis.zrangeWithScores(key, 0, -1);
+    }
+}
@@ -0,0 +1,93 @@
+package com.babyduncan.redis.bench;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+import org.openjdk.jmh.infra.Blackhole;
+import redis.clients.jedis.Jedis;
+
+import java.util.concurrent.TimeUnit;
+
+/**
+ * User: zgh
+ * Date: 26-10-18
+ * Time: 14:12
+ */
+
+/**
+ * StringUsege里的两种写法：keyCount个key逐个SET/GET，和一次MSET/MGET。
+ * 一次调用处理keyCount个key，比较的是同样的工作量下谁更快。
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class StringBenchmark {
+
+    @Param({"1", "10", "100"})
+    int keyCount;
+
+    @Param({"16", "1024"})
+    int valueSize;
+
+    Jedis jedis;
+    String[] keys;
+    String[] keysAndValues;
+    String value;
+
+    @Setup(Level.Trial)
+    public void setUp() {
+        jedis = Payloads.connect();
+        keys = Payloads.keys(Payloads.threadPrefix("string"), keyCount);
+        value = Payloads.value(valueSize, 42);
+        keysAndValues = Payloads.interleave(keys, value);
+        jedis.mset(keysAndValues);
+    }
+
+    @TearDown(Level.Trial)
+    public void tearDown() {
+        jedis.del(keys);
+        jedis.disconnect();
+    }
+
+    @Benchmark
+    public void setOneByOne() {
+        for (String key : keys) {
+            jedis.set(key, value);
+        }
+    }
+
+    @Benchmark
+    public String mset() {
+        return jedis.mset(keysAndValues);
+    }
+
+    @Benchmark
+    public void getOneByOne(Blackhole bh) {
+        for (String key : keys) {
+            bh.consume(jedis.get(key));
+        }
+    }
+
+    @Benchmark
+    public Object mget() {
+        return jedis.mget(keys);
+    }
+
+    @Benchmark
+    public Long incr() {
+        return jedis.incr(keys[0] + ":counter");
+    }
+}
@@ -1,13 +1,30 @@
 package com.babyduncan;
 
+import com.babyduncan.redis.workload.WorkloadDriver;
+import com.babyduncan.redis.workload.WorkloadOptions;
+
 /**
- * Hello world!
+ * 压测入口，参数见{@link WorkloadOptions#USAGE}，例如
+ * java com.babyduncan.App --threads=16 --distribution=zipfian --read-ratio=0.95 --pipeline=8 --duration=30
  *
  */
 public class App 
 {
-    public static void main( String[] args )
+    public static void main( String[] args ) throws Exception
     {
-        System.out.println( "Hello World!" );
+        WorkloadOptions options;
+        try
+        {
+            options = WorkloadOptions.parse( args );
+        }
+        catch ( IllegalArgumentException e )
+        {
+            System.err.println( e.getMessage() );
+            System.err.print( WorkloadOptions.USAGE );
+            System.exit( 2 );
+            return;
+        }
+        WorkloadDriver.Result result = new WorkloadDriver( options, System.out ).run();
+        System.exit( result.getErrors() == 0 ? 0 : 1 );
     }
 }
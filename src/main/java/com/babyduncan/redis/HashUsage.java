@@ -1,6 +1,10 @@
 package com.babyduncan.redis;
 
+import com.babyduncan.redis.fixture.RedisFixture;
+import com.babyduncan.redis.fixture.Seed;
 import org.junit.Assert;
+import org.junit.Before;
+import org.junit.Rule;
 import org.junit.Test;
 import redis.clients.jedis.Jedis;
 
@@ -14,7 +18,15 @@ import java.util.Map;
  * Time: 21:27
  */
 public class HashUsage {
-    Jedis jedis = new Jedis("localhost", 6379);
+    @Rule
+    public final RedisFixture redis = new RedisFixture();
+
+    Jedis jedis;
+
+    @Before
+    public void borrowJedis() {
+        jedis = redis.jedis();
+    }
 
     /**
      * HSET key field value
@@ -196,6 +208,7 @@ public class HashUsage {
      * redis>
      */
     @Test
+    @Seed("HSET num myage 22")
     public void hash_hexists() {
         Assert.assertTrue(jedis.hexists("num", "myage"));
         Assert.assertFalse(jedis.hexists("sadsad", "adsadsade"));
@@ -217,6 +230,7 @@ public class HashUsage {
      * redis>
      */
     @Test
+    @Seed("HSET num myage 22")
     public void hash_hlen() {
         System.out.println(jedis.hlen("num"));
     }
@@ -268,6 +282,7 @@ public class HashUsage {
      * 我砸觉得应该叫做 hfileds呢 ？
      */
     @Test
+    @Seed("HMSET k1 f1 v1 f3 v3")
     public void hash_hkeys() {
         System.out.println(jedis.hkeys("k1"));
     }
@@ -313,6 +328,7 @@ public class HashUsage {
      * redis>
      */
     @Test
+    @Seed("HMSET k1 f1 v1 f3 v3")
     public void hash_hgetall() {
         System.out.println(jedis.hgetAll("k1"));
     }
@@ -1,6 +1,10 @@
 package com.babyduncan.redis;
 
+import com.babyduncan.redis.fixture.RedisFixture;
+import com.babyduncan.redis.fixture.Seed;
 import org.junit.Assert;
+import org.junit.Before;
+import org.junit.Rule;
 import org.junit.Test;
 import redis.clients.jedis.Client;
 import redis.clients.jedis.Jedis;
@@ -11,7 +15,15 @@ import redis.clients.jedis.Jedis;
  * Time: 17:32
  */
 public class ListUsage {
-    Jedis jedis = new Jedis("localhost");
+    @Rule
+    public final RedisFixture redis = new RedisFixture();
+
+    Jedis jedis;
+
+    @Before
+    public void borrowJedis() {
+        jedis = redis.jedis();
+    }
 
 
     /**
@@ -37,7 +49,7 @@ public class ListUsage {
      */
     @Test
     public void list_lpush() {
-        jedis.flushAll();
+        jedis.flushDB();
         //you can use it like jedis.lpush("mylist","1","2","3");  under a higher version redis.
         jedis.lpush("mylist", "hello");
         jedis.lpush("mylist", "hello2");
@@ -104,7 +116,7 @@ public class ListUsage {
      */
     @Test
     public void list_linsert() {
-        jedis.flushAll();
+        jedis.flushDB();
         jedis.lpush("myleftlist", "1");
         jedis.lpush("myleftlist", "2");
         jedis.lpush("myleftlist", "3");
@@ -271,6 +283,7 @@ public class ListUsage {
      * redis>
      */
     @Test
+    @Seed("RPUSH lremlist foobar world")
     public void list_ltrim() {
         System.out.println(jedis.lrange("lremlist", 0, -1));
         // now it is [foobar, world]
@@ -332,6 +345,7 @@ public class ListUsage {
      * redis>
      */
     @Test
+    @Seed("LPUSH lpoplist a b c d e")
     public void list_rpop() {
         String pop = jedis.rpop("lpoplist");
         Assert.assertEquals("a", pop);
@@ -397,6 +411,7 @@ public class ListUsage {
      * it is very interesting  !!! test lindex mylist sadasd   . you can test it only under a shell
      */
     @Test
+    @Seed("RPUSH rl source1 source2")
     public void lindex() {
         System.out.println(jedis.lrange("rl", 0, -1));
         System.out.println(jedis.lindex("rl", 0));
@@ -419,6 +434,7 @@ public class ListUsage {
      * redis>
      */
     @Test
+    @Seed("RPUSH rl source1 source2")
     public void llen() {
         System.out.println(jedis.llen("rl"));
     }
@@ -432,4 +448,5 @@ public class ListUsage {
     //look here http://redis.io/commands/blpop
     //http://redis.io/commands/brpop
     //http://redis.io/commands/brpoplpush
+    //用BRPOPLPUSH做可靠队列（processing list + LREM确认 + 超时重新入队）见 com.babyduncan.redis.client.ReliableQueueConsumer
 }
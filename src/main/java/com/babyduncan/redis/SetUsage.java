@@ -1,5 +1,9 @@
 package com.babyduncan.redis;
 
+import com.babyduncan.redis.fixture.RedisFixture;
+import com.babyduncan.redis.fixture.Seed;
+import org.junit.Before;
+import org.junit.Rule;
 import org.junit.Test;
 import redis.clients.jedis.Jedis;
 
@@ -10,7 +14,15 @@ import redis.clients.jedis.Jedis;
  */
 public class SetUsage {
 
-    Jedis jedis = new Jedis("localhost");
+    @Rule
+    public final RedisFixture redis = new RedisFixture();
+
+    Jedis jedis;
+
+    @Before
+    public void borrowJedis() {
+        jedis = redis.jedis();
+    }
 
     /**
      * Add the specified members to the set stored at key. Specified members that are already a member of this set are ignored. If key does not exist, a new set is created before adding the specified members.
@@ -67,6 +79,7 @@ public class SetUsage {
      * redis>
      */
     @Test
+    @Seed("SADD testset a b c")
     public void set_srem() {
         jedis.srem("testset", "a");
         System.out.println(jedis.smembers("testset"));
@@ -199,6 +212,7 @@ public class SetUsage {
         jedis.sadd("inter2", "a");
         System.out.println(jedis.sinter("inter1", "inter2"));
         //sinterstore the same
+        //很多个大小悬殊的集合求交集、同样的查询反复出现，见 com.babyduncan.redis.client.SetQuery（按SCARD规划、结果SINTERSTORE缓存）
     }
 
     /**
@@ -239,6 +253,7 @@ public class SetUsage {
      * sunionstore  the same
      */
     @Test
+    @Seed({"SADD inter1 a", "SADD inter2 b a"})
     public void set_sunion() {
         System.out.println(jedis.sunion("inter1", "inter2"));
     }
@@ -294,6 +309,7 @@ public class SetUsage {
      * redis>
      */
     @Test
+    @Seed("SADD souce a b")
     public void set_scard() {
         System.out.println(jedis.scard("souce"));
     }
@@ -347,6 +363,7 @@ public class SetUsage {
      * redis>
      */
     @Test
+    @Seed("SADD m one two three")
     public void set_randommember() {
         System.out.println(jedis.srandmember("m"));
         System.out.println(jedis.srandmember("m"));
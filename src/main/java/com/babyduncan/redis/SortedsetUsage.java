@@ -1,5 +1,9 @@
 package com.babyduncan.redis;
 
+import com.babyduncan.redis.fixture.RedisFixture;
+import com.babyduncan.redis.fixture.Seed;
+import org.junit.Before;
+import org.junit.Rule;
 import org.junit.Test;
 import redis.clients.jedis.Jedis;
 
@@ -14,6 +18,7 @@ import java.util.TreeSet;
 public class SortedsetUsage {
 
     //首先测试一下java的sortedset
+    //TreeSet求不了O(log n)的名次，jvm里要按名次/分数区间查见 com.babyduncan.redis.client.LocalSortedSet（带span的跳表）
     @Test
     public void testSortedset() {
         SortedSet<String> set = new TreeSet<String>();
@@ -24,7 +29,15 @@ public class SortedsetUsage {
         System.out.println(Math.E);
     }
 
-    Jedis jedis = new Jedis("localhost");
+    @Rule
+    public final RedisFixture redis = new RedisFixture();
+
+    Jedis jedis;
+
+    @Before
+    public void borrowJedis() {
+        jedis = redis.jedis();
+    }
 
     /**
      * Available since 1.2.0.
@@ -89,6 +102,7 @@ public class SortedsetUsage {
      * redis>
      */
     @Test
+    @Seed("ZADD myzset 1 aaa 1.5 bbb 2 ccc")
     public void zrem() {
         jedis.zrem("myzset", "aaa");
         System.out.println(jedis.zrange("myzset", 0, -1));
@@ -115,7 +129,9 @@ public class SortedsetUsage {
      * 4) "3"
      * redis>
      */
+    //高频加分的排行榜（本地合并增量、pipeline批量ZINCRBY、缓存前N名）见 com.babyduncan.redis.client.Leaderboard
     @Test
+    @Seed("ZADD myzset 1.5 bbb 2 ccc")
     public void zincrby() {
         System.out.println(jedis.zrange("myzset", 0, -1));
         jedis.zincrby("myzset", 10, "bbb");
@@ -147,6 +163,7 @@ public class SortedsetUsage {
      * and zrevrange as zrange ,you will kown it .
      */
     @Test
+    @Seed("ZADD myzset 2 ccc 10.1 asdsad 11.5 bbb")
     public void zrank() {
         System.out.println(jedis.zrange("myzset", 0, -1));
         System.out.println(jedis.zrank("myzset", "asdsad"));
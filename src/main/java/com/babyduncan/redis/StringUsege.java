@@ -6,17 +6,31 @@ package com.babyduncan.redis;
  * Time: 14:13
  */
 
+import com.babyduncan.redis.client.Bitmaps;
+import com.babyduncan.redis.fixture.RedisFixture;
+import com.babyduncan.redis.fixture.Seed;
 import org.junit.Assert;
+import org.junit.Before;
+import org.junit.Rule;
 import org.junit.Test;
 import redis.clients.jedis.Jedis;
 
 import java.util.List;
+import java.util.concurrent.TimeUnit;
 
 /**
  * 对String类型的操作
  */
 public class StringUsege {
-    Jedis jedis = new Jedis("localhost", 6379);
+    @Rule
+    public final RedisFixture redis = new RedisFixture();
+
+    Jedis jedis;
+
+    @Before
+    public void borrowJedis() {
+        jedis = redis.jedis();
+    }
 
     //String 的set操作
 
@@ -95,7 +109,8 @@ public class StringUsege {
     public void string_setex() throws InterruptedException {
         jedis.setex("babyduncan", 3, "guohaozhao");
         System.out.println(jedis.get("babyduncan"));
-        Thread.sleep(10000);
+        //进程内的server直接把时钟往前拨3秒，不用真的sleep；连真实redis的时候才会sleep
+        redis.advanceTime(3, TimeUnit.SECONDS);
         System.out.println(jedis.get("babyduncan"));
         Assert.assertNull(jedis.get("babyduncan"));
     }
@@ -306,6 +321,7 @@ public class StringUsege {
      * redis>
      */
     @Test
+    @Seed({"SET foo bar", "SET hello \"hell myfriends,I love you !\""})
     public void string_mget() {
         List<String> l = jedis.mget("foo", "hello", "notakey");
         for (String s : l) {
@@ -356,6 +372,7 @@ public class StringUsege {
      * redis>
      */
     @Test
+    @Seed("SET num 10")
     public void string_incrby() {
         int i = Integer.parseInt(jedis.get("num"));
         System.out.println(i);
@@ -611,11 +628,19 @@ public class StringUsege {
 
     @Test
     public void string_bitcount() {
+        jedis.del("c");
         jedis.setbit("c", 0, true);
         jedis.setbit("c", 20, true);
 //        Assert.assertEquals(2, jedis.bitcount("c"));
         //目前客户端暂不支持。ver 2.4
-
+        //用Bitmaps在客户端算：GETRANGE分段取回来本地数
+        Bitmaps bitmaps = new Bitmaps(redis.connections());
+        try {
+            Assert.assertEquals(2, bitmaps.bitcount("c"));
+            Assert.assertEquals(1, bitmaps.bitcount("c", 0, 0));
+        } finally {
+            bitmaps.close();
+        }
     }
 
 
@@ -668,4 +693,24 @@ public class StringUsege {
      redis> GETBIT and-result 3
      (integer) 1
      */
+    @Test
+    public void string_bitop() {
+        jedis.del("bits-1", "bits-2", "and-result");
+        jedis.setbit("bits-1", 0, true);
+        jedis.setbit("bits-1", 3, true);
+        jedis.setbit("bits-2", 0, true);
+        jedis.setbit("bits-2", 1, true);
+        jedis.setbit("bits-2", 3, true);
+        //客户端同样不支持BITOP，用Bitmaps
+        Bitmaps bitmaps = new Bitmaps(redis.connections());
+        try {
+            Assert.assertEquals(1, bitmaps.bitop(Bitmaps.Op.AND, "and-result", "bits-1", "bits-2"));
+        } finally {
+            bitmaps.close();
+        }
+        Assert.assertTrue(jedis.getbit("and-result", 0));
+        Assert.assertFalse(jedis.getbit("and-result", 1));
+        Assert.assertFalse(jedis.getbit("and-result", 2));
+        Assert.assertTrue(jedis.getbit("and-result", 3));
+    }
 }
@@ -0,0 +1,75 @@
+package com.babyduncan.redis.client;
+
+import java.nio.charset.StandardCharsets;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * User: zgh
+ * Date: 26-10-18
+ * Time: 18:58
+ */
+
+/**
+ * key的UTF-8编码缓存：String重载每次调用都要getBytes一遍，常用的key编码一次以后反复用。
+ * <p/>
+ * 缓存满了（maxEntries）以后新的key照常编码但不再放进来，所以只适合key集合有限的场景
+ * （固定的key、按前缀拼出来的少量key）；每次都不一样的key直接用{@link #encode(String)}。
+ * 返回的数组是共享的，调用方不能改。
+ */
+public final class BinaryKeys {
+    public static final int DEFAULT_MAX_ENTRIES = 65536;
+
+    private static final BinaryKeys SHARED = new BinaryKeys(DEFAULT_MAX_ENTRIES);
+
+    private final ConcurrentHashMap<String, byte[]> cache = new ConcurrentHashMap<String, byte[]>();
+    private final int maxEntries;
+
+    public BinaryKeys(int maxEntries) {
+        this.maxEntries = maxEntries;
+    }
+
+    public static BinaryKeys shared() {
+        return SHARED;
+    }
+
+    /**
+     * 等价于 BinaryKeys.shared().get(key)。
+     */
+    public static byte[] key(String key) {
+        return SHARED.get(key);
+    }
+
+    public static byte[] encode(String key) {
+        return key.getBytes(StandardCharsets.UTF_8);
+    }
+
+    public byte[] get(String key) {
+        byte[] bytes = cache.get(key);
+        if (bytes == null) {
+            bytes = encode(key);
+            if (cache.size() < maxEntries) {
+                byte[] raced = cache.putIfAbsent(key, bytes);
+                if (raced != null) {
+                    bytes = raced;
+                }
+            }
+        }
+        return bytes;
+    }
+
+    public byte[][] get(String... keys) {
+        byte[][] bytes = new byte[keys.length][];
+        for (int i = 0; i < keys.length; i++) {
+            bytes[i] = get(keys[i]);
+        }
+        return bytes;
+    }
+
+    public int size() {
+        return cache.size();
+    }
+
+    public void clear() {
+        cache.clear();
+    }
+}
@@ -0,0 +1,216 @@
+package com.babyduncan.redis.client;
+
+import redis.clients.jedis.Tuple;
+
+import java.nio.ByteBuffer;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+/**
+ * User: zgh
+ * Date: 26-10-18
+ * Time: 19:06
+ */
+
+/**
+ * Usage类里用到的命令的byte[]版本。
+ * <p/>
+ * Jedis的String重载每次都要把key和value按UTF-8编码，回复再解码成新的String；
+ * 存的是protobuf之类的二进制数据或者计数器的时候这些都是白花的。
+ * 这里key用{@link BinaryKeys}编好缓存起来的byte[]，value直接是byte[]/ByteBuffer或者走{@link ValueCodec}，
+ * 回复原样返回byte[]，要String的用{@link LazyValue}到时候再解码。
+ * <p/>
+ * 注意：hgetAll/smembers之类返回的Map&lt;byte[],byte[]&gt;和Set&lt;byte[]&gt;按数组引用比较，不能拿另一个byte[]去contains/get。
+ */
+public final class BinaryRedis {
+    private final RedisConnections connections;
+
+    public BinaryRedis(RedisConnections connections) {
+        this.connections = connections;
+    }
+
+    // ---------- string
+
+    public byte[] get(final byte[] key) {
+        return connections.execute(jedis -> jedis.get(key));
+    }
+
+    public LazyValue getLazy(byte[] key) {
+        return LazyValue.of(get(key));
+    }
+
+    public <T> T get(byte[] key, ValueCodec<T> codec) {
+        byte[] bytes = get(key);
+        return bytes == null ? null : codec.decode(bytes);
+    }
+
+    public String set(final byte[] key, final byte[] value) {
+        return connections.execute(jedis -> jedis.set(key, value));
+    }
+
+    public String set(byte[] key, ByteBuffer value) {
+        return set(key, Codecs.toBytes(value));
+    }
+
+    public <T> String set(byte[] key, T value, ValueCodec<T> codec) {
+        return set(key, codec.encode(value));
+    }
+
+    public String setex(final byte[] key, final int seconds, final byte[] value) {
+        return connections.execute(jedis -> jedis.setex(key, seconds, value));
+    }
+
+    public List<byte[]> mget(final byte[]... keys) {
+        return connections.execute(jedis -> jedis.mget(keys));
+    }
+
+    public <T> List<T> mget(ValueCodec<T> codec, byte[]... keys) {
+        List<byte[]> raw = mget(keys);
+        List<T> result = new ArrayList<T>(raw.size());
+        for (byte[] bytes : raw) {
+            result.add(bytes == null ? null : codec.decode(bytes));
+        }
+        return result;
+    }
+
+    /**
+     * MSET k1 v1 k2 v2 ...
+     */
+    public String mset(final byte[]... keysAndValues) {
+        return connections.execute(jedis -> jedis.mset(keysAndValues));
+    }
+
+    public Long incrBy(final byte[] key, final long by) {
+        return connections.execute(jedis -> jedis.incrBy(key, by));
+    }
+
+    public Long append(final byte[] key, final byte[] value) {
+        return connections.execute(jedis -> jedis.append(key, value));
+    }
+
+    public Long del(final byte[]... keys) {
+        return connections.execute(jedis -> jedis.del(keys));
+    }
+
+    public Long expire(final byte[] key, final int seconds) {
+        return connections.execute(jedis -> jedis.expire(key, seconds));
+    }
+
+    // ---------- hash
+
+    public Long hset(final byte[] key, final byte[] field, final byte[] value) {
+        return connections.execute(jedis -> jedis.hset(key, field, value));
+    }
+
+    public byte[] hget(final byte[] key, final byte[] field) {
+        return connections.execute(jedis -> jedis.hget(key, field));
+    }
+
+    public <T> T hget(byte[] key, byte[] field, ValueCodec<T> codec) {
+        byte[] bytes = hget(key, field);
+        return bytes == null ? null : codec.decode(bytes);
+    }
+
+    public <T> Long hset(byte[] key, byte[] field, T value, ValueCodec<T> codec) {
+        return hset(key, field, codec.encode(value));
+    }
+
+    public String hmset(final byte[] key, final Map<byte[], byte[]> hash) {
+        return connections.execute(jedis -> jedis.hmset(key, hash));
+    }
+
+    public List<byte[]> hmget(final byte[] key, final byte[]... fields) {
+        return connections.execute(jedis -> jedis.hmget(key, fields));
+    }
+
+    public Map<byte[], byte[]> hgetAll(final byte[] key) {
+        return connections.execute(jedis -> jedis.hgetAll(key));
+    }
+
+    public Long hdel(final byte[] key, final byte[]... fields) {
+        return connections.execute(jedis -> jedis.hdel(key, fields));
+    }
+
+    // ---------- list
+
+    public Long lpush(final byte[] key, final byte[]... values) {
+        return connections.execute(jedis -> jedis.lpush(key, values));
+    }
+
+    public Long rpush(final byte[] key, final byte[]... values) {
+        return connections.execute(jedis -> jedis.rpush(key, values));
+    }
+
+    public byte[] lpop(final byte[] key) {
+        return connections.execute(jedis -> jedis.lpop(key));
+    }
+
+    public byte[] rpop(final byte[] key) {
+        return connections.execute(jedis -> jedis.rpop(key));
+    }
+
+    public List<byte[]> lrange(final byte[] key, final int start, final int end) {
+        return connections.execute(jedis -> jedis.lrange(key, start, end));
+    }
+
+    public Long llen(final byte[] key) {
+        return connections.execute(jedis -> jedis.llen(key));
+    }
+
+    // ---------- set
+
+    public Long sadd(final byte[] key, final byte[]... members) {
+        return connections.execute(jedis -> jedis.sadd(key, members));
+    }
+
+    public Long srem(final byte[] key, final byte[]... members) {
+        return connections.execute(jedis -> jedis.srem(key, members));
+    }
+
+    public Set<byte[]> smembers(final byte[] key) {
+        return connections.execute(jedis -> jedis.smembers(key));
+    }
+
+    public Boolean sismember(final byte[] key, final byte[] member) {
+        return connections.execute(jedis -> jedis.sismember(key, member));
+    }
+
+    public Set<byte[]> sinter(final byte[]... keys) {
+        return connections.execute(jedis -> jedis.sinter(keys));
+    }
+
+    // ---------- sorted set
+
+    public Long zadd(final byte[] key, final double score, final byte[] member) {
+        return connections.execute(jedis -> jedis.zadd(key, score, member));
+    }
+
+    public Double zincrby(final byte[] key, final double by, final byte[] member) {
+        return connections.execute(jedis -> jedis.zincrby(key, by, member));
+    }
+
+    public Double zscore(final byte[] key, final byte[] member) {
+        return connections.execute(jedis -> jedis.zscore(key, member));
+    }
+
+    public Long zrank(final byte[] key, final byte[] member) {
+        return connections.execute(jedis -> jedis.zrank(key, member));
+    }
+
+    public Set<byte[]> zrange(final byte[] key, final int start, final int end) {
+        return connections.execute(jedis -> jedis.zrange(key, start, end));
+    }
+
+    public Set<byte[]> zrevrange(final byte[] key, final int start, final int end) {
+        return connections.execute(jedis -> jedis.zrevrange(key, start, end));
+    }
+
+    /**
+     * Tuple里member本来就是byte[]，getElement()才会解码。
+     */
+    public Set<Tuple> zrangeWithScores(final byte[] key, final int start, final int end) {
+        return connections.execute(jedis -> jedis.zrangeWithScores(key, start, end));
+    }
+}
@@ -0,0 +1,275 @@
+package com.babyduncan.redis.client;
+
+import redis.clients.jedis.Client;
+import redis.clients.jedis.Pipeline;
+import redis.clients.jedis.Response;
+import redis.clients.jedis.exceptions.JedisDataException;
+
+import java.io.Closeable;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.UUID;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.RecursiveTask;
+
+/**
+ * User: zgh
+ * Date: 26-10-18
+ * Time: 20:40
+ */
+
+/**
+ * 客户端实现的BITCOUNT/BITOP，jedis 2.1.0没有这两个命令（服务端要2.6以上）。
+ * <p/>
+ * 按chunkBytes把字符串切成若干段，每段用GETRANGE从每个源key取回来，在本地做AND/OR/XOR/NOT，
+ * 再按8字节一个long用Long.bitCount数1的个数。
+ * 各段放在一个ForkJoinPool里并行处理，每段各自借连接、各自pipeline取所有源key，
+ * 任何时候内存里只有 并行度 x 段大小 x key个数 的数据，几十MB的bitmap也不用整个拉到本地。
+ * <p/>
+ * 写回时先按段SETRANGE到一个临时key，全部写完再RENAME成目标key，读的人看不到写了一半的结果。
+ * 和redis一样，长度不同的key短的部分按0处理，结果长度是最长的那个；NOT只接受一个key。
+ */
+public final class Bitmaps implements Closeable {
+    public static final int DEFAULT_CHUNK_BYTES = 64 * 1024;
+    public static final int DEFAULT_PARALLELISM = 4;
+
+    public enum Op {
+        AND, OR, XOR, NOT
+    }
+
+    private final RedisConnections connections;
+    private final int chunkBytes;
+    private final ForkJoinPool pool;
+
+    public Bitmaps(RedisConnections connections) {
+        this(connections, DEFAULT_CHUNK_BYTES, DEFAULT_PARALLELISM);
+    }
+
+    public Bitmaps(RedisConnections connections, int chunkBytes, int parallelism) {
+        if (chunkBytes <= 0 || chunkBytes % 8 != 0) {
+            throw new IllegalArgumentException("chunkBytes must be a positive multiple of 8: " + chunkBytes);
+        }
+        this.connections = connections;
+        this.chunkBytes = chunkBytes;
+        this.pool = new ForkJoinPool(parallelism);
+    }
+
+    /**
+     * BITCOUNT key
+     */
+    public long bitcount(String key) {
+        return bitcount(key, 0, -1);
+    }
+
+    /**
+     * BITCOUNT key start end，start/end是字节下标，可以是负数，和GETRANGE一样。
+     */
+    public long bitcount(String key, long start, long end) {
+        byte[][] keys = {BinaryKeys.encode(key)};
+        long length = strlen(keys)[0];
+        if (start < 0) {
+            start = Math.max(0, length + start);
+        }
+        if (end < 0) {
+            // 和redis一样，超出开头的负数end算到第0个字节
+            end = Math.max(0, length + end);
+        }
+        end = Math.min(end, length - 1);
+        if (start > end) {
+            return 0;
+        }
+        return pool.invoke(new ChunkTask(null, keys, null, start, end + 1));
+    }
+
+    /**
+     * BITOP op destKey key [key ...]，返回结果的字节数；结果为空时删掉destKey。
+     */
+    public long bitop(Op op, String destKey, String... keys) {
+        byte[][] sources = encode(op, keys);
+        long length = resultLength(sources);
+        final byte[] dest = BinaryKeys.encode(destKey);
+        if (length == 0) {
+            connections.execute(jedis -> jedis.del(dest));
+            return 0;
+        }
+        final byte[] tmp = BinaryKeys.encode(destKey + ":bitop:" + UUID.randomUUID());
+        try {
+            pool.invoke(new ChunkTask(op, sources, tmp, 0, length));
+            connections.execute(jedis -> jedis.rename(tmp, dest));
+        } catch (RuntimeException e) {
+            connections.execute(jedis -> jedis.del(tmp));
+            throw e;
+        }
+        return length;
+    }
+
+    /**
+     * 只算BITOP结果里1的个数，不写回，比如“连续七天都活跃的用户数”。
+     */
+    public long bitopCount(Op op, String... keys) {
+        byte[][] sources = encode(op, keys);
+        long length = resultLength(sources);
+        return length == 0 ? 0 : pool.invoke(new ChunkTask(op, sources, null, 0, length));
+    }
+
+    public void close() {
+        pool.shutdown();
+    }
+
+    private static byte[][] encode(Op op, String[] keys) {
+        if (keys.length == 0 || (op == Op.NOT && keys.length != 1)) {
+            throw new IllegalArgumentException(op == Op.NOT ? "BITOP NOT takes exactly one key" : "no source keys");
+        }
+        byte[][] encoded = new byte[keys.length][];
+        for (int i = 0; i < keys.length; i++) {
+            encoded[i] = BinaryKeys.encode(keys[i]);
+        }
+        return encoded;
+    }
+
+    private long resultLength(byte[][] keys) {
+        long max = 0;
+        for (long l : strlen(keys)) {
+            max = Math.max(max, l);
+        }
+        return max;
+    }
+
+    private long[] strlen(final byte[][] keys) {
+        List<Response<Long>> responses = connections.execute(jedis -> {
+            Pipeline p = jedis.pipelined();
+            List<Response<Long>> r = new ArrayList<Response<Long>>(keys.length);
+            for (byte[] key : keys) {
+                r.add(p.strlen(key));
+            }
+            p.sync();
+            return r;
+        });
+        long[] lengths = new long[keys.length];
+        for (int i = 0; i < lengths.length; i++) {
+            lengths[i] = responses.get(i).get();
+        }
+        return lengths;
+    }
+
+    /**
+     * bytes[from, to)里1的个数，8字节一组拼成long用Long.bitCount，不分配内存。
+     */
+    public static long popcount(byte[] bytes, int from, int to) {
+        long count = 0;
+        int i = from;
+        for (; i + 8 <= to; i += 8) {
+            long word = (bytes[i] & 0xffL)
+                    | (bytes[i + 1] & 0xffL) << 8
+                    | (bytes[i + 2] & 0xffL) << 16
+                    | (bytes[i + 3] & 0xffL) << 24
+                    | (bytes[i + 4] & 0xffL) << 32
+                    | (bytes[i + 5] & 0xffL) << 40
+                    | (bytes[i + 6] & 0xffL) << 48
+                    | (bytes[i + 7] & 0xffL) << 56;
+            count += Long.bitCount(word);
+        }
+        for (; i < to; i++) {
+            count += Integer.bitCount(bytes[i] & 0xff);
+        }
+        return count;
+    }
+
+    /**
+     * 处理[from, to)这段字节：比chunkBytes大就对半拆开，否则取回各个key的这一段、合并、计数/写回。
+     * 返回这段结果里1的个数。
+     */
+    private final class ChunkTask extends RecursiveTask<Long> {
+        private final Op op;
+        private final byte[][] keys;
+        private final byte[] dest;
+        private final long from;
+        private final long to;
+
+        ChunkTask(Op op, byte[][] keys, byte[] dest, long from, long to) {
+            this.op = op;
+            this.keys = keys;
+            this.dest = dest;
+            this.from = from;
+            this.to = to;
+        }
+
+        @Override
+        protected Long compute() {
+            if (to - from > chunkBytes) {
+                long chunks = (to - from + chunkBytes - 1) / chunkBytes;
+                long mid = from + chunks / 2 * chunkBytes;
+                ChunkTask right = new ChunkTask(op, keys, dest, mid, to);
+                right.fork();
+                long left = new ChunkTask(op, keys, dest, from, mid).compute();
+                return left + right.join();
+            }
+            return processChunk();
+        }
+
+        private long processChunk() {
+            final int length = (int) (to - from);
+            List<byte[]> parts = connections.execute(jedis -> {
+                // Pipeline.getrange/substr会把回复解码成String，二进制数据就坏了，所以直接用Client发命令、按byte[]读回复
+                Client client = jedis.getClient();
+                for (byte[] key : keys) {
+                    client.getrange(key, from, to - 1);
+                }
+                List<byte[]> bytes = new ArrayList<byte[]>(keys.length);
+                JedisDataException error = null;
+                for (int i = 0; i < keys.length; i++) {
+                    // 出错（比如WRONGTYPE）也要把剩下的回复读完，连接才能还回池里
+                    try {
+                        bytes.add(client.getBinaryBulkReply());
+                    } catch (JedisDataException e) {
+                        error = error == null ? e : error;
+                    }
+                }
+                if (error != null) {
+                    throw error;
+                }
+                return bytes;
+            });
+            final byte[] result = combine(parts, length);
+            if (dest != null) {
+                connections.execute(jedis -> jedis.setrange(dest, from, result));
+            }
+            return popcount(result, 0, result.length);
+        }
+
+        private byte[] combine(List<byte[]> parts, int length) {
+            byte[] first = parts.get(0);
+            if (op == null) {
+                return first;
+            }
+            byte[] result = first.length == length ? first : Arrays.copyOf(first, length);
+            if (op == Op.NOT) {
+                for (int i = 0; i < length; i++) {
+                    result[i] = (byte) ~result[i];
+                }
+                return result;
+            }
+            for (int k = 1; k < parts.size(); k++) {
+                byte[] part = parts.get(k);
+                int n = Math.min(part.length, length);
+                if (op == Op.AND) {
+                    for (int i = 0; i < n; i++) {
+                        result[i] &= part[i];
+                    }
+                    // 短的部分按0处理
+                    Arrays.fill(result, n, length, (byte) 0);
+                } else if (op == Op.OR) {
+                    for (int i = 0; i < n; i++) {
+                        result[i] |= part[i];
+                    }
+                } else {
+                    for (int i = 0; i < n; i++) {
+                        result[i] ^= part[i];
+                    }
+                }
+            }
+            return result;
+        }
+    }
+}
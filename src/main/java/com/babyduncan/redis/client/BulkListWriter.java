@@ -0,0 +1,140 @@
+package com.babyduncan.redis.client;
+
+import redis.clients.jedis.Jedis;
+import redis.clients.jedis.Pipeline;
+import redis.clients.jedis.Response;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Iterator;
+import java.util.List;
+import java.util.stream.Stream;
+
+/**
+ * User: zgh
+ * Date: 26-10-18
+ * Time: 15:52
+ */
+
+/**
+ * 往list里批量push。
+ * <p/>
+ * ListUsage里是一个元素一次LPUSH/RPUSH，每个元素都要等一个来回，元素一多时间全花在网络上。
+ * 这里把values按chunkSize切块，每块在一个Pipeline里发出去再sync一次，一块只等一个来回。
+ * 每块sync完回调一次{@link ChunkListener}（块序号、块大小、push完以后list的长度），
+ * 最后返回{@link Result}，里面有每块的ack和list的最终长度。
+ * <p/>
+ * 块和块之间不是原子的：中途失败的话前面的块已经写进去了，从Result/ChunkListener能知道写到了哪儿。
+ */
+public final class BulkListWriter {
+    public static final int DEFAULT_CHUNK_SIZE = 512;
+
+    public enum Side {
+        LEFT, RIGHT
+    }
+
+    /**
+     * 每块push完的确认。
+     */
+    public interface ChunkListener {
+        void onChunk(int chunk, int size, long lengthAfter);
+    }
+
+    private final RedisConnections connections;
+    private final int chunkSize;
+
+    public BulkListWriter(RedisConnections connections) {
+        this(connections, DEFAULT_CHUNK_SIZE);
+    }
+
+    public BulkListWriter(RedisConnections connections, int chunkSize) {
+        if (chunkSize <= 0) {
+            throw new IllegalArgumentException("chunkSize must be positive: " + chunkSize);
+        }
+        this.connections = connections;
+        this.chunkSize = chunkSize;
+    }
+
+    public int getChunkSize() {
+        return chunkSize;
+    }
+
+    public Result lpush(String key, Iterable<String> values) {
+        return push(key, Side.LEFT, values, null);
+    }
+
+    public Result rpush(String key, Iterable<String> values) {
+        return push(key, Side.RIGHT, values, null);
+    }
+
+    public Result push(String key, Side side, Stream<String> values, ChunkListener listener) {
+        return push(key, side, values::iterator, listener);
+    }
+
+    public Result push(final String key, final Side side, final Iterable<String> values, final ChunkListener listener) {
+        return connections.execute(jedis -> write(jedis, key, side, values.iterator(), listener));
+    }
+
+    private Result write(Jedis jedis, String key, Side side, Iterator<String> it, ChunkListener listener) {
+        List<Long> acks = new ArrayList<Long>();
+        long pushed = 0;
+        List<Response<Long>> responses = new ArrayList<Response<Long>>(chunkSize);
+        while (it.hasNext()) {
+            Pipeline pipeline = jedis.pipelined();
+            responses.clear();
+            while (it.hasNext() && responses.size() < chunkSize) {
+                String value = it.next();
+                responses.add(side == Side.LEFT ? pipeline.lpush(key, value) : pipeline.rpush(key, value));
+            }
+            pipeline.sync();
+            // get()会把服务端的错误（比如WRONGTYPE）抛出来，最后一个回复就是这块写完后的长度
+            long length = 0;
+            for (Response<Long> r : responses) {
+                length = r.get();
+            }
+            pushed += responses.size();
+            acks.add(length);
+            if (listener != null) {
+                listener.onChunk(acks.size() - 1, responses.size(), length);
+            }
+        }
+        long finalLength = acks.isEmpty() ? jedis.llen(key) : acks.get(acks.size() - 1);
+        return new Result(pushed, finalLength, acks);
+    }
+
+    public static final class Result {
+        private final long pushed;
+        private final long finalLength;
+        private final List<Long> chunkLengths;
+
+        Result(long pushed, long finalLength, List<Long> chunkLengths) {
+            this.pushed = pushed;
+            this.finalLength = finalLength;
+            this.chunkLengths = Collections.unmodifiableList(chunkLengths);
+        }
+
+        public long getPushed() {
+            return pushed;
+        }
+
+        public int getChunks() {
+            return chunkLengths.size();
+        }
+
+        /**
+         * 每块push完以后list的长度，下标就是块序号。
+         */
+        public List<Long> getChunkLengths() {
+            return chunkLengths;
+        }
+
+        public long getFinalLength() {
+            return finalLength;
+        }
+
+        @Override
+        public String toString() {
+            return "Result{pushed=" + pushed + ", chunks=" + chunkLengths.size() + ", finalLength=" + finalLength + "}";
+        }
+    }
+}
@@ -0,0 +1,126 @@
+package com.babyduncan.redis.client;
+
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+
+/**
+ * User: zgh
+ * Date: 26-10-18
+ * Time: 18:52
+ */
+
+/**
+ * 内置的几个{@link ValueCodec}。
+ */
+public final class Codecs {
+
+    private Codecs() {
+    }
+
+    /**
+     * 原样存取，不做任何拷贝。
+     */
+    public static final ValueCodec<byte[]> BYTES = new ValueCodec<byte[]>() {
+        public byte[] encode(byte[] value) {
+            return value;
+        }
+
+        public byte[] decode(byte[] bytes) {
+            return bytes;
+        }
+    };
+
+    public static final ValueCodec<String> UTF8 = new ValueCodec<String>() {
+        public byte[] encode(String value) {
+            return value.getBytes(StandardCharsets.UTF_8);
+        }
+
+        public String decode(byte[] bytes) {
+            return new String(bytes, StandardCharsets.UTF_8);
+        }
+    };
+
+    /**
+     * 和redis自己一样存成十进制ASCII，INCR/INCRBY能直接用；编解码都不经过String。
+     */
+    public static final ValueCodec<Long> LONG = new ValueCodec<Long>() {
+        public byte[] encode(Long value) {
+            return encodeLong(value);
+        }
+
+        public Long decode(byte[] bytes) {
+            return parseLong(bytes);
+        }
+    };
+
+    /**
+     * 编码时缓冲区刚好是整个底层数组就直接用，否则拷一份remaining()字节；解码是wrap，不拷贝。
+     */
+    public static final ValueCodec<ByteBuffer> BYTE_BUFFER = new ValueCodec<ByteBuffer>() {
+        public byte[] encode(ByteBuffer value) {
+            return toBytes(value);
+        }
+
+        public ByteBuffer decode(byte[] bytes) {
+            return ByteBuffer.wrap(bytes);
+        }
+    };
+
+    static byte[] toBytes(ByteBuffer buffer) {
+        if (buffer.hasArray() && buffer.arrayOffset() == 0 && buffer.position() == 0
+                && buffer.remaining() == buffer.array().length) {
+            return buffer.array();
+        }
+        byte[] bytes = new byte[buffer.remaining()];
+        buffer.duplicate().get(bytes);
+        return bytes;
+    }
+
+    public static byte[] encodeLong(long value) {
+        if (value == Long.MIN_VALUE) {
+            return "-9223372036854775808".getBytes(StandardCharsets.US_ASCII);
+        }
+        boolean negative = value < 0;
+        long v = negative ? -value : value;
+        int digits = 1;
+        for (long t = v; t >= 10; t /= 10) {
+            digits++;
+        }
+        byte[] bytes = new byte[digits + (negative ? 1 : 0)];
+        for (int i = bytes.length - 1; i >= (negative ? 1 : 0); i--) {
+            bytes[i] = (byte) ('0' + v % 10);
+            v /= 10;
+        }
+        if (negative) {
+            bytes[0] = '-';
+        }
+        return bytes;
+    }
+
+    public static long parseLong(byte[] bytes) {
+        if (bytes.length == 0) {
+            throw new NumberFormatException("empty value");
+        }
+        boolean negative = bytes[0] == '-';
+        int i = negative || bytes[0] == '+' ? 1 : 0;
+        if (i == bytes.length) {
+            throw new NumberFormatException("not a number");
+        }
+        // 按负数累加，这样Long.MIN_VALUE也能表示
+        long result = 0;
+        for (; i < bytes.length; i++) {
+            int d = bytes[i] - '0';
+            if (d < 0 || d > 9 || result < (Long.MIN_VALUE + d) / 10) {
+                throw new NumberFormatException("not a long: " + new String(bytes, StandardCharsets.ISO_8859_1));
+            }
+            result = result * 10 - d;
+        }
+        if (!negative) {
+            if (result == Long.MIN_VALUE) {
+                throw new NumberFormatException("not a long: " + new String(bytes, StandardCharsets.ISO_8859_1));
+            }
+            result = -result;
+        }
+        return result;
+    }
+}
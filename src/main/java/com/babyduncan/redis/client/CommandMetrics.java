@@ -0,0 +1,147 @@
+package com.babyduncan.redis.client;
+
+import javax.management.InstanceAlreadyExistsException;
+import javax.management.InstanceNotFoundException;
+import javax.management.JMException;
+import javax.management.MBeanServer;
+import javax.management.ObjectName;
+import java.lang.management.ManagementFactory;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+
+/**
+ * User: zgh
+ * Date: 26-10-18
+ * Time: 09:25
+ */
+
+/**
+ * 按命令名（GET、HGETALL、LRANGE、SINTER……）分开的统计，{@link InstrumentedJedis}往里记。
+ * <pre>
+ * CommandMetrics metrics = new CommandMetrics("orders").registerMBeans();
+ * RedisConnections connections = RedisConnections.builder().metrics(metrics).build();
+ * ...
+ * for (CommandStats.Snapshot s : metrics.snapshotAndReset().values()) {
+ *     log.info(s);   // 每分钟拉一次，看每个命令这一分钟的p99.9
+ * }
+ * </pre>
+ * registerMBeans之后每个命令一个MBean：com.babyduncan.redis:type=CommandStats,client=orders,command=HGETALL，
+ * 后面新出现的命令也会自动注册。
+ */
+public final class CommandMetrics {
+    public static final String JMX_DOMAIN = "com.babyduncan.redis";
+
+    private final String name;
+    private final ConcurrentMap<String, CommandStats> commands = new ConcurrentHashMap<String, CommandStats>();
+    private volatile MBeanServer mbeanServer;
+
+    public CommandMetrics(String name) {
+        this.name = name;
+    }
+
+    public String getName() {
+        return name;
+    }
+
+    public CommandStats stats(String command) {
+        CommandStats stats = commands.get(command);
+        if (stats != null) {
+            return stats;
+        }
+        CommandStats created = new CommandStats(command);
+        stats = commands.putIfAbsent(command, created);
+        if (stats != null) {
+            return stats;
+        }
+        MBeanServer server = mbeanServer;
+        if (server != null) {
+            register(server, created);
+        }
+        return created;
+    }
+
+    void record(String command, long nanos, long requestBytes, long responseBytes, boolean error) {
+        stats(command).record(nanos, requestBytes, responseBytes, error);
+    }
+
+    /**
+     * 按命令名排好序的累计值。
+     */
+    public Map<String, CommandStats.Snapshot> snapshot() {
+        Map<String, CommandStats.Snapshot> result = new TreeMap<String, CommandStats.Snapshot>();
+        for (CommandStats stats : commands.values()) {
+            result.put(stats.getCommand(), stats.snapshot());
+        }
+        return result;
+    }
+
+    /**
+     * 上次调用以来的增量，给定时拉取的监控用。
+     */
+    public Map<String, CommandStats.Snapshot> snapshotAndReset() {
+        Map<String, CommandStats.Snapshot> result = new TreeMap<String, CommandStats.Snapshot>();
+        for (CommandStats stats : commands.values()) {
+            result.put(stats.getCommand(), stats.snapshotAndReset());
+        }
+        return result;
+    }
+
+    /**
+     * 所有命令的累计值清零，不影响{@link #snapshotAndReset()}的增量。
+     */
+    public void reset() {
+        for (CommandStats stats : commands.values()) {
+            stats.reset();
+        }
+    }
+
+    public CommandMetrics registerMBeans() {
+        return registerMBeans(ManagementFactory.getPlatformMBeanServer());
+    }
+
+    public synchronized CommandMetrics registerMBeans(MBeanServer server) {
+        mbeanServer = server;
+        for (CommandStats stats : commands.values()) {
+            register(server, stats);
+        }
+        return this;
+    }
+
+    public synchronized void unregisterMBeans() {
+        MBeanServer server = mbeanServer;
+        if (server == null) {
+            return;
+        }
+        mbeanServer = null;
+        for (CommandStats stats : commands.values()) {
+            try {
+                server.unregisterMBean(objectName(stats.getCommand()));
+            } catch (InstanceNotFoundException e) {
+                // 已经没了
+            } catch (JMException e) {
+                throw new IllegalStateException("can not unregister mbean for " + stats.getCommand(), e);
+            }
+        }
+    }
+
+    public ObjectName objectName(String command) {
+        try {
+            return new ObjectName(JMX_DOMAIN + ":type=CommandStats,client=" + ObjectName.quote(name)
+                    + ",command=" + command);
+        } catch (JMException e) {
+            throw new IllegalArgumentException("bad metrics name: " + name, e);
+        }
+    }
+
+    private void register(MBeanServer server, CommandStats stats) {
+        try {
+            server.registerMBean(stats, objectName(stats.getCommand()));
+        } catch (InstanceAlreadyExistsException e) {
+            // registerMBeans和新命令同时注册，已经有了就行
+        } catch (JMException e) {
+            throw new IllegalStateException("can not register mbean for " + stats.getCommand(), e);
+        }
+    }
+}
@@ -0,0 +1,172 @@
+package com.babyduncan.redis.client;
+
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * User: zgh
+ * Date: 26-10-18
+ * Time: 09:15
+ */
+
+/**
+ * 单个命令的调用次数、错误数、请求/响应字节数和延迟直方图，全部无锁，多个连接同时记录。
+ * <p/>
+ * JMX读到的是累计值；定时拉取用{@link #snapshotAndReset()}，每次拿到的是上次以来的增量，
+ * 拿增量算p99.9才看得出某一段时间变慢了，累计值会被之前大量正常的请求稀释。
+ * 累计和增量各记一份，拉增量不会把JMX上的数清零，JMX上reset也不影响下一次拉到的增量。
+ */
+public final class CommandStats implements CommandStatsMBean {
+    private final String command;
+    private final LatencyHistogram latency = new LatencyHistogram();
+    private final LongAdder calls = new LongAdder();
+    private final LongAdder errors = new LongAdder();
+    private final LongAdder requestBytes = new LongAdder();
+    private final LongAdder responseBytes = new LongAdder();
+    // snapshotAndReset()用的增量
+    private final LatencyHistogram intervalLatency = new LatencyHistogram();
+    private final LongAdder intervalCalls = new LongAdder();
+    private final LongAdder intervalErrors = new LongAdder();
+    private final LongAdder intervalRequestBytes = new LongAdder();
+    private final LongAdder intervalResponseBytes = new LongAdder();
+
+    CommandStats(String command) {
+        this.command = command;
+    }
+
+    void record(long nanos, long request, long response, boolean error) {
+        latency.record(nanos);
+        calls.increment();
+        requestBytes.add(request);
+        responseBytes.add(response);
+        intervalLatency.record(nanos);
+        intervalCalls.increment();
+        intervalRequestBytes.add(request);
+        intervalResponseBytes.add(response);
+        if (error) {
+            errors.increment();
+            intervalErrors.increment();
+        }
+    }
+
+    /**
+     * 从启动或者上次{@link #reset()}以来的累计值。
+     */
+    public Snapshot snapshot() {
+        return new Snapshot(command, calls.sum(), errors.sum(), requestBytes.sum(), responseBytes.sum(),
+                latency.snapshot());
+    }
+
+    /**
+     * 上次调用以来的增量，不影响累计值。
+     */
+    public Snapshot snapshotAndReset() {
+        return new Snapshot(command, intervalCalls.sumThenReset(), intervalErrors.sumThenReset(),
+                intervalRequestBytes.sumThenReset(), intervalResponseBytes.sumThenReset(),
+                intervalLatency.snapshotAndReset());
+    }
+
+    public String getCommand() {
+        return command;
+    }
+
+    public long getCalls() {
+        return calls.sum();
+    }
+
+    public long getErrors() {
+        return errors.sum();
+    }
+
+    public long getRequestBytes() {
+        return requestBytes.sum();
+    }
+
+    public long getResponseBytes() {
+        return responseBytes.sum();
+    }
+
+    public double getMeanMicros() {
+        return latency.snapshot().getMean() / 1e3;
+    }
+
+    public double getP50Micros() {
+        return latency.snapshot().getValueAtPercentile(50) / 1e3;
+    }
+
+    public double getP99Micros() {
+        return latency.snapshot().getValueAtPercentile(99) / 1e3;
+    }
+
+    public double getP999Micros() {
+        return latency.snapshot().getValueAtPercentile(99.9) / 1e3;
+    }
+
+    public double getMaxMicros() {
+        return latency.snapshot().getMax() / 1e3;
+    }
+
+    /**
+     * 累计值清零，不影响增量。
+     */
+    public void reset() {
+        calls.reset();
+        errors.reset();
+        requestBytes.reset();
+        responseBytes.reset();
+        latency.snapshotAndReset();
+    }
+
+    /**
+     * 某一时刻的统计，延迟单位纳秒。
+     */
+    public static final class Snapshot {
+        private final String command;
+        private final long calls;
+        private final long errors;
+        private final long requestBytes;
+        private final long responseBytes;
+        private final LatencyHistogram.Snapshot latency;
+
+        Snapshot(String command, long calls, long errors, long requestBytes, long responseBytes,
+                 LatencyHistogram.Snapshot latency) {
+            this.command = command;
+            this.calls = calls;
+            this.errors = errors;
+            this.requestBytes = requestBytes;
+            this.responseBytes = responseBytes;
+            this.latency = latency;
+        }
+
+        public String getCommand() {
+            return command;
+        }
+
+        public long getCalls() {
+            return calls;
+        }
+
+        public long getErrors() {
+            return errors;
+        }
+
+        public long getRequestBytes() {
+            return requestBytes;
+        }
+
+        public long getResponseBytes() {
+            return responseBytes;
+        }
+
+        public LatencyHistogram.Snapshot getLatency() {
+            return latency;
+        }
+
+        @Override
+        public String toString() {
+            return String.format("%-12s calls=%d errors=%d out=%dB in=%dB p50=%.1fus p99=%.1fus p99.9=%.1fus max=%.1fus",
+                    command, calls, errors, requestBytes, responseBytes,
+                    latency.getValueAtPercentile(50) / 1e3, latency.getValueAtPercentile(99) / 1e3,
+                    latency.getValueAtPercentile(99.9) / 1e3, latency.getMax() / 1e3);
+        }
+    }
+}
@@ -0,0 +1,35 @@
+package com.babyduncan.redis.client;
+
+/**
+ * User: zgh
+ * Date: 26-10-18
+ * Time: 09:10
+ */
+
+/**
+ * 一个命令的统计，通过JMX暴露（jconsole里在com.babyduncan.redis下面），延迟单位微秒，都是从启动或者上次reset以来的累计值，和CommandMetrics.snapshotAndReset()的增量互不影响。
+ */
+public interface CommandStatsMBean {
+
+    String getCommand();
+
+    long getCalls();
+
+    long getErrors();
+
+    long getRequestBytes();
+
+    long getResponseBytes();
+
+    double getMeanMicros();
+
+    double getP50Micros();
+
+    double getP99Micros();
+
+    double getP999Micros();
+
+    double getMaxMicros();
+
+    void reset();
+}
@@ -0,0 +1,268 @@
+package com.babyduncan.redis.client;
+
+import java.util.concurrent.atomic.LongAdder;
+import java.util.zip.DataFormatException;
+import java.util.zip.Deflater;
+import java.util.zip.Inflater;
+
+/**
+ * User: zgh
+ * Date: 26-10-18
+ * Time: 21:10
+ */
+
+/**
+ * 套在别的{@link ValueCodec}外面，值大于threshold字节就用Deflater压缩再存，读的时候自动解压：
+ * <pre>
+ * CompressingCodec&lt;String&gt; json = new CompressingCodec&lt;String&gt;(Codecs.UTF8);
+ * binary.set(key, blob, json);
+ * String back = binary.get(key, json);          // hget/mget同样传codec
+ * </pre>
+ * 存的格式看第一个字节：
+ * 0xC1 是压缩过的，后面4字节原始长度，再后面是raw deflate数据（没有zlib头和校验）；
+ * 0xC0 是转义，后面原样是值本身（只有值本身以0xC0/0xC1开头的时候才用）；
+ * 其他都是没压缩的原值。0xC0/0xC1在UTF-8里任何位置都不会出现，所以文本、JSON、数字原样存，
+ * 小的计数器照样能INCR，加这个codec之前存的值也能直接读。
+ * <p/>
+ * 压缩后省不下来（比原值还长）就存原值。每个线程一套Deflater/Inflater和输出缓冲区，反复使用，
+ * 热路径上只分配最终要交给jedis的那个byte[]。压缩比和编解码花的CPU时间在getXxx()里。
+ */
+public final class CompressingCodec<T> implements ValueCodec<T> {
+    public static final int DEFAULT_THRESHOLD = 1024;
+
+    static final byte COMPRESSED = (byte) 0xC1;
+    static final byte ESCAPED = (byte) 0xC0;
+    private static final int HEADER = 5;
+
+    private final ValueCodec<T> codec;
+    private final int threshold;
+    private final int level;
+    private final ThreadLocal<Workspace> workspaces;
+
+    private final LongAdder encoded = new LongAdder();
+    private final LongAdder compressed = new LongAdder();
+    private final LongAdder rawBytes = new LongAdder();
+    private final LongAdder storedBytes = new LongAdder();
+    private final LongAdder compressedRawBytes = new LongAdder();
+    private final LongAdder compressedStoredBytes = new LongAdder();
+    private final LongAdder encodeNanos = new LongAdder();
+    private final LongAdder decoded = new LongAdder();
+    private final LongAdder decompressed = new LongAdder();
+    private final LongAdder decodeNanos = new LongAdder();
+
+    public CompressingCodec(ValueCodec<T> codec) {
+        this(codec, DEFAULT_THRESHOLD, Deflater.BEST_SPEED);
+    }
+
+    /**
+     * @param level Deflater的压缩级别，默认BEST_SPEED，多数JSON已经能压到1/4以下
+     */
+    public CompressingCodec(ValueCodec<T> codec, int threshold, final int level) {
+        if (threshold < 0) {
+            throw new IllegalArgumentException("threshold must not be negative: " + threshold);
+        }
+        if (level < Deflater.BEST_SPEED || level > Deflater.BEST_COMPRESSION) {
+            throw new IllegalArgumentException("bad compression level: " + level);
+        }
+        this.codec = codec;
+        this.threshold = threshold;
+        this.level = level;
+        this.workspaces = ThreadLocal.withInitial(() -> new Workspace(level));
+    }
+
+    public int getThreshold() {
+        return threshold;
+    }
+
+    public int getLevel() {
+        return level;
+    }
+
+    public byte[] encode(T value) {
+        long start = System.nanoTime();
+        byte[] raw = codec.encode(value);
+        byte[] stored = raw.length >= threshold ? compress(raw) : null;
+        if (stored == null) {
+            stored = raw.length > 0 && (raw[0] == COMPRESSED || raw[0] == ESCAPED) ? escape(raw) : raw;
+        } else {
+            compressed.increment();
+            compressedRawBytes.add(raw.length);
+            compressedStoredBytes.add(stored.length);
+        }
+        encoded.increment();
+        rawBytes.add(raw.length);
+        storedBytes.add(stored.length);
+        encodeNanos.add(System.nanoTime() - start);
+        return stored;
+    }
+
+    public T decode(byte[] bytes) {
+        long start = System.nanoTime();
+        byte[] raw = bytes;
+        if (bytes.length > 0 && bytes[0] == COMPRESSED) {
+            raw = decompress(bytes);
+            decompressed.increment();
+        } else if (bytes.length > 0 && bytes[0] == ESCAPED) {
+            raw = new byte[bytes.length - 1];
+            System.arraycopy(bytes, 1, raw, 0, raw.length);
+        }
+        T value = codec.decode(raw);
+        decoded.increment();
+        decodeNanos.add(System.nanoTime() - start);
+        return value;
+    }
+
+    /**
+     * 压缩后没有变短就返回null。
+     */
+    private byte[] compress(byte[] raw) {
+        Workspace ws = workspaces.get();
+        byte[] out = ws.buffer(raw.length);
+        Deflater deflater = ws.deflater;
+        deflater.reset();
+        deflater.setInput(raw);
+        deflater.finish();
+        // 缓冲区只留到比原值短一个字节，写满了还没压完说明不划算，直接放弃
+        int limit = raw.length - 1;
+        int length = HEADER;
+        while (!deflater.finished() && length < limit) {
+            length += deflater.deflate(out, length, limit - length);
+        }
+        if (!deflater.finished()) {
+            return null;
+        }
+        out[0] = COMPRESSED;
+        out[1] = (byte) (raw.length >>> 24);
+        out[2] = (byte) (raw.length >>> 16);
+        out[3] = (byte) (raw.length >>> 8);
+        out[4] = (byte) raw.length;
+        byte[] stored = new byte[length];
+        System.arraycopy(out, 0, stored, 0, length);
+        return stored;
+    }
+
+    private byte[] decompress(byte[] bytes) {
+        if (bytes.length < HEADER) {
+            throw new IllegalArgumentException("corrupt compressed value: " + bytes.length + " bytes");
+        }
+        int length = (bytes[1] & 0xFF) << 24 | (bytes[2] & 0xFF) << 16 | (bytes[3] & 0xFF) << 8 | (bytes[4] & 0xFF);
+        if (length < 0) {
+            throw new IllegalArgumentException("corrupt compressed value: length " + length);
+        }
+        Inflater inflater = workspaces.get().inflater;
+        inflater.reset();
+        inflater.setInput(bytes, HEADER, bytes.length - HEADER);
+        byte[] raw = new byte[length];
+        try {
+            int n = 0;
+            while (n < length && !inflater.finished()) {
+                int r = inflater.inflate(raw, n, length - n);
+                if (r == 0 && (inflater.needsInput() || inflater.needsDictionary())) {
+                    break;
+                }
+                n += r;
+            }
+            if (n != length || !inflater.finished()) {
+                throw new IllegalArgumentException("corrupt compressed value: expected " + length + " bytes, got " + n);
+            }
+        } catch (DataFormatException e) {
+            throw new IllegalArgumentException("corrupt compressed value: " + e.getMessage(), e);
+        }
+        return raw;
+    }
+
+    private static byte[] escape(byte[] raw) {
+        byte[] stored = new byte[raw.length + 1];
+        stored[0] = ESCAPED;
+        System.arraycopy(raw, 0, stored, 1, raw.length);
+        return stored;
+    }
+
+    public long getEncoded() {
+        return encoded.sum();
+    }
+
+    /**
+     * 其中真的压缩了存的个数。
+     */
+    public long getCompressed() {
+        return compressed.sum();
+    }
+
+    public long getDecoded() {
+        return decoded.sum();
+    }
+
+    public long getDecompressed() {
+        return decompressed.sum();
+    }
+
+    /**
+     * 编码前的总字节数。
+     */
+    public long getRawBytes() {
+        return rawBytes.sum();
+    }
+
+    /**
+     * 实际写到redis里的总字节数。
+     */
+    public long getStoredBytes() {
+        return storedBytes.sum();
+    }
+
+    /**
+     * 所有编码过的值：原始字节数/存储字节数。
+     */
+    public double getOverallRatio() {
+        long stored = storedBytes.sum();
+        return stored == 0 ? 1 : (double) rawBytes.sum() / stored;
+    }
+
+    /**
+     * 只算压缩了的值：原始字节数/压缩后字节数。
+     */
+    public double getCompressionRatio() {
+        long stored = compressedStoredBytes.sum();
+        return stored == 0 ? 1 : (double) compressedRawBytes.sum() / stored;
+    }
+
+    /**
+     * encode花的时间，包括里面那个codec的。
+     */
+    public long getEncodeNanos() {
+        return encodeNanos.sum();
+    }
+
+    public long getDecodeNanos() {
+        return decodeNanos.sum();
+    }
+
+    @Override
+    public String toString() {
+        long enc = encoded.sum();
+        long dec = decoded.sum();
+        return String.format("CompressingCodec{encoded=%d (compressed %d), ratio=%.2f (overall %.2f), "
+                        + "encode=%.1fus/op, decoded=%d (decompressed %d), decode=%.1fus/op}",
+                enc, compressed.sum(), getCompressionRatio(), getOverallRatio(),
+                enc == 0 ? 0.0 : encodeNanos.sum() / 1000.0 / enc,
+                dec, decompressed.sum(), dec == 0 ? 0.0 : decodeNanos.sum() / 1000.0 / dec);
+    }
+
+    private static final class Workspace {
+        final Deflater deflater;
+        final Inflater inflater = new Inflater(true);
+        private byte[] buffer = new byte[0];
+
+        Workspace(int level) {
+            deflater = new Deflater(level, true);
+        }
+
+        byte[] buffer(int size) {
+            if (buffer.length < size) {
+                buffer = new byte[Math.max(size, buffer.length * 2)];
+            }
+            return buffer;
+        }
+    }
+}
@@ -0,0 +1,263 @@
+package com.babyduncan.redis.client;
+
+import redis.clients.jedis.Pipeline;
+import redis.clients.jedis.Response;
+import redis.clients.jedis.exceptions.JedisDataException;
+
+import java.io.Closeable;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.Executors;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.concurrent.locks.ReadWriteLock;
+import java.util.concurrent.locks.ReentrantReadWriteLock;
+
+/**
+ * User: zgh
+ * Date: 26-10-18
+ * Time: 19:50
+ */
+
+/**
+ * 合并写的计数器：incr/incrBy/decr/decrBy只在本地累加，后台定时（或者攒够flushThreshold次）
+ * 把每个key攒下的增量用一个pipeline里的INCRBY发出去，同一个key的一万次+1变成一次INCRBY 10000。
+ * <p/>
+ * 每个key一个LongAdder（内部按线程分段），热点key上多线程累加也不会抢同一个cache line。
+ * flush只读不清零：记下每个key已经发出去的总量，这次发 sum()-已发出 的部分，
+ * 所以flush和累加同时进行也不会丢增量，INCRBY失败的增量留到下次再发。
+ * <p/>
+ * 投递是at-least-once：pipeline发出去以后连接出错（超时、断开），不知道redis执行了哪些INCRBY，
+ * 这一批增量都当成没发出去，下次会再发一遍，已经执行过的就重复计数了。需要精确计数的不要用。
+ * <p/>
+ * 代价是调用方拿不到INCR的返回值，而且redis里的值最多落后一个flush周期；
+ * readYourWrites打开时get(key)会在redis的值上加上本地还没发出去的增量。
+ * close()之后incrBy直接抛异常，已经在累加的等它们加完再同步flush一次，进程退出前一定要调。
+ * key只增不减，适合有限的一组热点计数器。
+ */
+public final class CounterAggregator implements Closeable {
+    public static final long DEFAULT_FLUSH_INTERVAL_MILLIS = 100;
+    public static final long DEFAULT_FLUSH_THRESHOLD = 100000;
+
+    private final RedisConnections connections;
+    private final long flushThreshold;
+    private final boolean readYourWrites;
+    private final ConcurrentHashMap<String, Cell> cells = new ConcurrentHashMap<String, Cell>();
+    private final ScheduledExecutorService flusher;
+    private final AtomicLong sinceFlush = new AtomicLong();
+    private final AtomicBoolean flushScheduled = new AtomicBoolean();
+    // flush持有写锁，readYourWrites的get持有读锁，避免get看到“redis已经加上了但本地还没记为已发出”的中间状态
+    private final ReadWriteLock flushLock = new ReentrantReadWriteLock();
+    private volatile boolean closed;
+    // 正在incrBy的线程数，close()等它归零再做最后一次flush
+    private final LongAdder writers = new LongAdder();
+
+    private final LongAdder increments = new LongAdder();
+    private final LongAdder flushes = new LongAdder();
+    private final LongAdder commandsSent = new LongAdder();
+    private final LongAdder flushErrors = new LongAdder();
+
+    public CounterAggregator(RedisConnections connections) {
+        this(connections, DEFAULT_FLUSH_INTERVAL_MILLIS, DEFAULT_FLUSH_THRESHOLD, false);
+    }
+
+    public CounterAggregator(RedisConnections connections, long flushIntervalMillis, long flushThreshold, boolean readYourWrites) {
+        if (flushIntervalMillis <= 0 || flushThreshold <= 0) {
+            throw new IllegalArgumentException("flushIntervalMillis and flushThreshold must be positive");
+        }
+        this.connections = connections;
+        this.flushThreshold = flushThreshold;
+        this.readYourWrites = readYourWrites;
+        this.flusher = Executors.newSingleThreadScheduledExecutor(r -> {
+            Thread t = new Thread(r, "counter-aggregator-flush");
+            t.setDaemon(true);
+            return t;
+        });
+        flusher.scheduleWithFixedDelay(this::backgroundFlush, flushIntervalMillis, flushIntervalMillis, TimeUnit.MILLISECONDS);
+    }
+
+    public void incr(String key) {
+        incrBy(key, 1);
+    }
+
+    public void decr(String key) {
+        incrBy(key, -1);
+    }
+
+    public void decrBy(String key, long delta) {
+        incrBy(key, -delta);
+    }
+
+    public void incrBy(String key, long delta) {
+        // 先登记再检查closed，和close()里先置closed再看writers配对：要么这里看到closed，要么close()等这次加完
+        writers.increment();
+        try {
+            if (closed) {
+                throw new IllegalStateException("counter aggregator is closed");
+            }
+            Cell cell = cells.get(key);
+            if (cell == null) {
+                cell = cells.computeIfAbsent(key, k -> new Cell());
+            }
+            cell.total.add(delta);
+            increments.increment();
+            if (sinceFlush.incrementAndGet() >= flushThreshold && flushScheduled.compareAndSet(false, true)) {
+                flusher.execute(this::backgroundFlush);
+            }
+        } catch (RejectedExecutionException e) {
+            // 正在close，增量已经记下了，由close()的flush发出去
+        } finally {
+            writers.decrement();
+        }
+    }
+
+    /**
+     * 本地攒着还没发到redis的增量。
+     */
+    public long pending(String key) {
+        Cell cell = cells.get(key);
+        return cell == null ? 0 : cell.pending();
+    }
+
+    /**
+     * redis里的值；readYourWrites模式下再加上本地没发出去的增量。
+     */
+    public long get(final String key) {
+        if (!readYourWrites) {
+            return serverValue(key);
+        }
+        flushLock.readLock().lock();
+        try {
+            return serverValue(key) + pending(key);
+        } finally {
+            flushLock.readLock().unlock();
+        }
+    }
+
+    private long serverValue(final String key) {
+        String value = connections.execute(jedis -> jedis.get(key));
+        return value == null ? 0 : Long.parseLong(value);
+    }
+
+    private void backgroundFlush() {
+        flushScheduled.set(false);
+        try {
+            flush();
+        } catch (RuntimeException e) {
+            // 连接问题之类的，增量还在本地，下一轮再发
+            flushErrors.increment();
+        }
+    }
+
+    /**
+     * 把所有key的增量在一个pipeline里用INCRBY发出去，返回发了几条命令。
+     * 某个key的INCRBY失败（比如值不是整数）不影响其他key，它的增量保留，最后抛出第一个错误。
+     */
+    public int flush() {
+        flushLock.writeLock().lock();
+        try {
+            sinceFlush.set(0);
+            final List<String> keys = new ArrayList<String>();
+            final List<Long> deltas = new ArrayList<Long>();
+            final List<Cell> flushed = new ArrayList<Cell>();
+            for (Map.Entry<String, Cell> e : cells.entrySet()) {
+                long delta = e.getValue().pending();
+                if (delta != 0) {
+                    keys.add(e.getKey());
+                    deltas.add(delta);
+                    flushed.add(e.getValue());
+                }
+            }
+            if (keys.isEmpty()) {
+                return 0;
+            }
+            List<Response<Long>> responses = connections.execute(jedis -> {
+                Pipeline p = jedis.pipelined();
+                List<Response<Long>> r = new ArrayList<Response<Long>>(keys.size());
+                for (int i = 0; i < keys.size(); i++) {
+                    r.add(p.incrBy(keys.get(i), deltas.get(i)));
+                }
+                p.sync();
+                return r;
+            });
+            flushes.increment();
+            commandsSent.add(keys.size());
+            JedisDataException error = null;
+            for (int i = 0; i < responses.size(); i++) {
+                try {
+                    responses.get(i).get();
+                    flushed.get(i).flushed += deltas.get(i);
+                } catch (JedisDataException e) {
+                    flushErrors.increment();
+                    if (error == null) {
+                        error = new JedisDataException("INCRBY " + keys.get(i) + " failed: " + e.getMessage());
+                    }
+                }
+            }
+            if (error != null) {
+                throw error;
+            }
+            return keys.size();
+        } finally {
+            flushLock.writeLock().unlock();
+        }
+    }
+
+    /**
+     * 不再接受incrBy，停掉后台flush，等已经在累加的incrBy做完，再同步flush一次。
+     */
+    public void close() {
+        if (closed) {
+            return;
+        }
+        closed = true;
+        while (writers.sum() != 0) {
+            Thread.yield();
+        }
+        flusher.shutdown();
+        try {
+            flusher.awaitTermination(5, TimeUnit.SECONDS);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+        flush();
+    }
+
+    /**
+     * 调用方累加的次数。
+     */
+    public long getIncrements() {
+        return increments.sum();
+    }
+
+    public long getFlushes() {
+        return flushes.sum();
+    }
+
+    /**
+     * 实际发出去的INCRBY条数，getIncrements()/getCommandsSent()就是合并的倍数。
+     */
+    public long getCommandsSent() {
+        return commandsSent.sum();
+    }
+
+    public long getFlushErrors() {
+        return flushErrors.sum();
+    }
+
+    private static final class Cell {
+        final LongAdder total = new LongAdder();
+        // 只在持有flushLock写锁时读写
+        volatile long flushed;
+
+        long pending() {
+            return total.sum() - flushed;
+        }
+    }
+}
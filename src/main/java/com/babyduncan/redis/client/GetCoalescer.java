@@ -0,0 +1,223 @@
+package com.babyduncan.redis.client;
+
+import redis.clients.jedis.Jedis;
+
+import java.io.Closeable;
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * User: zgh
+ * Date: 26-10-18
+ * Time: 16:40
+ */
+
+/**
+ * 把很多线程同时发的单key GET合并成MGET。
+ * <p/>
+ * get(key)马上返回一个future；dispatcher线程拿到第一个请求以后再最多等windowMicros微秒、
+ * 或者攒够maxBatch个key，把这一批去重后用一次MGET发出去，再按key完成各自的future。
+ * 窗口越大批越大、吞吐越高，但每个请求多等的时间也越长，用getAverageBatchSize/getAverageWaitMicros来调。
+ * <p/>
+ * 一个dispatcher同一时刻只有一个MGET在路上，并发高的话可以开多个dispatcher（各占一个连接）。
+ */
+public final class GetCoalescer implements Closeable {
+    public static final int DEFAULT_MAX_BATCH = 128;
+    public static final long DEFAULT_WINDOW_MICROS = 200;
+
+    private static final AtomicLong THREAD_IDS = new AtomicLong();
+
+    private final RedisConnections connections;
+    private final int maxBatch;
+    private final long windowNanos;
+    private final BlockingQueue<Request> queue = new LinkedBlockingQueue<Request>();
+    private final Thread[] dispatchers;
+    private volatile boolean running = true;
+
+    private final LongAdder requests = new LongAdder();
+    private final LongAdder dispatched = new LongAdder();
+    private final LongAdder batches = new LongAdder();
+    private final LongAdder batchedKeys = new LongAdder();
+    private final LongAdder waitNanos = new LongAdder();
+    private final AtomicLong maxBatchSize = new AtomicLong();
+    private final AtomicLong maxWaitNanos = new AtomicLong();
+
+    public GetCoalescer(RedisConnections connections) {
+        this(connections, DEFAULT_MAX_BATCH, DEFAULT_WINDOW_MICROS, 1);
+    }
+
+    public GetCoalescer(RedisConnections connections, int maxBatch, long windowMicros, int dispatcherCount) {
+        if (maxBatch <= 0 || windowMicros < 0 || dispatcherCount <= 0) {
+            throw new IllegalArgumentException("maxBatch and dispatcherCount must be positive, windowMicros must not be negative");
+        }
+        this.connections = connections;
+        this.maxBatch = maxBatch;
+        this.windowNanos = TimeUnit.MICROSECONDS.toNanos(windowMicros);
+        this.dispatchers = new Thread[dispatcherCount];
+        for (int i = 0; i < dispatcherCount; i++) {
+            dispatchers[i] = new Thread(new Runnable() {
+                public void run() {
+                    dispatchLoop();
+                }
+            }, "get-coalescer-" + THREAD_IDS.incrementAndGet());
+            dispatchers[i].setDaemon(true);
+            dispatchers[i].start();
+        }
+    }
+
+    public CompletableFuture<String> get(String key) {
+        if (!running) {
+            throw new IllegalStateException("coalescer is closed");
+        }
+        Request request = new Request(key);
+        queue.add(request);
+        // close()可能在上面的检查之后、drain之后才进来，这时没人会再取队列，自己拿回来；拿不回来说明已经被取走发出去了
+        if (!running && queue.remove(request)) {
+            throw new IllegalStateException("coalescer is closed");
+        }
+        requests.increment();
+        return request.future;
+    }
+
+    private void dispatchLoop() {
+        List<Request> batch = new ArrayList<Request>(maxBatch);
+        while (running) {
+            try {
+                Request first = queue.poll(100, TimeUnit.MILLISECONDS);
+                if (first == null) {
+                    continue;
+                }
+                batch.add(first);
+                long deadline = System.nanoTime() + windowNanos;
+                while (batch.size() < maxBatch) {
+                    // 先把已经在队列里的拿光，不够再等到窗口结束
+                    Request next = queue.poll();
+                    if (next == null) {
+                        long remaining = deadline - System.nanoTime();
+                        if (remaining <= 0) {
+                            break;
+                        }
+                        next = queue.poll(remaining, TimeUnit.NANOSECONDS);
+                        if (next == null) {
+                            break;
+                        }
+                    }
+                    batch.add(next);
+                }
+                dispatch(batch);
+            } catch (InterruptedException e) {
+                break;
+            } finally {
+                batch.clear();
+            }
+        }
+    }
+
+    private void dispatch(List<Request> batch) {
+        long now = System.nanoTime();
+        Map<String, List<Request>> byKey = new LinkedHashMap<String, List<Request>>();
+        for (Request r : batch) {
+            long waited = now - r.enqueuedAt;
+            waitNanos.add(waited);
+            maxWaitNanos.accumulateAndGet(waited, Math::max);
+            List<Request> same = byKey.get(r.key);
+            if (same == null) {
+                same = new ArrayList<Request>(1);
+                byKey.put(r.key, same);
+            }
+            same.add(r);
+        }
+        dispatched.add(batch.size());
+        batches.increment();
+        batchedKeys.add(byKey.size());
+        maxBatchSize.accumulateAndGet(byKey.size(), Math::max);
+        final String[] keys = byKey.keySet().toArray(new String[byKey.size()]);
+        List<String> values;
+        try {
+            values = connections.execute((Jedis jedis) -> jedis.mget(keys));
+        } catch (RuntimeException e) {
+            for (Request r : batch) {
+                r.future.completeExceptionally(e);
+            }
+            return;
+        }
+        for (int i = 0; i < keys.length; i++) {
+            for (Request r : byKey.get(keys[i])) {
+                r.future.complete(values.get(i));
+            }
+        }
+    }
+
+    /**
+     * 不再接收新请求，等dispatcher退出，队列里剩下的请求在当前线程发完。
+     */
+    public void close() {
+        if (!running) {
+            return;
+        }
+        running = false;
+        for (Thread t : dispatchers) {
+            try {
+                t.join();
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                break;
+            }
+        }
+        List<Request> rest = new ArrayList<Request>();
+        while (queue.drainTo(rest, maxBatch) > 0) {
+            dispatch(rest);
+            rest.clear();
+        }
+    }
+
+    public long getRequests() {
+        return requests.sum();
+    }
+
+    public long getBatches() {
+        return batches.sum();
+    }
+
+    /**
+     * 平均每个MGET带几个（去重后的）key。
+     */
+    public double getAverageBatchSize() {
+        long b = batches.sum();
+        return b == 0 ? 0 : (double) batchedKeys.sum() / b;
+    }
+
+    public long getMaxBatchSize() {
+        return maxBatchSize.get();
+    }
+
+    /**
+     * 请求从get()到被发出去平均等了多久，不含MGET本身的耗时。
+     */
+    public double getAverageWaitMicros() {
+        long n = dispatched.sum();
+        return n == 0 ? 0 : waitNanos.sum() / 1000.0 / n;
+    }
+
+    public double getMaxWaitMicros() {
+        return maxWaitNanos.get() / 1000.0;
+    }
+
+    private static final class Request {
+        final String key;
+        final long enqueuedAt = System.nanoTime();
+        final CompletableFuture<String> future = new CompletableFuture<String>();
+
+        Request(String key) {
+            this.key = key;
+        }
+    }
+}
@@ -0,0 +1,523 @@
+package com.babyduncan.redis.client;
+
+import com.babyduncan.redis.script.Scripts;
+import redis.clients.jedis.Pipeline;
+import redis.clients.jedis.exceptions.JedisDataException;
+
+import java.io.Closeable;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.Executors;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * User: zgh
+ * Date: 26-10-18
+ * Time: 22:35
+ */
+
+/**
+ * 数据库前面用hash做缓存：读是read-through，写是write-behind。
+ * <p/>
+ * getAll/hget先查redis，没有就调{@link HashLoader}从数据库取，HMSET+EXPIRE写回redis再返回。
+ * 同一个key同时有很多线程没命中时只有第一个去load，其他的等它的结果（single-flight），
+ * 缓存失效的一瞬间数据库只会看到一次查询。load失败所有等着的线程拿到同一个异常，下次再试。
+ * <p/>
+ * hset/hmset只记在本地，同一个字段写多次只留最后一次，后台定时（或者攒够maxPendingFields个字段）
+ * 在一个pipeline里按key发HMSET。本地还没发出去（包括正在发的）字段读的时候会盖在redis的结果上面，
+ * 自己写的自己马上能读到。
+ * 调用方要自己先写数据库，这里只负责把缓存改过来：每个key的写回是一个脚本（{@link Scripts#HMSET_IF_EXISTS}），
+ * key还在才HMSET+EXPIRE，redis里已经没有的key（过期了、被invalidate了、还没load过）直接丢掉这次更新，
+ * 下次读会从数据库load完整的，不会在redis里留下只有几个字段的半个hash。
+ * <p/>
+ * 陈旧度：一个字段从第一次hset到真正发到redis的时间记在getAverageLagMillis/getMaxLagMillis，
+ * 别的进程最多晚这么久才能看到。close()会同步flush一次。
+ */
+public final class HashCache implements Closeable {
+    public static final int DEFAULT_TTL_SECONDS = 600;
+    public static final long DEFAULT_FLUSH_INTERVAL_MILLIS = 50;
+    public static final int DEFAULT_MAX_PENDING_FIELDS = 10000;
+
+    private static final LuaScript WRITE_BACK = new LuaScript(Scripts.HMSET_IF_EXISTS);
+
+    private final RedisConnections connections;
+    private final HashLoader loader;
+    private final int ttlSeconds;
+    private final int maxPendingFields;
+    private final ConcurrentHashMap<String, CompletableFuture<Map<String, String>>> loading =
+            new ConcurrentHashMap<String, CompletableFuture<Map<String, String>>>();
+    // 还没发出去的写，key -> field -> Write，都在synchronized(pendingLock)里读写
+    private final Object pendingLock = new Object();
+    private Map<String, Map<String, Write>> pending = new LinkedHashMap<String, Map<String, Write>>();
+    private int pendingFields;
+    // 正在flush的那一批，发完之前读的时候还要看得到；flush过程中被invalidate的key记在invalidatedInFlight里
+    private Map<String, Map<String, Write>> inFlight = Collections.emptyMap();
+    private final Set<String> invalidatedInFlight = new HashSet<String>();
+    // 同一时刻只有一个flush，后台的和手动调的不会交错着把同一批写发两次
+    private final Object flushLock = new Object();
+    private final ScheduledExecutorService flusher;
+    private final AtomicBoolean flushScheduled = new AtomicBoolean();
+    private volatile boolean closed;
+
+    private final LongAdder hits = new LongAdder();
+    private final LongAdder misses = new LongAdder();
+    private final LongAdder loads = new LongAdder();
+    private final LongAdder sharedLoads = new LongAdder();
+    private final LongAdder loadErrors = new LongAdder();
+    private final LongAdder loadNanos = new LongAdder();
+    private final LongAdder writes = new LongAdder();
+    private final LongAdder coalesced = new LongAdder();
+    private final LongAdder flushes = new LongAdder();
+    private final LongAdder fieldsFlushed = new LongAdder();
+    private final LongAdder fieldsDropped = new LongAdder();
+    private final LongAdder flushErrors = new LongAdder();
+    private final LongAdder lagNanos = new LongAdder();
+    private final AtomicLong maxLagNanos = new AtomicLong();
+
+    public HashCache(RedisConnections connections, HashLoader loader) {
+        this(connections, loader, DEFAULT_TTL_SECONDS, DEFAULT_FLUSH_INTERVAL_MILLIS, DEFAULT_MAX_PENDING_FIELDS);
+    }
+
+    /**
+     * @param ttlSeconds load回来的hash在redis里的过期时间，flush写字段的时候也会续上
+     */
+    public HashCache(RedisConnections connections, HashLoader loader, int ttlSeconds,
+                     long flushIntervalMillis, int maxPendingFields) {
+        if (ttlSeconds <= 0 || flushIntervalMillis <= 0 || maxPendingFields <= 0) {
+            throw new IllegalArgumentException("ttlSeconds, flushIntervalMillis and maxPendingFields must be positive");
+        }
+        this.connections = connections;
+        this.loader = loader;
+        this.ttlSeconds = ttlSeconds;
+        this.maxPendingFields = maxPendingFields;
+        this.flusher = Executors.newSingleThreadScheduledExecutor(r -> {
+            Thread t = new Thread(r, "hash-cache-flush");
+            t.setDaemon(true);
+            return t;
+        });
+        flusher.scheduleWithFixedDelay(this::backgroundFlush, flushIntervalMillis, flushIntervalMillis, TimeUnit.MILLISECONDS);
+    }
+
+    /**
+     * 整个hash，数据库里也没有就是空map。
+     */
+    public Map<String, String> getAll(final String key) {
+        Map<String, String> hash = connections.execute(jedis -> jedis.hgetAll(key));
+        if (hash != null && !hash.isEmpty()) {
+            hits.increment();
+        } else {
+            misses.increment();
+            hash = new HashMap<String, String>(load(key));
+        }
+        overlayPending(key, hash);
+        return hash;
+    }
+
+    /**
+     * 先看本地没发出去的写，再HGET；HGET没有的话按getAll走一遍（可能是整个key不在缓存里）。
+     */
+    public String hget(final String key, final String field) {
+        synchronized (pendingLock) {
+            Write write = localWrite(pending, key, field);
+            if (write == null && !invalidatedInFlight.contains(key)) {
+                write = localWrite(inFlight, key, field);
+            }
+            if (write != null) {
+                hits.increment();
+                return write.value;
+            }
+        }
+        String value = connections.execute(jedis -> jedis.hget(key, field));
+        if (value != null) {
+            hits.increment();
+            return value;
+        }
+        return getAll(key).get(field);
+    }
+
+    private Map<String, String> load(String key) {
+        CompletableFuture<Map<String, String>> mine = new CompletableFuture<Map<String, String>>();
+        CompletableFuture<Map<String, String>> running = loading.putIfAbsent(key, mine);
+        if (running != null) {
+            sharedLoads.increment();
+            try {
+                return running.join();
+            } catch (CompletionException e) {
+                throw unwrap(e.getCause());
+            }
+        }
+        try {
+            Map<String, String> hash = loadAndCache(key);
+            mine.complete(hash);
+            return hash;
+        } catch (RuntimeException e) {
+            mine.completeExceptionally(e);
+            throw e;
+        } finally {
+            loading.remove(key, mine);
+        }
+    }
+
+    private Map<String, String> loadAndCache(final String key) {
+        long start = System.nanoTime();
+        loads.increment();
+        final Map<String, String> hash;
+        try {
+            Map<String, String> loaded = loader.load(key);
+            hash = loaded == null ? Collections.<String, String>emptyMap() : Collections.unmodifiableMap(loaded);
+        } catch (RuntimeException e) {
+            loadErrors.increment();
+            throw e;
+        } catch (Exception e) {
+            loadErrors.increment();
+            throw new IllegalStateException("can not load " + key, e);
+        } finally {
+            loadNanos.add(System.nanoTime() - start);
+        }
+        if (!hash.isEmpty()) {
+            connections.execute(jedis -> {
+                Pipeline p = jedis.pipelined();
+                p.hmset(key, hash);
+                p.expire(key, ttlSeconds);
+                p.sync();
+                return null;
+            });
+        }
+        return hash;
+    }
+
+    private static RuntimeException unwrap(Throwable cause) {
+        return cause instanceof RuntimeException ? (RuntimeException) cause : new IllegalStateException(cause);
+    }
+
+    private static Write localWrite(Map<String, Map<String, Write>> writes, String key, String field) {
+        Map<String, Write> fields = writes.get(key);
+        return fields == null ? null : fields.get(field);
+    }
+
+    private void overlayPending(String key, Map<String, String> hash) {
+        synchronized (pendingLock) {
+            if (!invalidatedInFlight.contains(key)) {
+                overlay(inFlight.get(key), hash);
+            }
+            overlay(pending.get(key), hash);
+        }
+    }
+
+    private static void overlay(Map<String, Write> fields, Map<String, String> hash) {
+        if (fields != null) {
+            for (Map.Entry<String, Write> e : fields.entrySet()) {
+                hash.put(e.getKey(), e.getValue().value);
+            }
+        }
+    }
+
+    public void hset(String key, String field, String value) {
+        hmset(key, Collections.singletonMap(field, value));
+    }
+
+    public void hmset(String key, Map<String, String> hash) {
+        long now = System.nanoTime();
+        int size;
+        synchronized (pendingLock) {
+            // closed在pendingLock里设，过了这个检查的写一定在close最后那次flush之前进了pending
+            if (closed) {
+                throw new IllegalStateException("hash cache is closed");
+            }
+            Map<String, Write> fields = pending.get(key);
+            if (fields == null) {
+                fields = new LinkedHashMap<String, Write>();
+                pending.put(key, fields);
+            }
+            for (Map.Entry<String, String> e : hash.entrySet()) {
+                Write write = fields.get(e.getKey());
+                if (write == null) {
+                    fields.put(e.getKey(), new Write(e.getValue(), now));
+                    pendingFields++;
+                } else {
+                    // 保留第一次写的时间，陈旧度从那时候算
+                    write.value = e.getValue();
+                    coalesced.increment();
+                }
+            }
+            size = pendingFields;
+        }
+        writes.add(hash.size());
+        if (size >= maxPendingFields && flushScheduled.compareAndSet(false, true)) {
+            try {
+                flusher.execute(this::backgroundFlush);
+            } catch (RejectedExecutionException e) {
+                // 正在close，写已经在pending里了，close最后会flush
+            }
+        }
+    }
+
+    /**
+     * 删掉redis里的缓存，连同本地没发出去的写；下次读重新load。
+     */
+    public void invalidate(final String key) {
+        synchronized (pendingLock) {
+            Map<String, Write> fields = pending.remove(key);
+            if (fields != null) {
+                pendingFields -= fields.size();
+            }
+            if (inFlight.containsKey(key)) {
+                invalidatedInFlight.add(key);
+            }
+        }
+        connections.execute(jedis -> jedis.del(key));
+    }
+
+    private void backgroundFlush() {
+        flushScheduled.set(false);
+        try {
+            flush();
+        } catch (RuntimeException e) {
+            // 写已经放回本地了，下一轮再发
+            flushErrors.increment();
+        }
+    }
+
+    /**
+     * 把本地攒的写发到redis，返回写进去的字段数。
+     * 每个key一个HMSET_IF_EXISTS脚本，一个pipeline发完；连接出错的话这批写放回本地（不覆盖期间更新的值）。
+     * 某个key的脚本报错（比如不是hash）只丢掉这个key的写，其他的照常，最后抛出第一个错误。
+     * 发完之前这批写一直对读可见。
+     */
+    public int flush() {
+        synchronized (flushLock) {
+            final Map<String, Map<String, Write>> batch;
+            synchronized (pendingLock) {
+                if (pending.isEmpty()) {
+                    return 0;
+                }
+                batch = pending;
+                inFlight = batch;
+                pending = new LinkedHashMap<String, Map<String, Write>>();
+                pendingFields = 0;
+            }
+            List<JedisDataException> errors = new ArrayList<JedisDataException>(1);
+            boolean sent = false;
+            int fields;
+            try {
+                fields = send(batch, errors);
+                sent = true;
+            } finally {
+                synchronized (pendingLock) {
+                    if (!sent) {
+                        requeue(batch);
+                    }
+                    inFlight = Collections.emptyMap();
+                    invalidatedInFlight.clear();
+                }
+            }
+            if (!errors.isEmpty()) {
+                throw errors.get(0);
+            }
+            return fields;
+        }
+    }
+
+    private int send(final Map<String, Map<String, Write>> batch, List<JedisDataException> errors) {
+        final List<String> keys = new ArrayList<String>(batch.keySet());
+        final List<List<String>> keyArgs = new ArrayList<List<String>>(keys.size());
+        final List<List<String>> args = new ArrayList<List<String>>(keys.size());
+        String ttl = Integer.toString(ttlSeconds);
+        for (String key : keys) {
+            Map<String, Write> writes = batch.get(key);
+            List<String> a = new ArrayList<String>(1 + writes.size() * 2);
+            a.add(ttl);
+            for (Map.Entry<String, Write> e : writes.entrySet()) {
+                a.add(e.getKey());
+                a.add(e.getValue().value);
+            }
+            keyArgs.add(Collections.singletonList(key));
+            args.add(a);
+        }
+        List<Object> replies = connections.execute(jedis -> WRITE_BACK.evalAll(jedis, keyArgs, args));
+        long now = System.nanoTime();
+        int sent = 0;
+        int dropped = 0;
+        for (int i = 0; i < keys.size(); i++) {
+            Object reply = replies.get(i);
+            Map<String, Write> writes = batch.get(keys.get(i));
+            if (reply instanceof JedisDataException) {
+                // 比如这个key不是hash，重发也没用，丢掉
+                flushErrors.increment();
+                dropped += writes.size();
+                if (errors.isEmpty()) {
+                    errors.add(new JedisDataException("write back " + keys.get(i) + " failed: "
+                            + ((JedisDataException) reply).getMessage()));
+                }
+            } else if (Long.valueOf(1).equals(reply)) {
+                sent += writes.size();
+                for (Write write : writes.values()) {
+                    long lag = now - write.since;
+                    lagNanos.add(lag);
+                    maxLagNanos.accumulateAndGet(lag, Math::max);
+                }
+            } else {
+                dropped += writes.size();
+            }
+        }
+        flushes.increment();
+        fieldsFlushed.add(sent);
+        fieldsDropped.add(dropped);
+        return sent;
+    }
+
+    private void requeue(Map<String, Map<String, Write>> batch) {
+        synchronized (pendingLock) {
+            for (Map.Entry<String, Map<String, Write>> e : batch.entrySet()) {
+                if (invalidatedInFlight.contains(e.getKey())) {
+                    continue;
+                }
+                Map<String, Write> fields = pending.get(e.getKey());
+                if (fields == null) {
+                    fields = new LinkedHashMap<String, Write>();
+                    pending.put(e.getKey(), fields);
+                }
+                for (Map.Entry<String, Write> f : e.getValue().entrySet()) {
+                    Write newer = fields.get(f.getKey());
+                    if (newer == null) {
+                        fields.put(f.getKey(), f.getValue());
+                        pendingFields++;
+                    } else {
+                        newer.since = Math.min(newer.since, f.getValue().since);
+                    }
+                }
+            }
+        }
+    }
+
+    /**
+     * 停掉后台flush，再同步flush一次。
+     */
+    public void close() {
+        synchronized (pendingLock) {
+            if (closed) {
+                return;
+            }
+            closed = true;
+        }
+        flusher.shutdown();
+        try {
+            flusher.awaitTermination(5, TimeUnit.SECONDS);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+        flush();
+    }
+
+    public long getHits() {
+        return hits.sum();
+    }
+
+    public long getMisses() {
+        return misses.sum();
+    }
+
+    public double getHitRatio() {
+        long h = hits.sum();
+        long total = h + misses.sum();
+        return total == 0 ? 0 : (double) h / total;
+    }
+
+    /**
+     * 真正调了loader的次数。
+     */
+    public long getLoads() {
+        return loads.sum();
+    }
+
+    /**
+     * 没命中但是等了别的线程正在进行的load、自己没去查数据库的次数。
+     */
+    public long getSharedLoads() {
+        return sharedLoads.sum();
+    }
+
+    public long getLoadErrors() {
+        return loadErrors.sum();
+    }
+
+    public double getAverageLoadMillis() {
+        long n = loads.sum();
+        return n == 0 ? 0 : loadNanos.sum() / 1e6 / n;
+    }
+
+    /**
+     * hset/hmset写的字段数。
+     */
+    public long getWrites() {
+        return writes.sum();
+    }
+
+    /**
+     * 覆盖了还没发出去的同一个字段、被合并掉的写。
+     */
+    public long getCoalesced() {
+        return coalesced.sum();
+    }
+
+    public long getFlushes() {
+        return flushes.sum();
+    }
+
+    public long getFieldsFlushed() {
+        return fieldsFlushed.sum();
+    }
+
+    /**
+     * flush时key已经不在redis里、丢掉的字段数。
+     */
+    public long getFieldsDropped() {
+        return fieldsDropped.sum();
+    }
+
+    public long getFlushErrors() {
+        return flushErrors.sum();
+    }
+
+    public int getPendingFields() {
+        synchronized (pendingLock) {
+            return pendingFields;
+        }
+    }
+
+    /**
+     * 发出去的字段从第一次写到发到redis平均等了多久。
+     */
+    public double getAverageLagMillis() {
+        long n = fieldsFlushed.sum();
+        return n == 0 ? 0 : lagNanos.sum() / 1e6 / n;
+    }
+
+    public double getMaxLagMillis() {
+        return maxLagNanos.get() / 1e6;
+    }
+
+    private static final class Write {
+        String value;
+        long since;
+
+        Write(String value, long since) {
+            this.value = value;
+            this.since = since;
+        }
+    }
+}
@@ -0,0 +1,16 @@
+package com.babyduncan.redis.client;
+
+import java.util.Map;
+
+/**
+ * User: zgh
+ * Date: 26-10-18
+ * Time: 22:30
+ */
+
+/**
+ * {@link HashCache}没命中的时候从后面的数据库取整个hash；没有这条记录返回null或者空map。
+ */
+public interface HashLoader {
+    Map<String, String> load(String key) throws Exception;
+}
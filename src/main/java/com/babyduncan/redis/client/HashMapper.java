@@ -0,0 +1,373 @@
+package com.babyduncan.redis.client;
+
+import redis.clients.jedis.Pipeline;
+import redis.clients.jedis.Response;
+
+import java.lang.invoke.MethodHandle;
+import java.lang.invoke.MethodHandles;
+import java.lang.invoke.MethodType;
+import java.lang.reflect.Constructor;
+import java.lang.reflect.Field;
+import java.lang.reflect.Modifier;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.function.Function;
+
+/**
+ * User: zgh
+ * Date: 26-10-18
+ * Time: 17:55
+ */
+
+/**
+ * 把一个对象存成一个hash：每个字段一个field，值都转成字符串。
+ * <p/>
+ * 保存是一次HMSET（值为null的字段在同一个pipeline里HDEL掉）；读全部字段用HGETALL，
+ * 只要部分字段就用HMGET，没读的字段保持默认值；多个对象一起读走pipeline，一个来回。
+ * <p/>
+ * 每个类只在第一次用到的时候反射一遍，把字段的读写编译成MethodHandle缓存起来，之后不再反射。
+ * 支持的字段类型：String、基本类型和包装类、enum。static和transient字段不存。
+ * 类要么有无参构造函数（字段不能是final），要么有一个参数按字段声明顺序排列的构造函数
+ * （不可变的值对象、record的canonical构造函数都是这样）。
+ */
+public final class HashMapper<T> {
+    private static final ConcurrentHashMap<Class<?>, Mapping<?>> MAPPINGS = new ConcurrentHashMap<Class<?>, Mapping<?>>();
+
+    private final RedisConnections connections;
+    private final Mapping<T> mapping;
+
+    @SuppressWarnings("unchecked")
+    public HashMapper(RedisConnections connections, Class<T> type) {
+        this.connections = connections;
+        this.mapping = (Mapping<T>) MAPPINGS.computeIfAbsent(type, Mapping::new);
+    }
+
+    public void save(final String key, T object) {
+        final Map<String, String> hash = toHash(object);
+        final List<String> nulls = new ArrayList<String>();
+        for (FieldAccessor f : mapping.fields) {
+            if (!hash.containsKey(f.name)) {
+                nulls.add(f.name);
+            }
+        }
+        connections.execute(jedis -> {
+            Pipeline p = jedis.pipelined();
+            if (hash.isEmpty()) {
+                p.del(key);
+            } else {
+                p.hmset(key, hash);
+                for (String field : nulls) {
+                    p.hdel(key, field);
+                }
+            }
+            p.sync();
+            return null;
+        });
+    }
+
+    /**
+     * HGETALL，key不存在返回null。
+     */
+    public T load(final String key) {
+        return fromHash(connections.execute(jedis -> jedis.hgetAll(key)));
+    }
+
+    /**
+     * 只读fields这几个字段（HMGET），其余字段是默认值；这几个字段全都没有就返回null。
+     */
+    public T load(final String key, String... fields) {
+        final String[] names = mapping.checkFields(fields);
+        return fromFields(names, connections.execute(jedis -> jedis.hmget(key, names)));
+    }
+
+    /**
+     * 一个pipeline里对每个key发HGETALL，结果和keys一一对应，不存在的是null。
+     */
+    public List<T> loadAll(final List<String> keys) {
+        List<Response<Map<String, String>>> responses = connections.execute(jedis -> {
+            Pipeline p = jedis.pipelined();
+            List<Response<Map<String, String>>> r = new ArrayList<Response<Map<String, String>>>(keys.size());
+            for (String key : keys) {
+                r.add(p.hgetAll(key));
+            }
+            p.sync();
+            return r;
+        });
+        List<T> result = new ArrayList<T>(keys.size());
+        for (Response<Map<String, String>> r : responses) {
+            result.add(fromHash(r.get()));
+        }
+        return result;
+    }
+
+    public List<T> loadAll(final List<String> keys, String... fields) {
+        final String[] names = mapping.checkFields(fields);
+        List<Response<List<String>>> responses = connections.execute(jedis -> {
+            Pipeline p = jedis.pipelined();
+            List<Response<List<String>>> r = new ArrayList<Response<List<String>>>(keys.size());
+            for (String key : keys) {
+                r.add(p.hmget(key, names));
+            }
+            p.sync();
+            return r;
+        });
+        List<T> result = new ArrayList<T>(keys.size());
+        for (Response<List<String>> r : responses) {
+            result.add(fromFields(names, r.get()));
+        }
+        return result;
+    }
+
+    public Map<String, String> toHash(T object) {
+        Map<String, String> hash = new HashMap<String, String>(mapping.fields.length * 2);
+        for (FieldAccessor f : mapping.fields) {
+            Object value = f.get(object);
+            if (value != null) {
+                hash.put(f.name, f.encode.apply(value));
+            }
+        }
+        return hash;
+    }
+
+    public T fromHash(Map<String, String> hash) {
+        if (hash == null || hash.isEmpty()) {
+            return null;
+        }
+        Object[] values = mapping.defaults();
+        for (int i = 0; i < mapping.fields.length; i++) {
+            String s = hash.get(mapping.fields[i].name);
+            if (s != null) {
+                values[i] = mapping.fields[i].decode.apply(s);
+            }
+        }
+        return mapping.create(values);
+    }
+
+    private T fromFields(String[] names, List<String> strings) {
+        Object[] values = mapping.defaults();
+        boolean found = false;
+        for (int i = 0; i < names.length; i++) {
+            String s = strings.get(i);
+            if (s != null) {
+                FieldAccessor f = mapping.byName.get(names[i]);
+                values[f.index] = f.decode.apply(s);
+                found = true;
+            }
+        }
+        return found ? mapping.create(values) : null;
+    }
+
+    public List<String> getFieldNames() {
+        List<String> names = new ArrayList<String>();
+        for (FieldAccessor f : mapping.fields) {
+            names.add(f.name);
+        }
+        return Collections.unmodifiableList(names);
+    }
+
+    /**
+     * 一个类的字段表和构造方式，每个类只建一次。
+     */
+    private static final class Mapping<T> {
+        final FieldAccessor[] fields;
+        final Map<String, FieldAccessor> byName = new HashMap<String, FieldAccessor>();
+        // (Object[])Object，二选一
+        final MethodHandle allArgsConstructor;
+        final MethodHandle noArgConstructor;
+
+        Mapping(Class<?> type) {
+            MethodHandles.Lookup lookup = MethodHandles.lookup();
+            List<Field> declared = new ArrayList<Field>();
+            for (Class<?> c = type; c != null && c != Object.class; c = c.getSuperclass()) {
+                List<Field> own = new ArrayList<Field>();
+                for (Field f : c.getDeclaredFields()) {
+                    int m = f.getModifiers();
+                    if (!Modifier.isStatic(m) && !Modifier.isTransient(m) && !f.isSynthetic()) {
+                        own.add(f);
+                    }
+                }
+                declared.addAll(0, own);
+            }
+            boolean anyFinal = false;
+            for (Field f : declared) {
+                anyFinal |= Modifier.isFinal(f.getModifiers());
+            }
+            try {
+                Constructor<?> allArgs = findAllArgsConstructor(type, declared);
+                Constructor<?> noArg = null;
+                if (allArgs == null || !anyFinal) {
+                    try {
+                        noArg = type.getDeclaredConstructor();
+                    } catch (NoSuchMethodException e) {
+                        // 下面统一报错
+                    }
+                }
+                if (noArg != null && !anyFinal) {
+                    noArg.setAccessible(true);
+                    noArgConstructor = lookup.unreflectConstructor(noArg).asType(MethodType.methodType(Object.class));
+                    allArgsConstructor = null;
+                } else if (allArgs != null) {
+                    allArgs.setAccessible(true);
+                    allArgsConstructor = lookup.unreflectConstructor(allArgs)
+                            .asType(MethodType.genericMethodType(declared.size()))
+                            .asSpreader(Object[].class, declared.size());
+                    noArgConstructor = null;
+                } else {
+                    throw new IllegalArgumentException(type.getName()
+                            + " needs a no-arg constructor or a constructor taking all fields in declaration order");
+                }
+                fields = new FieldAccessor[declared.size()];
+                for (int i = 0; i < fields.length; i++) {
+                    fields[i] = new FieldAccessor(i, declared.get(i), lookup, noArgConstructor != null);
+                    if (byName.put(fields[i].name, fields[i]) != null) {
+                        throw new IllegalArgumentException(type.getName() + " has duplicate field " + fields[i].name);
+                    }
+                }
+            } catch (IllegalAccessException e) {
+                throw new IllegalArgumentException("can not access " + type.getName(), e);
+            }
+        }
+
+        private static Constructor<?> findAllArgsConstructor(Class<?> type, List<Field> fields) {
+            Class<?>[] types = new Class<?>[fields.size()];
+            for (int i = 0; i < types.length; i++) {
+                types[i] = fields.get(i).getType();
+            }
+            for (Constructor<?> c : type.getDeclaredConstructors()) {
+                if (types.length > 0 && Arrays.equals(c.getParameterTypes(), types)) {
+                    return c;
+                }
+            }
+            return null;
+        }
+
+        String[] checkFields(String[] names) {
+            for (String name : names) {
+                if (!byName.containsKey(name)) {
+                    throw new IllegalArgumentException("unknown field: " + name);
+                }
+            }
+            return names;
+        }
+
+        Object[] defaults() {
+            Object[] values = new Object[fields.length];
+            for (int i = 0; i < values.length; i++) {
+                values[i] = fields[i].defaultValue;
+            }
+            return values;
+        }
+
+        @SuppressWarnings("unchecked")
+        T create(Object[] values) {
+            try {
+                if (allArgsConstructor != null) {
+                    return (T) allArgsConstructor.invokeExact(values);
+                }
+                Object object = noArgConstructor.invokeExact();
+                for (int i = 0; i < fields.length; i++) {
+                    if (values[i] != null) {
+                        fields[i].setter.invokeExact(object, values[i]);
+                    }
+                }
+                return (T) object;
+            } catch (RuntimeException e) {
+                throw e;
+            } catch (Error e) {
+                throw e;
+            } catch (Throwable t) {
+                throw new IllegalStateException(t);
+            }
+        }
+    }
+
+    private static final class FieldAccessor {
+        private static final Map<Class<?>, Object> PRIMITIVE_DEFAULTS = new LinkedHashMap<Class<?>, Object>();
+
+        static {
+            PRIMITIVE_DEFAULTS.put(boolean.class, false);
+            PRIMITIVE_DEFAULTS.put(byte.class, (byte) 0);
+            PRIMITIVE_DEFAULTS.put(short.class, (short) 0);
+            PRIMITIVE_DEFAULTS.put(char.class, (char) 0);
+            PRIMITIVE_DEFAULTS.put(int.class, 0);
+            PRIMITIVE_DEFAULTS.put(long.class, 0L);
+            PRIMITIVE_DEFAULTS.put(float.class, 0f);
+            PRIMITIVE_DEFAULTS.put(double.class, 0d);
+        }
+
+        final int index;
+        final String name;
+        final Object defaultValue;
+        // (Object)Object 和 (Object,Object)void
+        final MethodHandle getter;
+        final MethodHandle setter;
+        final Function<Object, String> encode;
+        final Function<String, Object> decode;
+
+        FieldAccessor(int index, Field field, MethodHandles.Lookup lookup, boolean needSetter) throws IllegalAccessException {
+            this.index = index;
+            this.name = field.getName();
+            Class<?> type = field.getType();
+            this.defaultValue = PRIMITIVE_DEFAULTS.get(type);
+            field.setAccessible(true);
+            this.getter = lookup.unreflectGetter(field).asType(MethodType.methodType(Object.class, Object.class));
+            this.setter = needSetter
+                    ? lookup.unreflectSetter(field).asType(MethodType.methodType(void.class, Object.class, Object.class))
+                    : null;
+            this.encode = encoder(type);
+            this.decode = decoder(type, field);
+        }
+
+        Object get(Object object) {
+            try {
+                return getter.invokeExact(object);
+            } catch (RuntimeException e) {
+                throw e;
+            } catch (Error e) {
+                throw e;
+            } catch (Throwable t) {
+                throw new IllegalStateException(t);
+            }
+        }
+
+        private static Function<Object, String> encoder(Class<?> type) {
+            if (type.isEnum()) {
+                return value -> ((Enum<?>) value).name();
+            }
+            return String::valueOf;
+        }
+
+        @SuppressWarnings({"unchecked", "rawtypes"})
+        private static Function<String, Object> decoder(final Class<?> type, Field field) {
+            if (type == String.class) {
+                return s -> s;
+            } else if (type == int.class || type == Integer.class) {
+                return Integer::valueOf;
+            } else if (type == long.class || type == Long.class) {
+                return Long::valueOf;
+            } else if (type == double.class || type == Double.class) {
+                return Double::valueOf;
+            } else if (type == float.class || type == Float.class) {
+                return Float::valueOf;
+            } else if (type == boolean.class || type == Boolean.class) {
+                return Boolean::valueOf;
+            } else if (type == short.class || type == Short.class) {
+                return Short::valueOf;
+            } else if (type == byte.class || type == Byte.class) {
+                return Byte::valueOf;
+            } else if (type == char.class || type == Character.class) {
+                return s -> s.isEmpty() ? (char) 0 : s.charAt(0);
+            } else if (type.isEnum()) {
+                return s -> Enum.valueOf((Class) type, s);
+            }
+            throw new IllegalArgumentException("unsupported field type " + type.getName() + " of "
+                    + field.getDeclaringClass().getName() + "." + field.getName());
+        }
+    }
+}
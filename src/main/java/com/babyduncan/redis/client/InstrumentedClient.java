@@ -0,0 +1,237 @@
+package com.babyduncan.redis.client;
+
+import redis.clients.jedis.Client;
+import redis.clients.jedis.Connection;
+import redis.clients.jedis.Protocol;
+import redis.clients.jedis.exceptions.JedisConnectionException;
+import redis.clients.jedis.exceptions.JedisDataException;
+
+import java.util.ArrayDeque;
+import java.util.List;
+
+/**
+ * User: zgh
+ * Date: 26-10-18
+ * Time: 09:40
+ */
+
+/**
+ * 在Connection这一层计时：sendCommand的时候记下命令名、开始时间和请求的字节数，排进队列，
+ * 读回复的时候从队头取出来，算延迟和回复的字节数。Jedis的每个命令（包括SINTER这种多key的、
+ * pipeline和事务里的）最后都走这几个方法，所以不用一个个命令去包。
+ * <p/>
+ * 字节数是按RESP格式从参数和解析后的回复算出来的，状态回复在pipeline里会被当成bulk，可能多算几个字节。
+ * pipeline/事务一批命令的延迟都记成从发出到这一批读完的时间。
+ * 和Jedis一样只能一个线程用。
+ */
+class InstrumentedClient extends Client {
+    private final CommandMetrics metrics;
+    private final ArrayDeque<Pending> pending = new ArrayDeque<Pending>();
+
+    private static final class Pending {
+        final String command;
+        final long start;
+        final long requestBytes;
+
+        Pending(String command, long start, long requestBytes) {
+            this.command = command;
+            this.start = start;
+            this.requestBytes = requestBytes;
+        }
+    }
+
+    InstrumentedClient(String host, int port, CommandMetrics metrics) {
+        super(host, port);
+        this.metrics = metrics;
+    }
+
+    @Override
+    protected Connection sendCommand(Protocol.Command cmd, byte[]... args) {
+        long size = header(args.length + 1) + bulk(cmd.raw);
+        for (byte[] arg : args) {
+            size += bulk(arg);
+        }
+        pending.addLast(new Pending(cmd.name(), System.nanoTime(), size));
+        try {
+            return super.sendCommand(cmd, args);
+        } catch (JedisConnectionException e) {
+            failAll();
+            throw e;
+        }
+    }
+
+    @Override
+    protected Connection sendCommand(Protocol.Command cmd) {
+        pending.addLast(new Pending(cmd.name(), System.nanoTime(), header(1) + bulk(cmd.raw)));
+        try {
+            return super.sendCommand(cmd);
+        } catch (JedisConnectionException e) {
+            failAll();
+            throw e;
+        }
+    }
+
+    @Override
+    protected String getStatusCodeReply() {
+        try {
+            String reply = super.getStatusCodeReply();
+            complete(reply == null ? 5 : reply.length() + 3, false);
+            return reply;
+        } catch (RuntimeException e) {
+            throw failed(e);
+        }
+    }
+
+    @Override
+    public byte[] getBinaryBulkReply() {
+        try {
+            byte[] reply = super.getBinaryBulkReply();
+            complete(bulk(reply), false);
+            return reply;
+        } catch (RuntimeException e) {
+            throw failed(e);
+        }
+    }
+
+    @Override
+    public Long getIntegerReply() {
+        try {
+            Long reply = super.getIntegerReply();
+            complete(size(reply), false);
+            return reply;
+        } catch (RuntimeException e) {
+            throw failed(e);
+        }
+    }
+
+    @Override
+    public List<byte[]> getBinaryMultiBulkReply() {
+        try {
+            List<byte[]> reply = super.getBinaryMultiBulkReply();
+            complete(size(reply), false);
+            return reply;
+        } catch (RuntimeException e) {
+            throw failed(e);
+        }
+    }
+
+    @Override
+    public List<Object> getObjectMultiBulkReply() {
+        try {
+            List<Object> reply = super.getObjectMultiBulkReply();
+            complete(size(reply), false);
+            return reply;
+        } catch (RuntimeException e) {
+            throw failed(e);
+        }
+    }
+
+    @Override
+    public List<Long> getIntegerMultiBulkReply() {
+        try {
+            List<Long> reply = super.getIntegerMultiBulkReply();
+            complete(size(reply), false);
+            return reply;
+        } catch (RuntimeException e) {
+            throw failed(e);
+        }
+    }
+
+    @Override
+    public Object getOne() {
+        try {
+            Object reply = super.getOne();
+            complete(size(reply), false);
+            return reply;
+        } catch (RuntimeException e) {
+            throw failed(e);
+        }
+    }
+
+    /**
+     * pipeline.sync()和事务走这里，回复里的错误是JedisDataException对象，不抛出来。
+     * getAll()内部调的也是它。
+     */
+    @Override
+    public List<Object> getAll(int except) {
+        List<Object> replies;
+        try {
+            replies = super.getAll(except);
+        } catch (RuntimeException e) {
+            throw failed(e);
+        }
+        for (Object reply : replies) {
+            complete(size(reply), reply instanceof JedisDataException);
+        }
+        return replies;
+    }
+
+    @Override
+    public void disconnect() {
+        pending.clear();
+        super.disconnect();
+    }
+
+    private void complete(long responseBytes, boolean error) {
+        Pending p = pending.pollFirst();
+        if (p != null) {
+            metrics.record(p.command, System.nanoTime() - p.start, p.requestBytes, responseBytes, error);
+        }
+    }
+
+    private RuntimeException failed(RuntimeException e) {
+        if (e instanceof JedisDataException) {
+            complete(e.getMessage() == null ? 3 : e.getMessage().length() + 3, true);
+        } else {
+            failAll();
+        }
+        return e;
+    }
+
+    /**
+     * 连接断了，已经发出去的命令都收不到回复了，全部算错误。
+     */
+    private void failAll() {
+        long now = System.nanoTime();
+        Pending p;
+        while ((p = pending.pollFirst()) != null) {
+            metrics.record(p.command, now - p.start, p.requestBytes, 0, true);
+        }
+    }
+
+    private static long size(Object reply) {
+        if (reply == null) {
+            return 5;
+        }
+        if (reply instanceof byte[]) {
+            return bulk((byte[]) reply);
+        }
+        if (reply instanceof Long) {
+            return 3 + Long.toString((Long) reply).length();
+        }
+        if (reply instanceof List) {
+            List<?> list = (List<?>) reply;
+            long size = header(list.size());
+            for (Object o : list) {
+                size += size(o);
+            }
+            return size;
+        }
+        if (reply instanceof JedisDataException) {
+            String message = ((JedisDataException) reply).getMessage();
+            return 3 + (message == null ? 0 : message.length());
+        }
+        return 0;
+    }
+
+    private static long bulk(byte[] value) {
+        if (value == null) {
+            return 5;
+        }
+        return header(value.length) + value.length + 2;
+    }
+
+    private static long header(int length) {
+        return 3 + Integer.toString(length).length();
+    }
+}
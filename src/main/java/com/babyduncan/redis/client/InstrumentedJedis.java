@@ -0,0 +1,89 @@
+package com.babyduncan.redis.client;
+
+import org.apache.commons.pool.BasePoolableObjectFactory;
+import redis.clients.jedis.Jedis;
+
+/**
+ * User: zgh
+ * Date: 26-10-18
+ * Time: 09:55
+ */
+
+/**
+ * 带统计的Jedis：用法和Jedis完全一样，只是把底下的Client换成{@link InstrumentedClient}，
+ * 每个命令的延迟、字节数、错误都记到{@link CommandMetrics}里。
+ * <p/>
+ * 一般不直接new，用RedisConnections.builder().metrics(metrics)，池里的连接就都是这个。
+ */
+public class InstrumentedJedis extends Jedis {
+    private final CommandMetrics metrics;
+
+    public InstrumentedJedis(String host, int port, int timeout, CommandMetrics metrics) {
+        super(host, port, timeout);
+        this.client = new InstrumentedClient(host, port, metrics);
+        this.client.setTimeout(timeout);
+        this.metrics = metrics;
+    }
+
+    public CommandMetrics getMetrics() {
+        return metrics;
+    }
+
+    /**
+     * 和JedisPool里的JedisFactory一样（连上、AUTH、SELECT，销毁时QUIT，校验时PING），只是造出来的是InstrumentedJedis。
+     */
+    static final class Factory extends BasePoolableObjectFactory {
+        private final String host;
+        private final int port;
+        private final int timeout;
+        private final String password;
+        private final int database;
+        private final CommandMetrics metrics;
+
+        Factory(String host, int port, int timeout, String password, int database, CommandMetrics metrics) {
+            this.host = host;
+            this.port = port;
+            this.timeout = timeout;
+            this.password = password;
+            this.database = database;
+            this.metrics = metrics;
+        }
+
+        public Object makeObject() {
+            Jedis jedis = new InstrumentedJedis(host, port, timeout, metrics);
+            jedis.connect();
+            if (password != null) {
+                jedis.auth(password);
+            }
+            if (database != 0) {
+                jedis.select(database);
+            }
+            return jedis;
+        }
+
+        public void destroyObject(Object obj) {
+            Jedis jedis = (Jedis) obj;
+            if (jedis.isConnected()) {
+                try {
+                    jedis.quit();
+                } catch (Exception e) {
+                    // 反正要断开
+                }
+                try {
+                    jedis.disconnect();
+                } catch (Exception e) {
+                    // 同上
+                }
+            }
+        }
+
+        public boolean validateObject(Object obj) {
+            try {
+                Jedis jedis = (Jedis) obj;
+                return jedis.isConnected() && "PONG".equals(jedis.ping());
+            } catch (Exception e) {
+                return false;
+            }
+        }
+    }
+}
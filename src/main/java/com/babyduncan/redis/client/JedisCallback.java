@@ -0,0 +1,16 @@
+package com.babyduncan.redis.client;
+
+import redis.clients.jedis.Jedis;
+
+/**
+ * User: zgh
+ * Date: 26-10-18
+ * Time: 15:02
+ */
+
+/**
+ * 借一个连接做完一件事，借和还由{@link RedisConnections#execute(JedisCallback)}负责。
+ */
+public interface JedisCallback<T> {
+    T doInJedis(Jedis jedis);
+}
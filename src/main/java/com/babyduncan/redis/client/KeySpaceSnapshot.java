@@ -0,0 +1,544 @@
+package com.babyduncan.redis.client;
+
+import redis.clients.jedis.Client;
+import redis.clients.jedis.Jedis;
+import redis.clients.jedis.exceptions.JedisDataException;
+
+import java.io.IOException;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.IdentityHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicReference;
+
+/**
+ * User: zgh
+ * Date: 26-10-18
+ * Time: 17:20
+ */
+
+/**
+ * 把一个db里的key（五种类型）导出成一个紧凑的二进制文件，再原样导回去，代替测试和预发环境里
+ * flushAll以后一条一条重建数据。
+ * <p/>
+ * 导出：KEYS pattern拿到所有key（没有SCAN，只能这样，数据量大的时候会卡住服务器一下），
+ * 每batchSize个key一个pipeline发TYPE+TTL，再一个pipeline按类型发GET/HGETALL/LRANGE/SMEMBERS/ZRANGE WITHSCORES，
+ * 结果顺序写进MappedByteBuffer（文件按REGION_SIZE一段一段映射，写完截到实际长度）。
+ * 不是某一时刻的快照：导出过程中被删掉的key会跳过，改了类型的key会在TYPE和取值之间对不上而跳过。
+ * <p/>
+ * 导入：调用线程顺序解析映射的文件，攒成批丢进有界队列，threads个线程各借一个连接，
+ * 每批一个pipeline：DEL、分块的SET/HMSET/RPUSH/SADD/ZADD、有TTL的再EXPIRE，最后一次读完所有回复。
+ * 已经存在的同名key会被覆盖，TTL从导入时重新开始算（精度是秒）。
+ * <p/>
+ * 文件格式（大端）：8字节魔数，然后一条条记录：
+ * 类型(1字节) key ttl秒(int，-1是没有) 元素个数(int) 元素...，
+ * 字符串/元素都是 长度(int)+字节，hash是field value交替，zset是member+score(double)；
+ * 最后是一个0xFF和记录总数(long)。
+ */
+public final class KeySpaceSnapshot {
+    public static final int DEFAULT_BATCH_SIZE = 512;
+    public static final int DEFAULT_THREADS = 4;
+
+    static final long REGION_SIZE = 64L << 20;
+    // 导入时一条命令最多带这么多元素，大集合拆成几条
+    static final int MAX_ARGS = 1024;
+
+    private static final byte[] MAGIC = {'R', 'U', 'S', 'N', 'A', 'P', 0, 1};
+    private static final byte STRING = 0;
+    private static final byte HASH = 1;
+    private static final byte LIST = 2;
+    private static final byte SET = 3;
+    private static final byte ZSET = 4;
+    private static final byte END = (byte) 0xFF;
+
+    private final RedisConnections connections;
+    private final int batchSize;
+
+    public KeySpaceSnapshot(RedisConnections connections) {
+        this(connections, DEFAULT_BATCH_SIZE);
+    }
+
+    public KeySpaceSnapshot(RedisConnections connections, int batchSize) {
+        if (batchSize <= 0) {
+            throw new IllegalArgumentException("batchSize must be positive: " + batchSize);
+        }
+        this.connections = connections;
+        this.batchSize = batchSize;
+    }
+
+    public Result dump(Path file) throws IOException {
+        return dump(file, "*");
+    }
+
+    /**
+     * 把匹配pattern的key导出到file，已有的文件会被覆盖。
+     */
+    public Result dump(Path file, final String pattern) throws IOException {
+        long start = System.nanoTime();
+        final List<byte[]> keys = connections.execute(jedis -> new ArrayList<byte[]>(jedis.keys(pattern.getBytes(StandardCharsets.UTF_8))));
+        long records = 0;
+        try (MappedWriter out = new MappedWriter(file)) {
+            out.put(MAGIC);
+            for (int from = 0; from < keys.size(); from += batchSize) {
+                final List<byte[]> batch = keys.subList(from, Math.min(from + batchSize, keys.size()));
+                List<Record> fetched = connections.execute(jedis -> fetch(jedis, batch));
+                for (Record record : fetched) {
+                    record.writeTo(out);
+                }
+                records += fetched.size();
+            }
+            out.ensure(9);
+            out.buffer.put(END);
+            out.buffer.putLong(records);
+            return new Result(records, out.length(), System.nanoTime() - start);
+        }
+    }
+
+    private static List<Record> fetch(Jedis jedis, List<byte[]> keys) {
+        Client client = jedis.getClient();
+        for (byte[] key : keys) {
+            client.type(key);
+            client.ttl(key);
+        }
+        // getAll把错误回复当成对象返回而不是抛出来，保证所有回复都读完，连接还能还回池里
+        List<Object> meta = client.getAll();
+        byte[] types = new byte[keys.size()];
+        for (int i = 0; i < keys.size(); i++) {
+            types[i] = typeCode(meta.get(i * 2));
+            if (types[i] >= 0) {
+                send(client, types[i], keys.get(i));
+            }
+        }
+        List<Object> values = client.getAll();
+        List<Record> records = new ArrayList<Record>(keys.size());
+        int v = 0;
+        for (int i = 0; i < keys.size(); i++) {
+            if (types[i] < 0) {
+                continue;
+            }
+            Object value = values.get(v++);
+            if (value instanceof JedisDataException) {
+                // 类型在TYPE和取值之间变了
+                continue;
+            }
+            long ttl = meta.get(i * 2 + 1) instanceof Long ? (Long) meta.get(i * 2 + 1) : -1;
+            Record record = Record.of(types[i], keys.get(i), ttl < 0 ? -1 : (int) ttl, value);
+            if (record != null) {
+                records.add(record);
+            }
+        }
+        return records;
+    }
+
+    private static byte typeCode(Object reply) {
+        String type = reply instanceof byte[] ? new String((byte[]) reply, StandardCharsets.UTF_8) : "none";
+        if ("string".equals(type)) {
+            return STRING;
+        } else if ("hash".equals(type)) {
+            return HASH;
+        } else if ("list".equals(type)) {
+            return LIST;
+        } else if ("set".equals(type)) {
+            return SET;
+        } else if ("zset".equals(type)) {
+            return ZSET;
+        }
+        return -1;
+    }
+
+    private static void send(Client client, byte type, byte[] key) {
+        switch (type) {
+            case STRING:
+                client.get(key);
+                break;
+            case HASH:
+                client.hgetAll(key);
+                break;
+            case LIST:
+                client.lrange(key, 0, -1);
+                break;
+            case SET:
+                client.smembers(key);
+                break;
+            default:
+                client.zrangeWithScores(key, 0, -1);
+        }
+    }
+
+    public Result restore(Path file) throws IOException {
+        return restore(file, DEFAULT_THREADS);
+    }
+
+    /**
+     * 用threads个连接并行导入，连接池的maxActive至少要有threads个。
+     * 有命令出错（比如目标key是别的类型的只读副本）的话其他批照常导，全部导完以后抛出第一个错误。
+     */
+    public Result restore(Path file, int threads) throws IOException {
+        if (threads <= 0) {
+            throw new IllegalArgumentException("threads must be positive: " + threads);
+        }
+        long start = System.nanoTime();
+        final BlockingQueue<List<Record>> queue = new ArrayBlockingQueue<List<Record>>(threads * 2);
+        final List<Record> poison = new ArrayList<Record>();
+        final AtomicReference<RuntimeException> error = new AtomicReference<RuntimeException>();
+        final AtomicInteger ids = new AtomicInteger();
+        ExecutorService workers = Executors.newFixedThreadPool(threads, r -> {
+            Thread t = new Thread(r, "snapshot-restore-" + ids.getAndIncrement());
+            t.setDaemon(true);
+            return t;
+        });
+        for (int i = 0; i < threads; i++) {
+            workers.execute(() -> {
+                try {
+                    for (List<Record> batch = queue.take(); batch != poison; batch = queue.take()) {
+                        final List<Record> records = batch;
+                        try {
+                            connections.execute(jedis -> write(jedis, records));
+                        } catch (RuntimeException e) {
+                            error.compareAndSet(null, e);
+                        }
+                    }
+                } catch (InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                }
+            });
+        }
+        long records = 0;
+        long length;
+        try (MappedReader in = new MappedReader(file)) {
+            byte[] magic = in.bytes(MAGIC.length);
+            if (!Arrays.equals(MAGIC, magic)) {
+                throw new IOException("not a key space snapshot: " + file);
+            }
+            List<Record> batch = new ArrayList<Record>(batchSize);
+            for (Record record = Record.readFrom(in); record != null; record = Record.readFrom(in)) {
+                batch.add(record);
+                records++;
+                if (batch.size() == batchSize) {
+                    put(queue, batch);
+                    batch = new ArrayList<Record>(batchSize);
+                }
+            }
+            long expected = in.buffer().getLong();
+            if (expected != records) {
+                throw new IOException("truncated snapshot: expected " + expected + " records, read " + records);
+            }
+            if (!batch.isEmpty()) {
+                put(queue, batch);
+            }
+            length = in.position();
+        } finally {
+            // 这里抛异常会盖住try里原来的异常，所以被中断了也要把结束标记放进去，中断状态留给调用方
+            for (int i = 0; i < threads; i++) {
+                putUninterruptibly(queue, poison);
+            }
+            workers.shutdown();
+            try {
+                workers.awaitTermination(Long.MAX_VALUE, TimeUnit.NANOSECONDS);
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            }
+        }
+        if (error.get() != null) {
+            throw error.get();
+        }
+        return new Result(records, length, System.nanoTime() - start);
+    }
+
+    private static void put(BlockingQueue<List<Record>> queue, List<Record> batch) {
+        try {
+            queue.put(batch);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new IllegalStateException("interrupted while restoring", e);
+        }
+    }
+
+    private static void putUninterruptibly(BlockingQueue<List<Record>> queue, List<Record> batch) {
+        boolean interrupted = false;
+        while (true) {
+            try {
+                queue.put(batch);
+                break;
+            } catch (InterruptedException e) {
+                interrupted = true;
+            }
+        }
+        if (interrupted) {
+            Thread.currentThread().interrupt();
+        }
+    }
+
+    private static Void write(Jedis jedis, List<Record> records) {
+        Client client = jedis.getClient();
+        for (Record record : records) {
+            record.sendTo(client);
+        }
+        for (Object reply : client.getAll()) {
+            if (reply instanceof JedisDataException) {
+                throw (JedisDataException) reply;
+            }
+        }
+        return null;
+    }
+
+    private static final class Record {
+        final byte type;
+        final byte[] key;
+        final int ttl;
+        final byte[][] elements;
+        final double[] scores;
+
+        Record(byte type, byte[] key, int ttl, byte[][] elements, double[] scores) {
+            this.type = type;
+            this.key = key;
+            this.ttl = ttl;
+            this.elements = elements;
+            this.scores = scores;
+        }
+
+        @SuppressWarnings("unchecked")
+        static Record of(byte type, byte[] key, int ttl, Object value) {
+            if (type == STRING) {
+                return value == null ? null : new Record(type, key, ttl, new byte[][]{(byte[]) value}, null);
+            }
+            List<Object> items = (List<Object>) value;
+            if (items == null || items.isEmpty()) {
+                return null;
+            }
+            if (type != ZSET) {
+                return new Record(type, key, ttl, items.toArray(new byte[items.size()][]), null);
+            }
+            byte[][] members = new byte[items.size() / 2][];
+            double[] scores = new double[members.length];
+            for (int i = 0; i < members.length; i++) {
+                members[i] = (byte[]) items.get(i * 2);
+                scores[i] = score(new String((byte[]) items.get(i * 2 + 1), StandardCharsets.US_ASCII));
+            }
+            return new Record(type, key, ttl, members, scores);
+        }
+
+        private static double score(String s) {
+            if ("inf".equals(s) || "+inf".equals(s)) {
+                return Double.POSITIVE_INFINITY;
+            }
+            return "-inf".equals(s) ? Double.NEGATIVE_INFINITY : Double.parseDouble(s);
+        }
+
+        void writeTo(MappedWriter out) throws IOException {
+            out.ensure(1 + 4 + key.length + 4 + 4);
+            out.buffer.put(type);
+            out.bytes(key);
+            out.buffer.putInt(ttl);
+            out.buffer.putInt(elements.length);
+            for (int i = 0; i < elements.length; i++) {
+                out.bytes(elements[i]);
+                if (scores != null) {
+                    out.ensure(8);
+                    out.buffer.putDouble(scores[i]);
+                }
+            }
+        }
+
+        /**
+         * 读到结束标记返回null。
+         */
+        static Record readFrom(MappedReader in) throws IOException {
+            byte type = in.buffer(1).get();
+            if (type == END) {
+                in.buffer(8);
+                return null;
+            }
+            if (type < STRING || type > ZSET) {
+                throw new IOException("corrupt snapshot: unknown type " + type + " at " + (in.position() - 1));
+            }
+            byte[] key = in.bytes(in.buffer(4).getInt());
+            int ttl = in.buffer(4).getInt();
+            byte[][] elements = new byte[in.buffer(4).getInt()][];
+            double[] scores = type == ZSET ? new double[elements.length] : null;
+            for (int i = 0; i < elements.length; i++) {
+                elements[i] = in.bytes(in.buffer(4).getInt());
+                if (scores != null) {
+                    scores[i] = in.buffer(8).getDouble();
+                }
+            }
+            return new Record(type, key, ttl, elements, scores);
+        }
+
+        void sendTo(Client client) {
+            client.del(key);
+            switch (type) {
+                case STRING:
+                    client.set(key, elements[0]);
+                    break;
+                case HASH:
+                    for (int from = 0; from < elements.length; from += MAX_ARGS * 2) {
+                        Map<byte[], byte[]> hash = new IdentityHashMap<byte[], byte[]>();
+                        for (int i = from; i < Math.min(from + MAX_ARGS * 2, elements.length); i += 2) {
+                            hash.put(elements[i], elements[i + 1]);
+                        }
+                        client.hmset(key, hash);
+                    }
+                    break;
+                case LIST:
+                case SET:
+                    for (int from = 0; from < elements.length; from += MAX_ARGS) {
+                        byte[][] chunk = Arrays.copyOfRange(elements, from, Math.min(from + MAX_ARGS, elements.length));
+                        if (type == LIST) {
+                            client.rpush(key, chunk);
+                        } else {
+                            client.sadd(key, chunk);
+                        }
+                    }
+                    break;
+                default:
+                    // jedis 2.1的ZADD多成员版本是Map<Double, byte[]>，同分的成员会互相覆盖，只能一个成员一条
+                    for (int i = 0; i < elements.length; i++) {
+                        client.zadd(key, scores[i], elements[i]);
+                    }
+            }
+            if (ttl > 0) {
+                client.expire(key, ttl);
+            }
+        }
+    }
+
+    /**
+     * 按REGION_SIZE一段一段映射着写，空间不够就从当前位置重新映射一段，关闭的时候截掉没写的部分。
+     */
+    private static final class MappedWriter implements AutoCloseable {
+        private final FileChannel channel;
+        private long base;
+        MappedByteBuffer buffer;
+
+        MappedWriter(Path file) throws IOException {
+            channel = FileChannel.open(file, StandardOpenOption.CREATE, StandardOpenOption.READ,
+                    StandardOpenOption.WRITE, StandardOpenOption.TRUNCATE_EXISTING);
+            buffer = channel.map(FileChannel.MapMode.READ_WRITE, 0, REGION_SIZE);
+        }
+
+        void ensure(int n) throws IOException {
+            if (buffer.remaining() < n) {
+                buffer.force();
+                base += buffer.position();
+                buffer = channel.map(FileChannel.MapMode.READ_WRITE, base, Math.max(REGION_SIZE, n));
+            }
+        }
+
+        void put(byte[] bytes) throws IOException {
+            ensure(bytes.length);
+            buffer.put(bytes);
+        }
+
+        void bytes(byte[] bytes) throws IOException {
+            ensure(4 + bytes.length);
+            buffer.putInt(bytes.length);
+            buffer.put(bytes);
+        }
+
+        long length() {
+            return base + buffer.position();
+        }
+
+        public void close() throws IOException {
+            try {
+                buffer.force();
+                channel.truncate(length());
+            } finally {
+                channel.close();
+            }
+        }
+    }
+
+    private static final class MappedReader implements AutoCloseable {
+        private final FileChannel channel;
+        private final long size;
+        private long base;
+        private MappedByteBuffer buffer;
+
+        MappedReader(Path file) throws IOException {
+            channel = FileChannel.open(file, StandardOpenOption.READ);
+            size = channel.size();
+            buffer = channel.map(FileChannel.MapMode.READ_ONLY, 0, Math.min(REGION_SIZE, size));
+        }
+
+        /**
+         * 保证后面至少有n个字节可读，返回当前的buffer。
+         */
+        MappedByteBuffer buffer(int n) throws IOException {
+            if (buffer.remaining() < n) {
+                base += buffer.position();
+                if (base + n > size) {
+                    throw new IOException("truncated snapshot at " + base);
+                }
+                buffer = channel.map(FileChannel.MapMode.READ_ONLY, base, Math.min(Math.max(REGION_SIZE, n), size - base));
+            }
+            return buffer;
+        }
+
+        MappedByteBuffer buffer() throws IOException {
+            return buffer(8);
+        }
+
+        byte[] bytes(int n) throws IOException {
+            if (n < 0) {
+                throw new IOException("corrupt snapshot: negative length at " + position());
+            }
+            byte[] bytes = new byte[n];
+            buffer(n).get(bytes);
+            return bytes;
+        }
+
+        long position() {
+            return base + buffer.position();
+        }
+
+        public void close() throws IOException {
+            channel.close();
+        }
+    }
+
+    public static final class Result {
+        private final long keys;
+        private final long bytes;
+        private final long elapsedNanos;
+
+        Result(long keys, long bytes, long elapsedNanos) {
+            this.keys = keys;
+            this.bytes = bytes;
+            this.elapsedNanos = elapsedNanos;
+        }
+
+        public long getKeys() {
+            return keys;
+        }
+
+        /**
+         * 文件的字节数。
+         */
+        public long getBytes() {
+            return bytes;
+        }
+
+        public long getElapsedNanos() {
+            return elapsedNanos;
+        }
+
+        @Override
+        public String toString() {
+            return "Result{keys=" + keys + ", bytes=" + bytes + ", elapsedMillis=" + elapsedNanos / 1000000 + "}";
+        }
+    }
+}
@@ -0,0 +1,149 @@
+package com.babyduncan.redis.client;
+
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+
+/**
+ * User: zgh
+ * Date: 26-10-18
+ * Time: 22:55
+ */
+
+/**
+ * 无锁的延迟直方图，思路和HdrHistogram一样：按2的幂分段，每段再等分成64个小格，
+ * 所以任何值的相对误差都不超过1/64（约1.6%），几十纳秒到一小时只要两千多个计数器。
+ * <p/>
+ * record只做一次AtomicLongArray的自增，多线程同时记录不加锁；
+ * snapshot()拷贝一份计数算分位数，snapshotAndReset()拷贝的同时清零，用来做按时间段的统计，
+ * 每次记录只会落在一个时间段里。单位是纳秒，超过一小时的按一小时记。
+ */
+public final class LatencyHistogram {
+    private static final int SUB_BUCKET_BITS = 7;
+    private static final int HALF = 1 << (SUB_BUCKET_BITS - 1);
+    private static final long MAX_VALUE = TimeUnit.HOURS.toNanos(1);
+    private static final int BUCKETS = index(MAX_VALUE) + 1;
+
+    private final AtomicLongArray counts = new AtomicLongArray(BUCKETS);
+    private final AtomicLong max = new AtomicLong();
+
+    static int index(long value) {
+        int shift = 64 - Long.numberOfLeadingZeros(value) - SUB_BUCKET_BITS;
+        if (shift <= 0) {
+            return (int) value;
+        }
+        return shift * HALF + (int) (value >>> shift);
+    }
+
+    /**
+     * 这个格子里最大的那个值，分位数按它报，宁可偏大一点。
+     */
+    static long highestValue(int index) {
+        if (index < 2 * HALF) {
+            return index;
+        }
+        int shift = index / HALF - 1;
+        long mantissa = index - shift * HALF;
+        return ((mantissa + 1) << shift) - 1;
+    }
+
+    public void record(long nanos) {
+        record(nanos, 1);
+    }
+
+    /**
+     * 一次记count个同样的值，pipeline里一批命令共用一个往返时间的时候用。
+     */
+    public void record(long nanos, long count) {
+        long v = Math.min(Math.max(nanos, 0), MAX_VALUE);
+        counts.addAndGet(index(v), count);
+        long m;
+        while (v > (m = max.get()) && !max.compareAndSet(m, v)) {
+            // 重试
+        }
+    }
+
+    public Snapshot snapshot() {
+        long[] copy = new long[BUCKETS];
+        for (int i = 0; i < BUCKETS; i++) {
+            copy[i] = counts.get(i);
+        }
+        return new Snapshot(copy, max.get());
+    }
+
+    public Snapshot snapshotAndReset() {
+        long[] copy = new long[BUCKETS];
+        for (int i = 0; i < BUCKETS; i++) {
+            copy[i] = counts.getAndSet(i, 0);
+        }
+        return new Snapshot(copy, max.getAndSet(0));
+    }
+
+    /**
+     * 某一时刻的计数拷贝，不再变化，可以合并。
+     */
+    public static final class Snapshot {
+        private final long[] counts;
+        private final long max;
+        private final long count;
+        private final double sum;
+
+        Snapshot(long[] counts, long max) {
+            this.counts = counts;
+            this.max = max;
+            long n = 0;
+            double s = 0;
+            for (int i = 0; i < counts.length; i++) {
+                if (counts[i] != 0) {
+                    n += counts[i];
+                    s += (double) counts[i] * highestValue(i);
+                }
+            }
+            this.count = n;
+            this.sum = s;
+        }
+
+        public static Snapshot empty() {
+            return new Snapshot(new long[BUCKETS], 0);
+        }
+
+        public Snapshot merge(Snapshot other) {
+            long[] merged = new long[BUCKETS];
+            for (int i = 0; i < BUCKETS; i++) {
+                merged[i] = counts[i] + other.counts[i];
+            }
+            return new Snapshot(merged, Math.max(max, other.max));
+        }
+
+        public long getCount() {
+            return count;
+        }
+
+        public long getMax() {
+            return max;
+        }
+
+        public double getMean() {
+            return count == 0 ? 0 : sum / count;
+        }
+
+        /**
+         * percentile取0到100，比如99.9。
+         */
+        public long getValueAtPercentile(double percentile) {
+            if (count == 0) {
+                return 0;
+            }
+            long rank = (long) Math.ceil(percentile / 100.0 * count);
+            rank = Math.max(1, Math.min(rank, count));
+            long seen = 0;
+            for (int i = 0; i < counts.length; i++) {
+                seen += counts[i];
+                if (seen >= rank) {
+                    return Math.min(highestValue(i), max);
+                }
+            }
+            return max;
+        }
+    }
+}
@@ -0,0 +1,67 @@
+package com.babyduncan.redis.client;
+
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+
+/**
+ * User: zgh
+ * Date: 26-10-18
+ * Time: 19:02
+ */
+
+/**
+ * redis回复的原始字节，用到的时候才解码：只转发或者只看长度的话就不会生成String。
+ * asString()的结果会记下来，同一个LazyValue多次调用只解码一次。
+ */
+public final class LazyValue {
+    private final byte[] raw;
+    private String string;
+
+    public LazyValue(byte[] raw) {
+        if (raw == null) {
+            throw new NullPointerException("raw");
+        }
+        this.raw = raw;
+    }
+
+    /**
+     * null进null出，方便直接包装回复。
+     */
+    public static LazyValue of(byte[] raw) {
+        return raw == null ? null : new LazyValue(raw);
+    }
+
+    public byte[] bytes() {
+        return raw;
+    }
+
+    public ByteBuffer buffer() {
+        return ByteBuffer.wrap(raw).asReadOnlyBuffer();
+    }
+
+    public int length() {
+        return raw.length;
+    }
+
+    public String asString() {
+        String s = string;
+        if (s == null) {
+            s = new String(raw, StandardCharsets.UTF_8);
+            string = s;
+        }
+        return s;
+    }
+
+    public long asLong() {
+        return Codecs.parseLong(raw);
+    }
+
+    public <T> T as(ValueCodec<T> codec) {
+        return codec.decode(raw);
+    }
+
+    @Override
+    public String toString() {
+        return asString();
+    }
+}
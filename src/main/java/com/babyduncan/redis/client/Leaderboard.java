@@ -0,0 +1,368 @@
+package com.babyduncan.redis.client;
+
+import redis.clients.jedis.Pipeline;
+import redis.clients.jedis.Response;
+import redis.clients.jedis.Tuple;
+import redis.clients.jedis.exceptions.JedisDataException;
+
+import java.io.Closeable;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * User: zgh
+ * Date: 26-10-18
+ * Time: 11:05
+ */
+
+/**
+ * 排行榜，底下是一个sorted set，分数从高到低排，rank从0开始。
+ * <p/>
+ * 写：incrementScore只在本地把同一个玩家的增量合并起来，后台每flushIntervalMillis
+ * 把所有玩家攒下的增量在一个pipeline里用ZINCRBY发出去，每秒几万次加分变成每个周期每个玩家一条命令。
+ * 和CounterAggregator不同，这里玩家是无限多的，所以不用常驻的LongAdder，
+ * 而是ConcurrentHashMap.merge累加、flush时remove(member, 读到的值)摘走，摘成功的才发，
+ * 摘的同时有人又加了分就下次再发，map里只留着还没发出去的玩家。
+ * 投递是at-least-once：pipeline发出去以后连接出错，不知道哪些ZINCRBY已经执行了，整批放回本地下次重发，
+ * 已经执行过的分数会多加一次。
+ * <p/>
+ * 读：top(n)（n不超过topSize）直接返回后台每refreshMillis刷新一次的前topSize名；
+ * aroundMe(member, radius)按玩家缓存一个窗口，refreshMillis内重复看不再访问redis。
+ * 所以读到的排名最多落后一个flush周期加一个刷新周期，排行榜一般能接受。
+ */
+public final class Leaderboard implements Closeable {
+    public static final long DEFAULT_FLUSH_INTERVAL_MILLIS = 100;
+    public static final int DEFAULT_TOP_SIZE = 100;
+    public static final long DEFAULT_REFRESH_MILLIS = 1000;
+    private static final int MAX_CACHED_WINDOWS = 10000;
+
+    private final RedisConnections connections;
+    private final String key;
+    private final int topSize;
+    private final long refreshNanos;
+    private final ConcurrentHashMap<String, Long> pending = new ConcurrentHashMap<String, Long>();
+    private final ScheduledExecutorService scheduler;
+    private final Object flushLock = new Object();
+    private final Map<String, Window> windows = new LinkedHashMap<String, Window>(64, 0.75f, true) {
+        @Override
+        protected boolean removeEldestEntry(Map.Entry<String, Window> eldest) {
+            return size() > MAX_CACHED_WINDOWS;
+        }
+    };
+    private volatile List<Entry> top;
+    private volatile boolean closed;
+    // 正在incrementScore的线程数，close()等它归零再做最后一次flush
+    private final LongAdder writers = new LongAdder();
+
+    private final LongAdder updates = new LongAdder();
+    private final LongAdder flushes = new LongAdder();
+    private final LongAdder commandsSent = new LongAdder();
+    private final LongAdder flushErrors = new LongAdder();
+    private final LongAdder cacheHits = new LongAdder();
+    private final LongAdder cacheMisses = new LongAdder();
+
+    public Leaderboard(RedisConnections connections, String key) {
+        this(connections, key, DEFAULT_FLUSH_INTERVAL_MILLIS, DEFAULT_TOP_SIZE, DEFAULT_REFRESH_MILLIS);
+    }
+
+    public Leaderboard(RedisConnections connections, String key, long flushIntervalMillis, int topSize, long refreshMillis) {
+        if (flushIntervalMillis <= 0 || topSize <= 0 || refreshMillis <= 0) {
+            throw new IllegalArgumentException("flushIntervalMillis, topSize and refreshMillis must be positive");
+        }
+        this.connections = connections;
+        this.key = key;
+        this.topSize = topSize;
+        this.refreshNanos = TimeUnit.MILLISECONDS.toNanos(refreshMillis);
+        this.scheduler = Executors.newSingleThreadScheduledExecutor(r -> {
+            Thread t = new Thread(r, "leaderboard-" + key);
+            t.setDaemon(true);
+            return t;
+        });
+        scheduler.scheduleWithFixedDelay(this::backgroundFlush, flushIntervalMillis, flushIntervalMillis, TimeUnit.MILLISECONDS);
+        scheduler.scheduleWithFixedDelay(this::backgroundRefresh, refreshMillis, refreshMillis, TimeUnit.MILLISECONDS);
+    }
+
+    public String getKey() {
+        return key;
+    }
+
+    public void incrementScore(String member, long delta) {
+        // 先登记再检查closed，close()先置closed再等writers归零，close之后不会再有增量漏在本地
+        writers.increment();
+        try {
+            if (closed) {
+                throw new IllegalStateException("leaderboard is closed");
+            }
+            if (delta == 0) {
+                return;
+            }
+            pending.merge(member, delta, Long::sum);
+            updates.increment();
+        } finally {
+            writers.decrement();
+        }
+    }
+
+    /**
+     * 本地攒着还没发到redis的分数。
+     */
+    public long pending(String member) {
+        Long delta = pending.get(member);
+        return delta == null ? 0 : delta;
+    }
+
+    /**
+     * 前n名。n不超过topSize时读缓存，否则直接ZREVRANGE。
+     */
+    public List<Entry> top(int n) {
+        if (n <= 0) {
+            return Collections.emptyList();
+        }
+        if (n > topSize) {
+            cacheMisses.increment();
+            return range(0, n - 1);
+        }
+        List<Entry> cached = top;
+        if (cached == null) {
+            cacheMisses.increment();
+            cached = refresh();
+        } else {
+            cacheHits.increment();
+        }
+        return cached.size() <= n ? cached : cached.subList(0, n);
+    }
+
+    /**
+     * member前后各radius名（包括自己），member不在榜上返回空列表。
+     */
+    public List<Entry> aroundMe(final String member, int radius) {
+        long now = System.nanoTime();
+        synchronized (windows) {
+            Window w = windows.get(member);
+            if (w != null && w.radius >= radius && now - w.fetchedAt < refreshNanos) {
+                cacheHits.increment();
+                return w.slice(member, radius);
+            }
+        }
+        cacheMisses.increment();
+        Long rank = connections.execute(jedis -> jedis.zrevrank(key, member));
+        if (rank == null) {
+            return Collections.emptyList();
+        }
+        Window w = new Window(radius, now, range(Math.max(0, rank - radius), rank + radius));
+        synchronized (windows) {
+            windows.put(member, w);
+        }
+        return w.slice(member, radius);
+    }
+
+    /**
+     * 重新拉一次前topSize名，后台定时调，也可以手动调。
+     */
+    public List<Entry> refresh() {
+        List<Entry> fresh = Collections.unmodifiableList(range(0, topSize - 1));
+        top = fresh;
+        return fresh;
+    }
+
+    private List<Entry> range(final long start, final long end) {
+        Set<Tuple> tuples = connections.execute(jedis -> jedis.zrevrangeWithScores(key, start, end));
+        List<Entry> entries = new ArrayList<Entry>(tuples.size());
+        long rank = start;
+        for (Tuple t : tuples) {
+            entries.add(new Entry(t.getElement(), t.getScore(), rank++));
+        }
+        return entries;
+    }
+
+    private void backgroundFlush() {
+        try {
+            flush();
+        } catch (RuntimeException e) {
+            // 增量已经放回pending，下一轮再发
+            flushErrors.increment();
+        }
+    }
+
+    private void backgroundRefresh() {
+        try {
+            refresh();
+        } catch (RuntimeException e) {
+            // 继续用旧的
+        }
+    }
+
+    /**
+     * 把所有攒下的增量在一个pipeline里用ZINCRBY发出去，返回发了几条命令。
+     * 发送失败的增量放回本地，最后抛出第一个错误。
+     */
+    public int flush() {
+        synchronized (flushLock) {
+            final List<String> members = new ArrayList<String>();
+            final List<Long> deltas = new ArrayList<Long>();
+            for (Map.Entry<String, Long> e : pending.entrySet()) {
+                String member = e.getKey();
+                Long delta = e.getValue();
+                if (pending.remove(member, delta)) {
+                    members.add(member);
+                    deltas.add(delta);
+                }
+            }
+            if (members.isEmpty()) {
+                return 0;
+            }
+            List<Response<Double>> responses;
+            try {
+                responses = connections.execute(jedis -> {
+                    Pipeline p = jedis.pipelined();
+                    List<Response<Double>> r = new ArrayList<Response<Double>>(members.size());
+                    for (int i = 0; i < members.size(); i++) {
+                        r.add(p.zincrby(key, deltas.get(i), members.get(i)));
+                    }
+                    p.sync();
+                    return r;
+                });
+            } catch (RuntimeException e) {
+                for (int i = 0; i < members.size(); i++) {
+                    pending.merge(members.get(i), deltas.get(i), Long::sum);
+                }
+                throw e;
+            }
+            flushes.increment();
+            commandsSent.add(members.size());
+            JedisDataException error = null;
+            for (int i = 0; i < responses.size(); i++) {
+                try {
+                    responses.get(i).get();
+                } catch (JedisDataException e) {
+                    flushErrors.increment();
+                    pending.merge(members.get(i), deltas.get(i), Long::sum);
+                    if (error == null) {
+                        error = new JedisDataException("ZINCRBY " + key + " " + members.get(i) + " failed: " + e.getMessage());
+                    }
+                }
+            }
+            if (error != null) {
+                throw error;
+            }
+            return members.size();
+        }
+    }
+
+    /**
+     * 不再接受incrementScore，停掉后台任务，等已经在加分的做完，再同步flush一次。
+     */
+    public void close() {
+        if (closed) {
+            return;
+        }
+        closed = true;
+        while (writers.sum() != 0) {
+            Thread.yield();
+        }
+        scheduler.shutdown();
+        try {
+            scheduler.awaitTermination(5, TimeUnit.SECONDS);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+        flush();
+    }
+
+    public long getUpdates() {
+        return updates.sum();
+    }
+
+    public long getFlushes() {
+        return flushes.sum();
+    }
+
+    /**
+     * 实际发出去的ZINCRBY条数，getUpdates()/getCommandsSent()就是合并的倍数。
+     */
+    public long getCommandsSent() {
+        return commandsSent.sum();
+    }
+
+    public long getFlushErrors() {
+        return flushErrors.sum();
+    }
+
+    public long getCacheHits() {
+        return cacheHits.sum();
+    }
+
+    public long getCacheMisses() {
+        return cacheMisses.sum();
+    }
+
+    /**
+     * 榜上的一项，rank从0开始。
+     */
+    public static final class Entry {
+        private final String member;
+        private final double score;
+        private final long rank;
+
+        Entry(String member, double score, long rank) {
+            this.member = member;
+            this.score = score;
+            this.rank = rank;
+        }
+
+        public String getMember() {
+            return member;
+        }
+
+        public double getScore() {
+            return score;
+        }
+
+        public long getRank() {
+            return rank;
+        }
+
+        @Override
+        public String toString() {
+            return rank + ":" + member + "=" + score;
+        }
+    }
+
+    private static final class Window {
+        final int radius;
+        final long fetchedAt;
+        final List<Entry> entries;
+
+        Window(int radius, long fetchedAt, List<Entry> entries) {
+            this.radius = radius;
+            this.fetchedAt = fetchedAt;
+            this.entries = entries;
+        }
+
+        /**
+         * 以member为中心截出前后radius名；拉窗口和现在之间member的名次可能变了，按窗口里的位置算。
+         */
+        List<Entry> slice(String member, int radius) {
+            int at = -1;
+            for (int i = 0; i < entries.size(); i++) {
+                if (entries.get(i).member.equals(member)) {
+                    at = i;
+                    break;
+                }
+            }
+            if (at < 0) {
+                return Collections.unmodifiableList(entries);
+            }
+            return Collections.unmodifiableList(entries.subList(Math.max(0, at - radius), Math.min(entries.size(), at + radius + 1)));
+        }
+    }
+}
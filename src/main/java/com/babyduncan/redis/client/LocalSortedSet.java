@@ -0,0 +1,418 @@
+package com.babyduncan.redis.client;
+
+import redis.clients.jedis.Tuple;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.locks.ReadWriteLock;
+import java.util.concurrent.locks.ReentrantReadWriteLock;
+
+/**
+ * User: zgh
+ * Date: 26-10-18
+ * Time: 12:30
+ */
+
+/**
+ * jvm里的sorted set副本，结构和redis的zset一样：dict(member -> score) + 按(score, member)排序的跳表，
+ * 跳表每一层的指针都记着跨过了几个节点（span），所以按member求名次、按名次取元素都是O(log n)，
+ * java.util.TreeSet做不到（headSet(x).size()要一个个数）。
+ * <p/>
+ * 用法：load(connections, key)用ZRANGE key 0 -1 WITHSCORES拉一份快照，之后写redis的同时
+ * 在这里调zadd/zincrby/zrem保持同步，排名类的读请求（zrank、zrangebyscore、zcount、zscore）就不用走网络了。
+ * 读写锁保护，读多写少的时候多个线程同时读不互相阻塞。
+ * 分数相同按member排序，比较用String.compareTo，member都是ASCII的时候和redis一致。
+ */
+public final class LocalSortedSet {
+    private static final int MAX_LEVEL = 32;
+
+    private final Map<String, Double> dict = new HashMap<String, Double>();
+    private final Node header = new Node(null, 0, MAX_LEVEL);
+    private int level = 1;
+    private long length;
+    private final ReadWriteLock lock = new ReentrantReadWriteLock();
+
+    /**
+     * 拉一份redis里key的快照，key不存在就是空的。
+     */
+    public static LocalSortedSet load(RedisConnections connections, final String key) {
+        Set<Tuple> tuples = connections.execute(jedis -> jedis.zrangeWithScores(key, 0, -1));
+        LocalSortedSet set = new LocalSortedSet();
+        for (Tuple t : tuples) {
+            set.zadd(t.getElement(), t.getScore());
+        }
+        return set;
+    }
+
+    /**
+     * @return true 如果是新member
+     */
+    public boolean zadd(String member, double score) {
+        score = checkScore(score);
+        lock.writeLock().lock();
+        try {
+            Double old = dict.put(member, score);
+            if (old != null) {
+                if (Double.compare(old, score) == 0) {
+                    return false;
+                }
+                delete(old, member);
+            }
+            insert(score, member);
+            return old == null;
+        } finally {
+            lock.writeLock().unlock();
+        }
+    }
+
+    /**
+     * 返回加完以后的分数，member不存在相当于从0开始加。
+     */
+    public double zincrby(String member, double delta) {
+        lock.writeLock().lock();
+        try {
+            Double old = dict.get(member);
+            double score = checkScore((old == null ? 0 : old) + delta);
+            if (old != null) {
+                delete(old, member);
+            }
+            dict.put(member, score);
+            insert(score, member);
+            return score;
+        } finally {
+            lock.writeLock().unlock();
+        }
+    }
+
+    public boolean zrem(String member) {
+        lock.writeLock().lock();
+        try {
+            Double old = dict.remove(member);
+            if (old == null) {
+                return false;
+            }
+            delete(old, member);
+            return true;
+        } finally {
+            lock.writeLock().unlock();
+        }
+    }
+
+    public Double zscore(String member) {
+        lock.readLock().lock();
+        try {
+            return dict.get(member);
+        } finally {
+            lock.readLock().unlock();
+        }
+    }
+
+    public long zcard() {
+        lock.readLock().lock();
+        try {
+            return length;
+        } finally {
+            lock.readLock().unlock();
+        }
+    }
+
+    /**
+     * 从小到大、从0开始的名次，member不存在返回null，和Jedis.zrank一样。
+     */
+    public Long zrank(String member) {
+        lock.readLock().lock();
+        try {
+            Double score = dict.get(member);
+            return score == null ? null : rankOf(score, member) - 1;
+        } finally {
+            lock.readLock().unlock();
+        }
+    }
+
+    /**
+     * 从大到小的名次。
+     */
+    public Long zrevrank(String member) {
+        lock.readLock().lock();
+        try {
+            Double score = dict.get(member);
+            return score == null ? null : length - rankOf(score, member);
+        } finally {
+            lock.readLock().unlock();
+        }
+    }
+
+    /**
+     * 按名次取，start/end可以是负数（-1是最后一个），和ZRANGE一样。
+     */
+    public List<Tuple> zrangeWithScores(long start, long end) {
+        return rangeByRank(start, end, false);
+    }
+
+    public List<Tuple> zrevrangeWithScores(long start, long end) {
+        return rangeByRank(start, end, true);
+    }
+
+    public List<Tuple> zrangeByScoreWithScores(double min, double max) {
+        return zrangeByScoreWithScores(min, false, max, false, 0, -1);
+    }
+
+    /**
+     * 分数在区间里的，minExclusive/maxExclusive相当于ZRANGEBYSCORE的"("，count小于0表示不限个数（LIMIT offset count）。
+     */
+    public List<Tuple> zrangeByScoreWithScores(double min, boolean minExclusive, double max, boolean maxExclusive,
+                                               int offset, int count) {
+        lock.readLock().lock();
+        try {
+            if (isEmptyRange(min, minExclusive, max, maxExclusive) || offset < 0) {
+                return Collections.emptyList();
+            }
+            List<Tuple> result = new ArrayList<Tuple>();
+            Node x = firstInRange(min, minExclusive);
+            for (int skipped = 0; x != null && skipped < offset; skipped++) {
+                x = x.forward[0];
+            }
+            while (x != null && (count < 0 || result.size() < count)
+                    && (maxExclusive ? x.score < max : x.score <= max)) {
+                result.add(new Tuple(x.member, x.score));
+                x = x.forward[0];
+            }
+            return result;
+        } finally {
+            lock.readLock().unlock();
+        }
+    }
+
+    /**
+     * 分数在[min, max]里的个数，O(log n)，不用遍历区间。
+     */
+    public long zcount(double min, double max) {
+        return zcount(min, false, max, false);
+    }
+
+    public long zcount(double min, boolean minExclusive, double max, boolean maxExclusive) {
+        lock.readLock().lock();
+        try {
+            if (isEmptyRange(min, minExclusive, max, maxExclusive)) {
+                return 0;
+            }
+            Node first = firstInRange(min, minExclusive);
+            if (first == null || (maxExclusive ? first.score >= max : first.score > max)) {
+                return 0;
+            }
+            Node last = lastInRange(max, maxExclusive);
+            return rankOf(last.score, last.member) - rankOf(first.score, first.member) + 1;
+        } finally {
+            lock.readLock().unlock();
+        }
+    }
+
+    private List<Tuple> rangeByRank(long start, long end, boolean reverse) {
+        lock.readLock().lock();
+        try {
+            if (start < 0) {
+                start = Math.max(0, length + start);
+            }
+            if (end < 0) {
+                end = length + end;
+            }
+            end = Math.min(end, length - 1);
+            if (start > end) {
+                return Collections.emptyList();
+            }
+            List<Tuple> result = new ArrayList<Tuple>((int) (end - start + 1));
+            if (reverse) {
+                Node x = byRank(length - start);
+                for (long i = start; i <= end; i++) {
+                    result.add(new Tuple(x.member, x.score));
+                    x = x.backward;
+                }
+            } else {
+                Node x = byRank(start + 1);
+                for (long i = start; i <= end; i++) {
+                    result.add(new Tuple(x.member, x.score));
+                    x = x.forward[0];
+                }
+            }
+            return result;
+        } finally {
+            lock.readLock().unlock();
+        }
+    }
+
+    /**
+     * -0.0换成0.0：跳表按Double.compare排序，两者不相等，dict和跳表里会对不上。
+     */
+    private static double checkScore(double score) {
+        if (Double.isNaN(score)) {
+            throw new IllegalArgumentException("score is not a number");
+        }
+        return score == 0 ? 0.0 : score;
+    }
+
+    private static boolean isEmptyRange(double min, boolean minExclusive, double max, boolean maxExclusive) {
+        return min > max || (min == max && (minExclusive || maxExclusive));
+    }
+
+    private static int compare(double score, String member, Node node) {
+        int c = Double.compare(score, node.score);
+        return c != 0 ? c : member.compareTo(node.member);
+    }
+
+    private static int randomLevel() {
+        int level = 1;
+        ThreadLocalRandom random = ThreadLocalRandom.current();
+        while (level < MAX_LEVEL && random.nextInt(4) == 0) {
+            level++;
+        }
+        return level;
+    }
+
+    private void insert(double score, String member) {
+        Node[] update = new Node[MAX_LEVEL];
+        long[] rank = new long[MAX_LEVEL];
+        Node x = header;
+        for (int i = level - 1; i >= 0; i--) {
+            rank[i] = i == level - 1 ? 0 : rank[i + 1];
+            while (x.forward[i] != null && compare(score, member, x.forward[i]) > 0) {
+                rank[i] += x.span[i];
+                x = x.forward[i];
+            }
+            update[i] = x;
+        }
+        int newLevel = randomLevel();
+        if (newLevel > level) {
+            for (int i = level; i < newLevel; i++) {
+                rank[i] = 0;
+                update[i] = header;
+                update[i].span[i] = length;
+            }
+            level = newLevel;
+        }
+        x = new Node(member, score, newLevel);
+        for (int i = 0; i < newLevel; i++) {
+            x.forward[i] = update[i].forward[i];
+            update[i].forward[i] = x;
+            x.span[i] = update[i].span[i] - (rank[0] - rank[i]);
+            update[i].span[i] = (rank[0] - rank[i]) + 1;
+        }
+        for (int i = newLevel; i < level; i++) {
+            update[i].span[i]++;
+        }
+        x.backward = update[0] == header ? null : update[0];
+        if (x.forward[0] != null) {
+            x.forward[0].backward = x;
+        }
+        length++;
+    }
+
+    private void delete(double score, String member) {
+        Node[] update = new Node[MAX_LEVEL];
+        Node x = header;
+        for (int i = level - 1; i >= 0; i--) {
+            while (x.forward[i] != null && compare(score, member, x.forward[i]) > 0) {
+                x = x.forward[i];
+            }
+            update[i] = x;
+        }
+        x = x.forward[0];
+        if (x == null || compare(score, member, x) != 0) {
+            throw new IllegalStateException("skiplist out of sync with dict: " + member);
+        }
+        for (int i = 0; i < level; i++) {
+            if (update[i].forward[i] == x) {
+                update[i].span[i] += x.span[i] - 1;
+                update[i].forward[i] = x.forward[i];
+            } else {
+                update[i].span[i]--;
+            }
+        }
+        if (x.forward[0] != null) {
+            x.forward[0].backward = x.backward;
+        }
+        while (level > 1 && header.forward[level - 1] == null) {
+            level--;
+        }
+        length--;
+    }
+
+    /**
+     * 从1开始的名次，节点一定存在。
+     */
+    private long rankOf(double score, String member) {
+        long rank = 0;
+        Node x = header;
+        for (int i = level - 1; i >= 0; i--) {
+            while (x.forward[i] != null && compare(score, member, x.forward[i]) >= 0) {
+                rank += x.span[i];
+                x = x.forward[i];
+            }
+            if (x != header && x.member.equals(member)) {
+                return rank;
+            }
+        }
+        throw new IllegalStateException("skiplist out of sync with dict: " + member);
+    }
+
+    /**
+     * 从1开始的名次对应的节点。
+     */
+    private Node byRank(long rank) {
+        long traversed = 0;
+        Node x = header;
+        for (int i = level - 1; i >= 0; i--) {
+            while (x.forward[i] != null && traversed + x.span[i] <= rank) {
+                traversed += x.span[i];
+                x = x.forward[i];
+            }
+            if (traversed == rank) {
+                return x;
+            }
+        }
+        throw new IllegalStateException("rank out of range: " + rank);
+    }
+
+    private Node firstInRange(double min, boolean exclusive) {
+        Node x = header;
+        for (int i = level - 1; i >= 0; i--) {
+            while (x.forward[i] != null && (exclusive ? x.forward[i].score <= min : x.forward[i].score < min)) {
+                x = x.forward[i];
+            }
+        }
+        return x.forward[0];
+    }
+
+    /**
+     * 调用前已经确认区间里至少有一个元素。
+     */
+    private Node lastInRange(double max, boolean exclusive) {
+        Node x = header;
+        for (int i = level - 1; i >= 0; i--) {
+            while (x.forward[i] != null && (exclusive ? x.forward[i].score < max : x.forward[i].score <= max)) {
+                x = x.forward[i];
+            }
+        }
+        return x;
+    }
+
+    private static final class Node {
+        final String member;
+        final double score;
+        final Node[] forward;
+        // span[i]：从这个节点沿第i层走到forward[i]跨过的节点数
+        final long[] span;
+        Node backward;
+
+        Node(String member, double score, int level) {
+            this.member = member;
+            this.score = score;
+            this.forward = new Node[level];
+            this.span = new long[level];
+        }
+    }
+}
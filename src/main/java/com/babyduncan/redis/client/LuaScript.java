@@ -0,0 +1,94 @@
+package com.babyduncan.redis.client;
+
+import com.babyduncan.redis.script.Scripts;
+import redis.clients.jedis.Client;
+import redis.clients.jedis.Jedis;
+import redis.clients.jedis.exceptions.JedisDataException;
+
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * User: zgh
+ * Date: 26-10-18
+ * Time: 23:40
+ */
+
+/**
+ * 一段Lua脚本：平时只发40字节的SHA1（EVALSHA），服务端没有（重启过、SCRIPT FLUSH过）的时候再发一次源码（EVAL）。
+ * 进程内server只认{@link Scripts}里的脚本。
+ */
+public final class LuaScript {
+    private final String source;
+    private final String sha;
+
+    public LuaScript(String source) {
+        this.source = source;
+        this.sha = Scripts.sha1(source);
+    }
+
+    public Object eval(Jedis jedis, List<String> keys, List<String> args) {
+        try {
+            return jedis.evalsha(sha, keys, args);
+        } catch (JedisDataException e) {
+            if (e.getMessage() == null || !e.getMessage().startsWith("NOSCRIPT")) {
+                throw e;
+            }
+            return jedis.eval(source, keys, args);
+        }
+    }
+
+    /**
+     * 在一个pipeline里执行calls次，第i次的参数是KEYS=keys.get(i)、ARGV=args.get(i)。
+     * 返回每次的原始回复（整数是Long，bulk是byte[]），某一次出错对应的位置是JedisDataException，不影响其他的。
+     * 服务端没有这个脚本的话SCRIPT LOAD一次，把NOSCRIPT的那几次再发一遍。
+     */
+    public List<Object> evalAll(Jedis jedis, List<List<String>> keys, List<List<String>> args) {
+        List<Integer> calls = new ArrayList<Integer>(keys.size());
+        for (int i = 0; i < keys.size(); i++) {
+            calls.add(i);
+        }
+        List<Object> replies = new ArrayList<Object>(send(jedis, calls, keys, args));
+        List<Integer> missing = new ArrayList<Integer>();
+        for (int i = 0; i < replies.size(); i++) {
+            if (isNoScript(replies.get(i))) {
+                missing.add(i);
+            }
+        }
+        if (!missing.isEmpty()) {
+            jedis.scriptLoad(source);
+            List<Object> retried = send(jedis, missing, keys, args);
+            for (int i = 0; i < missing.size(); i++) {
+                replies.set(missing.get(i), retried.get(i));
+            }
+        }
+        return replies;
+    }
+
+    private List<Object> send(Jedis jedis, List<Integer> calls, List<List<String>> keys, List<List<String>> args) {
+        Client client = jedis.getClient();
+        for (int i : calls) {
+            List<String> params = new ArrayList<String>(keys.get(i).size() + args.get(i).size());
+            params.addAll(keys.get(i));
+            params.addAll(args.get(i));
+            client.evalsha(sha, keys.get(i).size(), params.toArray(new String[params.size()]));
+        }
+        return client.getAll();
+    }
+
+    private static boolean isNoScript(Object reply) {
+        if (!(reply instanceof JedisDataException)) {
+            return false;
+        }
+        String message = ((JedisDataException) reply).getMessage();
+        return message != null && message.startsWith("NOSCRIPT");
+    }
+
+    public String getSha() {
+        return sha;
+    }
+
+    public String getSource() {
+        return source;
+    }
+}
@@ -0,0 +1,316 @@
+package com.babyduncan.redis.client;
+
+import redis.clients.jedis.Jedis;
+import redis.clients.jedis.Pipeline;
+import redis.clients.jedis.Response;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.function.LongSupplier;
+
+/**
+ * User: zgh
+ * Date: 26-10-18
+ * Time: 17:10
+ */
+
+/**
+ * GET/MGET前面的一层进程内缓存（L1），热点key不用每次都去redis。
+ * <p/>
+ * 按key的hash分成若干段，每段一个按访问顺序排的LinkedHashMap，超过容量就淘汰最久没访问的（分段LRU）。
+ * 未命中时在同一个pipeline里带上TTL，本地过期时间取 min(key在redis里剩下的TTL, maxTtlMillis)：
+ * SETEX写进去的值本地也会按时过期，没有过期时间的key最多在本地待maxTtlMillis。
+ * <p/>
+ * 通过这个类写的（set、setex、append、setrange、incr、incrBy、decr、del）会先写redis再作废本地这一条；
+ * 别的客户端写的，本地最多晚maxTtlMillis才能看到，要求强一致的key不要走这里。
+ * null值不缓存。
+ */
+public final class NearCache {
+    public static final int DEFAULT_MAX_ENTRIES = 10000;
+    public static final long DEFAULT_MAX_TTL_MILLIS = 10000;
+    private static final int SEGMENTS = 16;
+
+    private final RedisConnections connections;
+    private final long maxTtlNanos;
+    private final Segment[] segments;
+    private final LongSupplier nanoClock;
+
+    private final LongAdder hits = new LongAdder();
+    private final LongAdder misses = new LongAdder();
+    private final LongAdder evictions = new LongAdder();
+    private final LongAdder expirations = new LongAdder();
+    private final LongAdder invalidations = new LongAdder();
+
+    public NearCache(RedisConnections connections) {
+        this(connections, DEFAULT_MAX_ENTRIES, DEFAULT_MAX_TTL_MILLIS);
+    }
+
+    public NearCache(RedisConnections connections, int maxEntries, long maxTtlMillis) {
+        this(connections, maxEntries, maxTtlMillis, System::nanoTime);
+    }
+
+    NearCache(RedisConnections connections, int maxEntries, long maxTtlMillis, LongSupplier nanoClock) {
+        if (maxEntries <= 0 || maxTtlMillis <= 0) {
+            throw new IllegalArgumentException("maxEntries and maxTtlMillis must be positive");
+        }
+        this.connections = connections;
+        this.maxTtlNanos = TimeUnit.MILLISECONDS.toNanos(maxTtlMillis);
+        this.nanoClock = nanoClock;
+        int segmentCount = Math.min(SEGMENTS, maxEntries);
+        this.segments = new Segment[segmentCount];
+        for (int i = 0; i < segmentCount; i++) {
+            // 容量平均分到各段，除不尽的分给前面几段
+            segments[i] = new Segment(maxEntries / segmentCount + (i < maxEntries % segmentCount ? 1 : 0));
+        }
+    }
+
+    public String get(final String key) {
+        Segment segment = segmentFor(key);
+        long now = nanoClock.getAsLong();
+        String cached = segment.get(key, now);
+        if (cached != null) {
+            hits.increment();
+            return cached;
+        }
+        misses.increment();
+        long version = segment.version();
+        Object[] fetched = connections.execute(jedis -> {
+            Pipeline p = jedis.pipelined();
+            Response<String> value = p.get(key);
+            Response<Long> ttl = p.ttl(key);
+            p.sync();
+            return new Object[]{value.get(), ttl.get()};
+        });
+        String value = (String) fetched[0];
+        segment.putIfUnchanged(key, value, expiresAt(now, (Long) fetched[1]), version);
+        return value;
+    }
+
+    /**
+     * 命中的直接用本地的，没命中的一次MGET（同一个pipeline里带上它们的TTL）。
+     */
+    public List<String> mget(String... keys) {
+        long now = nanoClock.getAsLong();
+        final String[] result = new String[keys.length];
+        final List<Integer> missed = new ArrayList<Integer>();
+        for (int i = 0; i < keys.length; i++) {
+            result[i] = segmentFor(keys[i]).get(keys[i], now);
+            if (result[i] == null) {
+                missed.add(i);
+            }
+        }
+        hits.add(keys.length - missed.size());
+        misses.add(missed.size());
+        if (missed.isEmpty()) {
+            return Arrays.asList(result);
+        }
+        final String[] missedKeys = new String[missed.size()];
+        long[] versions = new long[missed.size()];
+        for (int i = 0; i < missedKeys.length; i++) {
+            missedKeys[i] = keys[missed.get(i)];
+            versions[i] = segmentFor(missedKeys[i]).version();
+        }
+        final List<Response<Long>> ttls = new ArrayList<Response<Long>>(missedKeys.length);
+        List<String> values = connections.execute(jedis -> {
+            Pipeline p = jedis.pipelined();
+            Response<List<String>> mget = p.mget(missedKeys);
+            for (String k : missedKeys) {
+                ttls.add(p.ttl(k));
+            }
+            p.sync();
+            return mget.get();
+        });
+        for (int i = 0; i < missedKeys.length; i++) {
+            String value = values.get(i);
+            result[missed.get(i)] = value;
+            segmentFor(missedKeys[i]).putIfUnchanged(missedKeys[i], value, expiresAt(now, ttls.get(i).get()), versions[i]);
+        }
+        return Arrays.asList(result);
+    }
+
+    public String set(final String key, final String value) {
+        return write(key, jedis -> jedis.set(key, value));
+    }
+
+    public String setex(final String key, final int seconds, final String value) {
+        return write(key, jedis -> jedis.setex(key, seconds, value));
+    }
+
+    public Long append(final String key, final String value) {
+        return write(key, jedis -> jedis.append(key, value));
+    }
+
+    public Long setrange(final String key, final long offset, final String value) {
+        return write(key, jedis -> jedis.setrange(key, offset, value));
+    }
+
+    public Long incr(final String key) {
+        return write(key, jedis -> jedis.incr(key));
+    }
+
+    public Long incrBy(final String key, final long by) {
+        return write(key, jedis -> jedis.incrBy(key, by));
+    }
+
+    public Long decr(final String key) {
+        return write(key, jedis -> jedis.decr(key));
+    }
+
+    public Long del(final String key) {
+        return write(key, jedis -> jedis.del(key));
+    }
+
+    /**
+     * 先写redis再作废本地；写失败也作废，因为不知道服务端到底写没写进去。
+     */
+    private <T> T write(String key, JedisCallback<T> command) {
+        try {
+            return connections.execute(command);
+        } finally {
+            invalidate(key);
+        }
+    }
+
+    public void invalidate(String key) {
+        if (segmentFor(key).invalidate(key)) {
+            invalidations.increment();
+        }
+    }
+
+    public void clear() {
+        for (Segment s : segments) {
+            s.clear();
+        }
+    }
+
+    public int size() {
+        int size = 0;
+        for (Segment s : segments) {
+            size += s.size();
+        }
+        return size;
+    }
+
+    public long getHits() {
+        return hits.sum();
+    }
+
+    public long getMisses() {
+        return misses.sum();
+    }
+
+    public double getHitRatio() {
+        long h = hits.sum();
+        long total = h + misses.sum();
+        return total == 0 ? 0 : (double) h / total;
+    }
+
+    /**
+     * 因为容量满了被挤出去的条数。
+     */
+    public long getEvictions() {
+        return evictions.sum();
+    }
+
+    /**
+     * 读的时候发现已经过期而丢掉的条数。
+     */
+    public long getExpirations() {
+        return expirations.sum();
+    }
+
+    public long getInvalidations() {
+        return invalidations.sum();
+    }
+
+    /**
+     * TTL的回复：-1没有过期时间，-2（2.8以后）或者-1（更早的版本）key不存在。
+     */
+    private long expiresAt(long now, Long ttlSeconds) {
+        long ttl = ttlSeconds == null || ttlSeconds < 0 ? maxTtlNanos
+                : Math.min(maxTtlNanos, TimeUnit.SECONDS.toNanos(ttlSeconds));
+        return now + ttl;
+    }
+
+    private Segment segmentFor(String key) {
+        int h = key.hashCode();
+        h ^= h >>> 16;
+        return segments[(h & 0x7fffffff) % segments.length];
+    }
+
+    private static final class CachedValue {
+        final String value;
+        final long expiresAt;
+
+        CachedValue(String value, long expiresAt) {
+            this.value = value;
+            this.expiresAt = expiresAt;
+        }
+    }
+
+    /**
+     * 一段LRU。version在每次作废时加一：读redis之前记下version，回来时version变了说明中间有写，
+     * 这次读到的可能是旧值，就不放进缓存了。
+     */
+    private final class Segment {
+        private final int capacity;
+        private final LinkedHashMap<String, CachedValue> map;
+        private long version;
+
+        Segment(int capacity) {
+            this.capacity = capacity;
+            this.map = new LinkedHashMap<String, CachedValue>(Math.min(capacity, 1024), 0.75f, true) {
+                @Override
+                protected boolean removeEldestEntry(Map.Entry<String, CachedValue> eldest) {
+                    if (size() > Segment.this.capacity) {
+                        evictions.increment();
+                        return true;
+                    }
+                    return false;
+                }
+            };
+        }
+
+        synchronized String get(String key, long now) {
+            CachedValue e = map.get(key);
+            if (e == null) {
+                return null;
+            }
+            if (e.expiresAt - now <= 0) {
+                map.remove(key);
+                expirations.increment();
+                return null;
+            }
+            return e.value;
+        }
+
+        synchronized long version() {
+            return version;
+        }
+
+        synchronized void putIfUnchanged(String key, String value, long expiresAt, long expectedVersion) {
+            if (value != null && version == expectedVersion) {
+                map.put(key, new CachedValue(value, expiresAt));
+            }
+        }
+
+        synchronized boolean invalidate(String key) {
+            version++;
+            return map.remove(key) != null;
+        }
+
+        synchronized void clear() {
+            version++;
+            map.clear();
+        }
+
+        synchronized int size() {
+            return map.size();
+        }
+    }
+}
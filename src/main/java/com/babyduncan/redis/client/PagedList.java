@@ -0,0 +1,179 @@
+package com.babyduncan.redis.client;
+
+import java.util.Iterator;
+import java.util.List;
+import java.util.Spliterator;
+import java.util.Spliterators;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.Executor;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.function.Consumer;
+import java.util.stream.Stream;
+import java.util.stream.StreamSupport;
+
+/**
+ * User: zgh
+ * Date: 26-10-18
+ * Time: 21:30
+ */
+
+/**
+ * 按窗口分页读一个list，代替LRANGE key 0 -1。
+ * <p/>
+ * 一次只取windowSize个元素；调用方处理当前窗口的时候，下一个窗口已经在prefetch线程上异步取了，
+ * 百万元素的list既不会一条LRANGE把服务端卡住，也不会整个回复一下子堆在堆上。
+ * spliterator按窗口边界对半拆分，所以parallelStream()的每个分片各自分页、各自预取。
+ * <p/>
+ * 范围在第一次用到时用LLEN定下来。迭代过程中list被修改的话是弱一致的：下标会错位，
+ * 可能漏掉或者重复一些元素；list变短时读到空窗口就结束。
+ */
+public final class PagedList implements Iterable<String> {
+    public static final int DEFAULT_WINDOW_SIZE = 1000;
+
+    private static volatile ExecutorService defaultPrefetcher;
+
+    private final RedisConnections connections;
+    private final String key;
+    private final int windowSize;
+    private final Executor prefetcher;
+
+    public PagedList(RedisConnections connections, String key) {
+        this(connections, key, DEFAULT_WINDOW_SIZE, defaultPrefetcher());
+    }
+
+    public PagedList(RedisConnections connections, String key, int windowSize, Executor prefetcher) {
+        if (windowSize <= 0) {
+            throw new IllegalArgumentException("windowSize must be positive: " + windowSize);
+        }
+        this.connections = connections;
+        this.key = key;
+        this.windowSize = windowSize;
+        this.prefetcher = prefetcher;
+    }
+
+    /**
+     * 预取用的线程池，守护线程，空闲一分钟回收。
+     */
+    private static ExecutorService defaultPrefetcher() {
+        if (defaultPrefetcher == null) {
+            synchronized (PagedList.class) {
+                if (defaultPrefetcher == null) {
+                    defaultPrefetcher = Executors.newCachedThreadPool(r -> {
+                        Thread t = new Thread(r, "paged-list-prefetch");
+                        t.setDaemon(true);
+                        return t;
+                    });
+                }
+            }
+        }
+        return defaultPrefetcher;
+    }
+
+    public Iterator<String> iterator() {
+        return Spliterators.iterator(spliterator());
+    }
+
+    @Override
+    public Spliterator<String> spliterator() {
+        long length = connections.execute(jedis -> jedis.llen(key));
+        return new WindowSpliterator(0, length);
+    }
+
+    public Stream<String> stream() {
+        return StreamSupport.stream(spliterator(), false);
+    }
+
+    public Stream<String> parallelStream() {
+        return StreamSupport.stream(spliterator(), true);
+    }
+
+    private List<String> fetch(final long from, final long to) {
+        return connections.execute(jedis -> jedis.lrange(key, from, to - 1));
+    }
+
+    /**
+     * 负责[from, to)这段下标。
+     */
+    private final class WindowSpliterator implements Spliterator<String> {
+        private long from;
+        private long to;
+        private List<String> window;
+        private int position;
+        private long nextWindow;
+        private CompletableFuture<List<String>> prefetched;
+
+        WindowSpliterator(long from, long to) {
+            this.from = from;
+            this.to = to;
+            this.nextWindow = from;
+        }
+
+        public boolean tryAdvance(Consumer<? super String> action) {
+            if (!ensureWindow()) {
+                return false;
+            }
+            action.accept(window.get(position++));
+            return true;
+        }
+
+        public void forEachRemaining(Consumer<? super String> action) {
+            while (ensureWindow()) {
+                List<String> w = window;
+                for (int i = position; i < w.size(); i++) {
+                    action.accept(w.get(i));
+                }
+                position = w.size();
+            }
+        }
+
+        /**
+         * 当前窗口用完了就换下一个（优先用预取好的），再把下下个窗口的预取发出去。
+         */
+        private boolean ensureWindow() {
+            if (window != null && position < window.size()) {
+                return true;
+            }
+            if (nextWindow >= to) {
+                return false;
+            }
+            long end = Math.min(nextWindow + windowSize, to);
+            window = prefetched != null ? prefetched.join() : fetch(nextWindow, end);
+            prefetched = null;
+            position = 0;
+            nextWindow = end;
+            if (window.isEmpty()) {
+                // list变短了
+                to = nextWindow;
+                return false;
+            }
+            if (nextWindow < to) {
+                final long start = nextWindow;
+                final long stop = Math.min(start + windowSize, to);
+                prefetched = CompletableFuture.supplyAsync(() -> fetch(start, stop), prefetcher);
+            }
+            return true;
+        }
+
+        public Spliterator<String> trySplit() {
+            if (window != null || to - from <= windowSize) {
+                return null;
+            }
+            long windows = (to - from + windowSize - 1) / windowSize;
+            long mid = from + windows / 2 * windowSize;
+            WindowSpliterator prefix = new WindowSpliterator(from, mid);
+            from = mid;
+            nextWindow = mid;
+            return prefix;
+        }
+
+        public long estimateSize() {
+            long consumed = window == null ? 0 : position;
+            return Math.max(0, to - (nextWindow - (window == null ? 0 : window.size())) - consumed);
+        }
+
+        public int characteristics() {
+            return ORDERED | NONNULL;
+        }
+    }
+}
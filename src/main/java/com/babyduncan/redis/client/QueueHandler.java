@@ -0,0 +1,14 @@
+package com.babyduncan.redis.client;
+
+/**
+ * User: zgh
+ * Date: 26-10-18
+ * Time: 22:05
+ */
+
+/**
+ * 处理队列里的一条消息；正常返回就确认（从processing list里删掉），抛异常就留给reaper超时后重新入队。
+ */
+public interface QueueHandler {
+    void handle(String message) throws Exception;
+}
@@ -0,0 +1,303 @@
+package com.babyduncan.redis.client;
+
+import com.babyduncan.redis.script.Scripts;
+import redis.clients.jedis.Pipeline;
+import redis.clients.jedis.Response;
+
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.UUID;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.function.LongSupplier;
+
+/**
+ * User: zgh
+ * Date: 26-10-18
+ * Time: 00:40
+ */
+
+/**
+ * 限流：每个id（用户、ip、接口...）在一个时间窗口里最多放过limit次。
+ * <pre>
+ * RateLimiter limiter = RateLimiter.builder().connections(connections).limit(100).window(1, TimeUnit.SECONDS).build();
+ * if (!limiter.tryAcquire("user:42")) { ... 429 }
+ * </pre>
+ * 两种算法：
+ * <ul>
+ * <li>FIXED_WINDOW：key是 prefix+id+":"+窗口编号，一个pipeline里INCR+EXPIRE，INCR的结果不超过limit就放过。
+ * 便宜，但窗口交界处前后两个窗口加起来最多能放过2*limit次。</li>
+ * <li>SLIDING_LOG：每个id一个sorted set，成员是每次请求，分数是毫秒时间戳。一个脚本（{@link Scripts#ZADD_WITHIN_LIMIT}）里
+ * ZREMRANGEBYSCORE删掉窗口外的、ZCARD数一下，没超才ZADD这次的，没有交界的问题；
+ * 被拒绝的请求不会写进去，也就不会挤占同时到达的其他请求的名额。内存和窗口里的请求数成正比。</li>
+ * </ul>
+ * preAllocate(n)（只能配FIXED_WINDOW）：本地没有额度的时候INCRBY n一次领n个，之后在本地扣，
+ * 扣完或者换了窗口再去领；redis说这个窗口满了以后，到窗口结束之前本地直接拒绝，不再访问redis。
+ * 大部分检查不用访问redis，代价是多个进程一起用的时候，别的进程领走还没用完的额度会让这边提前被拒（最多少放过 进程数*n 次）。
+ * <p/>
+ * 窗口按本机时间算，多台机器的时钟差会让窗口边界错开一点。
+ */
+public final class RateLimiter {
+    static final int MAX_IDLE_ALLOTMENTS = 100000;
+
+    public enum Mode {
+        FIXED_WINDOW,
+        SLIDING_LOG
+    }
+
+    private final RedisConnections connections;
+    private final Mode mode;
+    private final long limit;
+    private final long windowMillis;
+    private final int expireSeconds;
+    private final String prefix;
+    private final int preAllocate;
+    private final LongSupplier clock;
+    private final String memberPrefix = UUID.randomUUID().toString() + ":";
+    private final AtomicLong memberIds = new AtomicLong();
+    private final ConcurrentHashMap<String, Allotment> allotments = new ConcurrentHashMap<String, Allotment>();
+    private final AtomicLong sweptWindow = new AtomicLong(-1);
+
+    private final LongAdder allowed = new LongAdder();
+    private final LongAdder rejected = new LongAdder();
+    private final LongAdder roundTrips = new LongAdder();
+    private final LongAdder local = new LongAdder();
+
+    private static final LuaScript ZADD_WITHIN_LIMIT = new LuaScript(Scripts.ZADD_WITHIN_LIMIT);
+
+    private RateLimiter(Builder b) {
+        this.connections = b.connections;
+        this.mode = b.mode;
+        this.limit = b.limit;
+        this.windowMillis = b.windowMillis;
+        // key多留一秒再过期，时钟有点偏差也不会在窗口里被删掉
+        this.expireSeconds = (int) ((b.windowMillis + 999) / 1000) + 1;
+        this.prefix = b.prefix;
+        this.preAllocate = b.preAllocate;
+        this.clock = b.clock;
+    }
+
+    public static Builder builder() {
+        return new Builder();
+    }
+
+    /**
+     * 放过返回true，超过限制返回false。
+     */
+    public boolean tryAcquire(String id) {
+        boolean ok;
+        if (mode == Mode.SLIDING_LOG) {
+            ok = slidingLog(id);
+        } else if (preAllocate > 1) {
+            ok = preAllocated(id);
+        } else {
+            ok = fixedWindow(id);
+        }
+        if (ok) {
+            allowed.increment();
+        } else {
+            rejected.increment();
+        }
+        return ok;
+    }
+
+    private boolean fixedWindow(String id) {
+        long window = clock.getAsLong() / windowMillis;
+        return reserve(prefix + id + ":" + window, 1) <= limit;
+    }
+
+    /**
+     * INCRBY+EXPIRE，返回加完以后的值。
+     */
+    private long reserve(final String key, final long count) {
+        roundTrips.increment();
+        return connections.execute(jedis -> {
+            Pipeline p = jedis.pipelined();
+            Response<Long> n = count == 1 ? p.incr(key) : p.incrBy(key, count);
+            p.expire(key, expireSeconds);
+            p.sync();
+            return n.get();
+        });
+    }
+
+    private boolean preAllocated(String id) {
+        long window = clock.getAsLong() / windowMillis;
+        Allotment a = allotments.get(id);
+        if (a == null) {
+            a = allotments.computeIfAbsent(id, k -> new Allotment());
+        }
+        if (a.window == window) {
+            if (a.remaining.getAndDecrement() > 0) {
+                local.increment();
+                return true;
+            }
+            if (a.exhausted) {
+                local.increment();
+                return false;
+            }
+        }
+        synchronized (a) {
+            // 可能别的线程已经领过了
+            if (a.window == window) {
+                if (a.remaining.getAndDecrement() > 0) {
+                    local.increment();
+                    return true;
+                }
+                if (a.exhausted) {
+                    local.increment();
+                    return false;
+                }
+            }
+            // 同一个窗口额度用完了再领一批；窗口只往前换
+            if (window >= a.window) {
+                return allot(a, id, window);
+            }
+        }
+        // 读时钟以后被别的线程抢先换到了下一个窗口：本地额度已经是新窗口的，不能退回去，这一次单独按旧窗口算
+        return reserve(prefix + id + ":" + window, 1) <= limit;
+    }
+
+    /**
+     * 持有a的锁时调用，给这个窗口领一批额度并扣掉这一次。
+     */
+    private boolean allot(Allotment a, String id, final long window) {
+        long total = reserve(prefix + id + ":" + window, preAllocate);
+        long granted = Math.max(0, Math.min(preAllocate, limit - (total - preAllocate)));
+        // 先设好额度再发布新窗口，快路径看到新窗口的时候额度已经在了
+        a.exhausted = granted < preAllocate;
+        a.remaining.set((int) granted - 1);
+        a.window = window;
+        if (allotments.size() > MAX_IDLE_ALLOTMENTS && sweptWindow.getAndSet(window) != window) {
+            // 长时间没请求的id留着的都是旧窗口，没用了；每个窗口最多扫一遍
+            allotments.entrySet().removeIf(e -> e.getValue().window < window);
+        }
+        return granted > 0;
+    }
+
+    private boolean slidingLog(String id) {
+        final String key = prefix + id;
+        final long now = clock.getAsLong();
+        final String member = memberPrefix + memberIds.incrementAndGet();
+        roundTrips.increment();
+        Object added = connections.execute(jedis -> ZADD_WITHIN_LIMIT.eval(jedis, Collections.singletonList(key),
+                Arrays.asList(Long.toString(now - windowMillis), Long.toString(now), member,
+                        Long.toString(limit), Integer.toString(expireSeconds))));
+        return Long.valueOf(1).equals(added);
+    }
+
+    public Mode getMode() {
+        return mode;
+    }
+
+    public long getLimit() {
+        return limit;
+    }
+
+    public long getWindowMillis() {
+        return windowMillis;
+    }
+
+    public long getAllowed() {
+        return allowed.sum();
+    }
+
+    public long getRejected() {
+        return rejected.sum();
+    }
+
+    /**
+     * 访问redis的次数（pipeline算一次）。
+     */
+    public long getRoundTrips() {
+        return roundTrips.sum();
+    }
+
+    /**
+     * 用本地预领的额度（或者本地已知窗口满了）直接决定、没访问redis的检查次数。
+     */
+    public long getLocalDecisions() {
+        return local.sum();
+    }
+
+    private static final class Allotment {
+        volatile long window = -1;
+        volatile boolean exhausted;
+        final AtomicInteger remaining = new AtomicInteger();
+    }
+
+    public static final class Builder {
+        private RedisConnections connections;
+        private Mode mode = Mode.FIXED_WINDOW;
+        private long limit = -1;
+        private long windowMillis = 1000;
+        private String prefix = "rate:";
+        private int preAllocate = 1;
+        private LongSupplier clock = System::currentTimeMillis;
+
+        private Builder() {
+        }
+
+        public Builder connections(RedisConnections connections) {
+            this.connections = connections;
+            return this;
+        }
+
+        public Builder mode(Mode mode) {
+            this.mode = mode;
+            return this;
+        }
+
+        /**
+         * 每个窗口每个id最多放过几次，必须设。
+         */
+        public Builder limit(long limit) {
+            this.limit = limit;
+            return this;
+        }
+
+        public Builder window(long window, TimeUnit unit) {
+            this.windowMillis = unit.toMillis(window);
+            return this;
+        }
+
+        /**
+         * redis里key的前缀，默认"rate:"。
+         */
+        public Builder prefix(String prefix) {
+            this.prefix = prefix;
+            return this;
+        }
+
+        /**
+         * 每次从redis领多少个额度在本地用，1就是每次都访问redis。只能配FIXED_WINDOW。
+         */
+        public Builder preAllocate(int preAllocate) {
+            this.preAllocate = preAllocate;
+            return this;
+        }
+
+        Builder clock(LongSupplier millis) {
+            this.clock = millis;
+            return this;
+        }
+
+        public RateLimiter build() {
+            if (connections == null) {
+                throw new IllegalArgumentException("connections must be set");
+            }
+            if (limit <= 0 || windowMillis <= 0) {
+                throw new IllegalArgumentException("limit and window must be positive");
+            }
+            if (preAllocate <= 0) {
+                throw new IllegalArgumentException("preAllocate must be positive: " + preAllocate);
+            }
+            if (preAllocate > 1 && mode != Mode.FIXED_WINDOW) {
+                throw new IllegalArgumentException("preAllocate only works with FIXED_WINDOW");
+            }
+            return new RateLimiter(this);
+        }
+    }
+}
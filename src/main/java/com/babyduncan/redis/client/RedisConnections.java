@@ -0,0 +1,363 @@
+package com.babyduncan.redis.client;
+
+import com.babyduncan.redis.server.LocalRedis;
+import redis.clients.jedis.Jedis;
+import redis.clients.jedis.JedisPool;
+import redis.clients.jedis.JedisPoolConfig;
+import redis.clients.jedis.Protocol;
+import redis.clients.jedis.exceptions.JedisConnectionException;
+import redis.clients.util.Pool;
+
+import java.io.Closeable;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * User: zgh
+ * Date: 26-10-18
+ * Time: 15:05
+ */
+
+/**
+ * 基于JedisPool的连接提供者，替代到处new Jedis(host, port)。
+ * <p/>
+ * 每new一个Jedis就是一次TCP握手，用完不disconnect就一直占着服务端的一个client，
+ * 压力一上来既慢又会把fd耗光。这里统一从池里借、用完还：
+ * <pre>
+ * Jedis jedis = connections.getResource();
+ * try {
+ *     ...
+ * } finally {
+ *     connections.returnResource(jedis);
+ * }
+ * </pre>
+ * 或者
+ * <pre>
+ * try (RedisConnections.Lease lease = connections.lease()) {
+ *     lease.jedis().get("foo");
+ * }
+ * </pre>
+ * 连接出了网络异常要用returnBrokenResource还回去，池会把它销毁而不是再借给别人，execute和Lease都已经处理了。
+ */
+public final class RedisConnections implements Closeable {
+    public static final String DATABASE_PROPERTY = "redis.db";
+    public static final String MAX_ACTIVE_PROPERTY = "redis.pool.maxActive";
+    public static final String WARM_UP_PROPERTY = "redis.pool.warmUp";
+
+    private static RedisConnections shared;
+
+    private final Pool<Jedis> pool;
+    private final String host;
+    private final int port;
+    private final int database;
+    private final int maxActive;
+    private final CommandMetrics metrics;
+    private final AtomicInteger active = new AtomicInteger();
+    private final AtomicLong borrowed = new AtomicLong();
+    private final AtomicLong broken = new AtomicLong();
+    private volatile boolean closed;
+
+    private RedisConnections(Builder b) {
+        JedisPoolConfig config = new JedisPoolConfig();
+        config.setMaxActive(b.maxActive);
+        config.setMaxIdle(b.maxIdle);
+        config.setMinIdle(b.minIdle);
+        config.setMaxWait(b.maxWaitMillis);
+        config.setTestOnBorrow(b.testOnBorrow);
+        if (b.metrics == null) {
+            this.pool = new JedisPool(config, b.host, b.port, b.timeoutMillis, b.password, b.database);
+        } else {
+            this.pool = new Pool<Jedis>(config, new InstrumentedJedis.Factory(b.host, b.port, b.timeoutMillis,
+                    b.password, b.database, b.metrics)) {
+            };
+        }
+        this.host = b.host;
+        this.port = b.port;
+        this.database = b.database;
+        this.maxActive = b.maxActive;
+        this.metrics = b.metrics;
+    }
+
+    public static Builder builder() {
+        return new Builder();
+    }
+
+    /**
+     * Usage类共用的连接池，指向{@link LocalRedis}选中的redis（默认是进程内的EmbeddedRedisServer），
+     * 可以用 -Dredis.db、-Dredis.pool.maxActive、-Dredis.pool.warmUp 调整，jvm退出时关闭。
+     */
+    public static synchronized RedisConnections shared() {
+        if (shared == null) {
+            shared = builder()
+                    .host(LocalRedis.host())
+                    .port(LocalRedis.port())
+                    .database(Integer.getInteger(DATABASE_PROPERTY, 0))
+                    .maxActive(Integer.getInteger(MAX_ACTIVE_PROPERTY, 16))
+                    .warmUp(Integer.getInteger(WARM_UP_PROPERTY, 2))
+                    .build();
+            final RedisConnections connections = shared;
+            Runtime.getRuntime().addShutdownHook(new Thread(new Runnable() {
+                public void run() {
+                    connections.close();
+                }
+            }, "redis-connections-shutdown"));
+        }
+        return shared;
+    }
+
+    public Jedis getResource() {
+        if (closed) {
+            throw new IllegalStateException("connection pool is closed");
+        }
+        Jedis jedis = pool.getResource();
+        active.incrementAndGet();
+        borrowed.incrementAndGet();
+        return jedis;
+    }
+
+    public void returnResource(Jedis jedis) {
+        if (jedis == null) {
+            return;
+        }
+        active.decrementAndGet();
+        pool.returnResource(jedis);
+    }
+
+    /**
+     * 连接状态已经不可信（读写超时、对端断开、协议错乱），让池销毁它。
+     */
+    public void returnBrokenResource(Jedis jedis) {
+        if (jedis == null) {
+            return;
+        }
+        active.decrementAndGet();
+        broken.incrementAndGet();
+        pool.returnBrokenResource(jedis);
+    }
+
+    public Lease lease() {
+        return new Lease(this, getResource());
+    }
+
+    public <T> T execute(JedisCallback<T> callback) {
+        Jedis jedis = getResource();
+        try {
+            T result = callback.doInJedis(jedis);
+            returnResource(jedis);
+            return result;
+        } catch (JedisConnectionException e) {
+            returnBrokenResource(jedis);
+            throw e;
+        } catch (RuntimeException e) {
+            returnResource(jedis);
+            throw e;
+        }
+    }
+
+    /**
+     * 预先建好count个连接放进池里（不超过maxActive），第一批请求就不用等握手。
+     * 每个连接PING一次确认能用，返回实际建好的个数。
+     */
+    public int warmUp(int count) {
+        List<Jedis> connections = new ArrayList<Jedis>();
+        try {
+            for (int i = 0; i < Math.min(count, maxActive); i++) {
+                Jedis jedis = getResource();
+                connections.add(jedis);
+                jedis.ping();
+            }
+        } finally {
+            for (Jedis jedis : connections) {
+                returnResource(jedis);
+            }
+        }
+        return connections.size();
+    }
+
+    public String getHost() {
+        return host;
+    }
+
+    public int getPort() {
+        return port;
+    }
+
+    public int getDatabase() {
+        return database;
+    }
+
+    /**
+     * builder里没设metrics就是null。
+     */
+    public CommandMetrics getMetrics() {
+        return metrics;
+    }
+
+    /**
+     * 当前借出去还没还的连接数。
+     */
+    public int getActive() {
+        return active.get();
+    }
+
+    public long getBorrowed() {
+        return borrowed.get();
+    }
+
+    public long getBroken() {
+        return broken.get();
+    }
+
+    public boolean isClosed() {
+        return closed;
+    }
+
+    public void close() {
+        if (closed) {
+            return;
+        }
+        closed = true;
+        pool.destroy();
+    }
+
+    /**
+     * 借出去的一个连接，close的时候还回池里，配合try-with-resources用。
+     */
+    public static final class Lease implements Closeable {
+        private final RedisConnections owner;
+        private Jedis jedis;
+        private boolean broken;
+
+        private Lease(RedisConnections owner, Jedis jedis) {
+            this.owner = owner;
+            this.jedis = jedis;
+        }
+
+        public Jedis jedis() {
+            if (jedis == null) {
+                throw new IllegalStateException("lease already closed");
+            }
+            return jedis;
+        }
+
+        /**
+         * 标记这个连接坏了，close时销毁而不是放回池里。
+         */
+        public void markBroken() {
+            broken = true;
+        }
+
+        public void close() {
+            if (jedis == null) {
+                return;
+            }
+            if (broken) {
+                owner.returnBrokenResource(jedis);
+            } else {
+                owner.returnResource(jedis);
+            }
+            jedis = null;
+        }
+    }
+
+    public static final class Builder {
+        private String host = "localhost";
+        private int port = Protocol.DEFAULT_PORT;
+        private int database = Protocol.DEFAULT_DATABASE;
+        private String password;
+        private int timeoutMillis = Protocol.DEFAULT_TIMEOUT;
+        private int maxActive = 8;
+        private int maxIdle = 8;
+        private int minIdle;
+        private long maxWaitMillis = 2000;
+        private boolean testOnBorrow;
+        private int warmUp;
+        private CommandMetrics metrics;
+
+        private Builder() {
+        }
+
+        public Builder host(String host) {
+            this.host = host;
+            return this;
+        }
+
+        public Builder port(int port) {
+            this.port = port;
+            return this;
+        }
+
+        public Builder database(int database) {
+            this.database = database;
+            return this;
+        }
+
+        public Builder password(String password) {
+            this.password = password;
+            return this;
+        }
+
+        public Builder timeoutMillis(int timeoutMillis) {
+            this.timeoutMillis = timeoutMillis;
+            return this;
+        }
+
+        /**
+         * 最多同时借出的连接数，借满了getResource最多等maxWaitMillis。
+         */
+        public Builder maxActive(int maxActive) {
+            this.maxActive = maxActive;
+            return this;
+        }
+
+        public Builder maxIdle(int maxIdle) {
+            this.maxIdle = maxIdle;
+            return this;
+        }
+
+        public Builder minIdle(int minIdle) {
+            this.minIdle = minIdle;
+            return this;
+        }
+
+        public Builder maxWaitMillis(long maxWaitMillis) {
+            this.maxWaitMillis = maxWaitMillis;
+            return this;
+        }
+
+        public Builder testOnBorrow(boolean testOnBorrow) {
+            this.testOnBorrow = testOnBorrow;
+            return this;
+        }
+
+        /**
+         * build的时候预先建好的连接数，见{@link RedisConnections#warmUp(int)}。
+         */
+        public Builder warmUp(int warmUp) {
+            this.warmUp = warmUp;
+            return this;
+        }
+
+        /**
+         * 设了之后池里的连接都是{@link InstrumentedJedis}，每个命令的延迟、字节数、错误数记到metrics里。
+         */
+        public Builder metrics(CommandMetrics metrics) {
+            this.metrics = metrics;
+            return this;
+        }
+
+        public RedisConnections build() {
+            if (maxActive <= 0) {
+                throw new IllegalArgumentException("maxActive must be positive: " + maxActive);
+            }
+            maxIdle = Math.min(Math.max(maxIdle, warmUp), maxActive);
+            RedisConnections connections = new RedisConnections(this);
+            if (warmUp > 0) {
+                connections.warmUp(warmUp);
+            }
+            return connections;
+        }
+    }
+}
@@ -0,0 +1,296 @@
+package com.babyduncan.redis.client;
+
+import com.babyduncan.redis.script.Scripts;
+
+import java.io.Closeable;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.UUID;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.concurrent.locks.LockSupport;
+
+/**
+ * User: zgh
+ * Date: 26-10-18
+ * Time: 23:45
+ */
+
+/**
+ * SETNX模式的分布式锁（http://redis.io/commands/setnx），带过期时间和fencing token：
+ * <pre>
+ * RedisLock lock = new RedisLock(connections, "lock:order:42");
+ * try (RedisLock.Lease lease = lock.acquire(1, TimeUnit.SECONDS)) {
+ *     if (lease == null) { ... 超时没拿到 }
+ *     storage.write(lease.getToken(), ...);   // 存储那边拒绝比见过的token小的写
+ * }
+ * </pre>
+ * 加锁是一个脚本（{@link Scripts#SET_NX_PX_INCR}）：SET NX PX成功就INCR name:fence，拿到的token跟加锁顺序严格一致，
+ * 持锁的进程停顿太久、锁过期被别人拿走以后，它带着旧token的写会被存储拒绝。
+ * 解锁是compare-and-delete，值是这次加锁独有的随机串，不会删掉过期后别人加的锁。
+ * <p/>
+ * 没抢到的时候先yield重试几次（临界区很短的时候最快），然后按指数退避加随机抖动睡，
+ * 起始的退避时间跟着本进程最近持锁的时长走（EWMA），而且不会睡过锁剩下的过期时间。
+ * localQueue打开时同一个进程里的线程先在本地公平信号量上排队，一个进程同时只有一个线程去redis抢，
+ * 几百个线程抢一把锁的时候redis上的请求少得多，本进程内也是先来先得。
+ * 这时候Lease可以在别的线程里释放，但一定要释放（或者用try-with-resources）。
+ */
+public final class RedisLock {
+    public static final long DEFAULT_LEASE_MILLIS = 30000;
+    static final int SPIN_TRIES = 3;
+    static final long MIN_BACKOFF_NANOS = TimeUnit.MICROSECONDS.toNanos(50);
+    static final long MAX_BACKOFF_NANOS = TimeUnit.MILLISECONDS.toNanos(50);
+
+    private static final LuaScript ACQUIRE = new LuaScript(Scripts.SET_NX_PX_INCR);
+    private static final LuaScript RELEASE = new LuaScript(Scripts.COMPARE_AND_DELETE);
+    private static final LuaScript EXTEND = new LuaScript(Scripts.COMPARE_AND_PEXPIRE);
+
+    private final RedisConnections connections;
+    private final String name;
+    private final List<String> keys;
+    private final long leaseMillis;
+    private final Semaphore local;
+    private final String ownerPrefix = UUID.randomUUID().toString() + ":";
+    private final AtomicLong ownerIds = new AtomicLong();
+    private final AtomicLong holdEstimateNanos = new AtomicLong();
+
+    private final LongAdder acquired = new LongAdder();
+    private final LongAdder attempts = new LongAdder();
+    private final LongAdder timeouts = new LongAdder();
+    private final LongAdder released = new LongAdder();
+    private final LongAdder lostLeases = new LongAdder();
+    private final LongAdder waitNanos = new LongAdder();
+    private final AtomicLong maxWaitNanos = new AtomicLong();
+
+    public RedisLock(RedisConnections connections, String name) {
+        this(connections, name, DEFAULT_LEASE_MILLIS, true);
+    }
+
+    /**
+     * @param leaseMillis 锁的过期时间，持锁的进程挂了最多这么久以后别人能拿到
+     */
+    public RedisLock(RedisConnections connections, String name, long leaseMillis, boolean localQueue) {
+        if (leaseMillis <= 0) {
+            throw new IllegalArgumentException("leaseMillis must be positive: " + leaseMillis);
+        }
+        this.connections = connections;
+        this.name = name;
+        this.keys = Arrays.asList(name, name + ":fence");
+        this.leaseMillis = leaseMillis;
+        this.local = localQueue ? new Semaphore(1, true) : null;
+    }
+
+    /**
+     * 只试一次，拿不到返回null。
+     */
+    public Lease tryAcquire() {
+        if (local != null && !local.tryAcquire()) {
+            return null;
+        }
+        long start = System.nanoTime();
+        boolean ok = false;
+        try {
+            String owner = nextOwner();
+            long result = attempt(owner);
+            if (result > 0) {
+                ok = true;
+                return acquired(owner, result, start);
+            }
+            return null;
+        } finally {
+            if (!ok && local != null) {
+                local.release();
+            }
+        }
+    }
+
+    /**
+     * 最多等timeout，超时返回null。
+     */
+    public Lease acquire(long timeout, TimeUnit unit) throws InterruptedException {
+        long start = System.nanoTime();
+        long deadline = start + unit.toNanos(timeout);
+        if (local != null && !local.tryAcquire(unit.toNanos(timeout), TimeUnit.NANOSECONDS)) {
+            timeouts.increment();
+            return null;
+        }
+        boolean ok = false;
+        try {
+            String owner = nextOwner();
+            long delay = initialBackoffNanos();
+            for (int failures = 1; ; failures++) {
+                long result = attempt(owner);
+                if (result > 0) {
+                    ok = true;
+                    return acquired(owner, result, start);
+                }
+                long remaining = deadline - System.nanoTime();
+                if (remaining <= 0) {
+                    timeouts.increment();
+                    return null;
+                }
+                if (failures <= SPIN_TRIES) {
+                    Thread.yield();
+                    continue;
+                }
+                long pause = ThreadLocalRandom.current().nextLong(delay / 2, delay + 1);
+                if (result < 0) {
+                    // 锁最晚在pttl（-1-result）以后过期，没必要睡得更久
+                    pause = Math.min(pause, TimeUnit.MILLISECONDS.toNanos(-1 - result) + MIN_BACKOFF_NANOS);
+                }
+                LockSupport.parkNanos(Math.min(pause, remaining));
+                if (Thread.interrupted()) {
+                    throw new InterruptedException();
+                }
+                delay = Math.min(delay * 2, MAX_BACKOFF_NANOS);
+            }
+        } finally {
+            if (!ok && local != null) {
+                local.release();
+            }
+        }
+    }
+
+    private String nextOwner() {
+        return ownerPrefix + ownerIds.incrementAndGet();
+    }
+
+    /**
+     * 最近持锁时长的一半，夹在[MIN_BACKOFF, MAX_BACKOFF]之间。
+     */
+    long initialBackoffNanos() {
+        return Math.max(MIN_BACKOFF_NANOS, Math.min(MAX_BACKOFF_NANOS, holdEstimateNanos.get() / 2));
+    }
+
+    /**
+     * 成功返回token（>0），失败返回 -1-锁剩下的毫秒数，见{@link Scripts#SET_NX_PX_INCR}。
+     */
+    private long attempt(final String owner) {
+        attempts.increment();
+        return (Long) connections.execute(jedis ->
+                ACQUIRE.eval(jedis, keys, Arrays.asList(owner, Long.toString(leaseMillis))));
+    }
+
+    private Lease acquired(String owner, long token, long start) {
+        long waited = System.nanoTime() - start;
+        acquired.increment();
+        waitNanos.add(waited);
+        maxWaitNanos.accumulateAndGet(waited, Math::max);
+        return new Lease(owner, token);
+    }
+
+    public String getName() {
+        return name;
+    }
+
+    public long getLeaseMillis() {
+        return leaseMillis;
+    }
+
+    public long getAcquired() {
+        return acquired.sum();
+    }
+
+    /**
+     * 发到redis的加锁脚本次数，getAttempts()/getAcquired()是平均每次加锁试了几次。
+     */
+    public long getAttempts() {
+        return attempts.sum();
+    }
+
+    public long getTimeouts() {
+        return timeouts.sum();
+    }
+
+    public long getReleased() {
+        return released.sum();
+    }
+
+    /**
+     * 释放的时候发现锁已经不是自己的了（过期了）的次数，大于0说明leaseMillis太短。
+     */
+    public long getLostLeases() {
+        return lostLeases.sum();
+    }
+
+    public double getAverageWaitMicros() {
+        long n = acquired.sum();
+        return n == 0 ? 0 : waitNanos.sum() / 1000.0 / n;
+    }
+
+    public double getMaxWaitMicros() {
+        return maxWaitNanos.get() / 1000.0;
+    }
+
+    public double getHoldEstimateMicros() {
+        return holdEstimateNanos.get() / 1000.0;
+    }
+
+    /**
+     * 拿到的一次锁。
+     */
+    public final class Lease implements Closeable {
+        private final String owner;
+        private final long token;
+        private final long acquiredAt = System.nanoTime();
+        private final AtomicBoolean done = new AtomicBoolean();
+
+        private Lease(String owner, long token) {
+            this.owner = owner;
+            this.token = token;
+        }
+
+        /**
+         * fencing token，同一把锁每次加锁严格递增。
+         */
+        public long getToken() {
+            return token;
+        }
+
+        /**
+         * 释放锁，返回false表示锁在这之前已经过期（可能已经被别人拿走了）。重复调用返回false。
+         */
+        public boolean release() {
+            if (!done.compareAndSet(false, true)) {
+                return false;
+            }
+            long held = System.nanoTime() - acquiredAt;
+            holdEstimateNanos.accumulateAndGet(held, (old, h) -> old == 0 ? h : old + (h - old) / 8);
+            try {
+                Long deleted = (Long) connections.execute(jedis ->
+                        RELEASE.eval(jedis, keys.subList(0, 1), Collections.singletonList(owner)));
+                released.increment();
+                if (deleted == 0) {
+                    lostLeases.increment();
+                    return false;
+                }
+                return true;
+            } finally {
+                if (local != null) {
+                    local.release();
+                }
+            }
+        }
+
+        /**
+         * 把过期时间重新设成millis，返回false表示锁已经不是自己的了。
+         */
+        public boolean extend(final long millis) {
+            if (done.get()) {
+                return false;
+            }
+            Long ok = (Long) connections.execute(jedis ->
+                    EXTEND.eval(jedis, keys.subList(0, 1), Arrays.asList(owner, Long.toString(millis))));
+            return ok == 1;
+        }
+
+        public void close() {
+            release();
+        }
+    }
+}
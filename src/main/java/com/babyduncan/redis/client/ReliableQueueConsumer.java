@@ -0,0 +1,483 @@
+package com.babyduncan.redis.client;
+
+import com.babyduncan.redis.script.Scripts;
+import redis.clients.jedis.Pipeline;
+import redis.clients.jedis.Response;
+import redis.clients.jedis.exceptions.JedisDataException;
+
+import java.io.Closeable;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Set;
+import java.util.UUID;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.Executors;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * User: zgh
+ * Date: 26-10-18
+ * Time: 22:08
+ */
+
+/**
+ * 基于BRPOPLPUSH的可靠队列消费者（at-least-once）。
+ * <p/>
+ * 生产者LPUSH到queueKey。每个worker有自己的processing list（queueKey:processing:consumerId-i），
+ * 用BRPOPLPUSH把消息原子地从队列挪进去，同时在queueKey:inflight:consumerId-i这个sorted set里记下挪进来的时间，
+ * 然后交给有界的handler线程池处理；处理成功用LREM从processing list里删掉，就算确认了。
+ * <p/>
+ * 消费者挂了或者handler抛异常，消息就一直留在processing list里。消费者启动时把自己的processing list
+ * SADD到queueKey:processing这个set里，reaper定时检查set里的每一个，在里面待得比visibilityTimeout久的，
+ * 用{@link Scripts#LREM_RPUSH}在一个脚本里LREM出来再RPUSH回队列尾部（下一个就被取走），reaper中途挂掉也不会丢消息。
+ * LREM是原子的，确认和reaper只有一个能删掉它，所以不会重复入队；被reaper抢先的确认记为lateAck。
+ * 还没来得及记时间就挂掉的消息，reaper第一次看到时补记一个时间。
+ * <p/>
+ * 正常close时processing list已经空了就从set里去掉；挂掉的消费者留在set里，消息放回去以后只是一个空list，每轮多一次LRANGE。
+ * <p/>
+ * 同样内容的消息在同一个processing list里共用一个时间戳，消息最好自带唯一id。
+ * 多台机器上的消费者靠本地时钟比较超时，时钟要大致同步。
+ */
+public final class ReliableQueueConsumer implements Closeable {
+    private static final int FETCH_TIMEOUT_SECONDS = 1;
+    private static final LuaScript REQUEUE = new LuaScript(Scripts.LREM_RPUSH);
+
+    private final RedisConnections connections;
+    private final String queueKey;
+    private final String consumerId;
+    private final QueueHandler handler;
+    private final int workers;
+    private final long visibilityTimeoutMillis;
+    private final long reaperIntervalMillis;
+    private final ThreadPoolExecutor executor;
+    private final Semaphore capacity;
+    private final List<Thread> fetchers = new ArrayList<Thread>();
+    private final ScheduledExecutorService reaper;
+    private volatile boolean running;
+
+    private final LongAdder received = new LongAdder();
+    private final LongAdder acked = new LongAdder();
+    private final LongAdder failed = new LongAdder();
+    private final LongAdder requeued = new LongAdder();
+    private final LongAdder lateAcks = new LongAdder();
+    private final AtomicInteger inFlight = new AtomicInteger();
+    private volatile long startedAt;
+
+    private ReliableQueueConsumer(Builder b) {
+        this.connections = b.connections;
+        this.queueKey = b.queueKey;
+        this.consumerId = b.consumerId != null ? b.consumerId : UUID.randomUUID().toString().substring(0, 8);
+        this.handler = b.handler;
+        this.workers = b.workers;
+        this.visibilityTimeoutMillis = b.visibilityTimeoutMillis;
+        this.reaperIntervalMillis = b.reaperIntervalMillis;
+        this.executor = new ThreadPoolExecutor(b.handlerThreads, b.handlerThreads, 0, TimeUnit.MILLISECONDS,
+                new ArrayBlockingQueue<Runnable>(b.maxPending), daemonThreads("queue-handler-" + consumerId),
+                ReliableQueueConsumer::waitForRoom);
+        // 线程数+排队数，拿不到许可fetcher就不再取消息
+        this.capacity = new Semaphore(b.handlerThreads + b.maxPending);
+        this.reaper = Executors.newSingleThreadScheduledExecutor(daemonThreads("queue-reaper-" + consumerId));
+    }
+
+    public static Builder builder(RedisConnections connections, String queueKey, QueueHandler handler) {
+        return new Builder(connections, queueKey, handler);
+    }
+
+    /**
+     * handler线程刚释放许可、还没回到队列取任务的一瞬间，队列可能暂时放不下，这时候等一下而不是拒绝。
+     */
+    private static void waitForRoom(Runnable task, ThreadPoolExecutor executor) {
+        if (executor.isShutdown()) {
+            throw new RejectedExecutionException("consumer is closed");
+        }
+        try {
+            executor.getQueue().put(task);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new RejectedExecutionException(e);
+        }
+    }
+
+    private static ThreadFactory daemonThreads(final String name) {
+        final AtomicInteger ids = new AtomicInteger();
+        return r -> {
+            Thread t = new Thread(r, name + "-" + ids.incrementAndGet());
+            t.setDaemon(true);
+            return t;
+        };
+    }
+
+    public synchronized ReliableQueueConsumer start() {
+        if (running) {
+            return this;
+        }
+        // 先登记，reaper才找得到这些processing list
+        final String[] processingKeys = new String[workers];
+        for (int i = 0; i < workers; i++) {
+            processingKeys[i] = processingKey(consumerId + "-" + i);
+        }
+        connections.execute(jedis -> jedis.sadd(registryKey(), processingKeys));
+        running = true;
+        startedAt = System.nanoTime();
+        for (int i = 0; i < workers; i++) {
+            final String worker = consumerId + "-" + i;
+            Thread t = new Thread(() -> fetchLoop(worker), "queue-fetcher-" + worker);
+            t.setDaemon(true);
+            fetchers.add(t);
+            t.start();
+        }
+        reaper.scheduleWithFixedDelay(() -> {
+            try {
+                reap();
+            } catch (RuntimeException e) {
+                // 下一轮再试
+            }
+        }, reaperIntervalMillis, reaperIntervalMillis, TimeUnit.MILLISECONDS);
+        return this;
+    }
+
+    /**
+     * 登记了所有消费者的processing list的set。
+     */
+    public String registryKey() {
+        return queueKey + ":processing";
+    }
+
+    public String processingKey(String worker) {
+        return queueKey + ":processing:" + worker;
+    }
+
+    private String inflightKey(String processingKey) {
+        return queueKey + ":inflight:" + processingKey.substring((queueKey + ":processing:").length());
+    }
+
+    private void fetchLoop(String worker) {
+        final String processing = processingKey(worker);
+        final String inflight = inflightKey(processing);
+        while (running) {
+            try {
+                capacity.acquire();
+            } catch (InterruptedException e) {
+                break;
+            }
+            if (!running) {
+                // 等许可的时候close了，不再取新消息
+                capacity.release();
+                break;
+            }
+            String message;
+            try {
+                message = connections.execute(jedis -> {
+                    String m = jedis.brpoplpush(queueKey, processing, FETCH_TIMEOUT_SECONDS);
+                    if (m != null) {
+                        jedis.zadd(inflight, System.currentTimeMillis(), m);
+                    }
+                    return m;
+                });
+            } catch (RuntimeException e) {
+                capacity.release();
+                pause();
+                continue;
+            }
+            if (message == null) {
+                capacity.release();
+                continue;
+            }
+            received.increment();
+            inFlight.incrementAndGet();
+            final String m = message;
+            try {
+                executor.execute(() -> process(processing, inflight, m));
+            } catch (RejectedExecutionException e) {
+                // 已经close了，消息留在processing list里，超时后由reaper重新入队
+                inFlight.decrementAndGet();
+                capacity.release();
+                break;
+            }
+        }
+    }
+
+    private void process(final String processing, final String inflight, final String message) {
+        try {
+            handler.handle(message);
+            ack(processing, inflight, message);
+        } catch (Exception e) {
+            // 留在processing list里，超时后由reaper重新入队
+            failed.increment();
+        } finally {
+            inFlight.decrementAndGet();
+            capacity.release();
+        }
+    }
+
+    private void ack(final String processing, final String inflight, final String message) {
+        long removed = connections.execute(jedis -> {
+            Pipeline p = jedis.pipelined();
+            Response<Long> lrem = p.lrem(processing, 1, message);
+            p.zrem(inflight, message);
+            p.sync();
+            return lrem.get();
+        });
+        if (removed > 0) {
+            acked.increment();
+        } else {
+            lateAcks.increment();
+        }
+    }
+
+    /**
+     * 检查登记过的所有processing list，把超时的消息放回队列，返回放回去的条数。
+     */
+    public int reap() {
+        final Set<String> processingKeys = connections.execute(jedis -> jedis.smembers(registryKey()));
+        final long now = System.currentTimeMillis();
+        final long deadline = now - visibilityTimeoutMillis;
+        int count = 0;
+        for (final String processing : processingKeys) {
+            final String inflight = inflightKey(processing);
+            count += connections.execute(jedis -> {
+                List<String> items = jedis.lrange(processing, 0, -1);
+                // 还没有时间戳的（BRPOPLPUSH之后来不及ZADD就挂了）补记一个
+                Pipeline p = jedis.pipelined();
+                List<Response<Double>> scores = new ArrayList<Response<Double>>(items.size());
+                for (String item : items) {
+                    scores.add(p.zscore(inflight, item));
+                }
+                p.sync();
+                List<String> keys = Arrays.asList(processing, queueKey, inflight);
+                List<List<String>> expiredKeys = new ArrayList<List<String>>();
+                List<List<String>> expired = new ArrayList<List<String>>();
+                for (int i = 0; i < items.size(); i++) {
+                    Double since = scores.get(i).get();
+                    String item = items.get(i);
+                    if (since == null) {
+                        jedis.zadd(inflight, now, item);
+                    } else if (since <= deadline) {
+                        expiredKeys.add(keys);
+                        expired.add(Arrays.asList(item));
+                    }
+                }
+                // processing list已经空了的话，顺手清掉遗留的时间戳
+                if (items.isEmpty()) {
+                    jedis.del(inflight);
+                }
+                if (expired.isEmpty()) {
+                    return 0;
+                }
+                int n = 0;
+                for (Object reply : REQUEUE.evalAll(jedis, expiredKeys, expired)) {
+                    if (reply instanceof JedisDataException) {
+                        throw (JedisDataException) reply;
+                    }
+                    if ((Long) reply > 0) {
+                        n++;
+                    }
+                }
+                return n;
+            });
+        }
+        requeued.add(count);
+        return count;
+    }
+
+    private void pause() {
+        try {
+            Thread.sleep(100);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+    }
+
+    /**
+     * 停止取新消息，等已经取到的处理完（最多timeoutMillis），没处理完的留给reaper。
+     */
+    public void close() {
+        synchronized (this) {
+            if (!running) {
+                return;
+            }
+            running = false;
+        }
+        reaper.shutdownNow();
+        // 叫醒等许可的fetcher；阻塞在BRPOPLPUSH里的最多再等FETCH_TIMEOUT_SECONDS
+        for (Thread t : fetchers) {
+            t.interrupt();
+        }
+        for (Thread t : fetchers) {
+            try {
+                // BRPOPLPUSH最多阻塞FETCH_TIMEOUT_SECONDS
+                t.join(TimeUnit.SECONDS.toMillis(FETCH_TIMEOUT_SECONDS) * 3);
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            }
+        }
+        executor.shutdown();
+        try {
+            if (!executor.awaitTermination(visibilityTimeoutMillis, TimeUnit.MILLISECONDS)) {
+                return;
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            return;
+        }
+        unregisterDrained();
+    }
+
+    /**
+     * 已经取不到新消息了，空的processing list从set里去掉；还有没确认的消息就留着给reaper。
+     */
+    private void unregisterDrained() {
+        try {
+            connections.execute(jedis -> {
+                for (int i = 0; i < workers; i++) {
+                    String processing = processingKey(consumerId + "-" + i);
+                    if (jedis.llen(processing) == 0) {
+                        jedis.srem(registryKey(), processing);
+                    }
+                }
+                return null;
+            });
+        } catch (RuntimeException e) {
+            // 留在set里也只是reaper多看一个空list
+        }
+    }
+
+    public String getConsumerId() {
+        return consumerId;
+    }
+
+    public long getReceived() {
+        return received.sum();
+    }
+
+    public long getAcked() {
+        return acked.sum();
+    }
+
+    public long getFailed() {
+        return failed.sum();
+    }
+
+    /**
+     * 这个消费者的reaper放回队列的条数（可能是别的消费者的消息）。
+     */
+    public long getRequeued() {
+        return requeued.sum();
+    }
+
+    public long getLateAcks() {
+        return lateAcks.sum();
+    }
+
+    public int getInFlight() {
+        return inFlight.get();
+    }
+
+    /**
+     * 启动以来平均每秒确认的条数。
+     */
+    public double getThroughput() {
+        long elapsed = System.nanoTime() - startedAt;
+        return startedAt == 0 || elapsed <= 0 ? 0 : acked.sum() * 1e9 / elapsed;
+    }
+
+    /**
+     * 队列里等着被取的条数。
+     */
+    public long getQueueDepth() {
+        return connections.execute(jedis -> jedis.llen(queueKey));
+    }
+
+    /**
+     * 这个消费者的processing list里还没确认的条数。
+     */
+    public long getProcessingDepth() {
+        return connections.execute(jedis -> {
+            Pipeline p = jedis.pipelined();
+            List<Response<Long>> lengths = new ArrayList<Response<Long>>(workers);
+            for (int i = 0; i < workers; i++) {
+                lengths.add(p.llen(processingKey(consumerId + "-" + i)));
+            }
+            p.sync();
+            long total = 0;
+            for (Response<Long> r : lengths) {
+                total += r.get();
+            }
+            return total;
+        });
+    }
+
+    public static final class Builder {
+        private final RedisConnections connections;
+        private final String queueKey;
+        private final QueueHandler handler;
+        private String consumerId;
+        private int workers = 1;
+        private int handlerThreads = 4;
+        private int maxPending = 16;
+        private long visibilityTimeoutMillis = 30000;
+        private long reaperIntervalMillis = 5000;
+
+        private Builder(RedisConnections connections, String queueKey, QueueHandler handler) {
+            this.connections = connections;
+            this.queueKey = queueKey;
+            this.handler = handler;
+        }
+
+        /**
+         * 决定processing list的名字，重启后用同一个id可以接着用原来的list；默认随机。
+         */
+        public Builder consumerId(String consumerId) {
+            this.consumerId = consumerId;
+            return this;
+        }
+
+        /**
+         * 取消息的线程数，每个一个processing list、阻塞时占一个连接。
+         * 连接池的maxActive至少要 workers + handlerThreads + 1（reaper）。
+         */
+        public Builder workers(int workers) {
+            this.workers = workers;
+            return this;
+        }
+
+        public Builder handlerThreads(int handlerThreads) {
+            this.handlerThreads = handlerThreads;
+            return this;
+        }
+
+        /**
+         * handler线程都忙时最多再排队几条，排满了就不再取新消息。
+         */
+        public Builder maxPending(int maxPending) {
+            this.maxPending = maxPending;
+            return this;
+        }
+
+        public Builder visibilityTimeoutMillis(long visibilityTimeoutMillis) {
+            this.visibilityTimeoutMillis = visibilityTimeoutMillis;
+            return this;
+        }
+
+        public Builder reaperIntervalMillis(long reaperIntervalMillis) {
+            this.reaperIntervalMillis = reaperIntervalMillis;
+            return this;
+        }
+
+        public ReliableQueueConsumer build() {
+            if (workers <= 0 || handlerThreads <= 0 || maxPending <= 0
+                    || visibilityTimeoutMillis <= 0 || reaperIntervalMillis <= 0) {
+                throw new IllegalArgumentException("invalid consumer settings");
+            }
+            return new ReliableQueueConsumer(this);
+        }
+    }
+}
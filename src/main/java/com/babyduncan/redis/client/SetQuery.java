@@ -0,0 +1,338 @@
+package com.babyduncan.redis.client;
+
+import redis.clients.jedis.Pipeline;
+import redis.clients.jedis.Response;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * User: zgh
+ * Date: 26-10-18
+ * Time: 14:10
+ */
+
+/**
+ * 集合运算的小查询规划器，给“同时带这几个标签”这种五到十个集合求交集的查询用。
+ * <p/>
+ * 先用一个pipeline拿到所有key的SCARD（非0的基数在本地缓存cardTtlMillis，标签集合的大小变得慢，
+ * 大部分查询省掉这一次往返；0不缓存，免得刚写进去的集合被当成空的），再决定怎么算：
+ * <ul>
+ * <li>有一个是空的，交集直接是空，不再往下算；</li>
+ * <li>所有集合都不超过localThreshold个元素：用一个pipeline SMEMBERS全拿回来，从小到大在本地HashSet里retainAll，
+ * 和SINTER一样一次往返，但计算挪到了客户端，单线程的redis只做O(N)的拷贝。代价是要把所有元素传过来，
+ * redis的cpu不是瓶颈的时候反而更慢（SetQueryBenchmark small，五个50到250的集合慢了好几倍），
+ * 所以默认阈值只有64，redis忙的时候再调大；</li>
+ * <li>否则按SCARD从小到大排好key，交给SINTER。只有最小的集合小的时候不在本地算：
+ * 试过SMEMBERS最小的再pipeline SISMEMBER其他集合，多一次往返加上成百条命令，比SINTER慢一个数量级。</li>
+ * </ul>
+ * SDIFF类似：减数里空集合直接去掉，都小就本地算；SUNION只是去掉空集合。
+ * <p/>
+ * sinterCached把结果SINTERSTORE到 setquery:inter:... 并设ttl，ttl内同样的查询（key顺序无所谓）只需一次SMEMBERS；
+ * 没命中时一样先看SCARD，有空集合就直接缓存空结果。
+ * SINTERSTORE的结果为空时不会留下key，所以每个缓存集合里都多放一个标记元素，空结果也能缓存，读的时候去掉。
+ * 缓存不会因为源集合变化而失效，最多旧ttl秒。
+ */
+public final class SetQuery {
+    public static final int DEFAULT_LOCAL_THRESHOLD = 64;
+    public static final long DEFAULT_CARD_TTL_MILLIS = 1000;
+    public static final String CACHE_PREFIX = "setquery:";
+    static final String CACHE_MARKER = "\u0000setquery";
+
+    private final RedisConnections connections;
+    private final int localThreshold;
+    private final long cardTtlNanos;
+    private final ConcurrentHashMap<String, Card> cards = new ConcurrentHashMap<String, Card>();
+
+    private final LongAdder queries = new LongAdder();
+    private final LongAdder shortCircuits = new LongAdder();
+    private final LongAdder localQueries = new LongAdder();
+    private final LongAdder serverQueries = new LongAdder();
+    private final LongAdder cacheHits = new LongAdder();
+    private final LongAdder cacheMisses = new LongAdder();
+
+    public SetQuery(RedisConnections connections) {
+        this(connections, DEFAULT_LOCAL_THRESHOLD, DEFAULT_CARD_TTL_MILLIS);
+    }
+
+    /**
+     * localThreshold为0表示总是交给redis算，cardTtlMillis为0表示每次都重新SCARD。
+     */
+    public SetQuery(RedisConnections connections, int localThreshold, long cardTtlMillis) {
+        if (localThreshold < 0 || cardTtlMillis < 0) {
+            throw new IllegalArgumentException("localThreshold and cardTtlMillis must not be negative");
+        }
+        this.connections = connections;
+        this.localThreshold = localThreshold;
+        this.cardTtlNanos = TimeUnit.MILLISECONDS.toNanos(cardTtlMillis);
+    }
+
+    public Set<String> sinter(String... keys) {
+        requireKeys(keys);
+        queries.increment();
+        final Plan plan = plan(keys);
+        plan.sortAscending();
+        if (plan.cards[0] == 0) {
+            shortCircuits.increment();
+            return new HashSet<String>();
+        }
+        if (plan.cards[plan.keys.length - 1] > localThreshold) {
+            serverQueries.increment();
+            return connections.execute(jedis -> jedis.sinter(plan.keys));
+        }
+        localQueries.increment();
+        List<Set<String>> contents = members(Arrays.asList(plan.keys));
+        Set<String> result = new HashSet<String>(contents.get(0));
+        for (int i = 1; i < contents.size() && !result.isEmpty(); i++) {
+            result.retainAll(contents.get(i));
+        }
+        return result;
+    }
+
+    public Set<String> sdiff(String... keys) {
+        requireKeys(keys);
+        queries.increment();
+        Plan plan = plan(keys);
+        if (plan.cards[0] == 0) {
+            shortCircuits.increment();
+            return new HashSet<String>();
+        }
+        // 大的减数放前面，redis那边能早点把结果减空
+        plan.sortDescendingFrom(1);
+        final List<String> nonEmpty = new ArrayList<String>();
+        long largest = 0;
+        for (int i = 0; i < plan.keys.length; i++) {
+            if (plan.cards[i] > 0) {
+                nonEmpty.add(plan.keys[i]);
+                largest = Math.max(largest, plan.cards[i]);
+            }
+        }
+        if (largest > localThreshold) {
+            serverQueries.increment();
+            return connections.execute(jedis -> jedis.sdiff(nonEmpty.toArray(new String[nonEmpty.size()])));
+        }
+        localQueries.increment();
+        List<Set<String>> contents = members(nonEmpty);
+        Set<String> result = new HashSet<String>(contents.get(0));
+        for (int i = 1; i < contents.size() && !result.isEmpty(); i++) {
+            result.removeAll(contents.get(i));
+        }
+        return result;
+    }
+
+    public Set<String> sunion(String... keys) {
+        requireKeys(keys);
+        queries.increment();
+        Plan plan = plan(keys);
+        final List<String> nonEmpty = new ArrayList<String>();
+        for (int i = 0; i < plan.keys.length; i++) {
+            if (plan.cards[i] > 0) {
+                nonEmpty.add(plan.keys[i]);
+            }
+        }
+        if (nonEmpty.isEmpty()) {
+            shortCircuits.increment();
+            return new HashSet<String>();
+        }
+        serverQueries.increment();
+        if (nonEmpty.size() == 1) {
+            return connections.execute(jedis -> jedis.smembers(nonEmpty.get(0)));
+        }
+        return connections.execute(jedis -> jedis.sunion(nonEmpty.toArray(new String[nonEmpty.size()])));
+    }
+
+    /**
+     * 交集，结果在redis里缓存ttlSeconds秒。命中时一次SMEMBERS；
+     * 没命中时先和sinter一样看SCARD：有空集合就只缓存一个空结果，不再SINTERSTORE；
+     * 否则按基数从小到大把SINTERSTORE、EXPIRE、SMEMBERS在一个pipeline里发。
+     */
+    public Set<String> sinterCached(final int ttlSeconds, final String... keys) {
+        requireKeys(keys);
+        if (ttlSeconds <= 0) {
+            throw new IllegalArgumentException("ttlSeconds must be positive: " + ttlSeconds);
+        }
+        queries.increment();
+        final String cacheKey = cacheKey("inter", keys);
+        Set<String> cached = connections.execute(jedis -> jedis.smembers(cacheKey));
+        if (cached.remove(CACHE_MARKER)) {
+            cacheHits.increment();
+            return cached;
+        }
+        cacheMisses.increment();
+        final Plan plan = plan(keys);
+        plan.sortAscending();
+        if (plan.cards[0] == 0) {
+            shortCircuits.increment();
+            connections.execute(jedis -> {
+                Pipeline p = jedis.pipelined();
+                p.del(cacheKey);
+                p.sadd(cacheKey, CACHE_MARKER);
+                p.expire(cacheKey, ttlSeconds);
+                p.sync();
+                return null;
+            });
+            return new HashSet<String>();
+        }
+        serverQueries.increment();
+        Set<String> result = connections.execute(jedis -> {
+            Pipeline p = jedis.pipelined();
+            p.sinterstore(cacheKey, plan.keys);
+            p.sadd(cacheKey, CACHE_MARKER);
+            p.expire(cacheKey, ttlSeconds);
+            Response<Set<String>> members = p.smembers(cacheKey);
+            p.sync();
+            return members.get();
+        });
+        result.remove(CACHE_MARKER);
+        return result;
+    }
+
+    /**
+     * 缓存key和参数顺序无关：key排好序，每个前面带上长度，避免"a,b"+"c"和"a"+"b,c"撞在一起。
+     */
+    static String cacheKey(String op, String... keys) {
+        String[] sorted = keys.clone();
+        Arrays.sort(sorted);
+        StringBuilder sb = new StringBuilder(CACHE_PREFIX).append(op).append(':');
+        for (String key : sorted) {
+            sb.append(key.length()).append(':').append(key).append(';');
+        }
+        return sb.toString();
+    }
+
+    private static void requireKeys(String[] keys) {
+        if (keys == null || keys.length == 0) {
+            throw new IllegalArgumentException("at least one key is required");
+        }
+    }
+
+    private Plan plan(String[] keys) {
+        Plan plan = new Plan(keys.clone(), new long[keys.length]);
+        long now = System.nanoTime();
+        final List<Integer> missing = new ArrayList<Integer>();
+        for (int i = 0; i < keys.length; i++) {
+            Card card = cards.get(keys[i]);
+            if (card != null && now - card.fetchedAt < cardTtlNanos) {
+                plan.cards[i] = card.value;
+            } else {
+                missing.add(i);
+            }
+        }
+        if (missing.isEmpty()) {
+            return plan;
+        }
+        final String[] planKeys = plan.keys;
+        List<Response<Long>> fetched = connections.execute(jedis -> {
+            Pipeline p = jedis.pipelined();
+            List<Response<Long>> r = new ArrayList<Response<Long>>(missing.size());
+            for (int i : missing) {
+                r.add(p.scard(planKeys[i]));
+            }
+            p.sync();
+            return r;
+        });
+        for (int m = 0; m < missing.size(); m++) {
+            int i = missing.get(m);
+            plan.cards[i] = fetched.get(m).get();
+            if (plan.cards[i] > 0 && cardTtlNanos > 0) {
+                cards.put(keys[i], new Card(plan.cards[i], now));
+            } else {
+                cards.remove(keys[i]);
+            }
+        }
+        return plan;
+    }
+
+    private List<Set<String>> members(final List<String> keys) {
+        return connections.execute(jedis -> {
+            Pipeline p = jedis.pipelined();
+            List<Response<Set<String>>> r = new ArrayList<Response<Set<String>>>(keys.size());
+            for (String key : keys) {
+                r.add(p.smembers(key));
+            }
+            p.sync();
+            List<Set<String>> sets = new ArrayList<Set<String>>(r.size());
+            for (Response<Set<String>> response : r) {
+                sets.add(response.get());
+            }
+            return sets;
+        });
+    }
+
+    public long getQueries() {
+        return queries.sum();
+    }
+
+    /**
+     * 看了SCARD就知道结果为空、没再算的次数。
+     */
+    public long getShortCircuits() {
+        return shortCircuits.sum();
+    }
+
+    public long getLocalQueries() {
+        return localQueries.sum();
+    }
+
+    public long getServerQueries() {
+        return serverQueries.sum();
+    }
+
+    public long getCacheHits() {
+        return cacheHits.sum();
+    }
+
+    public long getCacheMisses() {
+        return cacheMisses.sum();
+    }
+
+    private static final class Card {
+        final long value;
+        final long fetchedAt;
+
+        Card(long value, long fetchedAt) {
+            this.value = value;
+            this.fetchedAt = fetchedAt;
+        }
+    }
+
+    private static final class Plan {
+        final String[] keys;
+        final long[] cards;
+
+        Plan(String[] keys, long[] cards) {
+            this.keys = keys;
+            this.cards = cards;
+        }
+
+        void sortAscending() {
+            sort(0, true);
+        }
+
+        void sortDescendingFrom(int from) {
+            sort(from, false);
+        }
+
+        private void sort(int from, final boolean ascending) {
+            List<Integer> order = new ArrayList<Integer>();
+            for (int i = from; i < keys.length; i++) {
+                order.add(i);
+            }
+            Collections.sort(order, (a, b) -> ascending
+                    ? Long.compare(cards[a], cards[b]) : Long.compare(cards[b], cards[a]));
+            String[] k = keys.clone();
+            long[] c = cards.clone();
+            for (int i = 0; i < order.size(); i++) {
+                keys[from + i] = k[order.get(i)];
+                cards[from + i] = c[order.get(i)];
+            }
+        }
+    }
+}
@@ -0,0 +1,403 @@
+package com.babyduncan.redis.client;
+
+import redis.clients.jedis.Jedis;
+
+import java.io.Closeable;
+import java.nio.charset.StandardCharsets;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.function.Function;
+
+/**
+ * User: zgh
+ * Date: 26-10-18
+ * Time: 16:10
+ */
+
+/**
+ * 多个redis节点上的一致性哈希分片客户端，环和memcached的ketama一样：
+ * 每个节点按"host:port-i"做MD5，一个摘要切成4个32位的点，默认每个节点160个虚拟节点；
+ * key同样MD5取前4个字节，顺时针找到的第一个点就是它的节点。加减一个节点只会挪动大约1/N的key。
+ * <p/>
+ * 单key的命令（五种类型都一样）用execute(key, callback)，在key所在节点的连接池上执行：
+ * <pre>
+ * sharded.execute("user:42", jedis -> jedis.hgetAll("user:42"));
+ * </pre>
+ * key里有{...}的时候只用大括号里的内容算哈希（和redis cluster的hash tag一样），
+ * user:{42}:profile 和 user:{42}:orders 一定在同一个节点上，可以放心对它们用多key命令。
+ * <p/>
+ * MGET/MSET/DEL/SINTER/SUNION/SDIFF/KEYS按节点分组，每个节点一条命令并行发出去再合并结果。
+ * 跨节点的MSET、DEL不是原子的；SINTER这类先在每个节点上对本节点的key算一遍，再在本地合并，传回来的数据尽量少。
+ */
+public final class ShardedRedis implements Closeable {
+    public static final int DEFAULT_VIRTUAL_NODES = 160;
+
+    private static final ThreadLocal<MessageDigest> MD5 = ThreadLocal.withInitial(() -> {
+        try {
+            return MessageDigest.getInstance("MD5");
+        } catch (NoSuchAlgorithmException e) {
+            throw new IllegalStateException(e);
+        }
+    });
+
+    private final List<Shard> shards;
+    private final long[] points;
+    private final Shard[] owners;
+    private final ExecutorService executor;
+
+    private ShardedRedis(Builder b) {
+        this.shards = Collections.unmodifiableList(new ArrayList<Shard>(b.shards));
+        List<long[]> ring = new ArrayList<long[]>();
+        for (int s = 0; s < shards.size(); s++) {
+            for (long point : points(shards.get(s).name, b.virtualNodes)) {
+                ring.add(new long[]{point, s});
+            }
+        }
+        ring.sort((x, y) -> Long.compare(x[0], y[0]));
+        this.points = new long[ring.size()];
+        this.owners = new Shard[ring.size()];
+        for (int i = 0; i < ring.size(); i++) {
+            points[i] = ring.get(i)[0];
+            owners[i] = shards.get((int) ring.get(i)[1]);
+        }
+        final AtomicInteger ids = new AtomicInteger();
+        this.executor = Executors.newCachedThreadPool(r -> {
+            Thread t = new Thread(r, "sharded-redis-" + ids.getAndIncrement());
+            t.setDaemon(true);
+            return t;
+        });
+    }
+
+    public static Builder builder() {
+        return new Builder();
+    }
+
+    /**
+     * 一个节点在环上的virtualNodes个点。
+     */
+    static long[] points(String name, int virtualNodes) {
+        long[] result = new long[virtualNodes];
+        for (int i = 0; i < virtualNodes; i += 4) {
+            byte[] digest = md5(name + "-" + (i / 4));
+            for (int h = 0; h < 4 && i + h < virtualNodes; h++) {
+                result[i + h] = point(digest, h);
+            }
+        }
+        return result;
+    }
+
+    static long hash(String key) {
+        return point(md5(hashTag(key)), 0);
+    }
+
+    /**
+     * {...}里非空的内容，没有就是整个key。
+     */
+    static String hashTag(String key) {
+        int open = key.indexOf('{');
+        if (open >= 0) {
+            int close = key.indexOf('}', open + 1);
+            if (close > open + 1) {
+                return key.substring(open + 1, close);
+            }
+        }
+        return key;
+    }
+
+    private static byte[] md5(String s) {
+        MessageDigest md5 = MD5.get();
+        md5.reset();
+        return md5.digest(s.getBytes(StandardCharsets.UTF_8));
+    }
+
+    private static long point(byte[] digest, int h) {
+        return ((long) (digest[3 + h * 4] & 0xFF) << 24)
+                | ((long) (digest[2 + h * 4] & 0xFF) << 16)
+                | ((long) (digest[1 + h * 4] & 0xFF) << 8)
+                | (digest[h * 4] & 0xFF);
+    }
+
+    public List<String> getNodeNames() {
+        List<String> names = new ArrayList<String>(shards.size());
+        for (Shard shard : shards) {
+            names.add(shard.name);
+        }
+        return names;
+    }
+
+    /**
+     * key所在节点的名字（host:port或者注册时给的名字）。
+     */
+    public String nodeFor(String key) {
+        return shardFor(key).name;
+    }
+
+    public RedisConnections connectionsFor(String key) {
+        return shardFor(key).connections;
+    }
+
+    private Shard shardFor(String key) {
+        int i = Arrays.binarySearch(points, hash(key));
+        if (i < 0) {
+            i = -i - 1;
+        }
+        return owners[i == points.length ? 0 : i];
+    }
+
+    /**
+     * 在key所在的节点上执行，callback里只应该访问这个key（或者和它hash tag相同的key）。
+     */
+    public <T> T execute(String key, JedisCallback<T> callback) {
+        return shardFor(key).connections.execute(callback);
+    }
+
+    public String get(final String key) {
+        return execute(key, jedis -> jedis.get(key));
+    }
+
+    public String set(final String key, final String value) {
+        return execute(key, jedis -> jedis.set(key, value));
+    }
+
+    /**
+     * 结果和keys一一对应，不存在的是null。
+     */
+    public List<String> mget(String... keys) {
+        final Map<Shard, List<Integer>> groups = group(keys);
+        final String[] result = new String[keys.length];
+        fanOut(groups, keys, (jedis, indexes, shardKeys) -> {
+            List<String> values = jedis.mget(shardKeys);
+            for (int i = 0; i < indexes.size(); i++) {
+                result[indexes.get(i)] = values.get(i);
+            }
+            return null;
+        });
+        return Arrays.asList(result);
+    }
+
+    /**
+     * key value key value ...，每个节点一个MSET，节点之间不是原子的。
+     */
+    public void mset(String... keysValues) {
+        if (keysValues.length % 2 != 0) {
+            throw new IllegalArgumentException("wrong number of arguments for MSET");
+        }
+        final String[] keys = new String[keysValues.length / 2];
+        for (int i = 0; i < keys.length; i++) {
+            keys[i] = keysValues[i * 2];
+        }
+        fanOut(group(keys), keys, (jedis, indexes, shardKeys) -> {
+            String[] kv = new String[indexes.size() * 2];
+            for (int i = 0; i < indexes.size(); i++) {
+                kv[i * 2] = keysValues[indexes.get(i) * 2];
+                kv[i * 2 + 1] = keysValues[indexes.get(i) * 2 + 1];
+            }
+            return jedis.mset(kv);
+        });
+    }
+
+    public long del(String... keys) {
+        long deleted = 0;
+        for (Long n : fanOut(group(keys), keys, (jedis, indexes, shardKeys) -> jedis.del(shardKeys))) {
+            deleted += n;
+        }
+        return deleted;
+    }
+
+    /**
+     * 每个节点先SINTER本节点的key，再在本地从小到大求交集。
+     */
+    public Set<String> sinter(String... keys) {
+        List<Set<String>> partial = fanOut(group(keys), keys, (jedis, indexes, shardKeys) -> jedis.sinter(shardKeys));
+        partial.sort((a, b) -> Integer.compare(a.size(), b.size()));
+        Set<String> result = new HashSet<String>(partial.get(0));
+        for (int i = 1; i < partial.size() && !result.isEmpty(); i++) {
+            result.retainAll(partial.get(i));
+        }
+        return result;
+    }
+
+    public Set<String> sunion(String... keys) {
+        Set<String> result = new HashSet<String>();
+        for (Set<String> s : fanOut(group(keys), keys, (jedis, indexes, shardKeys) -> jedis.sunion(shardKeys))) {
+            result.addAll(s);
+        }
+        return result;
+    }
+
+    /**
+     * 第一个key所在的节点上SDIFF（第一个key减去同节点的其他key），其他节点上SUNION，最后在本地相减。
+     */
+    public Set<String> sdiff(String... keys) {
+        List<Set<String>> partial = fanOut(group(keys), keys, (jedis, indexes, shardKeys) ->
+                indexes.get(0) == 0 ? jedis.sdiff(shardKeys) : jedis.sunion(shardKeys));
+        // group按第一次出现的顺序排，第一个key的节点一定在最前面
+        Set<String> result = new HashSet<String>(partial.get(0));
+        for (int i = 1; i < partial.size() && !result.isEmpty(); i++) {
+            result.removeAll(partial.get(i));
+        }
+        return result;
+    }
+
+    /**
+     * 所有节点上的KEYS pattern合起来，和KEYS一样只适合调试和小数据量。
+     */
+    public Set<String> keys(final String pattern) {
+        Set<String> result = new HashSet<String>();
+        for (Set<String> s : forEachShard(jedis -> jedis.keys(pattern))) {
+            result.addAll(s);
+        }
+        return result;
+    }
+
+    /**
+     * 在每个节点上并行执行一次（FLUSHALL、DBSIZE之类），结果按节点注册的顺序。
+     */
+    public <T> List<T> forEachShard(final JedisCallback<T> callback) {
+        List<CompletableFuture<T>> futures = new ArrayList<CompletableFuture<T>>(shards.size());
+        for (final Shard shard : shards) {
+            futures.add(CompletableFuture.supplyAsync(() -> shard.connections.execute(callback), executor));
+        }
+        return join(futures);
+    }
+
+    /**
+     * 按节点分组，组内保留key在参数里的下标，组的顺序按第一次出现的顺序。
+     */
+    private Map<Shard, List<Integer>> group(String[] keys) {
+        if (keys.length == 0) {
+            throw new IllegalArgumentException("at least one key is required");
+        }
+        Map<Shard, List<Integer>> groups = new LinkedHashMap<Shard, List<Integer>>();
+        for (int i = 0; i < keys.length; i++) {
+            groups.computeIfAbsent(shardFor(keys[i]), s -> new ArrayList<Integer>()).add(i);
+        }
+        return groups;
+    }
+
+    private interface ShardCall<T> {
+        T call(Jedis jedis, List<Integer> indexes, String[] shardKeys);
+    }
+
+    /**
+     * 每组一个任务并行执行；只有一组的时候直接在当前线程执行，省掉一次线程切换。
+     */
+    private <T> List<T> fanOut(Map<Shard, List<Integer>> groups, final String[] keys, final ShardCall<T> call) {
+        List<CompletableFuture<T>> futures = new ArrayList<CompletableFuture<T>>(groups.size());
+        for (final Map.Entry<Shard, List<Integer>> e : groups.entrySet()) {
+            final List<Integer> indexes = e.getValue();
+            final String[] shardKeys = new String[indexes.size()];
+            for (int i = 0; i < shardKeys.length; i++) {
+                shardKeys[i] = keys[indexes.get(i)];
+            }
+            final Function<Jedis, T> task = jedis -> call.call(jedis, indexes, shardKeys);
+            if (groups.size() == 1) {
+                return Collections.singletonList(e.getKey().connections.execute(task::apply));
+            }
+            futures.add(CompletableFuture.supplyAsync(() -> e.getKey().connections.execute(task::apply), executor));
+        }
+        return join(futures);
+    }
+
+    private static <T> List<T> join(List<CompletableFuture<T>> futures) {
+        List<T> results = new ArrayList<T>(futures.size());
+        RuntimeException error = null;
+        for (CompletableFuture<T> f : futures) {
+            try {
+                results.add(f.join());
+            } catch (CompletionException e) {
+                // 等所有节点都返回再抛，免得还有请求在用连接
+                if (error == null) {
+                    error = e.getCause() instanceof RuntimeException ? (RuntimeException) e.getCause() : e;
+                }
+            }
+        }
+        if (error != null) {
+            throw error;
+        }
+        return results;
+    }
+
+    /**
+     * 关掉并行用的线程池，以及builder里用node(host, port)建的连接池；外面传进来的连接池由调用方自己关。
+     */
+    public void close() {
+        executor.shutdown();
+        for (Shard shard : shards) {
+            if (shard.owned) {
+                shard.connections.close();
+            }
+        }
+    }
+
+    private static final class Shard {
+        final String name;
+        final RedisConnections connections;
+        final boolean owned;
+
+        Shard(String name, RedisConnections connections, boolean owned) {
+            this.name = name;
+            this.connections = connections;
+            this.owned = owned;
+        }
+    }
+
+    public static final class Builder {
+        private final List<Shard> shards = new ArrayList<Shard>();
+        private final Set<String> names = new HashSet<String>();
+        private int virtualNodes = DEFAULT_VIRTUAL_NODES;
+
+        private Builder() {
+        }
+
+        /**
+         * 用默认配置给host:port建一个连接池，close的时候一起关掉。
+         */
+        public Builder node(String host, int port) {
+            return add(host + ":" + port, RedisConnections.builder().host(host).port(port).build(), true);
+        }
+
+        /**
+         * 用已有的连接池，name决定它在环上的位置，换机器的时候name不变key就不用挪。
+         */
+        public Builder node(String name, RedisConnections connections) {
+            return add(name, connections, false);
+        }
+
+        private Builder add(String name, RedisConnections connections, boolean owned) {
+            if (!names.add(name)) {
+                throw new IllegalArgumentException("duplicate node: " + name);
+            }
+            shards.add(new Shard(name, connections, owned));
+            return this;
+        }
+
+        public Builder virtualNodes(int virtualNodes) {
+            if (virtualNodes <= 0) {
+                throw new IllegalArgumentException("virtualNodes must be positive: " + virtualNodes);
+            }
+            this.virtualNodes = virtualNodes;
+            return this;
+        }
+
+        public ShardedRedis build() {
+            if (shards.isEmpty()) {
+                throw new IllegalArgumentException("at least one node is required");
+            }
+            return new ShardedRedis(this);
+        }
+    }
+}
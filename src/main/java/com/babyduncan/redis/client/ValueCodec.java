@@ -0,0 +1,16 @@
+package com.babyduncan.redis.client;
+
+/**
+ * User: zgh
+ * Date: 26-10-18
+ * Time: 18:50
+ */
+
+/**
+ * 值和redis里的byte[]之间的转换，常用的几个在{@link Codecs}里。
+ */
+public interface ValueCodec<T> {
+    byte[] encode(T value);
+
+    T decode(byte[] bytes);
+}
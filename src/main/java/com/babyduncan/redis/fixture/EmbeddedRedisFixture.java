@@ -0,0 +1,124 @@
+package com.babyduncan.redis.fixture;
+
+import com.babyduncan.redis.client.CommandMetrics;
+import com.babyduncan.redis.client.RedisConnections;
+import com.babyduncan.redis.server.EmbeddedRedisServer;
+import com.babyduncan.redis.server.ServerClock;
+import org.junit.rules.TestRule;
+import org.junit.runner.Description;
+import org.junit.runners.model.Statement;
+import redis.clients.jedis.Jedis;
+
+/**
+ * User: zgh
+ * Date: 26-10-18
+ * Time: 20:10
+ */
+
+/**
+ * 每个测试类自己一个进程内server和连接池，每个测试方法开始前FLUSHALL，代替各个测试类里一样的
+ * &#64;BeforeClass起server建池、&#64;AfterClass关掉、&#64;Before清数据。
+ * <pre>
+ * &#64;ClassRule
+ * &#64;Rule
+ * public static final EmbeddedRedisFixture redis = new EmbeddedRedisFixture().maxActive(16);
+ *
+ * &#64;Test
+ * public void incr() {
+ *     redis.connections().execute(jedis -> jedis.incr("n"));
+ * }
+ * </pre>
+ * 同一个对象既是ClassRule（整个类起一次server、建一次池，&#64;BeforeClass里已经能用）又是Rule（每个方法前清数据）。
+ * <p/>
+ * 和{@link RedisFixture}的区别：RedisFixture是共用的server上按db隔离，池大小固定；
+ * 这里server是这个类独占的，可以FLUSHALL、可以拨它的时钟、池的大小和统计按测试的需要配。
+ */
+public final class EmbeddedRedisFixture implements TestRule {
+    private int maxActive = -1;
+    private CommandMetrics metrics;
+    private ServerClock clock;
+    private boolean flushBeforeEach = true;
+
+    private volatile EmbeddedRedisServer server;
+    private volatile RedisConnections connections;
+
+    /**
+     * 连接池的maxActive，不设就是RedisConnections的默认值。
+     */
+    public EmbeddedRedisFixture maxActive(int maxActive) {
+        this.maxActive = maxActive;
+        return this;
+    }
+
+    public EmbeddedRedisFixture metrics(CommandMetrics metrics) {
+        this.metrics = metrics;
+        return this;
+    }
+
+    public EmbeddedRedisFixture clock(ServerClock clock) {
+        this.clock = clock;
+        return this;
+    }
+
+    /**
+     * 方法之间不清数据，数据在&#64;BeforeClass里准备一次、测试只读的时候用。
+     */
+    public EmbeddedRedisFixture keepData() {
+        this.flushBeforeEach = false;
+        return this;
+    }
+
+    public Statement apply(final Statement base, final Description description) {
+        return new Statement() {
+            @Override
+            public void evaluate() throws Throwable {
+                if (description.isTest()) {
+                    if (flushBeforeEach) {
+                        connections().execute(Jedis::flushAll);
+                    }
+                    base.evaluate();
+                    return;
+                }
+                EmbeddedRedisServer s = new EmbeddedRedisServer();
+                if (clock != null) {
+                    s.clock(clock);
+                }
+                server = s.start();
+                RedisConnections.Builder b = RedisConnections.builder().host(s.getHost()).port(s.getPort());
+                if (maxActive > 0) {
+                    b.maxActive(maxActive);
+                }
+                if (metrics != null) {
+                    b.metrics(metrics);
+                }
+                try {
+                    connections = b.build();
+                    base.evaluate();
+                } finally {
+                    if (connections != null) {
+                        connections.close();
+                    }
+                    s.stop();
+                    connections = null;
+                    server = null;
+                }
+            }
+        };
+    }
+
+    public RedisConnections connections() {
+        RedisConnections c = connections;
+        if (c == null) {
+            throw new IllegalStateException("EmbeddedRedisFixture is only usable as a @ClassRule");
+        }
+        return c;
+    }
+
+    public EmbeddedRedisServer server() {
+        EmbeddedRedisServer s = server;
+        if (s == null) {
+            throw new IllegalStateException("EmbeddedRedisFixture is only usable as a @ClassRule");
+        }
+        return s;
+    }
+}
@@ -0,0 +1,177 @@
+package com.babyduncan.redis.fixture;
+
+import com.babyduncan.redis.client.RedisConnections;
+import com.babyduncan.redis.server.LocalRedis;
+import com.babyduncan.redis.server.VirtualClock;
+import org.junit.rules.TestRule;
+import org.junit.runner.Description;
+import org.junit.runners.model.Statement;
+import redis.clients.jedis.Jedis;
+import redis.clients.jedis.exceptions.JedisConnectionException;
+
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * User: zgh
+ * Date: 26-10-18
+ * Time: 18:55
+ */
+
+/**
+ * 每个测试方法一个独立的db，Usage类可以并行跑、也不再依赖方法的执行顺序。
+ * <pre>
+ * &#64;Rule
+ * public final RedisFixture redis = new RedisFixture();
+ *
+ * &#64;Test
+ * &#64;Seed("SET num 10")
+ * public void string_incrby() {
+ *     redis.jedis().incrBy("num", 20);
+ * }
+ * </pre>
+ * 测试开始前从空闲的db编号里借一个（除了RedisConnections.shared()用的那个，默认是1到15），FLUSHDB清空，
+ * 再执行类上和方法上的{@link Seed}；测试结束还回去。同时跑的测试比空闲的db多的时候后来的会等着。
+ * <p/>
+ * 所以测试里只能FLUSHDB不能FLUSHALL，FLUSHALL会把别的测试的数据也清掉。
+ * 连真实redis的时候这些db都归测试用，db的个数和redis.conf里的databases不一样的话用 -Dredis.fixture.databases 指定。
+ */
+public final class RedisFixture implements TestRule {
+    public static final String DATABASES_PROPERTY = "redis.fixture.databases";
+
+    private static BlockingQueue<Integer> free;
+    private static RedisConnections[] pools;
+
+    private RedisConnections connections;
+    private int database = -1;
+    private Jedis jedis;
+
+    private static synchronized BlockingQueue<Integer> free() {
+        if (free == null) {
+            int databases = Integer.getInteger(DATABASES_PROPERTY, 16);
+            int shared = Integer.getInteger(RedisConnections.DATABASE_PROPERTY, 0);
+            free = new LinkedBlockingQueue<Integer>();
+            for (int i = 0; i < databases; i++) {
+                if (i != shared) {
+                    free.add(i);
+                }
+            }
+            if (free.isEmpty()) {
+                throw new IllegalStateException("no database left for tests, check -D" + DATABASES_PROPERTY);
+            }
+            pools = new RedisConnections[databases];
+            Runtime.getRuntime().addShutdownHook(new Thread(new Runnable() {
+                public void run() {
+                    closePools();
+                }
+            }, "redis-fixture-shutdown"));
+        }
+        return free;
+    }
+
+    private static synchronized RedisConnections pool(int database) {
+        if (pools[database] == null) {
+            pools[database] = RedisConnections.builder()
+                    .host(LocalRedis.host())
+                    .port(LocalRedis.port())
+                    .database(database)
+                    .maxActive(4)
+                    .build();
+        }
+        return pools[database];
+    }
+
+    private static synchronized void closePools() {
+        for (RedisConnections pool : pools) {
+            if (pool != null) {
+                pool.close();
+            }
+        }
+    }
+
+    public Statement apply(final Statement base, final Description description) {
+        return new Statement() {
+            @Override
+            public void evaluate() throws Throwable {
+                BlockingQueue<Integer> queue = free();
+                int db = queue.take();
+                boolean broken = false;
+                try {
+                    database = db;
+                    connections = pool(db);
+                    connections.execute(Jedis::flushDB);
+                    seed(description.getTestClass() == null ? null : description.getTestClass().getAnnotation(Seed.class));
+                    seed(description.getAnnotation(Seed.class));
+                    base.evaluate();
+                } catch (JedisConnectionException e) {
+                    broken = true;
+                    throw e;
+                } finally {
+                    if (jedis != null) {
+                        if (broken) {
+                            connections.returnBrokenResource(jedis);
+                        } else {
+                            connections.returnResource(jedis);
+                        }
+                        jedis = null;
+                    }
+                    connections = null;
+                    database = -1;
+                    queue.add(db);
+                }
+            }
+        };
+    }
+
+    private void seed(Seed seed) {
+        if (seed == null) {
+            return;
+        }
+        SeedClient client = new SeedClient(LocalRedis.host(), LocalRedis.port(), database);
+        try {
+            for (String line : seed.value()) {
+                client.run(line);
+            }
+        } finally {
+            client.disconnect();
+        }
+    }
+
+    /**
+     * 这个测试独占的连接，已经选好了db，测试结束自动还回池里。
+     */
+    public Jedis jedis() {
+        if (jedis == null) {
+            jedis = connections().getResource();
+        }
+        return jedis;
+    }
+
+    /**
+     * 指向这个测试的db的连接池，给Bitmaps之类要RedisConnections的工具用。
+     */
+    public RedisConnections connections() {
+        if (connections == null) {
+            throw new IllegalStateException("RedisFixture is only usable inside a test, use it as a @Rule");
+        }
+        return connections;
+    }
+
+    /**
+     * 让时间过去amount：进程内的server直接把时钟往前拨，返回时到期的key已经删掉了；连真实redis的时候只能sleep。
+     * 拨的是整个server的时钟，同时在跑的其他测试里的TTL也会跟着变短。
+     */
+    public void advanceTime(long amount, TimeUnit unit) throws InterruptedException {
+        VirtualClock clock = LocalRedis.clock();
+        if (clock != null) {
+            clock.advance(amount, unit);
+        } else {
+            unit.sleep(amount);
+        }
+    }
+
+    public int getDatabase() {
+        return database;
+    }
+}
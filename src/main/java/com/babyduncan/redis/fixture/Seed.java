@@ -0,0 +1,27 @@
+package com.babyduncan.redis.fixture;
+
+import java.lang.annotation.ElementType;
+import java.lang.annotation.Retention;
+import java.lang.annotation.RetentionPolicy;
+import java.lang.annotation.Target;
+
+/**
+ * User: zgh
+ * Date: 26-10-18
+ * Time: 18:40
+ */
+
+/**
+ * 测试开始前要准备好的数据，一行一条命令，写法和redis-cli一样，带空格的参数用双引号：
+ * <pre>
+ * &#64;Test
+ * &#64;Seed({"RPUSH lremlist foobar world", "SET greeting \"hello world\""})
+ * public void list_ltrim() { ... }
+ * </pre>
+ * 放在类上的对每个测试方法都生效，先执行类上的再执行方法上的。需要配合{@link RedisFixture}用。
+ */
+@Retention(RetentionPolicy.RUNTIME)
+@Target({ElementType.METHOD, ElementType.TYPE})
+public @interface Seed {
+    String[] value();
+}
@@ -0,0 +1,95 @@
+package com.babyduncan.redis.fixture;
+
+import redis.clients.jedis.Client;
+import redis.clients.jedis.Protocol;
+import redis.clients.jedis.exceptions.JedisDataException;
+
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Locale;
+
+/**
+ * User: zgh
+ * Date: 26-10-18
+ * Time: 18:45
+ */
+
+/**
+ * 执行{@link Seed}里的命令行。Jedis 2.1没有发任意命令的公开方法，sendCommand是protected的，只能继承Client。
+ */
+final class SeedClient extends Client {
+
+    SeedClient(String host, int port, int database) {
+        super(host, port);
+        if (database != 0) {
+            select(database);
+            getStatusCodeReply();
+        }
+    }
+
+    void run(String line) {
+        List<String> argv = split(line);
+        if (argv.isEmpty()) {
+            return;
+        }
+        Protocol.Command command;
+        try {
+            command = Protocol.Command.valueOf(argv.get(0).toUpperCase(Locale.ROOT));
+        } catch (IllegalArgumentException e) {
+            throw new IllegalArgumentException("unknown command in @Seed: " + line);
+        }
+        byte[][] args = new byte[argv.size() - 1][];
+        for (int i = 1; i < argv.size(); i++) {
+            args[i - 1] = argv.get(i).getBytes(StandardCharsets.UTF_8);
+        }
+        sendCommand(command, args);
+        try {
+            getOne();
+        } catch (JedisDataException e) {
+            throw new IllegalArgumentException("@Seed failed: " + line + ": " + e.getMessage(), e);
+        }
+    }
+
+    /**
+     * 按空白切开，双引号里的空白不切，\" 和 \\ 转义。
+     */
+    static List<String> split(String line) {
+        List<String> argv = new ArrayList<String>();
+        StringBuilder current = null;
+        boolean quoted = false;
+        for (int i = 0; i < line.length(); i++) {
+            char c = line.charAt(i);
+            if (quoted) {
+                if (c == '\\' && i + 1 < line.length()) {
+                    current.append(line.charAt(++i));
+                } else if (c == '"') {
+                    quoted = false;
+                } else {
+                    current.append(c);
+                }
+            } else if (Character.isWhitespace(c)) {
+                if (current != null) {
+                    argv.add(current.toString());
+                    current = null;
+                }
+            } else {
+                if (current == null) {
+                    current = new StringBuilder();
+                }
+                if (c == '"') {
+                    quoted = true;
+                } else {
+                    current.append(c);
+                }
+            }
+        }
+        if (quoted) {
+            throw new IllegalArgumentException("unbalanced quotes in @Seed: " + line);
+        }
+        if (current != null) {
+            argv.add(current.toString());
+        }
+        return argv;
+    }
+}
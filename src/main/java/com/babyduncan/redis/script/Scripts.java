@@ -0,0 +1,118 @@
+package com.babyduncan.redis.script;
+
+import java.nio.charset.StandardCharsets;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+
+/**
+ * User: zgh
+ * Date: 26-10-18
+ * Time: 23:20
+ */
+
+/**
+ * 几个常用的原子操作的Lua脚本，真实redis上EVAL/EVALSHA照常执行。
+ * <p/>
+ * 进程内的EmbeddedRedisServer没有Lua解释器，只认这里的脚本：按SHA1找到对应的Java实现（见server包里的ScriptCommands），
+ * 别的脚本EVAL会报错。要加新的原子操作就在这里加Lua源码，再在ScriptCommands里写一份同样语义的实现。
+ * 客户端和服务端都用这里的源码，所以单独一个包，客户端不用依赖server包。
+ */
+public final class Scripts {
+
+    /**
+     * KEYS[1]不存在时SET ARGV[1]并设置ARGV[2]毫秒过期，成功后INCR KEYS[2]，返回INCR的结果（>0）；
+     * KEYS[1]已经存在返回 -1-PTTL（<=0，0表示这个key没有过期时间）。
+     * 只返回一个整数是因为jedis 2.1的eval把多条回复里的每个元素都当成bulk，整数数组会出错。
+     * 分布式锁的加锁+fencing token，两步在一个脚本里，token的大小顺序和加锁的先后顺序一定一致。
+     */
+    public static final String SET_NX_PX_INCR =
+            "if redis.call('set', KEYS[1], ARGV[1], 'NX', 'PX', ARGV[2]) then\n"
+                    + "  return redis.call('incr', KEYS[2])\n"
+                    + "end\n"
+                    + "return -1 - redis.call('pttl', KEYS[1])\n";
+
+    /**
+     * KEYS[1]的值等于ARGV[1]才删掉，返回删掉的个数。释放锁用，不会删掉过期以后别人加的锁。
+     */
+    public static final String COMPARE_AND_DELETE =
+            "if redis.call('get', KEYS[1]) == ARGV[1] then\n"
+                    + "  return redis.call('del', KEYS[1])\n"
+                    + "end\n"
+                    + "return 0\n";
+
+    /**
+     * KEYS[1]的值等于ARGV[1]才把过期时间设成ARGV[2]毫秒，返回1/0。锁的续期。
+     */
+    public static final String COMPARE_AND_PEXPIRE =
+            "if redis.call('get', KEYS[1]) == ARGV[1] then\n"
+                    + "  return redis.call('pexpire', KEYS[1], ARGV[2])\n"
+                    + "end\n"
+                    + "return 0\n";
+
+    /**
+     * KEYS[1]存在才HMSET ARGV[2..]（field value ...）并EXPIRE ARGV[1]秒，返回1/0。
+     * 缓存的写回：key已经过期或者被删了就不写，不会留下只有几个字段的半个hash。
+     */
+    public static final String HMSET_IF_EXISTS =
+            "if redis.call('exists', KEYS[1]) == 1 then\n"
+                    + "  redis.call('hmset', KEYS[1], unpack(ARGV, 2))\n"
+                    + "  redis.call('expire', KEYS[1], ARGV[1])\n"
+                    + "  return 1\n"
+                    + "end\n"
+                    + "return 0\n";
+
+    /**
+     * 从list KEYS[1]里LREM一个ARGV[1]，删到了就RPUSH到KEYS[2]，再从sorted set KEYS[3]里ZREM ARGV[1]，返回删掉的个数。
+     * 可靠队列把超时的消息放回队列：挪走和放回在一个脚本里，中间挂掉也不会把消息弄丢。
+     */
+    public static final String LREM_RPUSH =
+            "local n = redis.call('lrem', KEYS[1], 1, ARGV[1])\n"
+                    + "if n > 0 then\n"
+                    + "  redis.call('rpush', KEYS[2], ARGV[1])\n"
+                    + "end\n"
+                    + "redis.call('zrem', KEYS[3], ARGV[1])\n"
+                    + "return n\n";
+
+    /**
+     * 先ZREMRANGEBYSCORE KEYS[1] 0 ARGV[1]删掉窗口外的，剩下的不到ARGV[4]个才ZADD ARGV[2](分数) ARGV[3](成员)
+     * 并EXPIRE ARGV[5]秒，返回1/0。滑动窗口限流：先数再加，被拒绝的请求不会在sorted set里出现。
+     */
+    public static final String ZADD_WITHIN_LIMIT =
+            "redis.call('zremrangebyscore', KEYS[1], 0, ARGV[1])\n"
+                    + "if redis.call('zcard', KEYS[1]) < tonumber(ARGV[4]) then\n"
+                    + "  redis.call('zadd', KEYS[1], ARGV[2], ARGV[3])\n"
+                    + "  redis.call('expire', KEYS[1], ARGV[5])\n"
+                    + "  return 1\n"
+                    + "end\n"
+                    + "return 0\n";
+
+    private static final char[] HEX = "0123456789abcdef".toCharArray();
+
+    private Scripts() {
+    }
+
+    /**
+     * EVALSHA用的小写十六进制SHA1。
+     */
+    public static String sha1(String script) {
+        return sha1(script.getBytes(StandardCharsets.UTF_8));
+    }
+
+    /**
+     * 脚本原样的字节算SHA1，服务端的EVAL/SCRIPT LOAD用。
+     */
+    public static String sha1(byte[] script) {
+        byte[] digest;
+        try {
+            digest = MessageDigest.getInstance("SHA-1").digest(script);
+        } catch (NoSuchAlgorithmException e) {
+            throw new IllegalStateException(e);
+        }
+        char[] hex = new char[digest.length * 2];
+        for (int i = 0; i < digest.length; i++) {
+            hex[i * 2] = HEX[(digest[i] >> 4) & 0xF];
+            hex[i * 2 + 1] = HEX[digest[i] & 0xF];
+        }
+        return new String(hex);
+    }
+}
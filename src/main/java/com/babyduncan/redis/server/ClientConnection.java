@@ -0,0 +1,54 @@
+package com.babyduncan.redis.server;
+
+import java.nio.ByteBuffer;
+import java.nio.channels.SelectionKey;
+import java.nio.channels.SocketChannel;
+import java.util.List;
+import java.util.Set;
+
+/**
+ * User: zgh
+ * Date: 26-10-18
+ * Time: 10:40
+ */
+
+/**
+ * 一个客户端连接的状态，对应redis里的redisClient。只在事件循环线程里访问。
+ */
+final class ClientConnection {
+    final EmbeddedRedisServer server;
+    final SocketChannel channel;
+    final SelectionKey selectionKey;
+    final RespParser parser = new RespParser();
+    final ReplyBuffer out = new ReplyBuffer(4096);
+    ByteBuffer in = ByteBuffer.allocate(EmbeddedRedisServer.INITIAL_INPUT_BUFFER);
+    /**
+     * 上次没写完的回复，写完之前新的回复先攒在out里。
+     */
+    ByteBuffer pending;
+    Database db;
+    boolean closeAfterReply;
+
+    // BLPOP/BRPOP/BRPOPLPUSH 阻塞时的状态
+    boolean blocked;
+    byte[][] blockedArgv;
+    List<String> blockedKeys;
+    long blockDeadline;
+    boolean blockReplyMultiBulk;
+
+    ClientConnection(EmbeddedRedisServer server, SocketChannel channel, SelectionKey selectionKey) {
+        this.server = server;
+        this.channel = channel;
+        this.selectionKey = selectionKey;
+        this.db = server.database(0);
+    }
+
+    boolean watches(Set<String> keys) {
+        for (String k : blockedKeys) {
+            if (keys.contains(k)) {
+                return true;
+            }
+        }
+        return false;
+    }
+}
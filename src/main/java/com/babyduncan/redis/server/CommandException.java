@@ -0,0 +1,42 @@
+package com.babyduncan.redis.server;
+
+/**
+ * User: zgh
+ * Date: 26-10-18
+ * Time: 10:08
+ */
+
+/**
+ * 命令执行失败，message就是要回给客户端的错误行（不带前面的'-'）。
+ * 错误文案和redis 2.6保持一致，jedis会把它包装成JedisDataException。
+ */
+final class CommandException extends RuntimeException {
+
+    CommandException(String message) {
+        super(message, null, false, false);
+    }
+
+    static CommandException wrongType() {
+        return new CommandException("WRONGTYPE Operation against a key holding the wrong kind of value");
+    }
+
+    static CommandException notInteger() {
+        return new CommandException("ERR value is not an integer or out of range");
+    }
+
+    static CommandException notFloat() {
+        return new CommandException("ERR value is not a valid float");
+    }
+
+    static CommandException syntax() {
+        return new CommandException("ERR syntax error");
+    }
+
+    static CommandException noSuchKey() {
+        return new CommandException("ERR no such key");
+    }
+
+    static CommandException outOfRange() {
+        return new CommandException("ERR index out of range");
+    }
+}
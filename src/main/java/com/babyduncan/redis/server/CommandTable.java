@@ -0,0 +1,61 @@
+package com.babyduncan.redis.server;
+
+import java.util.HashMap;
+import java.util.Locale;
+
+/**
+ * User: zgh
+ * Date: 26-10-18
+ * Time: 10:44
+ */
+
+/**
+ * 命令表：命令名 -> 实现。arity的规则和redis的redisCommandTable一样，
+ * 正数表示参数个数（包括命令名）必须正好等于它，负数表示至少要有-arity个。
+ */
+final class CommandTable {
+
+    interface Command {
+        void execute(ClientConnection c, byte[][] argv);
+    }
+
+    static final class Spec {
+        final String name;
+        final int arity;
+        final Command command;
+
+        Spec(String name, int arity, Command command) {
+            this.name = name;
+            this.arity = arity;
+            this.command = command;
+        }
+
+        boolean arityOk(int argc) {
+            return arity > 0 ? argc == arity : argc >= -arity;
+        }
+    }
+
+    private final HashMap<String, Spec> commands = new HashMap<String, Spec>();
+
+    CommandTable() {
+        KeyCommands.register(this);
+        StringCommands.register(this);
+        HashCommands.register(this);
+        ListCommands.register(this);
+        SetCommands.register(this);
+        SortedSetCommands.register(this);
+        ScriptCommands.register(this);
+    }
+
+    void add(String name, int arity, Command command) {
+        commands.put(name, new Spec(name.toLowerCase(Locale.ROOT), arity, command));
+    }
+
+    Spec lookup(byte[] name) {
+        Spec spec = commands.get(Keys.string(name));
+        if (spec == null) {
+            spec = commands.get(Keys.string(name).toUpperCase(Locale.ROOT));
+        }
+        return spec;
+    }
+}
@@ -0,0 +1,247 @@
+package com.babyduncan.redis.server;
+
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.Iterator;
+
+/**
+ * User: zgh
+ * Date: 26-10-18
+ * Time: 10:31
+ */
+
+/**
+ * 一个db（SELECT 0 ~ 15），对应redis里的redisDb。
+ * <p/>
+ * value的类型：
+ * string     -> byte[]
+ * hash       -> HashMap&lt;String, String&gt;
+ * list       -> ListValue
+ * set        -> HashSet&lt;String&gt;
+ * sorted set -> ZSetValue
+ * <p/>
+ * 只在事件循环线程里访问，不需要加锁。过期是 惰性删除（访问时检查）+ 时间轮主动删除（见{@link TimingWheel}）。
+ */
+final class Database {
+    final int index;
+    private final EmbeddedRedisServer server;
+    private final HashMap<String, Object> dict = new HashMap<String, Object>();
+    private final HashMap<String, TimingWheel.Entry> expires = new HashMap<String, TimingWheel.Entry>();
+
+    Database(int index, EmbeddedRedisServer server) {
+        this.index = index;
+        this.server = server;
+    }
+
+    int size() {
+        return dict.size();
+    }
+
+    int expiresSize() {
+        return expires.size();
+    }
+
+    Object lookup(String key) {
+        if (!expires.isEmpty()) {
+            expireIfNeeded(key);
+        }
+        return dict.get(key);
+    }
+
+    boolean exists(String key) {
+        return lookup(key) != null;
+    }
+
+    /**
+     * 覆盖写，同时清掉过期时间（SET的语义）。
+     */
+    void put(String key, Object value) {
+        dict.put(key, value);
+        if (!expires.isEmpty()) {
+            unschedule(expires.remove(key));
+        }
+    }
+
+    /**
+     * 原地修改已存在的key（APPEND/INCR这类），保留过期时间。
+     */
+    void replace(String key, Object value) {
+        dict.put(key, value);
+    }
+
+    boolean remove(String key) {
+        if (!expires.isEmpty()) {
+            unschedule(expires.remove(key));
+        }
+        return dict.remove(key) != null;
+    }
+
+    void clear() {
+        dict.clear();
+        for (TimingWheel.Entry e : expires.values()) {
+            server.timingWheel().cancel(e);
+        }
+        expires.clear();
+    }
+
+    Iterator<String> keys() {
+        return dict.keySet().iterator();
+    }
+
+    void setExpire(String key, long whenMillis) {
+        TimingWheel.Entry e = expires.get(key);
+        if (e == null) {
+            e = new TimingWheel.Entry(this, key, whenMillis);
+            expires.put(key, e);
+        } else {
+            server.timingWheel().cancel(e);
+            e.when = whenMillis;
+        }
+        server.timingWheel().schedule(e);
+    }
+
+    /**
+     * @return 过期的绝对时间（毫秒），没有设置过期返回-1
+     */
+    long getExpire(String key) {
+        TimingWheel.Entry e = expires.get(key);
+        return e == null ? -1 : e.when;
+    }
+
+    boolean persist(String key) {
+        TimingWheel.Entry e = expires.remove(key);
+        unschedule(e);
+        return e != null;
+    }
+
+    private void unschedule(TimingWheel.Entry e) {
+        if (e != null) {
+            server.timingWheel().cancel(e);
+        }
+    }
+
+    private boolean expireIfNeeded(String key) {
+        TimingWheel.Entry e = expires.get(key);
+        if (e == null || e.when > server.now()) {
+            return false;
+        }
+        expires.remove(key);
+        server.timingWheel().cancel(e);
+        dict.remove(key);
+        return true;
+    }
+
+    /**
+     * 时间轮里到期的key，已经从时间轮上摘下来了。
+     */
+    void expire(TimingWheel.Entry e) {
+        if (expires.get(e.key) == e) {
+            expires.remove(e.key);
+            dict.remove(e.key);
+        }
+    }
+
+    // ---------------------------------------------------------------- typed lookups
+
+    byte[] getString(String key) {
+        Object o = lookup(key);
+        if (o == null || o instanceof byte[]) {
+            return (byte[]) o;
+        }
+        throw CommandException.wrongType();
+    }
+
+    @SuppressWarnings("unchecked")
+    HashMap<String, String> getHash(String key, boolean create) {
+        Object o = lookup(key);
+        if (o == null) {
+            if (!create) {
+                return null;
+            }
+            HashMap<String, String> h = new HashMap<String, String>();
+            dict.put(key, h);
+            return h;
+        }
+        if (o instanceof HashMap) {
+            return (HashMap<String, String>) o;
+        }
+        throw CommandException.wrongType();
+    }
+
+    ListValue getList(String key, boolean create) {
+        Object o = lookup(key);
+        if (o == null) {
+            if (!create) {
+                return null;
+            }
+            ListValue l = new ListValue();
+            dict.put(key, l);
+            return l;
+        }
+        if (o instanceof ListValue) {
+            return (ListValue) o;
+        }
+        throw CommandException.wrongType();
+    }
+
+    @SuppressWarnings("unchecked")
+    HashSet<String> getSet(String key, boolean create) {
+        Object o = lookup(key);
+        if (o == null) {
+            if (!create) {
+                return null;
+            }
+            HashSet<String> s = new HashSet<String>();
+            dict.put(key, s);
+            return s;
+        }
+        if (o instanceof HashSet) {
+            return (HashSet<String>) o;
+        }
+        throw CommandException.wrongType();
+    }
+
+    ZSetValue getZSet(String key, boolean create) {
+        Object o = lookup(key);
+        if (o == null) {
+            if (!create) {
+                return null;
+            }
+            ZSetValue z = new ZSetValue();
+            dict.put(key, z);
+            return z;
+        }
+        if (o instanceof ZSetValue) {
+            return (ZSetValue) o;
+        }
+        throw CommandException.wrongType();
+    }
+
+    /**
+     * 聚合类型被删空之后key也要删掉，和redis一致。
+     */
+    void removeIfEmpty(String key, int size) {
+        if (size == 0) {
+            remove(key);
+        }
+    }
+
+    static String typeName(Object o) {
+        if (o == null) {
+            return "none";
+        }
+        if (o instanceof byte[]) {
+            return "string";
+        }
+        if (o instanceof HashMap) {
+            return "hash";
+        }
+        if (o instanceof ListValue) {
+            return "list";
+        }
+        if (o instanceof HashSet) {
+            return "set";
+        }
+        return "zset";
+    }
+}
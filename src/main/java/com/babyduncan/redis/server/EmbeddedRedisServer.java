@@ -0,0 +1,508 @@
+package com.babyduncan.redis.server;
+
+import java.io.IOException;
+import java.net.InetSocketAddress;
+import java.net.StandardSocketOptions;
+import java.nio.ByteBuffer;
+import java.nio.channels.SelectionKey;
+import java.nio.channels.Selector;
+import java.nio.channels.ServerSocketChannel;
+import java.nio.channels.SocketChannel;
+import java.util.ArrayList;
+import java.util.HashSet;
+import java.util.Iterator;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * User: zgh
+ * Date: 26-10-18
+ * Time: 10:50
+ */
+
+/**
+ * 进程内的redis替身：一个NIO selector线程 + 内存里的keyspace，说RESP协议，jedis直接连上来就能用。
+ * <p/>
+ * 和真的redis一样是单线程事件循环，所有命令在这个线程里串行执行，所以数据结构都不加锁；
+ * 一次read里读到的多个命令（pipeline）会全部执行完再一次性写回。
+ * <p/>
+ * 实现了StringUsege、HashUsage、ListUsage、SetUsage、SortedsetUsage里用到的全部命令，
+ * 外加EXPIRE/TTL/SELECT/KEYS这些通用命令和BLPOP/BRPOP/BRPOPLPUSH。
+ * <p/>
+ * 时间来自{@link ServerClock}，测试里用{@link VirtualClock}可以直接把时间往前拨，不用sleep等key过期。
+ * <p/>
+ * 用法：
+ * EmbeddedRedisServer server = new EmbeddedRedisServer().start();   // 端口0，系统分配
+ * Jedis jedis = new Jedis("localhost", server.getPort());
+ * ...
+ * server.stop();
+ */
+public final class EmbeddedRedisServer {
+    static final int DEFAULT_DATABASES = 16;
+    private static final long ACTIVE_EXPIRE_PERIOD_MILLIS = 100;
+    private static final int ACTIVE_EXPIRE_BATCH = 1000;
+    private static final long ACTIVE_EXPIRE_BUDGET_NANOS = TimeUnit.MILLISECONDS.toNanos(25);
+    static final int INITIAL_INPUT_BUFFER = 16 * 1024;
+    private static final int MAX_IDLE_INPUT_BUFFER = 1024 * 1024;
+
+    private final String host;
+    private final int requestedPort;
+    private final Database[] databases;
+    private final CommandTable commandTable = new CommandTable();
+    private final LinkedHashSet<ClientConnection> blockedClients = new LinkedHashSet<ClientConnection>();
+    private Set<String> readyKeys = new HashSet<String>();
+    private final Set<String> scripts = new HashSet<String>();
+    private final AtomicLong commandsProcessed = new AtomicLong();
+    private final AtomicLong connectionsReceived = new AtomicLong();
+    private final ConcurrentLinkedQueue<Runnable> tasks = new ConcurrentLinkedQueue<Runnable>();
+    private volatile int connectedClients;
+    private volatile ServerClock clock = ServerClock.SYSTEM;
+    private TimingWheel timingWheel = new TimingWheel(ServerClock.SYSTEM.currentTimeMillis());
+
+    private ServerSocketChannel serverChannel;
+    private Selector selector;
+    private Thread eventLoop;
+    private volatile boolean running;
+    private volatile int boundPort;
+    private long lastActiveExpire;
+
+    public EmbeddedRedisServer() {
+        this("127.0.0.1", 0);
+    }
+
+    public EmbeddedRedisServer(int port) {
+        this("127.0.0.1", port);
+    }
+
+    public EmbeddedRedisServer(String host, int port) {
+        this(host, port, DEFAULT_DATABASES);
+    }
+
+    public EmbeddedRedisServer(String host, int port, int databases) {
+        this.host = host;
+        this.requestedPort = port;
+        this.databases = new Database[databases];
+        for (int i = 0; i < databases; i++) {
+            this.databases[i] = new Database(i, this);
+        }
+    }
+
+    /**
+     * 换掉时间来源，只能在start之前调。
+     */
+    public synchronized EmbeddedRedisServer clock(ServerClock clock) {
+        if (running) {
+            throw new IllegalStateException("clock must be set before start");
+        }
+        this.clock = clock;
+        this.timingWheel = new TimingWheel(clock.currentTimeMillis());
+        return this;
+    }
+
+    public ServerClock getClock() {
+        return clock;
+    }
+
+    /**
+     * 在事件循环线程里把到期的key全部删掉、把超时的BLPOP之类回掉，做完才返回。
+     * {@link VirtualClock#advance}会自动调，平时不用管：访问时会惰性删除，后台每100ms也会删一轮。
+     */
+    public void expireDueKeys() {
+        if (!running) {
+            return;
+        }
+        if (Thread.currentThread() == eventLoop) {
+            cron(true);
+            return;
+        }
+        final CompletableFuture<Void> done = new CompletableFuture<Void>();
+        tasks.add(() -> {
+            cron(true);
+            done.complete(null);
+        });
+        selector.wakeup();
+        try {
+            done.get(5, TimeUnit.SECONDS);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        } catch (ExecutionException | TimeoutException e) {
+            // server在停，或者事件循环卡住了，惰性删除还是对的
+        }
+    }
+
+    /**
+     * 绑定端口并启动事件循环线程，返回时已经可以接受连接了。
+     */
+    public synchronized EmbeddedRedisServer start() throws IOException {
+        if (running) {
+            return this;
+        }
+        selector = Selector.open();
+        serverChannel = ServerSocketChannel.open();
+        serverChannel.setOption(StandardSocketOptions.SO_REUSEADDR, true);
+        serverChannel.bind(new InetSocketAddress(host, requestedPort), 511);
+        serverChannel.configureBlocking(false);
+        serverChannel.register(selector, SelectionKey.OP_ACCEPT);
+        boundPort = serverChannel.socket().getLocalPort();
+        running = true;
+        if (clock instanceof VirtualClock) {
+            ((VirtualClock) clock).attach(this);
+        }
+        eventLoop = new Thread(new Runnable() {
+            public void run() {
+                loop();
+            }
+        }, "embedded-redis-" + getPort());
+        eventLoop.setDaemon(true);
+        eventLoop.start();
+        return this;
+    }
+
+    public synchronized void stop() {
+        if (!running) {
+            return;
+        }
+        running = false;
+        selector.wakeup();
+        try {
+            eventLoop.join(5000);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+    }
+
+    public boolean isRunning() {
+        return running;
+    }
+
+    public String getHost() {
+        return host;
+    }
+
+    public int getPort() {
+        return boundPort == 0 ? requestedPort : boundPort;
+    }
+
+    public long getCommandsProcessed() {
+        return commandsProcessed.get();
+    }
+
+    public int getConnectedClients() {
+        return connectedClients;
+    }
+
+    long getConnectionsReceived() {
+        return connectionsReceived.get();
+    }
+
+    // ---------------------------------------------------------------- used by commands
+
+    long now() {
+        return clock.currentTimeMillis();
+    }
+
+    TimingWheel timingWheel() {
+        return timingWheel;
+    }
+
+    int databaseCount() {
+        return databases.length;
+    }
+
+    Database database(int index) {
+        return databases[index];
+    }
+
+    /**
+     * EVAL或者SCRIPT LOAD过的脚本的SHA1，只在事件循环线程里用。
+     */
+    Set<String> scripts() {
+        return scripts;
+    }
+
+    /**
+     * LPUSH/RPUSH/LINSERT这类命令往list里加了元素之后调用，唤醒阻塞在这个key上的客户端。
+     */
+    void signalKeyAsReady(String key) {
+        if (!blockedClients.isEmpty()) {
+            readyKeys.add(key);
+        }
+    }
+
+    /**
+     * 阻塞当前客户端，直到keys里的某个list有数据或者超时。重试时保留第一次阻塞时算出来的deadline。
+     */
+    void block(ClientConnection c, byte[][] argv, List<String> keys, long timeoutMillis, boolean multiBulkReply) {
+        if (c.blockDeadline == 0) {
+            c.blockDeadline = timeoutMillis == 0 ? Long.MAX_VALUE : now() + timeoutMillis;
+        }
+        c.blocked = true;
+        c.blockedArgv = argv;
+        c.blockedKeys = keys;
+        c.blockReplyMultiBulk = multiBulkReply;
+        blockedClients.add(c);
+    }
+
+    // ---------------------------------------------------------------- event loop
+
+    private void loop() {
+        try {
+            while (running) {
+                selector.select(selectTimeout());
+                Iterator<SelectionKey> it = selector.selectedKeys().iterator();
+                while (it.hasNext()) {
+                    SelectionKey key = it.next();
+                    it.remove();
+                    try {
+                        if (!key.isValid()) {
+                            continue;
+                        }
+                        if (key.isAcceptable()) {
+                            accept();
+                        } else {
+                            ClientConnection c = (ClientConnection) key.attachment();
+                            if (key.isReadable()) {
+                                read(c);
+                            }
+                            if (key.isValid() && key.isWritable()) {
+                                write(c);
+                            }
+                        }
+                    } catch (IOException e) {
+                        Object attachment = key.attachment();
+                        if (attachment instanceof ClientConnection) {
+                            close((ClientConnection) attachment);
+                        }
+                    }
+                }
+                for (Runnable task = tasks.poll(); task != null; task = tasks.poll()) {
+                    task.run();
+                }
+                cron(false);
+            }
+        } catch (IOException e) {
+            // selector坏了，server也没法继续了
+        } finally {
+            shutdown();
+        }
+    }
+
+    private long selectTimeout() {
+        long timeout = ACTIVE_EXPIRE_PERIOD_MILLIS;
+        if (!blockedClients.isEmpty()) {
+            long now = now();
+            for (ClientConnection c : blockedClients) {
+                timeout = Math.min(timeout, Math.max(1, c.blockDeadline - now));
+            }
+        }
+        return timeout;
+    }
+
+    /**
+     * @param force true的时候不管离上一轮多久、把到期的key全部删完（expireDueKeys用）
+     */
+    private void cron(boolean force) {
+        long now = now();
+        if (force || now - lastActiveExpire >= ACTIVE_EXPIRE_PERIOD_MILLIS) {
+            lastActiveExpire = now;
+            // 和redis一样一轮最多花25ms，没删完的下一轮接着删，访问到的还有惰性删除兜底
+            long start = System.nanoTime();
+            while (!timingWheel.advance(now, ACTIVE_EXPIRE_BATCH, e -> e.db.expire(e))) {
+                if (!force && System.nanoTime() - start > ACTIVE_EXPIRE_BUDGET_NANOS) {
+                    break;
+                }
+            }
+        }
+        if (!blockedClients.isEmpty()) {
+            for (ClientConnection c : new ArrayList<ClientConnection>(blockedClients)) {
+                if (c.blockDeadline <= now) {
+                    if (c.blockReplyMultiBulk) {
+                        c.out.nilMultiBulk();
+                    } else {
+                        c.out.nil();
+                    }
+                    unblock(c);
+                    resume(c);
+                }
+            }
+        }
+    }
+
+    private void accept() throws IOException {
+        SocketChannel ch;
+        while ((ch = serverChannel.accept()) != null) {
+            ch.configureBlocking(false);
+            ch.setOption(StandardSocketOptions.TCP_NODELAY, true);
+            SelectionKey key = ch.register(selector, SelectionKey.OP_READ);
+            key.attach(new ClientConnection(this, ch, key));
+            connectionsReceived.incrementAndGet();
+            connectedClients++;
+        }
+    }
+
+    private void read(ClientConnection c) throws IOException {
+        int n = c.channel.read(c.in);
+        if (n < 0) {
+            close(c);
+            return;
+        }
+        processInput(c);
+        handleReadyKeys();
+        flush(c);
+    }
+
+    private void processInput(ClientConnection c) {
+        c.in.flip();
+        try {
+            while (!c.blocked && !c.closeAfterReply) {
+                byte[][] argv = c.parser.parse(c.in);
+                if (argv == null) {
+                    break;
+                }
+                execute(c, argv);
+            }
+        } catch (RespParser.ProtocolException e) {
+            c.out.error("ERR " + e.getMessage());
+            c.closeAfterReply = true;
+        }
+        c.in.compact();
+        if (c.in.position() == 0 && c.in.capacity() > MAX_IDLE_INPUT_BUFFER) {
+            // 大value读完了就把缓冲区还回去
+            c.in = ByteBuffer.allocate(INITIAL_INPUT_BUFFER);
+        }
+        int need = c.in.position() + c.parser.pendingBulkLength();
+        if (!c.in.hasRemaining() || need > c.in.capacity()) {
+            ByteBuffer bigger = ByteBuffer.allocate(Math.max(c.in.capacity() << 1, need));
+            c.in.flip();
+            bigger.put(c.in);
+            c.in = bigger;
+        }
+    }
+
+    private void execute(ClientConnection c, byte[][] argv) {
+        commandsProcessed.incrementAndGet();
+        CommandTable.Spec spec = commandTable.lookup(argv[0]);
+        if (spec == null) {
+            c.out.error("ERR unknown command '" + Keys.string(argv[0]) + "'");
+            return;
+        }
+        if (!spec.arityOk(argv.length)) {
+            c.out.error("ERR wrong number of arguments for '" + spec.name + "' command");
+            return;
+        }
+        try {
+            spec.command.execute(c, argv);
+        } catch (CommandException e) {
+            c.out.error(e.getMessage());
+        }
+    }
+
+    /**
+     * 有list被push了数据，按阻塞的先后顺序重新执行阻塞客户端的命令。
+     * BRPOPLPUSH会往另一个list里push，所以要循环到没有新的ready key为止。
+     */
+    private void handleReadyKeys() {
+        while (!readyKeys.isEmpty() && !blockedClients.isEmpty()) {
+            Set<String> ready = readyKeys;
+            readyKeys = new HashSet<String>();
+            for (ClientConnection c : new ArrayList<ClientConnection>(blockedClients)) {
+                if (!c.blocked || !c.watches(ready)) {
+                    continue;
+                }
+                c.blocked = false;
+                execute(c, c.blockedArgv);
+                if (!c.blocked) {
+                    unblock(c);
+                    resume(c);
+                }
+            }
+        }
+        readyKeys.clear();
+    }
+
+    private void unblock(ClientConnection c) {
+        c.blocked = false;
+        c.blockedArgv = null;
+        c.blockedKeys = null;
+        c.blockDeadline = 0;
+        blockedClients.remove(c);
+    }
+
+    /**
+     * 客户端解除阻塞后，把它阻塞期间发过来的命令接着执行掉。
+     */
+    private void resume(ClientConnection c) {
+        processInput(c);
+        try {
+            flush(c);
+        } catch (IOException e) {
+            close(c);
+        }
+    }
+
+    private void flush(ClientConnection c) throws IOException {
+        if (c.pending == null && !c.out.isEmpty()) {
+            ByteBuffer buf = c.out.asByteBuffer();
+            c.channel.write(buf);
+            if (buf.hasRemaining()) {
+                c.pending = ByteBuffer.allocate(buf.remaining());
+                c.pending.put(buf);
+                c.pending.flip();
+                c.selectionKey.interestOps(SelectionKey.OP_READ | SelectionKey.OP_WRITE);
+            }
+            c.out.clear();
+        }
+        if (c.pending == null && c.closeAfterReply) {
+            close(c);
+        }
+    }
+
+    private void write(ClientConnection c) throws IOException {
+        c.channel.write(c.pending);
+        if (c.pending.hasRemaining()) {
+            return;
+        }
+        c.pending = null;
+        c.selectionKey.interestOps(SelectionKey.OP_READ);
+        flush(c);
+    }
+
+    private void close(ClientConnection c) {
+        if (!c.channel.isOpen()) {
+            return;
+        }
+        if (c.blocked) {
+            unblock(c);
+        }
+        c.selectionKey.cancel();
+        try {
+            c.channel.close();
+        } catch (IOException ignored) {
+        }
+        connectedClients--;
+    }
+
+    private void shutdown() {
+        for (SelectionKey key : selector.keys()) {
+            if (key.attachment() instanceof ClientConnection) {
+                close((ClientConnection) key.attachment());
+            }
+        }
+        try {
+            serverChannel.close();
+            selector.close();
+        } catch (IOException ignored) {
+        }
+        running = false;
+        if (clock instanceof VirtualClock) {
+            ((VirtualClock) clock).detach(this);
+        }
+    }
+}
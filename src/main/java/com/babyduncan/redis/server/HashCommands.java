@@ -0,0 +1,154 @@
+package com.babyduncan.redis.server;
+
+import java.util.HashMap;
+import java.util.Map;
+
+/**
+ * User: zgh
+ * Date: 26-10-18
+ * Time: 11:32
+ */
+
+/**
+ * Hash类型的命令，对应HashUsage里的用法。
+ */
+final class HashCommands {
+
+    private HashCommands() {
+    }
+
+    static void register(CommandTable t) {
+        t.add("HSET", 4, HashCommands::hset);
+        t.add("HSETNX", 4, HashCommands::hsetnx);
+        t.add("HMSET", -4, HashCommands::hmset);
+        t.add("HGET", 3, HashCommands::hget);
+        t.add("HMGET", -3, HashCommands::hmget);
+        t.add("HINCRBY", 4, HashCommands::hincrby);
+        t.add("HEXISTS", 3, HashCommands::hexists);
+        t.add("HLEN", 2, HashCommands::hlen);
+        t.add("HDEL", -3, HashCommands::hdel);
+        t.add("HKEYS", 2, HashCommands::hkeys);
+        t.add("HVALS", 2, HashCommands::hvals);
+        t.add("HGETALL", 2, HashCommands::hgetall);
+    }
+
+    static void hset(ClientConnection c, byte[][] argv) {
+        HashMap<String, String> h = c.db.getHash(Keys.string(argv[1]), true);
+        String old = h.put(Keys.string(argv[2]), Keys.string(argv[3]));
+        c.out.integer(old == null ? 1 : 0);
+    }
+
+    static void hsetnx(ClientConnection c, byte[][] argv) {
+        HashMap<String, String> h = c.db.getHash(Keys.string(argv[1]), true);
+        String field = Keys.string(argv[2]);
+        if (h.containsKey(field)) {
+            c.out.integer(0);
+            return;
+        }
+        h.put(field, Keys.string(argv[3]));
+        c.out.integer(1);
+    }
+
+    static void hmset(ClientConnection c, byte[][] argv) {
+        if (argv.length % 2 != 0) {
+            throw new CommandException("ERR wrong number of arguments for HMSET");
+        }
+        HashMap<String, String> h = c.db.getHash(Keys.string(argv[1]), true);
+        for (int i = 2; i < argv.length; i += 2) {
+            h.put(Keys.string(argv[i]), Keys.string(argv[i + 1]));
+        }
+        c.out.ok();
+    }
+
+    static void hget(ClientConnection c, byte[][] argv) {
+        HashMap<String, String> h = c.db.getHash(Keys.string(argv[1]), false);
+        c.out.bulk(h == null ? null : h.get(Keys.string(argv[2])));
+    }
+
+    static void hmget(ClientConnection c, byte[][] argv) {
+        HashMap<String, String> h = c.db.getHash(Keys.string(argv[1]), false);
+        c.out.multiBulk(argv.length - 2);
+        for (int i = 2; i < argv.length; i++) {
+            c.out.bulk(h == null ? null : h.get(Keys.string(argv[i])));
+        }
+    }
+
+    static void hincrby(ClientConnection c, byte[][] argv) {
+        long by = Keys.parseLong(argv[3]);
+        String key = Keys.string(argv[1]);
+        HashMap<String, String> existing = c.db.getHash(key, false);
+        String field = Keys.string(argv[2]);
+        String old = existing == null ? null : existing.get(field);
+        long value;
+        try {
+            value = old == null ? 0 : Keys.parseLong(old);
+        } catch (CommandException e) {
+            throw new CommandException("ERR hash value is not an integer");
+        }
+        if ((by < 0 && value < 0 && by < Long.MIN_VALUE - value)
+                || (by > 0 && value > 0 && by > Long.MAX_VALUE - value)) {
+            throw new CommandException("ERR increment or decrement would overflow");
+        }
+        value += by;
+        c.db.getHash(key, true).put(field, Long.toString(value));
+        c.out.integer(value);
+    }
+
+    static void hexists(ClientConnection c, byte[][] argv) {
+        HashMap<String, String> h = c.db.getHash(Keys.string(argv[1]), false);
+        c.out.integer(h != null && h.containsKey(Keys.string(argv[2])) ? 1 : 0);
+    }
+
+    static void hlen(ClientConnection c, byte[][] argv) {
+        HashMap<String, String> h = c.db.getHash(Keys.string(argv[1]), false);
+        c.out.integer(h == null ? 0 : h.size());
+    }
+
+    static void hdel(ClientConnection c, byte[][] argv) {
+        String key = Keys.string(argv[1]);
+        HashMap<String, String> h = c.db.getHash(key, false);
+        if (h == null) {
+            c.out.integer(0);
+            return;
+        }
+        int deleted = 0;
+        for (int i = 2; i < argv.length; i++) {
+            if (h.remove(Keys.string(argv[i])) != null) {
+                deleted++;
+            }
+        }
+        c.db.removeIfEmpty(key, h.size());
+        c.out.integer(deleted);
+    }
+
+    static void hkeys(ClientConnection c, byte[][] argv) {
+        HashMap<String, String> h = c.db.getHash(Keys.string(argv[1]), false);
+        if (h == null) {
+            c.out.multiBulk(0);
+            return;
+        }
+        c.out.multiBulk(h.keySet());
+    }
+
+    static void hvals(ClientConnection c, byte[][] argv) {
+        HashMap<String, String> h = c.db.getHash(Keys.string(argv[1]), false);
+        if (h == null) {
+            c.out.multiBulk(0);
+            return;
+        }
+        c.out.multiBulk(h.values());
+    }
+
+    static void hgetall(ClientConnection c, byte[][] argv) {
+        HashMap<String, String> h = c.db.getHash(Keys.string(argv[1]), false);
+        if (h == null) {
+            c.out.multiBulk(0);
+            return;
+        }
+        c.out.multiBulk(h.size() * 2);
+        for (Map.Entry<String, String> e : h.entrySet()) {
+            c.out.bulk(e.getKey());
+            c.out.bulk(e.getValue());
+        }
+    }
+}
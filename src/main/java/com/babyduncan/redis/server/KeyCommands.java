@@ -0,0 +1,227 @@
+package com.babyduncan.redis.server;
+
+import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.List;
+
+/**
+ * User: zgh
+ * Date: 26-10-18
+ * Time: 11:02
+ */
+
+/**
+ * 通用的key命令和连接/服务器命令：DEL EXISTS TYPE KEYS EXPIRE TTL SELECT FLUSHDB INFO ...
+ */
+final class KeyCommands {
+
+    private KeyCommands() {
+    }
+
+    static void register(CommandTable t) {
+        t.add("PING", -1, KeyCommands::ping);
+        t.add("ECHO", 2, KeyCommands::echo);
+        t.add("QUIT", 1, KeyCommands::quit);
+        t.add("SELECT", 2, KeyCommands::select);
+        t.add("FLUSHDB", 1, KeyCommands::flushdb);
+        t.add("FLUSHALL", 1, KeyCommands::flushall);
+        t.add("DBSIZE", 1, KeyCommands::dbsize);
+        t.add("INFO", -1, KeyCommands::info);
+        t.add("DEL", -2, KeyCommands::del);
+        t.add("EXISTS", 2, KeyCommands::exists);
+        t.add("TYPE", 2, KeyCommands::type);
+        t.add("KEYS", 2, KeyCommands::keys);
+        t.add("RANDOMKEY", 1, KeyCommands::randomkey);
+        t.add("RENAME", 3, KeyCommands::rename);
+        t.add("EXPIRE", 3, KeyCommands::expire);
+        t.add("PEXPIRE", 3, KeyCommands::pexpire);
+        t.add("EXPIREAT", 3, KeyCommands::expireat);
+        t.add("TTL", 2, KeyCommands::ttl);
+        t.add("PTTL", 2, KeyCommands::pttl);
+        t.add("PERSIST", 2, KeyCommands::persist);
+    }
+
+    static void ping(ClientConnection c, byte[][] argv) {
+        if (argv.length > 1) {
+            c.out.bulk(argv[1]);
+        } else {
+            c.out.status("PONG");
+        }
+    }
+
+    static void echo(ClientConnection c, byte[][] argv) {
+        c.out.bulk(argv[1]);
+    }
+
+    static void quit(ClientConnection c, byte[][] argv) {
+        c.out.ok();
+        c.closeAfterReply = true;
+    }
+
+    static void select(ClientConnection c, byte[][] argv) {
+        int index;
+        try {
+            index = Keys.parseInt(argv[1]);
+        } catch (CommandException e) {
+            throw new CommandException("ERR invalid DB index");
+        }
+        if (index < 0 || index >= c.server.databaseCount()) {
+            throw new CommandException("ERR invalid DB index");
+        }
+        c.db = c.server.database(index);
+        c.out.ok();
+    }
+
+    static void flushdb(ClientConnection c, byte[][] argv) {
+        c.db.clear();
+        c.out.ok();
+    }
+
+    static void flushall(ClientConnection c, byte[][] argv) {
+        for (int i = 0; i < c.server.databaseCount(); i++) {
+            c.server.database(i).clear();
+        }
+        c.out.ok();
+    }
+
+    static void dbsize(ClientConnection c, byte[][] argv) {
+        c.out.integer(c.db.size());
+    }
+
+    static void info(ClientConnection c, byte[][] argv) {
+        StringBuilder sb = new StringBuilder();
+        sb.append("# Server\r\n");
+        sb.append("redis_version:2.6.0\r\n");
+        sb.append("redis_mode:embedded\r\n");
+        sb.append("tcp_port:").append(c.server.getPort()).append("\r\n");
+        sb.append("\r\n# Clients\r\n");
+        sb.append("connected_clients:").append(c.server.getConnectedClients()).append("\r\n");
+        sb.append("\r\n# Stats\r\n");
+        sb.append("total_connections_received:").append(c.server.getConnectionsReceived()).append("\r\n");
+        sb.append("total_commands_processed:").append(c.server.getCommandsProcessed()).append("\r\n");
+        sb.append("\r\n# Keyspace\r\n");
+        for (int i = 0; i < c.server.databaseCount(); i++) {
+            Database db = c.server.database(i);
+            if (db.size() > 0) {
+                sb.append("db").append(i).append(":keys=").append(db.size())
+                        .append(",expires=").append(db.expiresSize()).append("\r\n");
+            }
+        }
+        c.out.bulk(sb.toString());
+    }
+
+    static void del(ClientConnection c, byte[][] argv) {
+        int deleted = 0;
+        for (int i = 1; i < argv.length; i++) {
+            String key = Keys.string(argv[i]);
+            if (c.db.exists(key) && c.db.remove(key)) {
+                deleted++;
+            }
+        }
+        c.out.integer(deleted);
+    }
+
+    static void exists(ClientConnection c, byte[][] argv) {
+        c.out.integer(c.db.exists(Keys.string(argv[1])) ? 1 : 0);
+    }
+
+    static void type(ClientConnection c, byte[][] argv) {
+        c.out.status(Database.typeName(c.db.lookup(Keys.string(argv[1]))));
+    }
+
+    static void keys(ClientConnection c, byte[][] argv) {
+        String pattern = Keys.string(argv[1]);
+        boolean all = "*".equals(pattern);
+        List<String> matched = new ArrayList<String>();
+        long now = c.server.now();
+        for (Iterator<String> it = c.db.keys(); it.hasNext(); ) {
+            String key = it.next();
+            long when = c.db.getExpire(key);
+            if (when != -1 && when <= now) {
+                continue;
+            }
+            if (all || Keys.globMatch(pattern, key)) {
+                matched.add(key);
+            }
+        }
+        c.out.multiBulk(matched);
+    }
+
+    static void randomkey(ClientConnection c, byte[][] argv) {
+        Iterator<String> it = c.db.keys();
+        c.out.bulk(it.hasNext() ? it.next() : null);
+    }
+
+    static void rename(ClientConnection c, byte[][] argv) {
+        String src = Keys.string(argv[1]);
+        String dst = Keys.string(argv[2]);
+        Object value = c.db.lookup(src);
+        if (value == null) {
+            throw CommandException.noSuchKey();
+        }
+        if (src.equals(dst)) {
+            throw new CommandException("ERR source and destination objects are the same");
+        }
+        long when = c.db.getExpire(src);
+        c.db.remove(src);
+        c.db.put(dst, value);
+        if (when != -1) {
+            c.db.setExpire(dst, when);
+        }
+        c.out.ok();
+    }
+
+    static void expire(ClientConnection c, byte[][] argv) {
+        expireGeneric(c, argv[1], c.server.now() + Keys.parseLong(argv[2]) * 1000);
+    }
+
+    static void pexpire(ClientConnection c, byte[][] argv) {
+        expireGeneric(c, argv[1], c.server.now() + Keys.parseLong(argv[2]));
+    }
+
+    static void expireat(ClientConnection c, byte[][] argv) {
+        expireGeneric(c, argv[1], Keys.parseLong(argv[2]) * 1000);
+    }
+
+    private static void expireGeneric(ClientConnection c, byte[] rawKey, long whenMillis) {
+        String key = Keys.string(rawKey);
+        if (!c.db.exists(key)) {
+            c.out.integer(0);
+            return;
+        }
+        if (whenMillis <= c.server.now()) {
+            c.db.remove(key);
+        } else {
+            c.db.setExpire(key, whenMillis);
+        }
+        c.out.integer(1);
+    }
+
+    static void ttl(ClientConnection c, byte[][] argv) {
+        long pttl = pttl(c, Keys.string(argv[1]));
+        c.out.integer(pttl < 0 ? pttl : (pttl + 500) / 1000);
+    }
+
+    static void pttl(ClientConnection c, byte[][] argv) {
+        c.out.integer(pttl(c, Keys.string(argv[1])));
+    }
+
+    /**
+     * key不存在返回-2，没有过期时间返回-1（redis 2.8之后的语义，jedis 2.1只关心>=0的情况）。
+     */
+    private static long pttl(ClientConnection c, String key) {
+        if (!c.db.exists(key)) {
+            return -2;
+        }
+        long when = c.db.getExpire(key);
+        if (when == -1) {
+            return -1;
+        }
+        return Math.max(0, when - c.server.now());
+    }
+
+    static void persist(ClientConnection c, byte[][] argv) {
+        String key = Keys.string(argv[1]);
+        c.out.integer(c.db.exists(key) && c.db.persist(key) ? 1 : 0);
+    }
+}
@@ -0,0 +1,220 @@
+package com.babyduncan.redis.server;
+
+import java.nio.charset.Charset;
+
+/**
+ * User: zgh
+ * Date: 26-10-18
+ * Time: 10:05
+ */
+
+/**
+ * 服务端用到的编码/解析小工具。
+ * <p/>
+ * 所有的key、hash field、set/zset member 都按ISO-8859-1解码成String保存，
+ * 一个字节对应一个char，所以既是binary safe的，又可以直接放进HashMap/TreeMap，
+ * 而且char的比较顺序和redis里memcmp的顺序一致。
+ */
+final class Keys {
+    static final Charset CHARSET = Charset.forName("ISO-8859-1");
+
+    private Keys() {
+    }
+
+    static String string(byte[] raw) {
+        return new String(raw, CHARSET);
+    }
+
+    static byte[] bytes(String s) {
+        return s.getBytes(CHARSET);
+    }
+
+    static long parseLong(byte[] raw) {
+        int n = raw.length;
+        if (n == 0 || n > 20) {
+            throw CommandException.notInteger();
+        }
+        int i = 0;
+        boolean negative = false;
+        if (raw[0] == '-') {
+            negative = true;
+            i = 1;
+            if (n == 1) {
+                throw CommandException.notInteger();
+            }
+        }
+        long result = 0;
+        for (; i < n; i++) {
+            int d = raw[i] - '0';
+            if (d < 0 || d > 9) {
+                throw CommandException.notInteger();
+            }
+            // 按负数累加，这样Long.MIN_VALUE也能表示
+            if (result < (Long.MIN_VALUE + d) / 10) {
+                throw CommandException.notInteger();
+            }
+            result = result * 10 - d;
+        }
+        if (!negative) {
+            if (result == Long.MIN_VALUE) {
+                throw CommandException.notInteger();
+            }
+            result = -result;
+        }
+        return result;
+    }
+
+    static long parseLong(String s) {
+        return parseLong(bytes(s));
+    }
+
+    static int parseInt(byte[] raw) {
+        long l = parseLong(raw);
+        if (l < Integer.MIN_VALUE || l > Integer.MAX_VALUE) {
+            throw CommandException.notInteger();
+        }
+        return (int) l;
+    }
+
+    static double parseDouble(byte[] raw) {
+        String s = string(raw);
+        if ("inf".equalsIgnoreCase(s) || "+inf".equalsIgnoreCase(s)) {
+            return Double.POSITIVE_INFINITY;
+        }
+        if ("-inf".equalsIgnoreCase(s)) {
+            return Double.NEGATIVE_INFINITY;
+        }
+        try {
+            double d = Double.parseDouble(s);
+            if (Double.isNaN(d)) {
+                throw CommandException.notFloat();
+            }
+            return d;
+        } catch (NumberFormatException e) {
+            throw CommandException.notFloat();
+        }
+    }
+
+    /**
+     * 整数分数按整数输出，和redis-cli里看到的一致，客户端用Double.valueOf都能解析。
+     */
+    static String formatDouble(double d) {
+        if (d == Double.POSITIVE_INFINITY) {
+            return "inf";
+        }
+        if (d == Double.NEGATIVE_INFINITY) {
+            return "-inf";
+        }
+        if (d == Math.rint(d) && Math.abs(d) < 1e17) {
+            return Long.toString((long) d);
+        }
+        return Double.toString(d);
+    }
+
+    static boolean equalsIgnoreCase(byte[] raw, String ascii) {
+        if (raw.length != ascii.length()) {
+            return false;
+        }
+        for (int i = 0; i < raw.length; i++) {
+            int c = raw[i];
+            if (c >= 'a' && c <= 'z') {
+                c -= 32;
+            }
+            int e = ascii.charAt(i);
+            if (e >= 'a' && e <= 'z') {
+                e -= 32;
+            }
+            if (c != e) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    /**
+     * KEYS命令用的glob匹配，支持 * ? [abc] [^a] [a-z] 以及 \ 转义，和redis的stringmatchlen一致。
+     */
+    static boolean globMatch(String pattern, String s) {
+        return globMatch(pattern, 0, s, 0);
+    }
+
+    private static boolean globMatch(String p, int pi, String s, int si) {
+        while (pi < p.length()) {
+            char c = p.charAt(pi);
+            switch (c) {
+                case '*':
+                    while (pi + 1 < p.length() && p.charAt(pi + 1) == '*') {
+                        pi++;
+                    }
+                    if (pi + 1 == p.length()) {
+                        return true;
+                    }
+                    for (int k = si; k <= s.length(); k++) {
+                        if (globMatch(p, pi + 1, s, k)) {
+                            return true;
+                        }
+                    }
+                    return false;
+                case '?':
+                    if (si >= s.length()) {
+                        return false;
+                    }
+                    si++;
+                    break;
+                case '[': {
+                    if (si >= s.length()) {
+                        return false;
+                    }
+                    pi++;
+                    boolean not = pi < p.length() && p.charAt(pi) == '^';
+                    if (not) {
+                        pi++;
+                    }
+                    boolean match = false;
+                    char sc = s.charAt(si);
+                    while (pi < p.length() && p.charAt(pi) != ']') {
+                        if (p.charAt(pi) == '\\' && pi + 1 < p.length()) {
+                            pi++;
+                            if (p.charAt(pi) == sc) {
+                                match = true;
+                            }
+                        } else if (pi + 2 < p.length() && p.charAt(pi + 1) == '-') {
+                            char lo = p.charAt(pi);
+                            char hi = p.charAt(pi + 2);
+                            if (lo > hi) {
+                                char t = lo;
+                                lo = hi;
+                                hi = t;
+                            }
+                            if (sc >= lo && sc <= hi) {
+                                match = true;
+                            }
+                            pi += 2;
+                        } else if (p.charAt(pi) == sc) {
+                            match = true;
+                        }
+                        pi++;
+                    }
+                    if (not == match) {
+                        return false;
+                    }
+                    si++;
+                    break;
+                }
+                case '\\':
+                    if (pi + 1 < p.length()) {
+                        pi++;
+                        c = p.charAt(pi);
+                    }
+                    // fall through
+                default:
+                    if (si >= s.length() || s.charAt(si) != c) {
+                        return false;
+                    }
+                    si++;
+            }
+            pi++;
+        }
+        return si == s.length();
+    }
+}
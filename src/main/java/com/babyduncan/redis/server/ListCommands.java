@@ -0,0 +1,300 @@
+package com.babyduncan.redis.server;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+/**
+ * User: zgh
+ * Date: 26-10-18
+ * Time: 11:40
+ */
+
+/**
+ * List类型的命令，对应ListUsage里的用法，包括最后那一段的BLPOP/BRPOP/BRPOPLPUSH。
+ */
+final class ListCommands {
+
+    private ListCommands() {
+    }
+
+    static void register(CommandTable t) {
+        t.add("LPUSH", -3, ListCommands::lpush);
+        t.add("RPUSH", -3, ListCommands::rpush);
+        t.add("LPUSHX", 3, ListCommands::lpushx);
+        t.add("RPUSHX", 3, ListCommands::rpushx);
+        t.add("LINSERT", 5, ListCommands::linsert);
+        t.add("LSET", 4, ListCommands::lset);
+        t.add("LREM", 4, ListCommands::lrem);
+        t.add("LTRIM", 4, ListCommands::ltrim);
+        t.add("LPOP", 2, ListCommands::lpop);
+        t.add("RPOP", 2, ListCommands::rpop);
+        t.add("RPOPLPUSH", 3, ListCommands::rpoplpush);
+        t.add("LINDEX", 3, ListCommands::lindex);
+        t.add("LLEN", 2, ListCommands::llen);
+        t.add("LRANGE", 4, ListCommands::lrange);
+        t.add("BLPOP", -3, ListCommands::blpop);
+        t.add("BRPOP", -3, ListCommands::brpop);
+        t.add("BRPOPLPUSH", 4, ListCommands::brpoplpush);
+    }
+
+    static void lpush(ClientConnection c, byte[][] argv) {
+        push(c, argv, true);
+    }
+
+    static void rpush(ClientConnection c, byte[][] argv) {
+        push(c, argv, false);
+    }
+
+    private static void push(ClientConnection c, byte[][] argv, boolean head) {
+        String key = Keys.string(argv[1]);
+        ListValue list = c.db.getList(key, true);
+        for (int i = 2; i < argv.length; i++) {
+            if (head) {
+                list.addFirst(Keys.string(argv[i]));
+            } else {
+                list.addLast(Keys.string(argv[i]));
+            }
+        }
+        c.server.signalKeyAsReady(key);
+        c.out.integer(list.size());
+    }
+
+    static void lpushx(ClientConnection c, byte[][] argv) {
+        pushx(c, argv, true);
+    }
+
+    static void rpushx(ClientConnection c, byte[][] argv) {
+        pushx(c, argv, false);
+    }
+
+    private static void pushx(ClientConnection c, byte[][] argv, boolean head) {
+        ListValue list = c.db.getList(Keys.string(argv[1]), false);
+        if (list == null) {
+            c.out.integer(0);
+            return;
+        }
+        if (head) {
+            list.addFirst(Keys.string(argv[2]));
+        } else {
+            list.addLast(Keys.string(argv[2]));
+        }
+        c.out.integer(list.size());
+    }
+
+    /**
+     * LINSERT key BEFORE|AFTER pivot value，pivot按从头到尾找到的第一个算。
+     */
+    static void linsert(ClientConnection c, byte[][] argv) {
+        boolean after;
+        if (Keys.equalsIgnoreCase(argv[2], "AFTER")) {
+            after = true;
+        } else if (Keys.equalsIgnoreCase(argv[2], "BEFORE")) {
+            after = false;
+        } else {
+            throw CommandException.syntax();
+        }
+        ListValue list = c.db.getList(Keys.string(argv[1]), false);
+        if (list == null) {
+            c.out.integer(0);
+            return;
+        }
+        int pivot = list.indexOf(Keys.string(argv[3]));
+        if (pivot < 0) {
+            c.out.integer(-1);
+            return;
+        }
+        list.insert(after ? pivot + 1 : pivot, Keys.string(argv[4]));
+        c.out.integer(list.size());
+    }
+
+    static void lset(ClientConnection c, byte[][] argv) {
+        long index = Keys.parseLong(argv[2]);
+        ListValue list = c.db.getList(Keys.string(argv[1]), false);
+        if (list == null) {
+            throw CommandException.noSuchKey();
+        }
+        if (index < 0) {
+            index += list.size();
+        }
+        if (index < 0 || index >= list.size()) {
+            throw CommandException.outOfRange();
+        }
+        list.set((int) index, Keys.string(argv[3]));
+        c.out.ok();
+    }
+
+    static void lrem(ClientConnection c, byte[][] argv) {
+        long count = Keys.parseLong(argv[2]);
+        String key = Keys.string(argv[1]);
+        ListValue list = c.db.getList(key, false);
+        if (list == null) {
+            c.out.integer(0);
+            return;
+        }
+        int removed = list.removeOccurrences(Keys.string(argv[3]), count);
+        c.db.removeIfEmpty(key, list.size());
+        c.out.integer(removed);
+    }
+
+    static void ltrim(ClientConnection c, byte[][] argv) {
+        long start = Keys.parseLong(argv[2]);
+        long end = Keys.parseLong(argv[3]);
+        String key = Keys.string(argv[1]);
+        ListValue list = c.db.getList(key, false);
+        if (list == null) {
+            c.out.ok();
+            return;
+        }
+        long[] range = normalizeRange(start, end, list.size());
+        if (range == null) {
+            c.db.remove(key);
+        } else {
+            list.trim((int) range[0], (int) range[1]);
+        }
+        c.out.ok();
+    }
+
+    static void lpop(ClientConnection c, byte[][] argv) {
+        c.out.bulk(pop(c, Keys.string(argv[1]), true));
+    }
+
+    static void rpop(ClientConnection c, byte[][] argv) {
+        c.out.bulk(pop(c, Keys.string(argv[1]), false));
+    }
+
+    private static String pop(ClientConnection c, String key, boolean head) {
+        ListValue list = c.db.getList(key, false);
+        if (list == null) {
+            return null;
+        }
+        String value = head ? list.removeFirst() : list.removeLast();
+        c.db.removeIfEmpty(key, list.size());
+        return value;
+    }
+
+    static void rpoplpush(ClientConnection c, byte[][] argv) {
+        c.out.bulk(rpoplpush(c, Keys.string(argv[1]), Keys.string(argv[2])));
+    }
+
+    private static String rpoplpush(ClientConnection c, String src, String dst) {
+        ListValue source = c.db.getList(src, false);
+        if (source == null) {
+            return null;
+        }
+        // 先检查目标的类型，类型不对的时候源list不能被改动
+        c.db.getList(dst, false);
+        String value = source.removeLast();
+        c.db.removeIfEmpty(src, source.size());
+        c.db.getList(dst, true).addFirst(value);
+        c.server.signalKeyAsReady(dst);
+        return value;
+    }
+
+    static void lindex(ClientConnection c, byte[][] argv) {
+        long index = Keys.parseLong(argv[2]);
+        ListValue list = c.db.getList(Keys.string(argv[1]), false);
+        if (list == null) {
+            c.out.nil();
+            return;
+        }
+        if (index < 0) {
+            index += list.size();
+        }
+        c.out.bulk(index < 0 || index >= list.size() ? null : list.get((int) index));
+    }
+
+    static void llen(ClientConnection c, byte[][] argv) {
+        ListValue list = c.db.getList(Keys.string(argv[1]), false);
+        c.out.integer(list == null ? 0 : list.size());
+    }
+
+    static void lrange(ClientConnection c, byte[][] argv) {
+        long start = Keys.parseLong(argv[2]);
+        long end = Keys.parseLong(argv[3]);
+        ListValue list = c.db.getList(Keys.string(argv[1]), false);
+        long[] range = list == null ? null : normalizeRange(start, end, list.size());
+        if (range == null) {
+            c.out.multiBulk(0);
+            return;
+        }
+        c.out.multiBulk((int) (range[1] - range[0] + 1));
+        for (int i = (int) range[0]; i <= range[1]; i++) {
+            c.out.bulk(list.get(i));
+        }
+    }
+
+    static void blpop(ClientConnection c, byte[][] argv) {
+        bpop(c, argv, true);
+    }
+
+    static void brpop(ClientConnection c, byte[][] argv) {
+        bpop(c, argv, false);
+    }
+
+    /**
+     * BLPOP key [key ...] timeout：按key的顺序找第一个非空的list，都为空就阻塞。
+     */
+    private static void bpop(ClientConnection c, byte[][] argv, boolean head) {
+        long timeout = parseTimeout(argv[argv.length - 1]);
+        List<String> keys = new ArrayList<String>(argv.length - 2);
+        for (int i = 1; i < argv.length - 1; i++) {
+            String key = Keys.string(argv[i]);
+            ListValue list = c.db.getList(key, false);
+            if (list != null) {
+                c.out.multiBulk(2);
+                c.out.bulk(key);
+                c.out.bulk(pop(c, key, head));
+                return;
+            }
+            keys.add(key);
+        }
+        c.server.block(c, argv, keys, timeout, true);
+    }
+
+    static void brpoplpush(ClientConnection c, byte[][] argv) {
+        long timeout = parseTimeout(argv[3]);
+        String src = Keys.string(argv[1]);
+        String value = rpoplpush(c, src, Keys.string(argv[2]));
+        if (value != null) {
+            c.out.bulk(value);
+            return;
+        }
+        c.server.block(c, argv, Arrays.asList(src), timeout, false);
+    }
+
+    private static long parseTimeout(byte[] raw) {
+        double seconds;
+        try {
+            seconds = Keys.parseDouble(raw);
+        } catch (CommandException e) {
+            throw new CommandException("ERR timeout is not an integer or out of range");
+        }
+        if (seconds < 0) {
+            throw new CommandException("ERR timeout is negative");
+        }
+        return (long) (seconds * 1000);
+    }
+
+    /**
+     * 把[start, end]规范化到[0, size-1]，负数从尾部算，区间为空返回null。LRANGE/LTRIM/ZRANGE共用。
+     */
+    static long[] normalizeRange(long start, long end, int size) {
+        if (start < 0) {
+            start += size;
+        }
+        if (end < 0) {
+            end += size;
+        }
+        if (start < 0) {
+            start = 0;
+        }
+        if (start > end || start >= size) {
+            return null;
+        }
+        if (end >= size) {
+            end = size - 1;
+        }
+        return new long[]{start, end};
+    }
+}
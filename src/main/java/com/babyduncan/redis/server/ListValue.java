@@ -0,0 +1,160 @@
+package com.babyduncan.redis.server;
+
+import java.util.Arrays;
+
+/**
+ * User: zgh
+ * Date: 26-10-18
+ * Time: 10:20
+ */
+
+/**
+ * list类型的存储：环形数组。
+ * 两头push/pop是O(1)，按下标取（LINDEX/LRANGE/LSET）也是O(1)，
+ * 中间插入删除（LINSERT/LREM）是O(N)，和redis的复杂度说明一致。
+ */
+final class ListValue {
+    private String[] items = new String[8];
+    private int head;
+    private int size;
+
+    int size() {
+        return size;
+    }
+
+    boolean isEmpty() {
+        return size == 0;
+    }
+
+    String get(int index) {
+        return items[(head + index) & (items.length - 1)];
+    }
+
+    void set(int index, String value) {
+        items[(head + index) & (items.length - 1)] = value;
+    }
+
+    void addFirst(String value) {
+        grow();
+        head = (head - 1) & (items.length - 1);
+        items[head] = value;
+        size++;
+    }
+
+    void addLast(String value) {
+        grow();
+        items[(head + size) & (items.length - 1)] = value;
+        size++;
+    }
+
+    String removeFirst() {
+        if (size == 0) {
+            return null;
+        }
+        String v = items[head];
+        items[head] = null;
+        head = (head + 1) & (items.length - 1);
+        size--;
+        return v;
+    }
+
+    String removeLast() {
+        if (size == 0) {
+            return null;
+        }
+        int i = (head + size - 1) & (items.length - 1);
+        String v = items[i];
+        items[i] = null;
+        size--;
+        return v;
+    }
+
+    /**
+     * 在index位置插入，原来index及之后的元素后移。
+     */
+    void insert(int index, String value) {
+        addLast(value);
+        for (int i = size - 1; i > index; i--) {
+            set(i, get(i - 1));
+        }
+        set(index, value);
+    }
+
+    void remove(int index) {
+        for (int i = index; i < size - 1; i++) {
+            set(i, get(i + 1));
+        }
+        removeLast();
+    }
+
+    int indexOf(String value) {
+        for (int i = 0; i < size; i++) {
+            if (get(i).equals(value)) {
+                return i;
+            }
+        }
+        return -1;
+    }
+
+    /**
+     * 只保留[start, end]这一段，下标已经规范化过。
+     */
+    void trim(int start, int end) {
+        String[] kept = new String[Math.max(8, Integer.highestOneBit(Math.max(1, end - start + 1)) << 1)];
+        int n = 0;
+        for (int i = start; i <= end; i++) {
+            kept[n++] = get(i);
+        }
+        items = kept;
+        head = 0;
+        size = n;
+    }
+
+    /**
+     * 删除count个等于value的元素，count的含义和LREM一样。
+     */
+    int removeOccurrences(String value, long count) {
+        String[] kept = new String[items.length];
+        int n = 0;
+        int removed = 0;
+        if (count >= 0) {
+            for (int i = 0; i < size; i++) {
+                String v = get(i);
+                if ((count == 0 || removed < count) && v.equals(value)) {
+                    removed++;
+                } else {
+                    kept[n++] = v;
+                }
+            }
+        } else {
+            int pos = kept.length;
+            for (int i = size - 1; i >= 0; i--) {
+                String v = get(i);
+                if (removed < -count && v.equals(value)) {
+                    removed++;
+                } else {
+                    kept[--pos] = v;
+                }
+            }
+            n = kept.length - pos;
+            System.arraycopy(kept, pos, kept, 0, n);
+            Arrays.fill(kept, n, kept.length, null);
+        }
+        items = kept;
+        head = 0;
+        size = n;
+        return removed;
+    }
+
+    private void grow() {
+        if (size < items.length) {
+            return;
+        }
+        String[] bigger = new String[items.length << 1];
+        for (int i = 0; i < size; i++) {
+            bigger[i] = get(i);
+        }
+        items = bigger;
+        head = 0;
+    }
+}
@@ -0,0 +1,78 @@
+package com.babyduncan.redis.server;
+
+import redis.clients.jedis.Jedis;
+
+import java.io.IOException;
+
+/**
+ * User: zgh
+ * Date: 26-10-18
+ * Time: 12:20
+ */
+
+/**
+ * Usage类连接的redis在哪儿。
+ * <p/>
+ * 启动时指定了 -Dredis.host=xxx [-Dredis.port=6379] 就连真实的redis，
+ * 否则在当前jvm里起一个EmbeddedRedisServer（随机端口，整个jvm共用一个），没有装redis的机器也能直接跑。
+ * 进程内的server用跟着系统时间走的{@link VirtualClock}，测过期的时候可以用{@link #clock()}把时间往前拨。
+ */
+public final class LocalRedis {
+    public static final String HOST_PROPERTY = "redis.host";
+    public static final String PORT_PROPERTY = "redis.port";
+
+    private static EmbeddedRedisServer embedded;
+    private static final VirtualClock clock = VirtualClock.ticking();
+
+    private LocalRedis() {
+    }
+
+    public static boolean isEmbedded() {
+        return System.getProperty(HOST_PROPERTY) == null;
+    }
+
+    public static String host() {
+        if (isEmbedded()) {
+            return embedded().getHost();
+        }
+        return System.getProperty(HOST_PROPERTY);
+    }
+
+    public static int port() {
+        if (isEmbedded()) {
+            return embedded().getPort();
+        }
+        return Integer.getInteger(PORT_PROPERTY, 6379);
+    }
+
+    /**
+     * 进程内server的时钟；连的是真实redis的时候时间拨不动，返回null。
+     */
+    public static VirtualClock clock() {
+        return isEmbedded() ? clock : null;
+    }
+
+    public static Jedis jedis() {
+        return new Jedis(host(), port());
+    }
+
+    /**
+     * 共用的进程内server，第一次用到的时候启动，jvm退出时关闭。
+     */
+    public static synchronized EmbeddedRedisServer embedded() {
+        if (embedded == null) {
+            try {
+                embedded = new EmbeddedRedisServer().clock(clock).start();
+            } catch (IOException e) {
+                throw new IllegalStateException("can not start embedded redis server", e);
+            }
+            final EmbeddedRedisServer server = embedded;
+            Runtime.getRuntime().addShutdownHook(new Thread(new Runnable() {
+                public void run() {
+                    server.stop();
+                }
+            }, "embedded-redis-shutdown"));
+        }
+        return embedded;
+    }
+}
@@ -0,0 +1,183 @@
+package com.babyduncan.redis.server;
+
+import java.nio.ByteBuffer;
+import java.util.Arrays;
+import java.util.Collection;
+
+/**
+ * User: zgh
+ * Date: 26-10-18
+ * Time: 10:02
+ */
+
+/**
+ * 回复缓冲区，按RESP协议把回复编码成字节，事件循环一次性写回socket。
+ * <p/>
+ * Status reply    +OK\r\n
+ * Error reply     -ERR message\r\n
+ * Integer reply   :1000\r\n
+ * Bulk reply      $6\r\nfoobar\r\n       nil: $-1\r\n
+ * Multi-bulk      *2\r\n$3\r\nfoo\r\n$3\r\nbar\r\n   nil: *-1\r\n
+ */
+final class ReplyBuffer {
+    private static final byte[] CRLF = {'\r', '\n'};
+    private static final byte[] OK = "+OK\r\n".getBytes(Keys.CHARSET);
+    private static final byte[] NIL_BULK = "$-1\r\n".getBytes(Keys.CHARSET);
+    private static final byte[] NIL_MULTI_BULK = "*-1\r\n".getBytes(Keys.CHARSET);
+    private static final byte[][] SMALL_INTS = new byte[256][];
+
+    static {
+        for (int i = 0; i < SMALL_INTS.length; i++) {
+            SMALL_INTS[i] = (":" + i + "\r\n").getBytes(Keys.CHARSET);
+        }
+    }
+
+    private byte[] buf;
+    private int len;
+
+    ReplyBuffer(int initialCapacity) {
+        buf = new byte[initialCapacity];
+    }
+
+    int size() {
+        return len;
+    }
+
+    boolean isEmpty() {
+        return len == 0;
+    }
+
+    void clear() {
+        len = 0;
+    }
+
+    /**
+     * 包装成ByteBuffer写出，不拷贝。
+     */
+    ByteBuffer asByteBuffer() {
+        return ByteBuffer.wrap(buf, 0, len);
+    }
+
+    void ok() {
+        raw(OK);
+    }
+
+    void status(String s) {
+        put((byte) '+');
+        ascii(s);
+        raw(CRLF);
+    }
+
+    void error(String message) {
+        put((byte) '-');
+        ascii(message);
+        raw(CRLF);
+    }
+
+    void integer(long n) {
+        if (n >= 0 && n < SMALL_INTS.length) {
+            raw(SMALL_INTS[(int) n]);
+            return;
+        }
+        put((byte) ':');
+        decimal(n);
+        raw(CRLF);
+    }
+
+    void nil() {
+        raw(NIL_BULK);
+    }
+
+    void nilMultiBulk() {
+        raw(NIL_MULTI_BULK);
+    }
+
+    void bulk(byte[] value) {
+        if (value == null) {
+            nil();
+            return;
+        }
+        bulk(value, 0, value.length);
+    }
+
+    void bulk(byte[] value, int offset, int length) {
+        put((byte) '$');
+        decimal(length);
+        raw(CRLF);
+        ensure(length + 2);
+        System.arraycopy(value, offset, buf, len, length);
+        len += length;
+        raw(CRLF);
+    }
+
+    /**
+     * key/field/member在服务端都是ISO-8859-1字符串，一个char就是一个字节。
+     */
+    void bulk(String value) {
+        if (value == null) {
+            nil();
+            return;
+        }
+        int n = value.length();
+        put((byte) '$');
+        decimal(n);
+        raw(CRLF);
+        ensure(n + 2);
+        for (int i = 0; i < n; i++) {
+            buf[len + i] = (byte) value.charAt(i);
+        }
+        len += n;
+        raw(CRLF);
+    }
+
+    void bulk(double score) {
+        bulk(Keys.formatDouble(score));
+    }
+
+    void multiBulk(int count) {
+        put((byte) '*');
+        decimal(count);
+        raw(CRLF);
+    }
+
+    void multiBulk(Collection<String> values) {
+        multiBulk(values.size());
+        for (String v : values) {
+            bulk(v);
+        }
+    }
+
+    private void ascii(String s) {
+        int n = s.length();
+        ensure(n);
+        for (int i = 0; i < n; i++) {
+            buf[len + i] = (byte) s.charAt(i);
+        }
+        len += n;
+    }
+
+    private void decimal(long n) {
+        if (n >= 0 && n < 10) {
+            put((byte) ('0' + n));
+            return;
+        }
+        ascii(Long.toString(n));
+    }
+
+    private void put(byte b) {
+        ensure(1);
+        buf[len++] = b;
+    }
+
+    private void raw(byte[] bytes) {
+        ensure(bytes.length);
+        System.arraycopy(bytes, 0, buf, len, bytes.length);
+        len += bytes.length;
+    }
+
+    private void ensure(int extra) {
+        if (len + extra > buf.length) {
+            buf = Arrays.copyOf(buf, Math.max(buf.length << 1, len + extra));
+        }
+    }
+}
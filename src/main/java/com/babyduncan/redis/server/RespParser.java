@@ -0,0 +1,175 @@
+package com.babyduncan.redis.server;
+
+import java.nio.ByteBuffer;
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * User: zgh
+ * Date: 26-10-18
+ * Time: 10:12
+ */
+
+/**
+ * 增量的RESP请求解析器，每个连接一个。
+ * <p/>
+ * 客户端发来的命令是 multi-bulk 格式：
+ * *3\r\n$3\r\nSET\r\n$3\r\nfoo\r\n$3\r\nbar\r\n
+ * 也兼容telnet/redis-cli里直接敲的inline命令：SET foo bar\r\n
+ * <p/>
+ * 半个命令到达时保留已经解析出来的参数，下次数据到了接着解析，大value不会被反复扫描。
+ */
+final class RespParser {
+    static final int MAX_BULK_LENGTH = 512 * 1024 * 1024;
+    private static final int MAX_INLINE_LENGTH = 64 * 1024;
+
+    private byte[][] argv;
+    private int argc;
+    private int bulkLength = -1;
+
+    /**
+     * 从buffer里解析出一个完整命令，数据不够时返回null，已消费的字节不会再回来。
+     */
+    byte[][] parse(ByteBuffer in) {
+        if (argv == null) {
+            if (!in.hasRemaining()) {
+                return null;
+            }
+            if (in.get(in.position()) != '*') {
+                return parseInline(in);
+            }
+            long count = readNumber(in, '*');
+            if (count == Long.MIN_VALUE) {
+                return null;
+            }
+            if (count <= 0) {
+                // 空命令，redis直接忽略
+                return parse(in);
+            }
+            if (count > 1024 * 1024) {
+                throw new ProtocolException("invalid multibulk length");
+            }
+            argv = new byte[(int) count][];
+            argc = 0;
+        }
+        while (argc < argv.length) {
+            if (bulkLength < 0) {
+                long n = readNumber(in, '$');
+                if (n == Long.MIN_VALUE) {
+                    return null;
+                }
+                if (n < 0 || n > MAX_BULK_LENGTH) {
+                    throw new ProtocolException("invalid bulk length");
+                }
+                bulkLength = (int) n;
+            }
+            if (in.remaining() < bulkLength + 2) {
+                return null;
+            }
+            byte[] arg = new byte[bulkLength];
+            in.get(arg);
+            in.position(in.position() + 2);
+            argv[argc++] = arg;
+            bulkLength = -1;
+        }
+        byte[][] command = argv;
+        argv = null;
+        return command;
+    }
+
+    /**
+     * 正在解析的bulk还差多少字节，用来决定输入缓冲区要不要扩容。
+     */
+    int pendingBulkLength() {
+        return bulkLength < 0 ? 0 : bulkLength + 2;
+    }
+
+    private long readNumber(ByteBuffer in, char prefix) {
+        int start = in.position();
+        int end = indexOfLf(in, start);
+        if (end < 0) {
+            if (in.remaining() > MAX_INLINE_LENGTH) {
+                throw new ProtocolException("too big count string");
+            }
+            return Long.MIN_VALUE;
+        }
+        if (in.get(start) != prefix) {
+            throw new ProtocolException("expected '" + prefix + "', got '" + (char) in.get(start) + "'");
+        }
+        long n = 0;
+        boolean negative = false;
+        for (int i = start + 1; i < end - 1; i++) {
+            byte b = in.get(i);
+            if (b == '-' && i == start + 1) {
+                negative = true;
+            } else if (b >= '0' && b <= '9') {
+                n = n * 10 + (b - '0');
+            } else {
+                throw new ProtocolException("invalid number");
+            }
+        }
+        in.position(end + 1);
+        return negative ? -n : n;
+    }
+
+    private byte[][] parseInline(ByteBuffer in) {
+        int start = in.position();
+        int end = indexOfLf(in, start);
+        if (end < 0) {
+            if (in.remaining() > MAX_INLINE_LENGTH) {
+                throw new ProtocolException("too big inline request");
+            }
+            return null;
+        }
+        int stop = end > start && in.get(end - 1) == '\r' ? end - 1 : end;
+        List<byte[]> args = new ArrayList<byte[]>();
+        int i = start;
+        while (i < stop) {
+            while (i < stop && in.get(i) == ' ') {
+                i++;
+            }
+            int tokenStart = i;
+            while (i < stop && in.get(i) != ' ') {
+                i++;
+            }
+            if (i > tokenStart) {
+                byte[] arg = new byte[i - tokenStart];
+                for (int k = 0; k < arg.length; k++) {
+                    arg[k] = in.get(tokenStart + k);
+                }
+                args.add(arg);
+            }
+        }
+        in.position(end + 1);
+        if (args.isEmpty()) {
+            return parse(in);
+        }
+        return args.toArray(new byte[args.size()][]);
+    }
+
+    private static int indexOfLf(ByteBuffer in, int from) {
+        int limit = in.limit();
+        if (in.hasArray()) {
+            byte[] a = in.array();
+            int base = in.arrayOffset();
+            for (int i = from; i < limit; i++) {
+                if (a[base + i] == '\n') {
+                    return i;
+                }
+            }
+            return -1;
+        }
+        for (int i = from; i < limit; i++) {
+            if (in.get(i) == '\n') {
+                return i;
+            }
+        }
+        return -1;
+    }
+
+    static final class ProtocolException extends RuntimeException {
+        ProtocolException(String message) {
+            super("Protocol error: " + message, null, false, false);
+        }
+    }
+}
@@ -0,0 +1,243 @@
+package com.babyduncan.redis.server;
+
+import com.babyduncan.redis.script.Scripts;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.Locale;
+
+/**
+ * User: zgh
+ * Date: 26-10-18
+ * Time: 23:25
+ */
+
+/**
+ * EVAL EVALSHA SCRIPT LOAD|EXISTS|FLUSH，只支持{@link Scripts}里的脚本。
+ * <p/>
+ * 没有Lua解释器：脚本按SHA1对应到一段Java实现，和redis一样在事件循环里一次执行完，中间不会插进别的命令。
+ * EVAL过或者SCRIPT LOAD过的SHA1记在server上，EVALSHA没加载过的脚本返回NOSCRIPT，和redis的行为一致。
+ */
+final class ScriptCommands {
+
+    interface Body {
+        void run(ClientConnection c, byte[][] keys, byte[][] args);
+    }
+
+    private static final class Script {
+        final int keys;
+        // 和命令的arity一样，负数表示至少-args个
+        final int args;
+        final Body body;
+
+        Script(int keys, int args, Body body) {
+            this.keys = keys;
+            this.args = args;
+            this.body = body;
+        }
+    }
+
+    private static final HashMap<String, Script> BUILTIN = new HashMap<String, Script>();
+
+    static {
+        builtin(Scripts.SET_NX_PX_INCR, 2, 2, ScriptCommands::setNxPxIncr);
+        builtin(Scripts.COMPARE_AND_DELETE, 1, 1, ScriptCommands::compareAndDelete);
+        builtin(Scripts.COMPARE_AND_PEXPIRE, 1, 2, ScriptCommands::compareAndPexpire);
+        builtin(Scripts.HMSET_IF_EXISTS, 1, -3, ScriptCommands::hmsetIfExists);
+        builtin(Scripts.LREM_RPUSH, 3, 1, ScriptCommands::lremRpush);
+        builtin(Scripts.ZADD_WITHIN_LIMIT, 1, 5, ScriptCommands::zaddWithinLimit);
+    }
+
+    private ScriptCommands() {
+    }
+
+    private static void builtin(String source, int keys, int args, Body body) {
+        BUILTIN.put(Scripts.sha1(source), new Script(keys, args, body));
+    }
+
+    static void register(CommandTable t) {
+        t.add("EVAL", -3, ScriptCommands::eval);
+        t.add("EVALSHA", -3, ScriptCommands::evalsha);
+        t.add("SCRIPT", -2, ScriptCommands::script);
+    }
+
+    static void eval(ClientConnection c, byte[][] argv) {
+        String sha = Scripts.sha1(argv[1]);
+        Script script = builtin(sha);
+        c.server.scripts().add(sha);
+        run(c, sha, script, argv);
+    }
+
+    static void evalsha(ClientConnection c, byte[][] argv) {
+        String sha = Keys.string(argv[1]).toLowerCase(Locale.ROOT);
+        if (!c.server.scripts().contains(sha)) {
+            throw new CommandException("NOSCRIPT No matching script. Please use EVAL.");
+        }
+        run(c, sha, BUILTIN.get(sha), argv);
+    }
+
+    static void script(ClientConnection c, byte[][] argv) {
+        if (Keys.equalsIgnoreCase(argv[1], "LOAD") && argv.length == 3) {
+            String sha = Scripts.sha1(argv[2]);
+            builtin(sha);
+            c.server.scripts().add(sha);
+            c.out.bulk(sha);
+        } else if (Keys.equalsIgnoreCase(argv[1], "EXISTS") && argv.length > 2) {
+            c.out.multiBulk(argv.length - 2);
+            for (int i = 2; i < argv.length; i++) {
+                c.out.integer(c.server.scripts().contains(Keys.string(argv[i]).toLowerCase(Locale.ROOT)) ? 1 : 0);
+            }
+        } else if (Keys.equalsIgnoreCase(argv[1], "FLUSH") && argv.length == 2) {
+            c.server.scripts().clear();
+            c.out.ok();
+        } else {
+            throw new CommandException("ERR Unknown SCRIPT subcommand or wrong # of args.");
+        }
+    }
+
+    private static Script builtin(String sha) {
+        Script script = BUILTIN.get(sha);
+        if (script == null) {
+            throw new CommandException("ERR embedded server has no Lua interpreter, only the scripts in "
+                    + Scripts.class.getName() + " are supported");
+        }
+        return script;
+    }
+
+    private static void run(ClientConnection c, String sha, Script script, byte[][] argv) {
+        int numKeys = Keys.parseInt(argv[2]);
+        if (numKeys < 0) {
+            throw new CommandException("ERR Number of keys can't be negative");
+        }
+        if (numKeys > argv.length - 3) {
+            throw new CommandException("ERR Number of keys can't be greater than number of args");
+        }
+        int numArgs = argv.length - 3 - numKeys;
+        if (numKeys != script.keys || (script.args >= 0 ? numArgs != script.args : numArgs < -script.args)) {
+            throw new CommandException("ERR script " + sha + " expects " + script.keys + " keys and "
+                    + (script.args >= 0 ? script.args : "at least " + -script.args) + " args, got "
+                    + numKeys + " and " + numArgs);
+        }
+        byte[][] keys = Arrays.copyOfRange(argv, 3, 3 + numKeys);
+        byte[][] args = Arrays.copyOfRange(argv, 3 + numKeys, argv.length);
+        script.body.run(c, keys, args);
+    }
+
+    // ---------------------------------------------------------------- Scripts里的脚本
+
+    static void setNxPxIncr(ClientConnection c, byte[][] keys, byte[][] args) {
+        String key = Keys.string(keys[0]);
+        long ttl = Keys.parseLong(args[1]);
+        if (ttl <= 0) {
+            throw new CommandException("ERR invalid expire time in set");
+        }
+        if (c.db.exists(key)) {
+            long when = c.db.getExpire(key);
+            c.out.integer(-1 - (when == -1 ? -1 : Math.max(0, when - c.server.now())));
+            return;
+        }
+        // 先把INCR会出的错（类型不对、不是整数）查出来，再开始改数据和写回复
+        String fence = Keys.string(keys[1]);
+        byte[] old = c.db.getString(fence);
+        long token = (old == null ? 0 : Keys.parseLong(old)) + 1;
+        c.db.put(key, args[0]);
+        c.db.setExpire(key, c.server.now() + ttl);
+        c.db.replace(fence, Keys.bytes(Long.toString(token)));
+        c.out.integer(token);
+    }
+
+    static void compareAndDelete(ClientConnection c, byte[][] keys, byte[][] args) {
+        String key = Keys.string(keys[0]);
+        byte[] value = c.db.getString(key);
+        c.out.integer(value != null && Arrays.equals(value, args[0]) && c.db.remove(key) ? 1 : 0);
+    }
+
+    static void compareAndPexpire(ClientConnection c, byte[][] keys, byte[][] args) {
+        String key = Keys.string(keys[0]);
+        long ttl = Keys.parseLong(args[1]);
+        byte[] value = c.db.getString(key);
+        if (value == null || !Arrays.equals(value, args[0])) {
+            c.out.integer(0);
+            return;
+        }
+        if (ttl <= 0) {
+            c.db.remove(key);
+        } else {
+            c.db.setExpire(key, c.server.now() + ttl);
+        }
+        c.out.integer(1);
+    }
+
+    static void hmsetIfExists(ClientConnection c, byte[][] keys, byte[][] args) {
+        String key = Keys.string(keys[0]);
+        long seconds = Keys.parseLong(args[0]);
+        if ((args.length - 1) % 2 != 0) {
+            throw new CommandException("ERR wrong number of arguments for HMSET");
+        }
+        HashMap<String, String> hash = c.db.getHash(key, false);
+        if (hash == null) {
+            c.out.integer(0);
+            return;
+        }
+        for (int i = 1; i < args.length; i += 2) {
+            hash.put(Keys.string(args[i]), Keys.string(args[i + 1]));
+        }
+        if (seconds <= 0) {
+            c.db.remove(key);
+        } else {
+            c.db.setExpire(key, c.server.now() + seconds * 1000);
+        }
+        c.out.integer(1);
+    }
+
+    static void lremRpush(ClientConnection c, byte[][] keys, byte[][] args) {
+        String from = Keys.string(keys[0]);
+        String to = Keys.string(keys[1]);
+        String since = Keys.string(keys[2]);
+        String item = Keys.string(args[0]);
+        // 先把三个key的类型都查一遍，类型不对的话什么都不改
+        ListValue list = c.db.getList(from, false);
+        c.db.getList(to, false);
+        ZSetValue z = c.db.getZSet(since, false);
+        int removed = list == null ? 0 : list.removeOccurrences(item, 1);
+        if (removed > 0) {
+            c.db.removeIfEmpty(from, list.size());
+            c.db.getList(to, true).addLast(item);
+            c.server.signalKeyAsReady(to);
+        }
+        if (z != null && z.remove(item)) {
+            c.db.removeIfEmpty(since, z.size());
+        }
+        c.out.integer(removed);
+    }
+
+    static void zaddWithinLimit(ClientConnection c, byte[][] keys, byte[][] args) {
+        String key = Keys.string(keys[0]);
+        ZSetValue.ScoreRange expired = ZSetValue.ScoreRange.parse(Keys.bytes("0"), args[0]);
+        double score = Keys.parseDouble(args[1]);
+        String member = Keys.string(args[2]);
+        long limit = Keys.parseLong(args[3]);
+        long seconds = Keys.parseLong(args[4]);
+        ZSetValue z = c.db.getZSet(key, false);
+        int count = 0;
+        if (z != null) {
+            for (ZSetValue.Entry e : new ArrayList<ZSetValue.Entry>(z.rangeByScore(expired))) {
+                z.remove(e.member);
+            }
+            c.db.removeIfEmpty(key, z.size());
+            count = z.size();
+        }
+        if (count >= limit) {
+            c.out.integer(0);
+            return;
+        }
+        c.db.getZSet(key, true).add(member, score);
+        if (seconds <= 0) {
+            c.db.remove(key);
+        } else {
+            c.db.setExpire(key, c.server.now() + seconds * 1000);
+        }
+        c.out.integer(1);
+    }
+}
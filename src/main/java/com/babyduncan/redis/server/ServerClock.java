@@ -0,0 +1,16 @@
+package com.babyduncan.redis.server;
+
+/**
+ * User: zgh
+ * Date: 26-10-18
+ * Time: 19:45
+ */
+
+/**
+ * EmbeddedRedisServer的时间来源，EXPIRE/TTL/BLPOP超时都按它算。默认是系统时间，测试里换成{@link VirtualClock}。
+ */
+public interface ServerClock {
+    ServerClock SYSTEM = System::currentTimeMillis;
+
+    long currentTimeMillis();
+}
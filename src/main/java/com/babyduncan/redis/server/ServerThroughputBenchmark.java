@@ -0,0 +1,178 @@
+package com.babyduncan.redis.server;
+
+import redis.clients.jedis.Jedis;
+import redis.clients.jedis.Pipeline;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * User: zgh
+ * Date: 26-10-18
+ * Time: 12:31
+ */
+
+/**
+ * 简单的吞吐量对比，类似redis-benchmark：N个线程各自一个连接，跑SET/GET/LPUSH/HSET/SADD/ZADD，
+ * 分别测单条命令和pipeline。
+ * <p/>
+ * 测进程内的替身：
+ * java com.babyduncan.redis.server.ServerThroughputBenchmark
+ * 测真实redis（参数：host port [threads] [requestsPerThread] [pipelineDepth]）：
+ * java com.babyduncan.redis.server.ServerThroughputBenchmark localhost 6379 8 100000 16
+ */
+public final class ServerThroughputBenchmark {
+
+    private interface Op {
+        void run(Jedis jedis, Pipeline pipeline, String key, String value);
+    }
+
+    public static void main(String[] args) throws Exception {
+        EmbeddedRedisServer server = null;
+        String host;
+        int port;
+        if (args.length >= 2) {
+            host = args[0];
+            port = Integer.parseInt(args[1]);
+        } else {
+            long begin = System.nanoTime();
+            server = new EmbeddedRedisServer().start();
+            System.out.printf("embedded server started on port %d in %.2f ms%n",
+                    server.getPort(), (System.nanoTime() - begin) / 1e6);
+            host = server.getHost();
+            port = server.getPort();
+        }
+        int threads = args.length > 2 ? Integer.parseInt(args[2]) : 4;
+        int requests = args.length > 3 ? Integer.parseInt(args[3]) : 50000;
+        int depth = args.length > 4 ? Integer.parseInt(args[4]) : 16;
+        String value = repeat('x', 64);
+
+        List<String> names = new ArrayList<String>();
+        List<Op> ops = new ArrayList<Op>();
+        names.add("SET");
+        ops.add(new Op() {
+            public void run(Jedis j, Pipeline p, String k, String v) {
+                if (p != null) {
+                    p.set(k, v);
+                } else {
+                    j.set(k, v);
+                }
+            }
+        });
+        names.add("GET");
+        ops.add(new Op() {
+            public void run(Jedis j, Pipeline p, String k, String v) {
+                if (p != null) {
+                    p.get(k);
+                } else {
+                    j.get(k);
+                }
+            }
+        });
+        names.add("LPUSH");
+        ops.add(new Op() {
+            public void run(Jedis j, Pipeline p, String k, String v) {
+                if (p != null) {
+                    p.lpush("bench:list", v);
+                } else {
+                    j.lpush("bench:list", v);
+                }
+            }
+        });
+        names.add("HSET");
+        ops.add(new Op() {
+            public void run(Jedis j, Pipeline p, String k, String v) {
+                if (p != null) {
+                    p.hset("bench:hash", k, v);
+                } else {
+                    j.hset("bench:hash", k, v);
+                }
+            }
+        });
+        names.add("SADD");
+        ops.add(new Op() {
+            public void run(Jedis j, Pipeline p, String k, String v) {
+                if (p != null) {
+                    p.sadd("bench:set", k);
+                } else {
+                    j.sadd("bench:set", k);
+                }
+            }
+        });
+        names.add("ZADD");
+        ops.add(new Op() {
+            public void run(Jedis j, Pipeline p, String k, String v) {
+                if (p != null) {
+                    p.zadd("bench:zset", k.hashCode(), k);
+                } else {
+                    j.zadd("bench:zset", k.hashCode(), k);
+                }
+            }
+        });
+
+        System.out.printf("%s:%d threads=%d requests/thread=%d pipeline=%d%n", host, port, threads, requests, depth);
+        for (int i = 0; i < ops.size(); i++) {
+            double single = run(host, port, threads, requests, 1, ops.get(i), value);
+            double pipelined = run(host, port, threads, requests, depth, ops.get(i), value);
+            System.out.printf("%-6s %12.0f ops/s   pipelined %12.0f ops/s%n", names.get(i), single, pipelined);
+        }
+        Jedis jedis = new Jedis(host, port);
+        jedis.del("bench:list", "bench:hash", "bench:set", "bench:zset");
+        jedis.disconnect();
+        if (server != null) {
+            server.stop();
+        }
+    }
+
+    private static double run(final String host, final int port, int threads, final int requests,
+                              final int depth, final Op op, final String value) throws InterruptedException {
+        final CountDownLatch start = new CountDownLatch(1);
+        final CountDownLatch done = new CountDownLatch(threads);
+        final AtomicLong completed = new AtomicLong();
+        for (int t = 0; t < threads; t++) {
+            final int id = t;
+            new Thread(new Runnable() {
+                public void run() {
+                    Jedis jedis = new Jedis(host, port);
+                    try {
+                        jedis.connect();
+                        start.await();
+                        for (int i = 0; i < requests; ) {
+                            if (depth <= 1) {
+                                op.run(jedis, null, "bench:" + id + ":" + (i & 1023), value);
+                                i++;
+                            } else {
+                                Pipeline p = jedis.pipelined();
+                                for (int n = 0; n < depth && i < requests; n++, i++) {
+                                    op.run(jedis, p, "bench:" + id + ":" + (i & 1023), value);
+                                }
+                                p.sync();
+                            }
+                        }
+                        completed.addAndGet(requests);
+                    } catch (InterruptedException e) {
+                        Thread.currentThread().interrupt();
+                    } finally {
+                        jedis.disconnect();
+                        done.countDown();
+                    }
+                }
+            }, "bench-" + t).start();
+        }
+        long begin = System.nanoTime();
+        start.countDown();
+        done.await();
+        long elapsed = System.nanoTime() - begin;
+        return completed.get() * 1e9 / elapsed;
+    }
+
+    private static String repeat(char c, int n) {
+        StringBuilder sb = new StringBuilder(n);
+        for (int i = 0; i < n; i++) {
+            sb.append(c);
+        }
+        return sb.toString();
+    }
+}
@@ -0,0 +1,242 @@
+package com.babyduncan.redis.server;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.HashSet;
+import java.util.Iterator;
+import java.util.List;
+import java.util.concurrent.ThreadLocalRandom;
+
+/**
+ * User: zgh
+ * Date: 26-10-18
+ * Time: 11:52
+ */
+
+/**
+ * Set类型的命令，对应SetUsage里的用法。
+ */
+final class SetCommands {
+
+    private SetCommands() {
+    }
+
+    static void register(CommandTable t) {
+        t.add("SADD", -3, SetCommands::sadd);
+        t.add("SREM", -3, SetCommands::srem);
+        t.add("SPOP", 2, SetCommands::spop);
+        t.add("SMEMBERS", 2, SetCommands::smembers);
+        t.add("SISMEMBER", 3, SetCommands::sismember);
+        t.add("SCARD", 2, SetCommands::scard);
+        t.add("SRANDMEMBER", -2, SetCommands::srandmember);
+        t.add("SMOVE", 4, SetCommands::smove);
+        t.add("SINTER", -2, SetCommands::sinter);
+        t.add("SINTERSTORE", -3, SetCommands::sinterstore);
+        t.add("SUNION", -2, SetCommands::sunion);
+        t.add("SUNIONSTORE", -3, SetCommands::sunionstore);
+        t.add("SDIFF", -2, SetCommands::sdiff);
+        t.add("SDIFFSTORE", -3, SetCommands::sdiffstore);
+    }
+
+    static void sadd(ClientConnection c, byte[][] argv) {
+        HashSet<String> set = c.db.getSet(Keys.string(argv[1]), true);
+        int added = 0;
+        for (int i = 2; i < argv.length; i++) {
+            if (set.add(Keys.string(argv[i]))) {
+                added++;
+            }
+        }
+        c.out.integer(added);
+    }
+
+    static void srem(ClientConnection c, byte[][] argv) {
+        String key = Keys.string(argv[1]);
+        HashSet<String> set = c.db.getSet(key, false);
+        if (set == null) {
+            c.out.integer(0);
+            return;
+        }
+        int removed = 0;
+        for (int i = 2; i < argv.length; i++) {
+            if (set.remove(Keys.string(argv[i]))) {
+                removed++;
+            }
+        }
+        c.db.removeIfEmpty(key, set.size());
+        c.out.integer(removed);
+    }
+
+    static void spop(ClientConnection c, byte[][] argv) {
+        String key = Keys.string(argv[1]);
+        HashSet<String> set = c.db.getSet(key, false);
+        if (set == null) {
+            c.out.nil();
+            return;
+        }
+        String member = random(set);
+        set.remove(member);
+        c.db.removeIfEmpty(key, set.size());
+        c.out.bulk(member);
+    }
+
+    static void smembers(ClientConnection c, byte[][] argv) {
+        HashSet<String> set = c.db.getSet(Keys.string(argv[1]), false);
+        if (set == null) {
+            c.out.multiBulk(0);
+            return;
+        }
+        c.out.multiBulk(set);
+    }
+
+    static void sismember(ClientConnection c, byte[][] argv) {
+        HashSet<String> set = c.db.getSet(Keys.string(argv[1]), false);
+        c.out.integer(set != null && set.contains(Keys.string(argv[2])) ? 1 : 0);
+    }
+
+    static void scard(ClientConnection c, byte[][] argv) {
+        HashSet<String> set = c.db.getSet(Keys.string(argv[1]), false);
+        c.out.integer(set == null ? 0 : set.size());
+    }
+
+    /**
+     * SRANDMEMBER key [count]，count为正数时不重复，为负数时可以重复。
+     */
+    static void srandmember(ClientConnection c, byte[][] argv) {
+        if (argv.length > 3) {
+            throw CommandException.syntax();
+        }
+        HashSet<String> set = c.db.getSet(Keys.string(argv[1]), false);
+        if (argv.length == 2) {
+            c.out.bulk(set == null ? null : random(set));
+            return;
+        }
+        long count = Keys.parseLong(argv[2]);
+        if (set == null || count == 0) {
+            c.out.multiBulk(0);
+            return;
+        }
+        List<String> members = new ArrayList<String>(set);
+        if (count < 0) {
+            c.out.multiBulk((int) -count);
+            for (long i = 0; i < -count; i++) {
+                c.out.bulk(members.get(ThreadLocalRandom.current().nextInt(members.size())));
+            }
+            return;
+        }
+        if (count < members.size()) {
+            Collections.shuffle(members, ThreadLocalRandom.current());
+            members = members.subList(0, (int) count);
+        }
+        c.out.multiBulk(members);
+    }
+
+    static void smove(ClientConnection c, byte[][] argv) {
+        String src = Keys.string(argv[1]);
+        String dst = Keys.string(argv[2]);
+        HashSet<String> source = c.db.getSet(src, false);
+        c.db.getSet(dst, false);
+        String member = Keys.string(argv[3]);
+        if (source == null || !source.remove(member)) {
+            c.out.integer(0);
+            return;
+        }
+        c.db.removeIfEmpty(src, source.size());
+        c.db.getSet(dst, true).add(member);
+        c.out.integer(1);
+    }
+
+    static void sinter(ClientConnection c, byte[][] argv) {
+        c.out.multiBulk(inter(c, argv, 1));
+    }
+
+    static void sinterstore(ClientConnection c, byte[][] argv) {
+        store(c, Keys.string(argv[1]), inter(c, argv, 2));
+    }
+
+    static void sunion(ClientConnection c, byte[][] argv) {
+        c.out.multiBulk(union(c, argv, 1));
+    }
+
+    static void sunionstore(ClientConnection c, byte[][] argv) {
+        store(c, Keys.string(argv[1]), union(c, argv, 2));
+    }
+
+    static void sdiff(ClientConnection c, byte[][] argv) {
+        c.out.multiBulk(diff(c, argv, 1));
+    }
+
+    static void sdiffstore(ClientConnection c, byte[][] argv) {
+        store(c, Keys.string(argv[1]), diff(c, argv, 2));
+    }
+
+    /**
+     * 和redis一样，先按基数从小到大排，用最小的集合去探测其他集合。
+     */
+    private static HashSet<String> inter(ClientConnection c, byte[][] argv, int from) {
+        List<HashSet<String>> sets = new ArrayList<HashSet<String>>();
+        for (int i = from; i < argv.length; i++) {
+            HashSet<String> s = c.db.getSet(Keys.string(argv[i]), false);
+            if (s == null) {
+                return new HashSet<String>();
+            }
+            sets.add(s);
+        }
+        sets.sort(new Comparator<HashSet<String>>() {
+            public int compare(HashSet<String> a, HashSet<String> b) {
+                return Integer.compare(a.size(), b.size());
+            }
+        });
+        HashSet<String> result = new HashSet<String>();
+        outer:
+        for (String member : sets.get(0)) {
+            for (int i = 1; i < sets.size(); i++) {
+                if (!sets.get(i).contains(member)) {
+                    continue outer;
+                }
+            }
+            result.add(member);
+        }
+        return result;
+    }
+
+    private static HashSet<String> union(ClientConnection c, byte[][] argv, int from) {
+        HashSet<String> result = new HashSet<String>();
+        for (int i = from; i < argv.length; i++) {
+            HashSet<String> s = c.db.getSet(Keys.string(argv[i]), false);
+            if (s != null) {
+                result.addAll(s);
+            }
+        }
+        return result;
+    }
+
+    private static HashSet<String> diff(ClientConnection c, byte[][] argv, int from) {
+        HashSet<String> first = c.db.getSet(Keys.string(argv[from]), false);
+        HashSet<String> result = first == null ? new HashSet<String>() : new HashSet<String>(first);
+        for (int i = from + 1; i < argv.length && !result.isEmpty(); i++) {
+            HashSet<String> s = c.db.getSet(Keys.string(argv[i]), false);
+            if (s != null) {
+                result.removeAll(s);
+            }
+        }
+        return result;
+    }
+
+    private static void store(ClientConnection c, String dest, HashSet<String> result) {
+        c.db.remove(dest);
+        if (!result.isEmpty()) {
+            c.db.put(dest, result);
+        }
+        c.out.integer(result.size());
+    }
+
+    private static String random(HashSet<String> set) {
+        int n = ThreadLocalRandom.current().nextInt(set.size());
+        Iterator<String> it = set.iterator();
+        for (int i = 0; i < n; i++) {
+            it.next();
+        }
+        return it.next();
+    }
+}
@@ -0,0 +1,248 @@
+package com.babyduncan.redis.server;
+
+import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.List;
+import java.util.NavigableSet;
+
+/**
+ * User: zgh
+ * Date: 26-10-18
+ * Time: 12:03
+ */
+
+/**
+ * Sorted set类型的命令，对应SortedsetUsage里的用法。
+ */
+final class SortedSetCommands {
+
+    private SortedSetCommands() {
+    }
+
+    static void register(CommandTable t) {
+        t.add("ZADD", -4, SortedSetCommands::zadd);
+        t.add("ZREM", -3, SortedSetCommands::zrem);
+        t.add("ZINCRBY", 4, SortedSetCommands::zincrby);
+        t.add("ZSCORE", 3, SortedSetCommands::zscore);
+        t.add("ZCARD", 2, SortedSetCommands::zcard);
+        t.add("ZCOUNT", 4, SortedSetCommands::zcount);
+        t.add("ZRANK", 3, SortedSetCommands::zrank);
+        t.add("ZREVRANK", 3, SortedSetCommands::zrevrank);
+        t.add("ZRANGE", -4, SortedSetCommands::zrange);
+        t.add("ZREVRANGE", -4, SortedSetCommands::zrevrange);
+        t.add("ZRANGEBYSCORE", -4, SortedSetCommands::zrangebyscore);
+        t.add("ZREVRANGEBYSCORE", -4, SortedSetCommands::zrevrangebyscore);
+        t.add("ZREMRANGEBYSCORE", 4, SortedSetCommands::zremrangebyscore);
+        t.add("ZREMRANGEBYRANK", 4, SortedSetCommands::zremrangebyrank);
+    }
+
+    /**
+     * ZADD key score member [score member ...]
+     */
+    static void zadd(ClientConnection c, byte[][] argv) {
+        if (argv.length % 2 != 0) {
+            throw CommandException.syntax();
+        }
+        double[] scores = new double[(argv.length - 2) / 2];
+        for (int i = 2, j = 0; i < argv.length; i += 2, j++) {
+            scores[j] = Keys.parseDouble(argv[i]);
+        }
+        ZSetValue z = c.db.getZSet(Keys.string(argv[1]), true);
+        int added = 0;
+        for (int i = 3, j = 0; i < argv.length; i += 2, j++) {
+            if (z.add(Keys.string(argv[i]), scores[j])) {
+                added++;
+            }
+        }
+        c.out.integer(added);
+    }
+
+    static void zrem(ClientConnection c, byte[][] argv) {
+        String key = Keys.string(argv[1]);
+        ZSetValue z = c.db.getZSet(key, false);
+        if (z == null) {
+            c.out.integer(0);
+            return;
+        }
+        int removed = 0;
+        for (int i = 2; i < argv.length; i++) {
+            if (z.remove(Keys.string(argv[i]))) {
+                removed++;
+            }
+        }
+        c.db.removeIfEmpty(key, z.size());
+        c.out.integer(removed);
+    }
+
+    static void zincrby(ClientConnection c, byte[][] argv) {
+        double by = Keys.parseDouble(argv[2]);
+        ZSetValue z = c.db.getZSet(Keys.string(argv[1]), true);
+        String member = Keys.string(argv[3]);
+        Double old = z.score(member);
+        double score = old == null ? by : old + by;
+        if (Double.isNaN(score)) {
+            throw new CommandException("ERR resulting score is not a number (NaN)");
+        }
+        z.add(member, score);
+        c.out.bulk(score);
+    }
+
+    static void zscore(ClientConnection c, byte[][] argv) {
+        ZSetValue z = c.db.getZSet(Keys.string(argv[1]), false);
+        Double score = z == null ? null : z.score(Keys.string(argv[2]));
+        if (score == null) {
+            c.out.nil();
+        } else {
+            c.out.bulk(score);
+        }
+    }
+
+    static void zcard(ClientConnection c, byte[][] argv) {
+        ZSetValue z = c.db.getZSet(Keys.string(argv[1]), false);
+        c.out.integer(z == null ? 0 : z.size());
+    }
+
+    static void zcount(ClientConnection c, byte[][] argv) {
+        ZSetValue.ScoreRange range = ZSetValue.ScoreRange.parse(argv[2], argv[3]);
+        ZSetValue z = c.db.getZSet(Keys.string(argv[1]), false);
+        c.out.integer(z == null ? 0 : z.rangeByScore(range).size());
+    }
+
+    static void zrank(ClientConnection c, byte[][] argv) {
+        rank(c, argv, false);
+    }
+
+    static void zrevrank(ClientConnection c, byte[][] argv) {
+        rank(c, argv, true);
+    }
+
+    private static void rank(ClientConnection c, byte[][] argv, boolean reverse) {
+        ZSetValue z = c.db.getZSet(Keys.string(argv[1]), false);
+        int rank = z == null ? -1 : z.rank(Keys.string(argv[2]));
+        if (rank < 0) {
+            c.out.nil();
+            return;
+        }
+        c.out.integer(reverse ? z.size() - 1 - rank : rank);
+    }
+
+    static void zrange(ClientConnection c, byte[][] argv) {
+        range(c, argv, false);
+    }
+
+    static void zrevrange(ClientConnection c, byte[][] argv) {
+        range(c, argv, true);
+    }
+
+    /**
+     * ZRANGE key start stop [WITHSCORES]
+     */
+    private static void range(ClientConnection c, byte[][] argv, boolean reverse) {
+        long start = Keys.parseLong(argv[2]);
+        long end = Keys.parseLong(argv[3]);
+        boolean withScores = false;
+        if (argv.length == 5 && Keys.equalsIgnoreCase(argv[4], "WITHSCORES")) {
+            withScores = true;
+        } else if (argv.length >= 5) {
+            throw CommandException.syntax();
+        }
+        ZSetValue z = c.db.getZSet(Keys.string(argv[1]), false);
+        long[] r = z == null ? null : ListCommands.normalizeRange(start, end, z.size());
+        if (r == null) {
+            c.out.multiBulk(0);
+            return;
+        }
+        reply(c, z.range((int) r[0], (int) r[1], reverse), withScores);
+    }
+
+    static void zrangebyscore(ClientConnection c, byte[][] argv) {
+        rangeByScore(c, argv, false);
+    }
+
+    static void zrevrangebyscore(ClientConnection c, byte[][] argv) {
+        rangeByScore(c, argv, true);
+    }
+
+    /**
+     * ZRANGEBYSCORE key min max [WITHSCORES] [LIMIT offset count]
+     * ZREVRANGEBYSCORE key max min [WITHSCORES] [LIMIT offset count]
+     */
+    private static void rangeByScore(ClientConnection c, byte[][] argv, boolean reverse) {
+        ZSetValue.ScoreRange range = reverse
+                ? ZSetValue.ScoreRange.parse(argv[3], argv[2])
+                : ZSetValue.ScoreRange.parse(argv[2], argv[3]);
+        boolean withScores = false;
+        long offset = 0;
+        long count = -1;
+        for (int i = 4; i < argv.length; i++) {
+            if (Keys.equalsIgnoreCase(argv[i], "WITHSCORES")) {
+                withScores = true;
+            } else if (Keys.equalsIgnoreCase(argv[i], "LIMIT") && i + 2 < argv.length) {
+                offset = Keys.parseLong(argv[i + 1]);
+                count = Keys.parseLong(argv[i + 2]);
+                i += 2;
+            } else {
+                throw CommandException.syntax();
+            }
+        }
+        ZSetValue z = c.db.getZSet(Keys.string(argv[1]), false);
+        if (z == null || offset < 0) {
+            c.out.multiBulk(0);
+            return;
+        }
+        NavigableSet<ZSetValue.Entry> matched = z.rangeByScore(range);
+        Iterator<ZSetValue.Entry> it = reverse ? matched.descendingIterator() : matched.iterator();
+        List<ZSetValue.Entry> result = new ArrayList<ZSetValue.Entry>();
+        for (long i = 0; it.hasNext() && (count < 0 || result.size() < count); i++) {
+            ZSetValue.Entry e = it.next();
+            if (i >= offset) {
+                result.add(e);
+            }
+        }
+        reply(c, result, withScores);
+    }
+
+    static void zremrangebyscore(ClientConnection c, byte[][] argv) {
+        ZSetValue.ScoreRange range = ZSetValue.ScoreRange.parse(argv[2], argv[3]);
+        String key = Keys.string(argv[1]);
+        ZSetValue z = c.db.getZSet(key, false);
+        if (z == null) {
+            c.out.integer(0);
+            return;
+        }
+        List<ZSetValue.Entry> matched = new ArrayList<ZSetValue.Entry>(z.rangeByScore(range));
+        for (ZSetValue.Entry e : matched) {
+            z.remove(e.member);
+        }
+        c.db.removeIfEmpty(key, z.size());
+        c.out.integer(matched.size());
+    }
+
+    static void zremrangebyrank(ClientConnection c, byte[][] argv) {
+        long start = Keys.parseLong(argv[2]);
+        long end = Keys.parseLong(argv[3]);
+        String key = Keys.string(argv[1]);
+        ZSetValue z = c.db.getZSet(key, false);
+        long[] r = z == null ? null : ListCommands.normalizeRange(start, end, z.size());
+        if (r == null) {
+            c.out.integer(0);
+            return;
+        }
+        List<ZSetValue.Entry> matched = z.range((int) r[0], (int) r[1], false);
+        for (ZSetValue.Entry e : matched) {
+            z.remove(e.member);
+        }
+        c.db.removeIfEmpty(key, z.size());
+        c.out.integer(matched.size());
+    }
+
+    private static void reply(ClientConnection c, List<ZSetValue.Entry> entries, boolean withScores) {
+        c.out.multiBulk(withScores ? entries.size() * 2 : entries.size());
+        for (ZSetValue.Entry e : entries) {
+            c.out.bulk(e.member);
+            if (withScores) {
+                c.out.bulk(e.score);
+            }
+        }
+    }
+}
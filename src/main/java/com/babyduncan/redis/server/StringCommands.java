@@ -0,0 +1,433 @@
+package com.babyduncan.redis.server;
+
+import java.util.Arrays;
+
+/**
+ * User: zgh
+ * Date: 26-10-18
+ * Time: 11:15
+ */
+
+/**
+ * String类型的命令，对应StringUsege里的用法。value按byte[]存，SETRANGE/APPEND/SETBIT都是binary safe的。
+ */
+final class StringCommands {
+    private static final int MAX_STRING_LENGTH = 512 * 1024 * 1024;
+
+    private StringCommands() {
+    }
+
+    static void register(CommandTable t) {
+        t.add("GET", 2, StringCommands::get);
+        t.add("SET", -3, StringCommands::set);
+        t.add("SETNX", 3, StringCommands::setnx);
+        t.add("SETEX", 4, StringCommands::setex);
+        t.add("PSETEX", 4, StringCommands::psetex);
+        t.add("GETSET", 3, StringCommands::getset);
+        t.add("MGET", -2, StringCommands::mget);
+        t.add("MSET", -3, StringCommands::mset);
+        t.add("MSETNX", -3, StringCommands::msetnx);
+        t.add("INCR", 2, StringCommands::incr);
+        t.add("DECR", 2, StringCommands::decr);
+        t.add("INCRBY", 3, StringCommands::incrby);
+        t.add("DECRBY", 3, StringCommands::decrby);
+        t.add("APPEND", 3, StringCommands::append);
+        t.add("STRLEN", 2, StringCommands::strlen);
+        t.add("GETRANGE", 4, StringCommands::getrange);
+        t.add("SUBSTR", 4, StringCommands::getrange);
+        t.add("SETRANGE", 4, StringCommands::setrange);
+        t.add("SETBIT", 4, StringCommands::setbit);
+        t.add("GETBIT", 3, StringCommands::getbit);
+        t.add("BITCOUNT", -2, StringCommands::bitcount);
+        t.add("BITOP", -4, StringCommands::bitop);
+    }
+
+    static void get(ClientConnection c, byte[][] argv) {
+        c.out.bulk(c.db.getString(Keys.string(argv[1])));
+    }
+
+    /**
+     * SET key value [EX seconds] [PX milliseconds] [NX|XX]
+     */
+    static void set(ClientConnection c, byte[][] argv) {
+        long expireMillis = -1;
+        boolean nx = false;
+        boolean xx = false;
+        for (int i = 3; i < argv.length; i++) {
+            if (Keys.equalsIgnoreCase(argv[i], "NX") && !xx) {
+                nx = true;
+            } else if (Keys.equalsIgnoreCase(argv[i], "XX") && !nx) {
+                xx = true;
+            } else if ((Keys.equalsIgnoreCase(argv[i], "EX") || Keys.equalsIgnoreCase(argv[i], "PX"))
+                    && i + 1 < argv.length && expireMillis == -1) {
+                long unit = Keys.equalsIgnoreCase(argv[i], "EX") ? 1000 : 1;
+                long ttl = Keys.parseLong(argv[++i]);
+                if (ttl <= 0) {
+                    throw new CommandException("ERR invalid expire time in set");
+                }
+                expireMillis = ttl * unit;
+            } else {
+                throw CommandException.syntax();
+            }
+        }
+        String key = Keys.string(argv[1]);
+        if ((nx || xx) && c.db.exists(key) == nx) {
+            c.out.nil();
+            return;
+        }
+        setGeneric(c, key, argv[2], expireMillis);
+        c.out.ok();
+    }
+
+    static void setnx(ClientConnection c, byte[][] argv) {
+        String key = Keys.string(argv[1]);
+        if (c.db.exists(key)) {
+            c.out.integer(0);
+            return;
+        }
+        setGeneric(c, key, argv[2], -1);
+        c.out.integer(1);
+    }
+
+    static void setex(ClientConnection c, byte[][] argv) {
+        long seconds = Keys.parseLong(argv[2]);
+        if (seconds <= 0) {
+            throw new CommandException("ERR invalid expire time in setex");
+        }
+        setGeneric(c, Keys.string(argv[1]), argv[3], seconds * 1000);
+        c.out.ok();
+    }
+
+    static void psetex(ClientConnection c, byte[][] argv) {
+        long millis = Keys.parseLong(argv[2]);
+        if (millis <= 0) {
+            throw new CommandException("ERR invalid expire time in psetex");
+        }
+        setGeneric(c, Keys.string(argv[1]), argv[3], millis);
+        c.out.ok();
+    }
+
+    private static void setGeneric(ClientConnection c, String key, byte[] value, long expireMillis) {
+        c.db.put(key, value);
+        if (expireMillis > 0) {
+            c.db.setExpire(key, c.server.now() + expireMillis);
+        }
+    }
+
+    static void getset(ClientConnection c, byte[][] argv) {
+        String key = Keys.string(argv[1]);
+        byte[] old = c.db.getString(key);
+        c.db.put(key, argv[2]);
+        c.out.bulk(old);
+    }
+
+    static void mget(ClientConnection c, byte[][] argv) {
+        c.out.multiBulk(argv.length - 1);
+        for (int i = 1; i < argv.length; i++) {
+            Object o = c.db.lookup(Keys.string(argv[i]));
+            // 不是string类型的key也返回nil，MGET从不报错
+            c.out.bulk(o instanceof byte[] ? (byte[]) o : null);
+        }
+    }
+
+    static void mset(ClientConnection c, byte[][] argv) {
+        if (argv.length % 2 == 0) {
+            throw new CommandException("ERR wrong number of arguments for MSET");
+        }
+        for (int i = 1; i < argv.length; i += 2) {
+            c.db.put(Keys.string(argv[i]), argv[i + 1]);
+        }
+        c.out.ok();
+    }
+
+    static void msetnx(ClientConnection c, byte[][] argv) {
+        if (argv.length % 2 == 0) {
+            throw new CommandException("ERR wrong number of arguments for MSETNX");
+        }
+        for (int i = 1; i < argv.length; i += 2) {
+            if (c.db.exists(Keys.string(argv[i]))) {
+                c.out.integer(0);
+                return;
+            }
+        }
+        for (int i = 1; i < argv.length; i += 2) {
+            c.db.put(Keys.string(argv[i]), argv[i + 1]);
+        }
+        c.out.integer(1);
+    }
+
+    static void incr(ClientConnection c, byte[][] argv) {
+        incrDecr(c, argv[1], 1);
+    }
+
+    static void decr(ClientConnection c, byte[][] argv) {
+        incrDecr(c, argv[1], -1);
+    }
+
+    static void incrby(ClientConnection c, byte[][] argv) {
+        incrDecr(c, argv[1], Keys.parseLong(argv[2]));
+    }
+
+    static void decrby(ClientConnection c, byte[][] argv) {
+        long by = Keys.parseLong(argv[2]);
+        if (by == Long.MIN_VALUE) {
+            throw new CommandException("ERR decrement would overflow");
+        }
+        incrDecr(c, argv[1], -by);
+    }
+
+    private static void incrDecr(ClientConnection c, byte[] rawKey, long by) {
+        String key = Keys.string(rawKey);
+        byte[] old = c.db.getString(key);
+        long value = old == null ? 0 : Keys.parseLong(old);
+        if ((by < 0 && value < 0 && by < Long.MIN_VALUE - value)
+                || (by > 0 && value > 0 && by > Long.MAX_VALUE - value)) {
+            throw new CommandException("ERR increment or decrement would overflow");
+        }
+        value += by;
+        c.db.replace(key, Keys.bytes(Long.toString(value)));
+        c.out.integer(value);
+    }
+
+    static void append(ClientConnection c, byte[][] argv) {
+        String key = Keys.string(argv[1]);
+        byte[] old = c.db.getString(key);
+        if (old == null) {
+            c.db.put(key, argv[2]);
+            c.out.integer(argv[2].length);
+            return;
+        }
+        checkLength((long) old.length + argv[2].length);
+        byte[] value = Arrays.copyOf(old, old.length + argv[2].length);
+        System.arraycopy(argv[2], 0, value, old.length, argv[2].length);
+        c.db.replace(key, value);
+        c.out.integer(value.length);
+    }
+
+    static void strlen(ClientConnection c, byte[][] argv) {
+        byte[] value = c.db.getString(Keys.string(argv[1]));
+        c.out.integer(value == null ? 0 : value.length);
+    }
+
+    static void getrange(ClientConnection c, byte[][] argv) {
+        long start = Keys.parseLong(argv[2]);
+        long end = Keys.parseLong(argv[3]);
+        byte[] value = c.db.getString(Keys.string(argv[1]));
+        if (value == null || value.length == 0) {
+            c.out.bulk(new byte[0]);
+            return;
+        }
+        int len = value.length;
+        if (start < 0) {
+            start = len + start;
+        }
+        if (end < 0) {
+            end = len + end;
+        }
+        if (start < 0) {
+            start = 0;
+        }
+        if (end < 0) {
+            end = 0;
+        }
+        if (end >= len) {
+            end = len - 1;
+        }
+        if (start > end) {
+            c.out.bulk(new byte[0]);
+            return;
+        }
+        c.out.bulk(value, (int) start, (int) (end - start + 1));
+    }
+
+    static void setrange(ClientConnection c, byte[][] argv) {
+        long offset = Keys.parseLong(argv[2]);
+        if (offset < 0) {
+            throw new CommandException("ERR offset is out of range");
+        }
+        String key = Keys.string(argv[1]);
+        byte[] patch = argv[3];
+        byte[] old = c.db.getString(key);
+        if (patch.length == 0) {
+            c.out.integer(old == null ? 0 : old.length);
+            return;
+        }
+        checkLength(offset + patch.length);
+        int needed = (int) offset + patch.length;
+        byte[] value = old == null ? new byte[needed] : old.length >= needed ? old : Arrays.copyOf(old, needed);
+        System.arraycopy(patch, 0, value, (int) offset, patch.length);
+        if (old == null) {
+            c.db.put(key, value);
+        } else {
+            c.db.replace(key, value);
+        }
+        c.out.integer(value.length);
+    }
+
+    static void setbit(ClientConnection c, byte[][] argv) {
+        long offset = parseBitOffset(argv[2]);
+        long on = Keys.parseLong(argv[3]);
+        if (on != 0 && on != 1) {
+            throw new CommandException("ERR bit is not an integer or out of range");
+        }
+        String key = Keys.string(argv[1]);
+        byte[] old = c.db.getString(key);
+        int byteIndex = (int) (offset >> 3);
+        byte[] value = old == null ? new byte[byteIndex + 1]
+                : old.length > byteIndex ? old : Arrays.copyOf(old, byteIndex + 1);
+        int mask = 1 << (7 - (int) (offset & 7));
+        int previous = (value[byteIndex] & mask) != 0 ? 1 : 0;
+        if (on == 1) {
+            value[byteIndex] |= mask;
+        } else {
+            value[byteIndex] &= ~mask;
+        }
+        if (old == null) {
+            c.db.put(key, value);
+        } else {
+            c.db.replace(key, value);
+        }
+        c.out.integer(previous);
+    }
+
+    static void getbit(ClientConnection c, byte[][] argv) {
+        long offset = parseBitOffset(argv[2]);
+        byte[] value = c.db.getString(Keys.string(argv[1]));
+        int byteIndex = (int) (offset >> 3);
+        if (value == null || byteIndex >= value.length) {
+            c.out.integer(0);
+            return;
+        }
+        c.out.integer((value[byteIndex] >> (7 - (int) (offset & 7))) & 1);
+    }
+
+    /**
+     * BITCOUNT key [start end]，start/end是字节下标，可以是负数。
+     */
+    static void bitcount(ClientConnection c, byte[][] argv) {
+        if (argv.length != 2 && argv.length != 4) {
+            throw CommandException.syntax();
+        }
+        byte[] value = c.db.getString(Keys.string(argv[1]));
+        if (value == null) {
+            c.out.integer(0);
+            return;
+        }
+        long start = 0;
+        long end = value.length - 1;
+        if (argv.length == 4) {
+            start = Keys.parseLong(argv[2]);
+            end = Keys.parseLong(argv[3]);
+            if (start < 0) {
+                start = Math.max(0, value.length + start);
+            }
+            if (end < 0) {
+                end = Math.max(0, value.length + end);
+            }
+            if (end >= value.length) {
+                end = value.length - 1;
+            }
+        }
+        c.out.integer(start > end ? 0 : popcount(value, (int) start, (int) end + 1));
+    }
+
+    static long popcount(byte[] value, int from, int to) {
+        long count = 0;
+        int i = from;
+        // 8个字节一组拼成long用Long.bitCount，剩下的逐字节算
+        for (; i + 8 <= to; i += 8) {
+            long word = ((long) value[i] & 0xff)
+                    | ((long) value[i + 1] & 0xff) << 8
+                    | ((long) value[i + 2] & 0xff) << 16
+                    | ((long) value[i + 3] & 0xff) << 24
+                    | ((long) value[i + 4] & 0xff) << 32
+                    | ((long) value[i + 5] & 0xff) << 40
+                    | ((long) value[i + 6] & 0xff) << 48
+                    | ((long) value[i + 7] & 0xff) << 56;
+            count += Long.bitCount(word);
+        }
+        for (; i < to; i++) {
+            count += Integer.bitCount(value[i] & 0xff);
+        }
+        return count;
+    }
+
+    /**
+     * BITOP AND|OR|XOR|NOT destkey key [key ...]，短的串按0补齐，返回结果的长度。
+     */
+    static void bitop(ClientConnection c, byte[][] argv) {
+        char op;
+        if (Keys.equalsIgnoreCase(argv[1], "AND")) {
+            op = '&';
+        } else if (Keys.equalsIgnoreCase(argv[1], "OR")) {
+            op = '|';
+        } else if (Keys.equalsIgnoreCase(argv[1], "XOR")) {
+            op = '^';
+        } else if (Keys.equalsIgnoreCase(argv[1], "NOT")) {
+            op = '~';
+        } else {
+            throw CommandException.syntax();
+        }
+        boolean not = op == '~';
+        if (not && argv.length != 4) {
+            throw new CommandException("ERR BITOP NOT must be called with a single source key.");
+        }
+        byte[][] sources = new byte[argv.length - 3][];
+        int maxLen = 0;
+        for (int i = 3; i < argv.length; i++) {
+            byte[] v = c.db.getString(Keys.string(argv[i]));
+            sources[i - 3] = v == null ? new byte[0] : v;
+            maxLen = Math.max(maxLen, sources[i - 3].length);
+        }
+        String dest = Keys.string(argv[2]);
+        if (maxLen == 0) {
+            c.db.remove(dest);
+            c.out.integer(0);
+            return;
+        }
+        byte[] result = new byte[maxLen];
+        for (int j = 0; j < maxLen; j++) {
+            int acc = byteAt(sources[0], j);
+            if (not) {
+                acc = ~acc;
+            } else {
+                for (int k = 1; k < sources.length; k++) {
+                    int b = byteAt(sources[k], j);
+                    if (op == '&') {
+                        acc &= b;
+                    } else if (op == '|') {
+                        acc |= b;
+                    } else {
+                        acc ^= b;
+                    }
+                }
+            }
+            result[j] = (byte) acc;
+        }
+        c.db.put(dest, result);
+        c.out.integer(maxLen);
+    }
+
+    private static int byteAt(byte[] v, int i) {
+        return i < v.length ? v[i] & 0xff : 0;
+    }
+
+    private static long parseBitOffset(byte[] raw) {
+        long offset;
+        try {
+            offset = Keys.parseLong(raw);
+        } catch (CommandException e) {
+            throw new CommandException("ERR bit offset is not an integer or out of range");
+        }
+        if (offset < 0 || (offset >> 3) >= MAX_STRING_LENGTH) {
+            throw new CommandException("ERR bit offset is not an integer or out of range");
+        }
+        return offset;
+    }
+
+    private static void checkLength(long length) {
+        if (length > MAX_STRING_LENGTH) {
+            throw new CommandException("ERR string exceeds maximum allowed size (512MB)");
+        }
+    }
+}
@@ -0,0 +1,157 @@
+package com.babyduncan.redis.server;
+
+import java.util.function.Consumer;
+
+/**
+ * User: zgh
+ * Date: 26-10-18
+ * Time: 20:05
+ */
+
+/**
+ * 分层时间轮，管所有db里带过期时间的key，替代redis那种每100ms随机抽20个key看过没过期的做法。
+ * <p/>
+ * 6层，每层64个槽，第0层一个槽1ms，第n层一个槽64^n ms，一共覆盖2^36ms（两年多），更远的先放在最高层，到时候再往下挪。
+ * key按过期时间和当前时间最高的不同位放到对应的层（和tokio的时间轮一样），越近的越在下层；
+ * 推进时间的时候按层找下一个非空的槽（每层一个long做占用位图，一次numberOfTrailingZeros），
+ * 第0层的槽到期就删key，上层的槽到期就把里面的key按新的时间重新放一遍，自然落到下层。
+ * <p/>
+ * 所以每次推进的开销只和到期的key数有关，和带过期时间的key总数无关：几百万个TTL key，
+ * 没到期的一个都不用看；抽样的做法在过期key很稀疏的时候要一直白抽。
+ * 每个key一个Entry，槽里是双向链表，EXPIRE改时间、PERSIST、DEL都是O(1)摘下来。
+ * <p/>
+ * 只在事件循环线程里访问。
+ */
+final class TimingWheel {
+    private static final int SLOT_BITS = 6;
+    private static final int SLOTS = 1 << SLOT_BITS;
+    static final int LEVELS = 6;
+    // 比最高层的一圈少一个槽，保证超远的key不会落在最高层当前的槽里
+    private static final long MAX_DELAY = (1L << (SLOT_BITS * LEVELS)) - (1L << (SLOT_BITS * (LEVELS - 1)));
+
+    static final class Entry {
+        final Database db;
+        final String key;
+        long when;
+        private Entry prev;
+        private Entry next;
+        private int level = -1;
+        private int slot;
+
+        Entry(Database db, String key, long when) {
+            this.db = db;
+            this.key = key;
+            this.when = when;
+        }
+
+        boolean isScheduled() {
+            return level >= 0;
+        }
+    }
+
+    private final Entry[][] slots = new Entry[LEVELS][SLOTS];
+    private final long[] occupied = new long[LEVELS];
+    private long elapsed;
+    private int size;
+
+    TimingWheel(long now) {
+        this.elapsed = now;
+    }
+
+    int size() {
+        return size;
+    }
+
+    /**
+     * 推进到哪个时间了，比它早的key都已经删掉。
+     */
+    long elapsed() {
+        return elapsed;
+    }
+
+    void schedule(Entry e) {
+        long when = Math.min(Math.max(e.when, elapsed), elapsed + MAX_DELAY);
+        long masked = (elapsed ^ when) | (SLOTS - 1);
+        int level = Math.min((63 - Long.numberOfLeadingZeros(masked)) / SLOT_BITS, LEVELS - 1);
+        int slot = (int) (when >>> (level * SLOT_BITS)) & (SLOTS - 1);
+        e.level = level;
+        e.slot = slot;
+        e.prev = null;
+        e.next = slots[level][slot];
+        if (e.next != null) {
+            e.next.prev = e;
+        }
+        slots[level][slot] = e;
+        occupied[level] |= 1L << slot;
+        size++;
+    }
+
+    void cancel(Entry e) {
+        if (e.level < 0) {
+            return;
+        }
+        if (e.prev != null) {
+            e.prev.next = e.next;
+        } else {
+            slots[e.level][e.slot] = e.next;
+            if (e.next == null) {
+                occupied[e.level] &= ~(1L << e.slot);
+            }
+        }
+        if (e.next != null) {
+            e.next.prev = e.prev;
+        }
+        e.prev = null;
+        e.next = null;
+        e.level = -1;
+        size--;
+    }
+
+    /**
+     * 把过期时间&lt;=now的key交给expire，最多处理大约budget个（一个槽要么整个处理要么不处理）。
+     * 全部处理完返回true，预算用完了返回false，剩下的下次接着来。
+     */
+    boolean advance(long now, int budget, Consumer<Entry> expire) {
+        int fired = 0;
+        while (size > 0) {
+            int level = 0;
+            while (level < LEVELS && occupied[level] == 0) {
+                level++;
+            }
+            long slotRange = 1L << (level * SLOT_BITS);
+            int current = (int) (elapsed >>> (level * SLOT_BITS)) & (SLOTS - 1);
+            int slot = (current + Long.numberOfTrailingZeros(Long.rotateRight(occupied[level], current))) & (SLOTS - 1);
+            long deadline = (elapsed & ~(slotRange * SLOTS - 1)) + slot * slotRange;
+            if (deadline < elapsed) {
+                // 只有最高层会绕回来
+                deadline += slotRange * SLOTS;
+            }
+            if (deadline > now) {
+                break;
+            }
+            if (fired >= budget) {
+                return false;
+            }
+            elapsed = deadline;
+            Entry e = slots[level][slot];
+            slots[level][slot] = null;
+            occupied[level] &= ~(1L << slot);
+            while (e != null) {
+                Entry next = e.next;
+                e.prev = null;
+                e.next = null;
+                e.level = -1;
+                size--;
+                if (e.when <= elapsed) {
+                    fired++;
+                    expire.accept(e);
+                } else {
+                    schedule(e);
+                }
+                e = next;
+            }
+        }
+        elapsed = Math.max(elapsed, now);
+        return true;
+    }
+}
@@ -0,0 +1,81 @@
+package com.babyduncan.redis.server;
+
+import java.util.List;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * User: zgh
+ * Date: 26-10-18
+ * Time: 19:50
+ */
+
+/**
+ * 可以往前拨的时钟，测过期不用真的sleep：
+ * <pre>
+ * VirtualClock clock = new VirtualClock();
+ * EmbeddedRedisServer server = new EmbeddedRedisServer().clock(clock).start();
+ * jedis.setex("k", 3, "v");
+ * clock.advance(3, TimeUnit.SECONDS);   // 返回时k已经被删掉了，DBSIZE/KEYS里也看不到
+ * </pre>
+ * new出来的是停住的，只有advance才会走；{@link #ticking()}跟着系统时间走，advance在上面再加一个偏移，
+ * 给一直在跑的共用server用（{@link LocalRedis}）。
+ * <p/>
+ * advance会让用这个时钟的每个server在事件循环里把到期的key和超时的BLPOP处理完再返回，所以结果是确定的。
+ * 时间只能往前拨。
+ */
+public final class VirtualClock implements ServerClock {
+    private final boolean ticking;
+    private final AtomicLong offset;
+    private final List<EmbeddedRedisServer> servers = new CopyOnWriteArrayList<EmbeddedRedisServer>();
+
+    /**
+     * 停在当前的系统时间。
+     */
+    public VirtualClock() {
+        this(System.currentTimeMillis());
+    }
+
+    public VirtualClock(long startMillis) {
+        this(false, startMillis);
+    }
+
+    private VirtualClock(boolean ticking, long offset) {
+        this.ticking = ticking;
+        this.offset = new AtomicLong(offset);
+    }
+
+    /**
+     * 跟着系统时间走的时钟，advance过的部分一直叠加在上面。
+     */
+    public static VirtualClock ticking() {
+        return new VirtualClock(true, 0);
+    }
+
+    public long currentTimeMillis() {
+        return ticking ? System.currentTimeMillis() + offset.get() : offset.get();
+    }
+
+    public boolean isTicking() {
+        return ticking;
+    }
+
+    public void advance(long amount, TimeUnit unit) {
+        if (amount < 0) {
+            throw new IllegalArgumentException("time only moves forward: " + amount);
+        }
+        offset.addAndGet(unit.toMillis(amount));
+        for (EmbeddedRedisServer server : servers) {
+            server.expireDueKeys();
+        }
+    }
+
+    void attach(EmbeddedRedisServer server) {
+        servers.add(server);
+    }
+
+    void detach(EmbeddedRedisServer server) {
+        servers.remove(server);
+    }
+}
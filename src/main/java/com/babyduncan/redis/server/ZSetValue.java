@@ -0,0 +1,166 @@
+package com.babyduncan.redis.server;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.List;
+import java.util.NavigableSet;
+import java.util.TreeSet;
+
+/**
+ * User: zgh
+ * Date: 26-10-18
+ * Time: 10:26
+ */
+
+/**
+ * sorted set的存储：和redis一样是 dict(member -> score) + 按(score, member)排序的结构。
+ * 分数相同的时候按member的字典序排。
+ */
+final class ZSetValue {
+    final HashMap<String, Double> dict = new HashMap<String, Double>();
+    final TreeSet<Entry> sorted = new TreeSet<Entry>();
+
+    int size() {
+        return dict.size();
+    }
+
+    Double score(String member) {
+        return dict.get(member);
+    }
+
+    /**
+     * @return true 如果是新member
+     */
+    boolean add(String member, double score) {
+        Double old = dict.put(member, score);
+        if (old != null) {
+            sorted.remove(new Entry(old, member));
+        }
+        sorted.add(new Entry(score, member));
+        return old == null;
+    }
+
+    boolean remove(String member) {
+        Double old = dict.remove(member);
+        if (old == null) {
+            return false;
+        }
+        sorted.remove(new Entry(old, member));
+        return true;
+    }
+
+    /**
+     * 从0开始的排名，member不存在返回-1。
+     */
+    int rank(String member) {
+        Double score = dict.get(member);
+        if (score == null) {
+            return -1;
+        }
+        return sorted.headSet(new Entry(score, member), false).size();
+    }
+
+    List<Entry> range(int start, int end, boolean reverse) {
+        List<Entry> result = new ArrayList<Entry>(end - start + 1);
+        Iterator<Entry> it = reverse ? sorted.descendingIterator() : sorted.iterator();
+        for (int i = 0; i <= end && it.hasNext(); i++) {
+            Entry e = it.next();
+            if (i >= start) {
+                result.add(e);
+            }
+        }
+        return result;
+    }
+
+    NavigableSet<Entry> rangeByScore(ScoreRange range) {
+        if (range.isEmpty()) {
+            return new TreeSet<Entry>();
+        }
+        Entry from = new Entry(range.min, range.minExclusive ? Entry.MAX_MEMBER : Entry.MIN_MEMBER);
+        Entry to = new Entry(range.max, range.maxExclusive ? Entry.MIN_MEMBER : Entry.MAX_MEMBER);
+        if (from.compareTo(to) > 0) {
+            return new TreeSet<Entry>();
+        }
+        return sorted.subSet(from, false, to, false);
+    }
+
+    static final class Entry implements Comparable<Entry> {
+        // 两个哨兵member，比所有真实member小/大，用来构造分数区间的边界
+        static final String MIN_MEMBER = new String("");
+        static final String MAX_MEMBER = new String("\uffff");
+
+        final double score;
+        final String member;
+
+        Entry(double score, String member) {
+            this.score = score;
+            this.member = member;
+        }
+
+        public int compareTo(Entry o) {
+            int c = Double.compare(score, o.score);
+            if (c != 0) {
+                return c;
+            }
+            if (member == o.member) {
+                return 0;
+            }
+            if (member == MIN_MEMBER || o.member == MAX_MEMBER) {
+                return -1;
+            }
+            if (member == MAX_MEMBER || o.member == MIN_MEMBER) {
+                return 1;
+            }
+            return member.compareTo(o.member);
+        }
+
+        @Override
+        public boolean equals(Object o) {
+            return o instanceof Entry && compareTo((Entry) o) == 0;
+        }
+
+        @Override
+        public int hashCode() {
+            return member.hashCode() * 31 + Double.valueOf(score).hashCode();
+        }
+    }
+
+    /**
+     * ZRANGEBYSCORE/ZCOUNT的分数区间，"(1.5" 表示开区间，"-inf"/"+inf" 表示无穷。
+     */
+    static final class ScoreRange {
+        final double min;
+        final double max;
+        final boolean minExclusive;
+        final boolean maxExclusive;
+
+        ScoreRange(double min, boolean minExclusive, double max, boolean maxExclusive) {
+            this.min = min;
+            this.max = max;
+            this.minExclusive = minExclusive;
+            this.maxExclusive = maxExclusive;
+        }
+
+        static ScoreRange parse(byte[] min, byte[] max) {
+            boolean minEx = min.length > 0 && min[0] == '(';
+            boolean maxEx = max.length > 0 && max[0] == '(';
+            try {
+                double lo = Keys.parseDouble(minEx ? Arrays.copyOfRange(min, 1, min.length) : min);
+                double hi = Keys.parseDouble(maxEx ? Arrays.copyOfRange(max, 1, max.length) : max);
+                return new ScoreRange(lo, minEx, hi, maxEx);
+            } catch (CommandException e) {
+                throw new CommandException("ERR min or max is not a float");
+            }
+        }
+
+        boolean isEmpty() {
+            return min > max || (min == max && (minExclusive || maxExclusive));
+        }
+
+        boolean contains(double score) {
+            return (minExclusive ? score > min : score >= min) && (maxExclusive ? score < max : score <= max);
+        }
+    }
+}
@@ -0,0 +1,97 @@
+package com.babyduncan.redis.workload;
+
+import java.util.concurrent.ThreadLocalRandom;
+
+/**
+ * User: zgh
+ * Date: 26-10-18
+ * Time: 23:05
+ */
+
+/**
+ * 从 [0, records) 里挑下一个key的编号，多线程共用，内部只用ThreadLocalRandom。
+ * <p/>
+ * uniform：每个key概率一样。
+ * zipfian：按YCSB的ZipfianGenerator（Gray等人的算法）生成排名，排名越靠前越热，
+ * 常数0.99的时候前1%的key大约拿走一半多的请求。再用FNV散列一下排名，
+ * 免得最热的key全挤在wl:*:0、wl:*:1这几个相邻编号上（YCSB里叫scrambled zipfian）。
+ */
+abstract class KeyChooser {
+
+    abstract long next();
+
+    static KeyChooser uniform(final long records) {
+        return new KeyChooser() {
+            long next() {
+                return ThreadLocalRandom.current().nextLong(records);
+            }
+        };
+    }
+
+    static KeyChooser zipfian(long records, double constant) {
+        return new Zipfian(records, constant);
+    }
+
+    static final class Zipfian extends KeyChooser {
+        private final long items;
+        private final double theta;
+        private final double zetan;
+        private final double alpha;
+        private final double eta;
+        private final double half;
+
+        Zipfian(long items, double theta) {
+            if (items < 1) {
+                throw new IllegalArgumentException("records must be positive: " + items);
+            }
+            if (theta <= 0 || theta >= 1) {
+                throw new IllegalArgumentException("zipfian constant must be in (0, 1): " + theta);
+            }
+            this.items = items;
+            this.theta = theta;
+            this.zetan = zeta(items, theta);
+            double zeta2 = zeta(2, theta);
+            this.alpha = 1.0 / (1.0 - theta);
+            this.eta = (1 - Math.pow(2.0 / items, 1 - theta)) / (1 - zeta2 / zetan);
+            this.half = Math.pow(0.5, theta);
+        }
+
+        private static double zeta(long n, double theta) {
+            double sum = 0;
+            for (long i = 1; i <= n; i++) {
+                sum += 1 / Math.pow(i, theta);
+            }
+            return sum;
+        }
+
+        /**
+         * 排名，0最热。
+         */
+        long nextRank() {
+            double u = ThreadLocalRandom.current().nextDouble();
+            double uz = u * zetan;
+            if (uz < 1.0) {
+                return 0;
+            }
+            if (uz < 1.0 + half) {
+                return 1;
+            }
+            long rank = (long) (items * Math.pow(eta * u - eta + 1, alpha));
+            return Math.min(rank, items - 1);
+        }
+
+        long next() {
+            return Math.abs(fnv(nextRank()) % items);
+        }
+
+        private static long fnv(long value) {
+            long hash = 0xCBF29CE484222325L;
+            for (int i = 0; i < 8; i++) {
+                hash ^= value & 0xFF;
+                hash *= 0x100000001B3L;
+                value >>>= 8;
+            }
+            return hash;
+        }
+    }
+}
@@ -0,0 +1,114 @@
+package com.babyduncan.redis.workload;
+
+import redis.clients.jedis.Jedis;
+import redis.clients.jedis.Pipeline;
+
+/**
+ * User: zgh
+ * Date: 26-10-18
+ * Time: 23:20
+ */
+
+/**
+ * 压测里的五种数据类型，每种一个读操作一个写操作，都是Usage类里演示过的命令。
+ * pipeline不是null就往pipeline里发，否则直接用jedis。
+ * <p/>
+ * member取0到99，保证hash/set/zset的大小不会一直涨；list的写是LPUSH再LTRIM到100个，算一个操作。
+ */
+enum OpType {
+    STRING {
+        void read(Jedis j, Pipeline p, String key, int member) {
+            if (p != null) {
+                p.get(key);
+            } else {
+                j.get(key);
+            }
+        }
+
+        void write(Jedis j, Pipeline p, String key, int member, String value) {
+            if (p != null) {
+                p.set(key, value);
+            } else {
+                j.set(key, value);
+            }
+        }
+    },
+    HASH {
+        void read(Jedis j, Pipeline p, String key, int member) {
+            if (p != null) {
+                p.hget(key, "f" + member % 10);
+            } else {
+                j.hget(key, "f" + member % 10);
+            }
+        }
+
+        void write(Jedis j, Pipeline p, String key, int member, String value) {
+            if (p != null) {
+                p.hset(key, "f" + member % 10, value);
+            } else {
+                j.hset(key, "f" + member % 10, value);
+            }
+        }
+    },
+    LIST {
+        void read(Jedis j, Pipeline p, String key, int member) {
+            if (p != null) {
+                p.lrange(key, 0, 9);
+            } else {
+                j.lrange(key, 0, 9);
+            }
+        }
+
+        void write(Jedis j, Pipeline p, String key, int member, String value) {
+            if (p != null) {
+                p.lpush(key, value);
+                p.ltrim(key, 0, 99);
+            } else {
+                j.lpush(key, value);
+                j.ltrim(key, 0, 99);
+            }
+        }
+    },
+    SET {
+        void read(Jedis j, Pipeline p, String key, int member) {
+            if (p != null) {
+                p.sismember(key, "m" + member);
+            } else {
+                j.sismember(key, "m" + member);
+            }
+        }
+
+        void write(Jedis j, Pipeline p, String key, int member, String value) {
+            if (p != null) {
+                p.sadd(key, "m" + member);
+            } else {
+                j.sadd(key, "m" + member);
+            }
+        }
+    },
+    ZSET {
+        void read(Jedis j, Pipeline p, String key, int member) {
+            if (p != null) {
+                p.zrevrange(key, 0, 9);
+            } else {
+                j.zrevrange(key, 0, 9);
+            }
+        }
+
+        void write(Jedis j, Pipeline p, String key, int member, String value) {
+            if (p != null) {
+                p.zincrby(key, 1, "m" + member);
+            } else {
+                j.zincrby(key, 1, "m" + member);
+            }
+        }
+    };
+
+    abstract void read(Jedis j, Pipeline p, String key, int member);
+
+    abstract void write(Jedis j, Pipeline p, String key, int member, String value);
+
+    String key(long n) {
+        return "wl:" + name().toLowerCase() + ":" + n;
+    }
+}
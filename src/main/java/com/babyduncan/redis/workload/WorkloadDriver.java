@@ -0,0 +1,372 @@
+package com.babyduncan.redis.workload;
+
+import com.babyduncan.redis.client.CommandMetrics;
+import com.babyduncan.redis.client.CommandStats;
+import com.babyduncan.redis.client.LatencyHistogram;
+import com.babyduncan.redis.client.RedisConnections;
+import com.babyduncan.redis.server.LocalRedis;
+import redis.clients.jedis.Jedis;
+import redis.clients.jedis.Pipeline;
+import redis.clients.jedis.exceptions.JedisConnectionException;
+import redis.clients.jedis.exceptions.JedisException;
+
+import java.io.PrintStream;
+import java.util.Map;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * User: zgh
+ * Date: 26-10-18
+ * Time: 23:30
+ */
+
+/**
+ * YCSB风格的压测驱动，App.main就是调的它。
+ * <p/>
+ * 先往 wl:&lt;type&gt;:0..records-1 灌一遍数据，然后threads个线程（或虚拟线程）各拿一个连接，
+ * 每次按--mix的权重挑数据类型、按--read-ratio挑读写、按--distribution挑key，
+ * 攒够--pipeline个操作发一次。每个操作的延迟记到读/写两个{@link LatencyHistogram}里，
+ * pipeline的时候一批操作共用这一次往返的时间。
+ * <p/>
+ * 每--interval秒打一行这段时间的吞吐和p50/p99/p99.9，最后打总的。
+ * 用的都是jdk8的api，虚拟线程是反射调Executors.newVirtualThreadPerTaskExecutor，jdk21以下自动退回普通线程。
+ */
+public final class WorkloadDriver {
+    private static final int VALUE_VARIANTS = 16;
+    private static final int LOAD_BATCH = 1000;
+
+    private final WorkloadOptions options;
+    private final PrintStream out;
+    private final KeyChooser keys;
+    private final OpType[] types;
+    private final int[] cumulativeWeights;
+    private final String[] values;
+    private final LatencyHistogram reads = new LatencyHistogram();
+    private final LatencyHistogram writes = new LatencyHistogram();
+    private final LongAdder errors = new LongAdder();
+    private volatile boolean running = true;
+
+    public WorkloadDriver(WorkloadOptions options, PrintStream out) {
+        this.options = options;
+        this.out = out;
+        this.keys = options.zipfian
+                ? KeyChooser.zipfian(options.records, options.zipfianConstant)
+                : KeyChooser.uniform(options.records);
+        this.types = new OpType[options.mix.size()];
+        this.cumulativeWeights = new int[types.length];
+        int i = 0;
+        int sum = 0;
+        for (Map.Entry<OpType, Integer> e : options.mix.entrySet()) {
+            types[i] = e.getKey();
+            sum += e.getValue();
+            cumulativeWeights[i++] = sum;
+        }
+        this.values = new String[VALUE_VARIANTS];
+        for (int v = 0; v < VALUE_VARIANTS; v++) {
+            values[v] = randomValue(options.valueSize);
+        }
+    }
+
+    public Result run() throws InterruptedException {
+        String host = options.host != null ? options.host : LocalRedis.host();
+        int port = options.host != null ? options.port : LocalRedis.port();
+        out.printf("%s:%d %s%n", host, port, options.describe());
+        CommandMetrics metrics = options.perCommand ? new CommandMetrics("workload") : null;
+        RedisConnections connections = RedisConnections.builder()
+                .host(host)
+                .port(port)
+                .maxActive(options.threads)
+                .maxIdle(options.threads)
+                .maxWaitMillis(10000)
+                .metrics(metrics)
+                .build();
+        try {
+            if (options.load) {
+                load(connections);
+            }
+            if (metrics != null) {
+                metrics.reset();
+            }
+            Result result = measure(connections);
+            if (metrics != null) {
+                for (CommandStats.Snapshot s : metrics.snapshot().values()) {
+                    out.println(s);
+                }
+            }
+            return result;
+        } finally {
+            connections.close();
+        }
+    }
+
+    private void load(RedisConnections connections) {
+        long begin = System.nanoTime();
+        RedisConnections.Lease lease = connections.lease();
+        try {
+            Jedis jedis = lease.jedis();
+            Pipeline p = jedis.pipelined();
+            int pending = 0;
+            for (OpType type : types) {
+                for (long n = 0; n < options.records; n++) {
+                    type.write(jedis, p, type.key(n), (int) (n % 100), values[(int) (n % VALUE_VARIANTS)]);
+                    if (++pending == LOAD_BATCH) {
+                        p.sync();
+                        p = jedis.pipelined();
+                        pending = 0;
+                    }
+                }
+            }
+            p.sync();
+        } catch (JedisConnectionException e) {
+            lease.markBroken();
+            throw e;
+        } finally {
+            lease.close();
+        }
+        out.printf("loaded %d keys x %d types in %.0f ms%n",
+                options.records, types.length, (System.nanoTime() - begin) / 1e6);
+    }
+
+    private Result measure(RedisConnections connections) throws InterruptedException {
+        ExecutorService executor = newExecutor();
+        CountDownLatch done = new CountDownLatch(options.threads);
+        for (int t = 0; t < options.threads; t++) {
+            long budget = 0;
+            if (options.operations > 0) {
+                budget = options.operations / options.threads + (t < options.operations % options.threads ? 1 : 0);
+            }
+            executor.execute(new Worker(connections, budget, done));
+        }
+        long begin = System.nanoTime();
+        long intervalNanos = TimeUnit.SECONDS.toNanos(options.intervalSeconds);
+        long deadline = options.operations > 0
+                ? Long.MAX_VALUE : begin + TimeUnit.SECONDS.toNanos(options.durationSeconds);
+        long nextReport = begin + intervalNanos;
+        long lastReport = begin;
+        LatencyHistogram.Snapshot totalReads = LatencyHistogram.Snapshot.empty();
+        LatencyHistogram.Snapshot totalWrites = LatencyHistogram.Snapshot.empty();
+        try {
+            while (true) {
+                long wait = Math.min(nextReport, deadline) - System.nanoTime();
+                boolean finished = done.await(Math.max(wait, 0), TimeUnit.NANOSECONDS);
+                long now = System.nanoTime();
+                if (!finished && now >= deadline) {
+                    running = false;
+                    done.await();
+                    finished = true;
+                    now = System.nanoTime();
+                }
+                if (finished || now >= nextReport) {
+                    LatencyHistogram.Snapshot r = reads.snapshotAndReset();
+                    LatencyHistogram.Snapshot w = writes.snapshotAndReset();
+                    printInterval(now - begin, now - lastReport, r, w);
+                    totalReads = totalReads.merge(r);
+                    totalWrites = totalWrites.merge(w);
+                    lastReport = now;
+                    nextReport += intervalNanos;
+                }
+                if (finished) {
+                    Result result = new Result(now - begin, totalReads, totalWrites, errors.sum());
+                    printSummary(result);
+                    return result;
+                }
+            }
+        } finally {
+            running = false;
+            executor.shutdownNow();
+        }
+    }
+
+    private ExecutorService newExecutor() {
+        if (options.virtual) {
+            try {
+                return (ExecutorService) Executors.class.getMethod("newVirtualThreadPerTaskExecutor").invoke(null);
+            } catch (ReflectiveOperationException | RuntimeException e) {
+                out.printf("virtual threads not available on java %s, using platform threads%n",
+                        System.getProperty("java.version"));
+            }
+        }
+        final AtomicInteger ids = new AtomicInteger();
+        return Executors.newFixedThreadPool(options.threads, new ThreadFactory() {
+            public Thread newThread(Runnable r) {
+                Thread t = new Thread(r, "workload-" + ids.getAndIncrement());
+                t.setDaemon(true);
+                return t;
+            }
+        });
+    }
+
+    private OpType nextType(ThreadLocalRandom random) {
+        if (types.length == 1) {
+            return types[0];
+        }
+        int x = random.nextInt(cumulativeWeights[types.length - 1]);
+        for (int i = 0; i < types.length; i++) {
+            if (x < cumulativeWeights[i]) {
+                return types[i];
+            }
+        }
+        return types[types.length - 1];
+    }
+
+    private void printInterval(long sinceBegin, long elapsed, LatencyHistogram.Snapshot r, LatencyHistogram.Snapshot w) {
+        long ops = r.getCount() + w.getCount();
+        out.printf("[%4ds] %10.0f ops/s | READ %s | WRITE %s%n",
+                TimeUnit.NANOSECONDS.toSeconds(sinceBegin), elapsed == 0 ? 0 : ops * 1e9 / elapsed,
+                percentiles(r), percentiles(w));
+    }
+
+    private static String percentiles(LatencyHistogram.Snapshot s) {
+        return String.format("p50=%.1f p99=%.1f p99.9=%.1f us",
+                s.getValueAtPercentile(50) / 1e3, s.getValueAtPercentile(99) / 1e3, s.getValueAtPercentile(99.9) / 1e3);
+    }
+
+    private void printSummary(Result result) {
+        out.printf("---- %d operations in %.2f s, %.0f ops/s, %d errors ----%n",
+                result.getOperations(), result.getElapsedNanos() / 1e9, result.getThroughput(), result.getErrors());
+        out.printf("%-6s %10s %9s %9s %9s %9s %9s %9s  (us)%n", "", "count", "mean", "p50", "p95", "p99", "p99.9", "max");
+        printRow("READ", result.getReads());
+        printRow("WRITE", result.getWrites());
+        printRow("ALL", result.getReads().merge(result.getWrites()));
+    }
+
+    private void printRow(String name, LatencyHistogram.Snapshot s) {
+        out.printf("%-6s %10d %9.1f %9.1f %9.1f %9.1f %9.1f %9.1f%n", name, s.getCount(), s.getMean() / 1e3,
+                s.getValueAtPercentile(50) / 1e3, s.getValueAtPercentile(95) / 1e3,
+                s.getValueAtPercentile(99) / 1e3, s.getValueAtPercentile(99.9) / 1e3, s.getMax() / 1e3);
+    }
+
+    private static String randomValue(int size) {
+        ThreadLocalRandom random = ThreadLocalRandom.current();
+        StringBuilder sb = new StringBuilder(size);
+        for (int i = 0; i < size; i++) {
+            sb.append((char) ('a' + random.nextInt(26)));
+        }
+        return sb.toString();
+    }
+
+    private final class Worker implements Runnable {
+        private final RedisConnections connections;
+        private final long budget;
+        private final CountDownLatch done;
+        private final OpType[] batchTypes = new OpType[options.pipeline];
+        private final boolean[] batchReads = new boolean[options.pipeline];
+        private final String[] batchKeys = new String[options.pipeline];
+
+        Worker(RedisConnections connections, long budget, CountDownLatch done) {
+            this.connections = connections;
+            this.budget = budget;
+            this.done = done;
+        }
+
+        public void run() {
+            RedisConnections.Lease lease = null;
+            try {
+                lease = connections.lease();
+                long completed = 0;
+                while (running && (budget == 0 || completed < budget)) {
+                    int n = budget == 0 ? options.pipeline : (int) Math.min(options.pipeline, budget - completed);
+                    try {
+                        batch(lease.jedis(), n);
+                    } catch (JedisConnectionException e) {
+                        errors.increment();
+                        lease.markBroken();
+                        lease.close();
+                        lease = connections.lease();
+                    } catch (JedisException e) {
+                        errors.increment();
+                    }
+                    completed += n;
+                }
+            } catch (JedisException e) {
+                errors.increment();
+            } finally {
+                if (lease != null) {
+                    lease.close();
+                }
+                done.countDown();
+            }
+        }
+
+        private void batch(Jedis jedis, int n) {
+            ThreadLocalRandom random = ThreadLocalRandom.current();
+            int readCount = 0;
+            for (int i = 0; i < n; i++) {
+                batchTypes[i] = nextType(random);
+                batchReads[i] = random.nextDouble() < options.readRatio;
+                batchKeys[i] = batchTypes[i].key(keys.next());
+                if (batchReads[i]) {
+                    readCount++;
+                }
+            }
+            long begin = System.nanoTime();
+            Pipeline p = n > 1 ? jedis.pipelined() : null;
+            for (int i = 0; i < n; i++) {
+                int member = random.nextInt(100);
+                if (batchReads[i]) {
+                    batchTypes[i].read(jedis, p, batchKeys[i], member);
+                } else {
+                    batchTypes[i].write(jedis, p, batchKeys[i], member, values[member % VALUE_VARIANTS]);
+                }
+            }
+            if (p != null) {
+                p.sync();
+            }
+            long elapsed = System.nanoTime() - begin;
+            if (readCount > 0) {
+                reads.record(elapsed, readCount);
+            }
+            if (readCount < n) {
+                writes.record(elapsed, n - readCount);
+            }
+        }
+    }
+
+    /**
+     * 一次压测的结果，延迟单位纳秒。
+     */
+    public static final class Result {
+        private final long elapsedNanos;
+        private final LatencyHistogram.Snapshot reads;
+        private final LatencyHistogram.Snapshot writes;
+        private final long errors;
+
+        Result(long elapsedNanos, LatencyHistogram.Snapshot reads, LatencyHistogram.Snapshot writes, long errors) {
+            this.elapsedNanos = elapsedNanos;
+            this.reads = reads;
+            this.writes = writes;
+            this.errors = errors;
+        }
+
+        public long getElapsedNanos() {
+            return elapsedNanos;
+        }
+
+        public long getOperations() {
+            return reads.getCount() + writes.getCount();
+        }
+
+        public double getThroughput() {
+            return elapsedNanos == 0 ? 0 : getOperations() * 1e9 / elapsedNanos;
+        }
+
+        public LatencyHistogram.Snapshot getReads() {
+            return reads;
+        }
+
+        public LatencyHistogram.Snapshot getWrites() {
+            return writes;
+        }
+
+        public long getErrors() {
+            return errors;
+        }
+    }
+}
@@ -0,0 +1,187 @@
+package com.babyduncan.redis.workload;
+
+import java.util.Arrays;
+import java.util.EnumMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * User: zgh
+ * Date: 26-10-18
+ * Time: 23:12
+ */
+
+/**
+ * 压测参数，命令行写成 --name=value，开关类的可以只写 --name。
+ * 没写的都用默认值，见{@link #USAGE}。
+ */
+public final class WorkloadOptions {
+    public static final String USAGE = ""
+            + "usage: java com.babyduncan.App [options]\n"
+            + "  --host=HOST            redis地址，不写就在进程内起一个EmbeddedRedisServer\n"
+            + "  --port=PORT            默认6379（只在指定了host时有用）\n"
+            + "  --threads=N            并发数，默认8\n"
+            + "  --virtual              用虚拟线程跑（需要JDK21+，低版本自动退回普通线程）\n"
+            + "  --duration=SECONDS     跑多久，默认10\n"
+            + "  --operations=N         改成总共跑N个操作，优先于duration\n"
+            + "  --records=N            key空间大小，默认10000\n"
+            + "  --distribution=D       uniform或zipfian，默认uniform\n"
+            + "  --zipfian=C            zipfian常数，默认0.99\n"
+            + "  --read-ratio=R         读操作比例，0到1，默认0.5\n"
+            + "  --mix=T:W,...          数据类型权重，类型有string hash list set zset，默认string:40,hash:20,list:10,set:15,zset:15\n"
+            + "  --value-size=BYTES     写入的value大小，默认100\n"
+            + "  --pipeline=N           每次往返发多少个操作，默认1（不用pipeline）\n"
+            + "  --interval=SECONDS     多久打一行中间结果，默认1\n"
+            + "  --no-load              不预先灌数据\n"
+            + "  --per-command          最后再按命令名（GET、HSET、ZINCRBY……）分别打延迟和字节数\n";
+
+    private static final List<String> NAMES = Arrays.asList("host", "port", "threads", "virtual", "duration",
+            "operations", "records", "distribution", "zipfian", "read-ratio", "mix", "value-size", "pipeline",
+            "interval", "no-load", "per-command");
+
+    String host;
+    int port = 6379;
+    int threads = 8;
+    boolean virtual;
+    int durationSeconds = 10;
+    long operations;
+    long records = 10000;
+    boolean zipfian;
+    double zipfianConstant = 0.99;
+    double readRatio = 0.5;
+    final Map<OpType, Integer> mix = new EnumMap<OpType, Integer>(OpType.class);
+    int valueSize = 100;
+    int pipeline = 1;
+    int intervalSeconds = 1;
+    boolean load = true;
+    boolean perCommand;
+
+    WorkloadOptions() {
+        mix("string:40,hash:20,list:10,set:15,zset:15");
+    }
+
+    /**
+     * 参数不对抛IllegalArgumentException，message里带着哪个参数错了。
+     */
+    public static WorkloadOptions parse(String... args) {
+        WorkloadOptions o = new WorkloadOptions();
+        for (String arg : args) {
+            if (!arg.startsWith("--")) {
+                throw new IllegalArgumentException("unexpected argument: " + arg);
+            }
+            int eq = arg.indexOf('=');
+            String name = eq < 0 ? arg.substring(2) : arg.substring(2, eq);
+            String value = eq < 0 ? null : arg.substring(eq + 1);
+            try {
+                o.set(name, value);
+            } catch (NumberFormatException e) {
+                throw new IllegalArgumentException("bad value for --" + name + ": " + value);
+            }
+        }
+        o.validate();
+        return o;
+    }
+
+    private void set(String name, String value) {
+        if (!NAMES.contains(name)) {
+            throw new IllegalArgumentException("unknown option: --" + name);
+        }
+        if ("virtual".equals(name) && value == null) {
+            virtual = true;
+            return;
+        }
+        if ("no-load".equals(name) && value == null) {
+            load = false;
+            return;
+        }
+        if ("per-command".equals(name) && value == null) {
+            perCommand = true;
+            return;
+        }
+        if (value == null) {
+            throw new IllegalArgumentException("missing value for --" + name);
+        }
+        if ("host".equals(name)) {
+            host = value;
+        } else if ("port".equals(name)) {
+            port = Integer.parseInt(value);
+        } else if ("threads".equals(name)) {
+            threads = Integer.parseInt(value);
+        } else if ("virtual".equals(name)) {
+            virtual = Boolean.parseBoolean(value);
+        } else if ("duration".equals(name)) {
+            durationSeconds = Integer.parseInt(value);
+        } else if ("operations".equals(name)) {
+            operations = Long.parseLong(value);
+        } else if ("records".equals(name)) {
+            records = Long.parseLong(value);
+        } else if ("distribution".equals(name)) {
+            if ("zipfian".equals(value)) {
+                zipfian = true;
+            } else if ("uniform".equals(value)) {
+                zipfian = false;
+            } else {
+                throw new IllegalArgumentException("unknown distribution: " + value);
+            }
+        } else if ("zipfian".equals(name)) {
+            zipfianConstant = Double.parseDouble(value);
+        } else if ("read-ratio".equals(name)) {
+            readRatio = Double.parseDouble(value);
+        } else if ("mix".equals(name)) {
+            mix(value);
+        } else if ("value-size".equals(name)) {
+            valueSize = Integer.parseInt(value);
+        } else if ("pipeline".equals(name)) {
+            pipeline = Integer.parseInt(value);
+        } else if ("interval".equals(name)) {
+            intervalSeconds = Integer.parseInt(value);
+        } else {
+            throw new IllegalArgumentException("unknown option: --" + name);
+        }
+    }
+
+    private void mix(String spec) {
+        mix.clear();
+        for (String part : spec.split(",")) {
+            String[] kv = part.trim().split(":");
+            OpType type;
+            try {
+                type = OpType.valueOf(kv[0].trim().toUpperCase());
+            } catch (IllegalArgumentException e) {
+                throw new IllegalArgumentException("unknown type in --mix: " + kv[0]);
+            }
+            int weight = kv.length > 1 ? Integer.parseInt(kv[1].trim()) : 1;
+            if (weight < 0) {
+                throw new IllegalArgumentException("negative weight in --mix: " + part);
+            }
+            if (weight > 0) {
+                mix.put(type, weight);
+            }
+        }
+    }
+
+    private void validate() {
+        if (threads < 1 || pipeline < 1 || valueSize < 0 || records < 1 || intervalSeconds < 1) {
+            throw new IllegalArgumentException("threads, pipeline, records and interval must be positive");
+        }
+        if (operations <= 0 && durationSeconds < 1) {
+            throw new IllegalArgumentException("need --duration or --operations");
+        }
+        if (readRatio < 0 || readRatio > 1) {
+            throw new IllegalArgumentException("--read-ratio must be in [0, 1]: " + readRatio);
+        }
+        if (mix.isEmpty()) {
+            throw new IllegalArgumentException("--mix has no type with positive weight");
+        }
+        if (zipfian && (zipfianConstant <= 0 || zipfianConstant >= 1)) {
+            throw new IllegalArgumentException("--zipfian must be in (0, 1): " + zipfianConstant);
+        }
+    }
+
+    String describe() {
+        return String.format("threads=%d%s %s records=%d distribution=%s readRatio=%.2f mix=%s valueSize=%d pipeline=%d",
+                threads, virtual ? "(virtual)" : "",
+                operations > 0 ? "operations=" + operations : "duration=" + durationSeconds + "s",
+                records, zipfian ? "zipfian(" + zipfianConstant + ")" : "uniform", readRatio, mix, valueSize, pipeline);
+    }
+}
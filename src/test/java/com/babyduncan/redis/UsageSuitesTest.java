@@ -0,0 +1,33 @@
+package com.babyduncan.redis;
+
+import org.junit.Assert;
+import org.junit.Test;
+import org.junit.experimental.ParallelComputer;
+import org.junit.runner.JUnitCore;
+import org.junit.runner.Result;
+import org.junit.runner.notification.Failure;
+
+/**
+ * User: zgh
+ * Date: 26-10-18
+ * Time: 19:30
+ */
+
+/**
+ * src/main里的Usage类不在surefire扫描的范围里，这里把它们按类、按方法全部并行跑一遍：
+ * 每个方法都在RedisFixture给的独立db里，不应该互相影响，也不应该依赖执行顺序。
+ */
+public class UsageSuitesTest {
+
+    @Test
+    public void usageSuitesPassInParallel() {
+        Result result = JUnitCore.runClasses(new ParallelComputer(true, true),
+                StringUsege.class, HashUsage.class, ListUsage.class, SetUsage.class, SortedsetUsage.class);
+        StringBuilder failures = new StringBuilder();
+        for (Failure failure : result.getFailures()) {
+            failures.append(failure.getTestHeader()).append(": ").append(failure.getMessage()).append('\n');
+        }
+        Assert.assertTrue(failures.toString(), result.wasSuccessful());
+        Assert.assertEquals(62, result.getRunCount());
+    }
+}
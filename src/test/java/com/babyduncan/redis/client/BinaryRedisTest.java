@@ -0,0 +1,135 @@
+package com.babyduncan.redis.client;
+
+import com.babyduncan.redis.fixture.EmbeddedRedisFixture;
+import org.junit.Assert;
+import org.junit.Before;
+import org.junit.ClassRule;
+import org.junit.Rule;
+import org.junit.Test;
+
+import java.nio.ByteBuffer;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * User: zgh
+ * Date: 26-10-18
+ * Time: 19:20
+ */
+public class BinaryRedisTest {
+    @ClassRule
+    @Rule
+    public static final EmbeddedRedisFixture redis = new EmbeddedRedisFixture();
+    private BinaryRedis binary;
+
+    @Before
+    public void setUp() {
+        binary = new BinaryRedis(redis.connections());
+    }
+
+    private static byte[] allBytes() {
+        byte[] bytes = new byte[256];
+        for (int i = 0; i < bytes.length; i++) {
+            bytes[i] = (byte) i;
+        }
+        return bytes;
+    }
+
+    @Test
+    public void valuesAreBinarySafe() {
+        byte[] key = BinaryKeys.key("blob");
+        binary.set(key, allBytes());
+        Assert.assertArrayEquals(allBytes(), binary.get(key));
+        binary.hset(BinaryKeys.key("h"), new byte[]{0, 1}, allBytes());
+        Assert.assertArrayEquals(allBytes(), binary.hget(BinaryKeys.key("h"), new byte[]{0, 1}));
+        binary.rpush(BinaryKeys.key("l"), new byte[]{(byte) 0xff}, new byte[0]);
+        List<byte[]> list = binary.lrange(BinaryKeys.key("l"), 0, -1);
+        Assert.assertArrayEquals(new byte[]{(byte) 0xff}, list.get(0));
+        Assert.assertEquals(0, list.get(1).length);
+    }
+
+    @Test
+    public void byteBufferSliceIsWrittenAsItsRemainingBytes() {
+        ByteBuffer buffer = ByteBuffer.wrap("xxhelloxx".getBytes());
+        buffer.position(2).limit(7);
+        binary.set(BinaryKeys.key("k"), buffer);
+        Assert.assertEquals("hello", binary.getLazy(BinaryKeys.key("k")).asString());
+        Assert.assertEquals(2, buffer.position());
+        Assert.assertEquals("hello", Codecs.UTF8.decode(Codecs.toBytes(binary.get(BinaryKeys.key("k"), Codecs.BYTE_BUFFER))));
+    }
+
+    @Test
+    public void longCodecIsCompatibleWithIncr() {
+        byte[] key = BinaryKeys.key("counter");
+        binary.set(key, 41L, Codecs.LONG);
+        Assert.assertEquals(42L, (long) binary.incrBy(key, 1));
+        Assert.assertEquals(Long.valueOf(42), binary.get(key, Codecs.LONG));
+        Assert.assertEquals(42L, binary.getLazy(key).asLong());
+        binary.mset(BinaryKeys.key("a"), Codecs.encodeLong(-7), BinaryKeys.key("b"), Codecs.encodeLong(0));
+        List<Long> values = binary.mget(Codecs.LONG, BinaryKeys.key("a"), BinaryKeys.key("b"), BinaryKeys.key("c"));
+        Assert.assertEquals(Long.valueOf(-7), values.get(0));
+        Assert.assertEquals(Long.valueOf(0), values.get(1));
+        Assert.assertNull(values.get(2));
+    }
+
+    @Test
+    public void longEncodingRoundTrips() {
+        long[] samples = {0, 1, -1, 9, 10, -10, 123456789, Long.MAX_VALUE, Long.MIN_VALUE, Long.MIN_VALUE + 1};
+        for (long v : samples) {
+            Assert.assertEquals(Long.toString(v), new String(Codecs.encodeLong(v)));
+            Assert.assertEquals(v, Codecs.parseLong(Codecs.encodeLong(v)));
+        }
+        for (String bad : new String[]{"", "-", "1a", "9223372036854775808", "-9223372036854775809"}) {
+            try {
+                Codecs.parseLong(bad.getBytes());
+                Assert.fail(bad);
+            } catch (NumberFormatException expected) {
+            }
+        }
+    }
+
+    @Test
+    public void keysAreEncodedOnce() {
+        BinaryKeys keys = new BinaryKeys(2);
+        byte[] first = keys.get("a");
+        Assert.assertSame(first, keys.get("a"));
+        keys.get("b");
+        keys.get("c");
+        Assert.assertEquals(2, keys.size());
+        Assert.assertNotSame(keys.get("c"), keys.get("c"));
+        Assert.assertArrayEquals("c".getBytes(), keys.get("c"));
+    }
+
+    @Test
+    public void lazyValueDecodesOnce() {
+        LazyValue value = new LazyValue("中文".getBytes(java.nio.charset.StandardCharsets.UTF_8));
+        Assert.assertEquals(6, value.length());
+        Assert.assertSame(value.asString(), value.asString());
+        Assert.assertEquals("中文", value.asString());
+        Assert.assertNull(LazyValue.of(null));
+    }
+
+    @Test
+    public void hashesSetsAndSortedSets() {
+        byte[] h = BinaryKeys.key("hash");
+        Map<byte[], byte[]> hash = new HashMap<byte[], byte[]>();
+        hash.put(BinaryKeys.key("f1"), Codecs.encodeLong(1));
+        hash.put(BinaryKeys.key("f2"), Codecs.encodeLong(2));
+        binary.hmset(h, hash);
+        Assert.assertEquals(2, binary.hgetAll(h).size());
+        Assert.assertArrayEquals(Codecs.encodeLong(2), binary.hmget(h, BinaryKeys.key("f2")).get(0));
+
+        byte[] s = BinaryKeys.key("set");
+        binary.sadd(s, new byte[]{1}, new byte[]{2});
+        Assert.assertTrue(binary.sismember(s, new byte[]{2}));
+        Assert.assertEquals(2, binary.smembers(s).size());
+
+        byte[] z = BinaryKeys.key("zset");
+        binary.zadd(z, 2, new byte[]{'b'});
+        binary.zadd(z, 1, new byte[]{'a'});
+        Assert.assertEquals(0L, (long) binary.zrank(z, new byte[]{'a'}));
+        Assert.assertEquals(3.0, binary.zincrby(z, 1, new byte[]{'b'}), 0);
+        Assert.assertArrayEquals(new byte[]{'b'}, binary.zrevrange(z, 0, 0).iterator().next());
+    }
+}
@@ -0,0 +1,151 @@
+package com.babyduncan.redis.client;
+
+import com.babyduncan.redis.fixture.EmbeddedRedisFixture;
+import org.junit.After;
+import org.junit.Assert;
+import org.junit.Before;
+import org.junit.ClassRule;
+import org.junit.Rule;
+import org.junit.Test;
+import redis.clients.jedis.Jedis;
+import redis.clients.jedis.exceptions.JedisDataException;
+
+import java.util.Random;
+
+/**
+ * User: zgh
+ * Date: 26-10-18
+ * Time: 21:05
+ */
+public class BitmapsTest {
+    @ClassRule
+    @Rule
+    public static final EmbeddedRedisFixture redis = new EmbeddedRedisFixture().maxActive(8);
+    private Bitmaps bitmaps;
+
+    @Before
+    public void setUp() {
+        // 小块，逼着走多段并行的路径
+        bitmaps = new Bitmaps(redis.connections(), 1024, 4);
+    }
+
+    @After
+    public void tearDown() {
+        bitmaps.close();
+    }
+
+    private static byte[] random(int length, long seed) {
+        byte[] bytes = new byte[length];
+        new Random(seed).nextBytes(bytes);
+        return bytes;
+    }
+
+    private static void store(String key, byte[] value) {
+        redis.connections().execute(jedis -> jedis.set(BinaryKeys.encode(key), value));
+    }
+
+    private static byte[] load(String key) {
+        return redis.connections().execute(jedis -> jedis.get(BinaryKeys.encode(key)));
+    }
+
+    private static long count(byte[] bytes) {
+        long n = 0;
+        for (byte b : bytes) {
+            n += Integer.bitCount(b & 0xff);
+        }
+        return n;
+    }
+
+    @Test
+    public void bitcountMatchesTheUsageExample() {
+        redis.connections().execute(jedis -> {
+            jedis.setbit("c", 0, true);
+            return jedis.setbit("c", 20, true);
+        });
+        Assert.assertEquals(2, bitmaps.bitcount("c"));
+        Assert.assertEquals(1, bitmaps.bitcount("c", 0, 0));
+        Assert.assertEquals(1, bitmaps.bitcount("c", -1, -1));
+        Assert.assertEquals(0, bitmaps.bitcount("missing"));
+    }
+
+    @Test
+    public void negativeRangeBeforeTheStartCountsTheFirstByte() {
+        store("short", new byte[]{(byte) 0xff, 1, 3});
+        // BITCOUNT short -10 -5：start和end都算到第0个字节
+        Assert.assertEquals(8, bitmaps.bitcount("short", -10, -5));
+        Assert.assertEquals(11, bitmaps.bitcount("short", -10, -1));
+        Assert.assertEquals(0, bitmaps.bitcount("short", 2, -5));
+    }
+
+    @Test
+    public void bitcountOverManyChunks() {
+        byte[] value = random(100003, 1);
+        store("big", value);
+        Assert.assertEquals(count(value), bitmaps.bitcount("big"));
+        byte[] middle = java.util.Arrays.copyOfRange(value, 5000, 20001);
+        Assert.assertEquals(count(middle), bitmaps.bitcount("big", 5000, 20000));
+        Assert.assertEquals(0, bitmaps.bitcount("big", 200000, -1));
+    }
+
+    @Test
+    public void bitopMatchesByteWiseComputation() {
+        byte[] a = random(30001, 2);
+        byte[] b = random(12345, 3);
+        byte[] c = random(20000, 4);
+        store("a", a);
+        store("b", b);
+        store("c", c);
+        byte[] and = new byte[a.length];
+        byte[] or = new byte[a.length];
+        byte[] xor = new byte[a.length];
+        for (int i = 0; i < a.length; i++) {
+            byte vb = i < b.length ? b[i] : 0;
+            byte vc = i < c.length ? c[i] : 0;
+            and[i] = (byte) (a[i] & vb & vc);
+            or[i] = (byte) (a[i] | vb | vc);
+            xor[i] = (byte) (a[i] ^ vb ^ vc);
+        }
+        Assert.assertEquals(a.length, bitmaps.bitop(Bitmaps.Op.AND, "and", "a", "b", "c"));
+        Assert.assertArrayEquals(and, load("and"));
+        bitmaps.bitop(Bitmaps.Op.OR, "or", "a", "b", "c");
+        Assert.assertArrayEquals(or, load("or"));
+        bitmaps.bitop(Bitmaps.Op.XOR, "xor", "a", "b", "c");
+        Assert.assertArrayEquals(xor, load("xor"));
+        Assert.assertEquals(count(or), bitmaps.bitopCount(Bitmaps.Op.OR, "a", "b", "c"));
+        // a b c and or xor，没有留下临时key
+        Assert.assertEquals(6L, (long) redis.connections().execute(Jedis::dbSize));
+    }
+
+    @Test
+    public void notInPlaceAndEmptyResult() {
+        byte[] a = random(5000, 5);
+        store("a", a);
+        bitmaps.bitop(Bitmaps.Op.NOT, "a", "a");
+        byte[] inverted = load("a");
+        for (int i = 0; i < a.length; i++) {
+            Assert.assertEquals((byte) ~a[i], inverted[i]);
+        }
+        store("dest", new byte[]{1});
+        Assert.assertEquals(0, bitmaps.bitop(Bitmaps.Op.AND, "dest", "missing1", "missing2"));
+        Assert.assertNull(load("dest"));
+    }
+
+    @Test
+    public void wrongTypeKeepsConnectionUsable() {
+        store("a", random(100, 6));
+        redis.connections().execute(jedis -> jedis.lpush("list", "x"));
+        try {
+            bitmaps.bitopCount(Bitmaps.Op.OR, "list", "a");
+            Assert.fail();
+        } catch (JedisDataException expected) {
+        }
+        Assert.assertEquals(count(load("a")), bitmaps.bitcount("a"));
+    }
+
+    @Test
+    public void popcountHandlesUnalignedTails() {
+        byte[] bytes = random(67, 7);
+        Assert.assertEquals(count(bytes), Bitmaps.popcount(bytes, 0, bytes.length));
+        Assert.assertEquals(Integer.bitCount(bytes[3] & 0xff), Bitmaps.popcount(bytes, 3, 4));
+    }
+}
@@ -0,0 +1,58 @@
+package com.babyduncan.redis.client;
+
+import com.babyduncan.redis.fixture.EmbeddedRedisFixture;
+import org.junit.Assert;
+import org.junit.ClassRule;
+import org.junit.Rule;
+import org.junit.Test;
+import redis.clients.jedis.exceptions.JedisDataException;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.stream.Collectors;
+import java.util.stream.IntStream;
+
+/**
+ * User: zgh
+ * Date: 26-10-18
+ * Time: 16:05
+ */
+public class BulkListWriterTest {
+    @ClassRule
+    @Rule
+    public static final EmbeddedRedisFixture redis = new EmbeddedRedisFixture();
+
+    @Test
+    public void pushesInChunksAndAcksEachChunk() {
+        final List<String> acks = new ArrayList<String>();
+        BulkListWriter writer = new BulkListWriter(redis.connections(), 4);
+        BulkListWriter.Result result = writer.push("list", BulkListWriter.Side.RIGHT,
+                IntStream.range(0, 10).mapToObj(Integer::toString),
+                (chunk, size, lengthAfter) -> acks.add(chunk + ":" + size + ":" + lengthAfter));
+        Assert.assertEquals(Arrays.asList("0:4:4", "1:4:8", "2:2:10"), acks);
+        Assert.assertEquals(10, result.getPushed());
+        Assert.assertEquals(3, result.getChunks());
+        Assert.assertEquals(10, result.getFinalLength());
+        List<String> expected = IntStream.range(0, 10).mapToObj(Integer::toString).collect(Collectors.toList());
+        Assert.assertEquals(expected, redis.connections().execute(jedis -> jedis.lrange("list", 0, -1)));
+
+        result = writer.lpush("list", Arrays.asList("a", "b"));
+        Assert.assertEquals(12, result.getFinalLength());
+        Assert.assertEquals("b", redis.connections().execute(jedis -> jedis.lindex("list", 0)));
+    }
+
+    @Test
+    public void emptyInputReportsCurrentLength() {
+        redis.connections().execute(jedis -> jedis.rpush("list", "x", "y"));
+        BulkListWriter.Result result = new BulkListWriter(redis.connections()).rpush("list", new ArrayList<String>());
+        Assert.assertEquals(0, result.getChunks());
+        Assert.assertEquals(2, result.getFinalLength());
+    }
+
+    @Test(expected = JedisDataException.class)
+    public void wrongTypeIsReported() {
+        redis.connections().execute(jedis -> jedis.set("list", "string"));
+        new BulkListWriter(redis.connections()).rpush("list", Arrays.asList("a", "b"));
+    }
+}
@@ -0,0 +1,119 @@
+package com.babyduncan.redis.client;
+
+import com.babyduncan.redis.fixture.EmbeddedRedisFixture;
+import org.junit.Assert;
+import org.junit.Before;
+import org.junit.ClassRule;
+import org.junit.Rule;
+import org.junit.Test;
+
+import java.util.Arrays;
+import java.util.List;
+import java.util.Random;
+
+/**
+ * User: zgh
+ * Date: 26-10-18
+ * Time: 21:40
+ */
+public class CompressingCodecTest {
+    @ClassRule
+    @Rule
+    public static final EmbeddedRedisFixture redis = new EmbeddedRedisFixture();
+    private BinaryRedis binary;
+    private CompressingCodec<String> codec;
+
+    @Before
+    public void setUp() {
+        binary = new BinaryRedis(redis.connections());
+        codec = new CompressingCodec<String>(Codecs.UTF8);
+    }
+
+    private static String json(int records) {
+        StringBuilder sb = new StringBuilder("[");
+        for (int i = 0; i < records; i++) {
+            sb.append(i == 0 ? "" : ",").append("{\"id\":").append(i)
+                    .append(",\"name\":\"user-").append(i).append("\",\"city\":\"beijing\",\"active\":true}");
+        }
+        return sb.append(']').toString();
+    }
+
+    @Test
+    public void smallValuesAreStoredAsIs() {
+        byte[] stored = codec.encode("hello");
+        Assert.assertEquals("hello", Codecs.UTF8.decode(stored));
+        Assert.assertEquals("hello", codec.decode(stored));
+        Assert.assertEquals(0, codec.getCompressed());
+    }
+
+    @Test
+    public void largeValuesRoundTripCompressed() {
+        String value = json(200);
+        byte[] stored = codec.encode(value);
+        Assert.assertEquals(CompressingCodec.COMPRESSED, stored[0]);
+        Assert.assertTrue(stored.length * 4 < value.length());
+        Assert.assertEquals(value, codec.decode(stored));
+        Assert.assertEquals(1, codec.getCompressed());
+        Assert.assertEquals(1, codec.getDecompressed());
+        Assert.assertTrue(codec.getCompressionRatio() > 4);
+        Assert.assertTrue(codec.getEncodeNanos() > 0);
+        Assert.assertTrue(codec.getDecodeNanos() > 0);
+    }
+
+    @Test
+    public void incompressibleValuesStayRaw() {
+        CompressingCodec<byte[]> bytes = new CompressingCodec<byte[]>(Codecs.BYTES, 16, 1);
+        byte[] random = new byte[4096];
+        new Random(7).nextBytes(random);
+        random[0] = 1;
+        byte[] stored = bytes.encode(random);
+        Assert.assertSame(random, stored);
+        Assert.assertEquals(0, bytes.getCompressed());
+        Assert.assertArrayEquals(random, bytes.decode(stored));
+    }
+
+    @Test
+    public void valuesStartingWithMarkerBytesAreEscaped() {
+        CompressingCodec<byte[]> bytes = new CompressingCodec<byte[]>(Codecs.BYTES);
+        for (byte marker : new byte[]{CompressingCodec.COMPRESSED, CompressingCodec.ESCAPED}) {
+            byte[] value = {marker, 1, 2, 3};
+            byte[] stored = bytes.encode(value);
+            Assert.assertEquals(CompressingCodec.ESCAPED, stored[0]);
+            Assert.assertArrayEquals(value, bytes.decode(stored));
+        }
+        Assert.assertArrayEquals(new byte[0], bytes.decode(bytes.encode(new byte[0])));
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void corruptValuesAreRejected() {
+        byte[] stored = codec.encode(json(100));
+        codec.decode(Arrays.copyOf(stored, stored.length / 2));
+    }
+
+    @Test
+    public void decodesTransparentlyOnGetHgetAndMget() {
+        String big = json(100);
+        byte[] plain = BinaryKeys.key("plain");
+        byte[] packed = BinaryKeys.key("packed");
+        byte[] hash = BinaryKeys.key("hash");
+        byte[] field = BinaryKeys.key("f");
+        redis.connections().execute(jedis -> jedis.set("plain", "written before the codec"));
+        binary.set(packed, big, codec);
+        binary.hset(hash, field, big, codec);
+
+        Assert.assertTrue(binary.get(packed).length < big.length());
+        Assert.assertEquals(big, binary.get(packed, codec));
+        Assert.assertEquals(big, binary.hget(hash, field, codec));
+        List<String> values = binary.mget(codec, plain, packed, BinaryKeys.key("missing"));
+        Assert.assertEquals(Arrays.asList("written before the codec", big, null), values);
+    }
+
+    @Test
+    public void smallCountersStillIncrement() {
+        CompressingCodec<Long> counter = new CompressingCodec<Long>(Codecs.LONG);
+        byte[] key = BinaryKeys.key("counter");
+        binary.set(key, 41L, counter);
+        redis.connections().execute(jedis -> jedis.incr("counter"));
+        Assert.assertEquals(Long.valueOf(42), binary.get(key, counter));
+    }
+}
@@ -0,0 +1,133 @@
+package com.babyduncan.redis.client;
+
+import com.babyduncan.redis.fixture.EmbeddedRedisFixture;
+import org.junit.Assert;
+import org.junit.ClassRule;
+import org.junit.Rule;
+import org.junit.Test;
+import redis.clients.jedis.exceptions.JedisDataException;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * User: zgh
+ * Date: 26-10-18
+ * Time: 20:10
+ */
+public class CounterAggregatorTest {
+    @ClassRule
+    @Rule
+    public static final EmbeddedRedisFixture redis = new EmbeddedRedisFixture();
+
+    private static String value(String key) {
+        return redis.connections().execute(jedis -> jedis.get(key));
+    }
+
+    @Test
+    public void incrementsAreCombinedIntoOneIncrbyPerKey() {
+        CounterAggregator counters = new CounterAggregator(redis.connections(), 60000, Long.MAX_VALUE, false);
+        for (int i = 0; i < 1000; i++) {
+            counters.incr("hits");
+        }
+        counters.incrBy("bytes", 500);
+        counters.decrBy("bytes", 200);
+        counters.decr("hits");
+        Assert.assertNull(value("hits"));
+        Assert.assertEquals(999, counters.pending("hits"));
+        Assert.assertEquals(2, counters.flush());
+        Assert.assertEquals("999", value("hits"));
+        Assert.assertEquals("300", value("bytes"));
+        Assert.assertEquals(0, counters.pending("hits"));
+        Assert.assertEquals(0, counters.flush());
+        Assert.assertEquals(1003, counters.getIncrements());
+        Assert.assertEquals(2, counters.getCommandsSent());
+        counters.close();
+    }
+
+    @Test
+    public void readYourWritesAddsPendingDelta() {
+        redis.connections().execute(jedis -> jedis.set("views", "10"));
+        CounterAggregator plain = new CounterAggregator(redis.connections(), 60000, Long.MAX_VALUE, false);
+        CounterAggregator ryw = new CounterAggregator(redis.connections(), 60000, Long.MAX_VALUE, true);
+        plain.incrBy("views", 5);
+        ryw.incrBy("views", 5);
+        Assert.assertEquals(10, plain.get("views"));
+        Assert.assertEquals(15, ryw.get("views"));
+        plain.close();
+        ryw.close();
+        Assert.assertEquals("20", value("views"));
+    }
+
+    @Test
+    public void concurrentIncrementsAreNotLost() throws Exception {
+        final CounterAggregator counters = new CounterAggregator(redis.connections(), 1, 1000, false);
+        List<Thread> threads = new ArrayList<Thread>();
+        for (int t = 0; t < 8; t++) {
+            Thread thread = new Thread(() -> {
+                for (int i = 0; i < 20000; i++) {
+                    counters.incr("hot");
+                    if (i % 4 == 0) {
+                        counters.incr("warm");
+                    }
+                }
+            });
+            threads.add(thread);
+            thread.start();
+        }
+        for (Thread t : threads) {
+            t.join();
+        }
+        counters.close();
+        Assert.assertEquals("160000", value("hot"));
+        Assert.assertEquals("40000", value("warm"));
+        Assert.assertTrue(counters.getCommandsSent() < counters.getIncrements());
+    }
+
+    @Test
+    public void incrementsRacingCloseAreFlushedOrRejected() throws Exception {
+        final CounterAggregator counters = new CounterAggregator(redis.connections(), 1, 100, false);
+        final AtomicLong accepted = new AtomicLong();
+        List<Thread> threads = new ArrayList<Thread>();
+        for (int t = 0; t < 8; t++) {
+            Thread thread = new Thread(() -> {
+                try {
+                    while (true) {
+                        counters.incr("racy");
+                        accepted.incrementAndGet();
+                    }
+                } catch (IllegalStateException closed) {
+                    // close()之后被拒绝
+                }
+            });
+            threads.add(thread);
+            thread.start();
+        }
+        Thread.sleep(50);
+        counters.close();
+        for (Thread thread : threads) {
+            thread.join();
+        }
+        Assert.assertEquals(String.valueOf(accepted.get()), value("racy"));
+    }
+
+    @Test
+    public void failedIncrbyKeepsTheDelta() {
+        redis.connections().execute(jedis -> jedis.set("broken", "not a number"));
+        CounterAggregator counters = new CounterAggregator(redis.connections(), 60000, Long.MAX_VALUE, false);
+        counters.incrBy("broken", 3);
+        counters.incrBy("fine", 3);
+        try {
+            counters.flush();
+            Assert.fail();
+        } catch (JedisDataException expected) {
+        }
+        Assert.assertEquals("3", value("fine"));
+        Assert.assertEquals(3, counters.pending("broken"));
+        redis.connections().execute(jedis -> jedis.del("broken"));
+        counters.close();
+        Assert.assertEquals("3", value("broken"));
+        Assert.assertEquals("3", value("fine"));
+    }
+}
@@ -0,0 +1,121 @@
+package com.babyduncan.redis.client;
+
+import com.babyduncan.redis.fixture.EmbeddedRedisFixture;
+import org.junit.Assert;
+import org.junit.BeforeClass;
+import org.junit.ClassRule;
+import org.junit.Rule;
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * User: zgh
+ * Date: 26-10-18
+ * Time: 16:58
+ */
+public class GetCoalescerTest {
+    @ClassRule
+    @Rule
+    public static final EmbeddedRedisFixture redis = new EmbeddedRedisFixture().keepData();
+
+    @BeforeClass
+    public static void seed() {
+        redis.connections().execute(jedis -> {
+            for (int i = 0; i < 100; i++) {
+                jedis.set("key" + i, "value" + i);
+            }
+            return null;
+        });
+    }
+
+    @Test
+    public void concurrentGetsAreBatched() throws Exception {
+        GetCoalescer coalescer = new GetCoalescer(redis.connections(), 32, 2000, 1);
+        List<CompletableFuture<String>> futures = new ArrayList<CompletableFuture<String>>();
+        for (int i = 0; i < 100; i++) {
+            futures.add(coalescer.get("key" + i));
+        }
+        futures.add(coalescer.get("key7"));
+        futures.add(coalescer.get("missing"));
+        for (int i = 0; i < 100; i++) {
+            Assert.assertEquals("value" + i, futures.get(i).get(5, TimeUnit.SECONDS));
+        }
+        Assert.assertEquals("value7", futures.get(100).get(5, TimeUnit.SECONDS));
+        Assert.assertNull(futures.get(101).get(5, TimeUnit.SECONDS));
+        coalescer.close();
+
+        Assert.assertEquals(102, coalescer.getRequests());
+        Assert.assertTrue(coalescer.getBatches() < 102);
+        Assert.assertTrue(coalescer.getMaxBatchSize() <= 32);
+        Assert.assertTrue(coalescer.getAverageBatchSize() > 1);
+        Assert.assertTrue(coalescer.getMaxWaitMicros() >= coalescer.getAverageWaitMicros());
+    }
+
+    @Test
+    public void manyThreadsWithSeveralDispatchers() throws Exception {
+        final GetCoalescer coalescer = new GetCoalescer(redis.connections(), 64, 100, 2);
+        ExecutorService pool = Executors.newFixedThreadPool(16);
+        List<Future<Boolean>> results = new ArrayList<Future<Boolean>>();
+        for (int t = 0; t < 16; t++) {
+            final int offset = t;
+            results.add(pool.submit(() -> {
+                for (int i = 0; i < 200; i++) {
+                    int k = (offset + i) % 100;
+                    if (!("value" + k).equals(coalescer.get("key" + k).get(5, TimeUnit.SECONDS))) {
+                        return false;
+                    }
+                }
+                return true;
+            }));
+        }
+        for (Future<Boolean> f : results) {
+            Assert.assertTrue(f.get());
+        }
+        pool.shutdown();
+        coalescer.close();
+        Assert.assertEquals(16 * 200, coalescer.getRequests());
+    }
+
+    @Test
+    public void getsRacingCloseNeverHang() throws Exception {
+        for (int round = 0; round < 20; round++) {
+            final GetCoalescer coalescer = new GetCoalescer(redis.connections(), 8, 0, 1);
+            ExecutorService pool = Executors.newFixedThreadPool(4);
+            List<Future<List<CompletableFuture<String>>>> callers = new ArrayList<Future<List<CompletableFuture<String>>>>();
+            for (int t = 0; t < 4; t++) {
+                callers.add(pool.submit(() -> {
+                    List<CompletableFuture<String>> futures = new ArrayList<CompletableFuture<String>>();
+                    try {
+                        while (true) {
+                            futures.add(coalescer.get("k"));
+                        }
+                    } catch (IllegalStateException closed) {
+                        return futures;
+                    }
+                }));
+            }
+            Thread.sleep(2);
+            coalescer.close();
+            for (Future<List<CompletableFuture<String>>> caller : callers) {
+                for (CompletableFuture<String> f : caller.get(10, TimeUnit.SECONDS)) {
+                    f.get(10, TimeUnit.SECONDS);
+                }
+            }
+            pool.shutdown();
+        }
+    }
+
+    @Test(expected = IllegalStateException.class)
+    public void closedCoalescerRejectsRequests() {
+        GetCoalescer coalescer = new GetCoalescer(redis.connections());
+        coalescer.close();
+        coalescer.get("key1");
+    }
+}
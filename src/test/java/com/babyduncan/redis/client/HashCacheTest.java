@@ -0,0 +1,271 @@
+package com.babyduncan.redis.client;
+
+import com.babyduncan.redis.fixture.EmbeddedRedisFixture;
+import org.junit.After;
+import org.junit.Assert;
+import org.junit.Before;
+import org.junit.ClassRule;
+import org.junit.Rule;
+import org.junit.Test;
+import redis.clients.jedis.exceptions.JedisDataException;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * User: zgh
+ * Date: 26-10-18
+ * Time: 22:50
+ */
+public class HashCacheTest {
+    @ClassRule
+    @Rule
+    public static final EmbeddedRedisFixture redis = new EmbeddedRedisFixture().maxActive(32);
+    private final Map<String, Map<String, String>> database = new HashMap<String, Map<String, String>>();
+    private final AtomicInteger loads = new AtomicInteger();
+    private HashCache cache;
+
+    @Before
+    public void setUp() {
+        Map<String, String> user = new HashMap<String, String>();
+        user.put("name", "zgh");
+        user.put("city", "beijing");
+        database.put("user:1", user);
+        // 很长的flush间隔，测试里手动flush
+        cache = new HashCache(redis.connections(), key -> {
+            loads.incrementAndGet();
+            return database.get(key);
+        }, 60, 60000, 10000);
+    }
+
+    @After
+    public void tearDown() {
+        cache.close();
+    }
+
+    @Test
+    public void missLoadsAndCaches() {
+        Assert.assertEquals(database.get("user:1"), cache.getAll("user:1"));
+        Assert.assertEquals("beijing", cache.hget("user:1", "city"));
+        Assert.assertEquals(1, loads.get());
+        Assert.assertEquals(1, cache.getMisses());
+        Assert.assertEquals(1, cache.getHits());
+        Assert.assertEquals("zgh", redis.connections().execute(jedis -> jedis.hget("user:1", "name")));
+        long ttl = redis.connections().execute(jedis -> jedis.ttl("user:1"));
+        Assert.assertTrue(ttl > 0 && ttl <= 60);
+
+        Assert.assertTrue(cache.getAll("user:2").isEmpty());
+        Assert.assertNull(cache.hget("user:2", "name"));
+        Assert.assertFalse(redis.connections().execute(jedis -> jedis.exists("user:2")));
+    }
+
+    @Test
+    public void concurrentMissesLoadOnce() throws Exception {
+        final CountDownLatch release = new CountDownLatch(1);
+        final HashCache slow = new HashCache(redis.connections(), key -> {
+            loads.incrementAndGet();
+            release.await();
+            return database.get(key);
+        });
+        int threads = 8;
+        ExecutorService pool = Executors.newFixedThreadPool(threads);
+        try {
+            List<Future<Map<String, String>>> results = new ArrayList<Future<Map<String, String>>>();
+            for (int i = 0; i < threads; i++) {
+                results.add(pool.submit(() -> slow.getAll("user:1")));
+            }
+            long deadline = System.currentTimeMillis() + 5000;
+            while (slow.getSharedLoads() < threads - 1 && System.currentTimeMillis() < deadline) {
+                Thread.sleep(5);
+            }
+            release.countDown();
+            for (Future<Map<String, String>> f : results) {
+                Assert.assertEquals(database.get("user:1"), f.get(5, TimeUnit.SECONDS));
+            }
+            Assert.assertEquals(1, loads.get());
+            Assert.assertEquals(threads - 1, slow.getSharedLoads());
+        } finally {
+            pool.shutdownNow();
+            slow.close();
+        }
+    }
+
+    @Test
+    public void writesRacingCloseAreFlushedOrRejected() throws Exception {
+        // maxPendingFields很小，写的线程不停地触发后台flush，close的时候正好有execute被拒绝
+        final HashCache racy = new HashCache(redis.connections(), key -> database.get(key), 60, 1, 4);
+        final int writers = 8;
+        final AtomicLong[] accepted = new AtomicLong[writers];
+        List<Thread> threads = new ArrayList<Thread>();
+        for (int t = 0; t < writers; t++) {
+            final String key = "racy:" + t;
+            final AtomicLong count = accepted[t] = new AtomicLong();
+            redis.connections().execute(jedis -> jedis.hset(key, "seed", "0"));
+            Thread thread = new Thread(() -> {
+                try {
+                    while (true) {
+                        racy.hset(key, "f" + count.get(), "v");
+                        count.incrementAndGet();
+                    }
+                } catch (IllegalStateException closed) {
+                    // close()之后被拒绝
+                }
+            });
+            threads.add(thread);
+            thread.start();
+        }
+        Thread.sleep(50);
+        racy.close();
+        for (Thread thread : threads) {
+            thread.join();
+        }
+        for (int t = 0; t < writers; t++) {
+            final String key = "racy:" + t;
+            long fields = redis.connections().execute(jedis -> jedis.hlen(key));
+            Assert.assertEquals(accepted[t].get() + 1, fields);
+        }
+    }
+
+    @Test
+    public void loadErrorsReachEveryCallerAndAreRetried() {
+        final AtomicInteger calls = new AtomicInteger();
+        HashCache flaky = new HashCache(redis.connections(), key -> {
+            if (calls.incrementAndGet() == 1) {
+                throw new IOException("database down");
+            }
+            return database.get(key);
+        });
+        try {
+            flaky.getAll("user:1");
+            Assert.fail();
+        } catch (IllegalStateException e) {
+            Assert.assertEquals("database down", e.getCause().getMessage());
+        }
+        Assert.assertEquals("zgh", flaky.hget("user:1", "name"));
+        Assert.assertEquals(1, flaky.getLoadErrors());
+        flaky.close();
+    }
+
+    @Test
+    public void writesAreCoalescedAndFlushedBehind() {
+        cache.getAll("user:1");
+        for (int i = 0; i < 100; i++) {
+            cache.hset("user:1", "visits", String.valueOf(i));
+        }
+        cache.hset("user:1", "city", "shanghai");
+        Assert.assertEquals("99", cache.hget("user:1", "visits"));
+        Assert.assertEquals("shanghai", cache.getAll("user:1").get("city"));
+        Assert.assertNull(redis.connections().execute(jedis -> jedis.hget("user:1", "visits")));
+        Assert.assertEquals(2, cache.getPendingFields());
+
+        Assert.assertEquals(2, cache.flush());
+        Assert.assertEquals("99", redis.connections().execute(jedis -> jedis.hget("user:1", "visits")));
+        Assert.assertEquals("shanghai", redis.connections().execute(jedis -> jedis.hget("user:1", "city")));
+        Assert.assertEquals(101, cache.getWrites());
+        Assert.assertEquals(99, cache.getCoalesced());
+        Assert.assertEquals(0, cache.getPendingFields());
+        Assert.assertTrue(cache.getMaxLagMillis() > 0);
+        Assert.assertEquals(0, cache.flush());
+    }
+
+    @Test
+    public void writesToUncachedKeysAreDropped() {
+        cache.hset("user:1", "city", "shanghai");
+        Assert.assertEquals(0, cache.flush());
+        Assert.assertEquals(1, cache.getFieldsDropped());
+        Assert.assertFalse(redis.connections().execute(jedis -> jedis.exists("user:1")));
+        Assert.assertEquals("beijing", cache.hget("user:1", "city"));
+    }
+
+    @Test
+    public void backgroundFlushAfterMaxPendingFields() throws Exception {
+        HashCache small = new HashCache(redis.connections(), database::get, 60, 60000, 10);
+        try {
+            small.getAll("user:1");
+            for (int i = 0; i < 10; i++) {
+                small.hset("user:1", "f" + i, "v" + i);
+            }
+            long deadline = System.currentTimeMillis() + 5000;
+            while (small.getFieldsFlushed() < 10 && System.currentTimeMillis() < deadline) {
+                Thread.sleep(5);
+            }
+            Assert.assertEquals("v9", redis.connections().execute(jedis -> jedis.hget("user:1", "f9")));
+        } finally {
+            small.close();
+        }
+    }
+
+    @Test
+    public void invalidateDropsPendingWrites() {
+        cache.getAll("user:1");
+        cache.hset("user:1", "city", "shanghai");
+        cache.invalidate("user:1");
+        Assert.assertEquals(0, cache.getPendingFields());
+        Assert.assertEquals("beijing", cache.hget("user:1", "city"));
+        Assert.assertEquals(2, loads.get());
+    }
+
+    @Test
+    public void closeFlushes() {
+        cache.getAll("user:1");
+        cache.hset("user:1", "city", "shanghai");
+        cache.close();
+        Assert.assertEquals("shanghai", redis.connections().execute(jedis -> jedis.hget("user:1", "city")));
+    }
+
+    @Test
+    public void writesStayVisibleWhileTheyAreBeingFlushed() throws Exception {
+        RedisConnections single = RedisConnections.builder().host(redis.server().getHost()).port(redis.server().getPort())
+                .maxActive(1).maxWaitMillis(10000).build();
+        final HashCache slow = new HashCache(single, database::get, 60, 60000, 10000);
+        ExecutorService pool = Executors.newSingleThreadExecutor();
+        try {
+            slow.getAll("user:1");
+            slow.hset("user:1", "city", "shanghai");
+            Future<Integer> flushed;
+            try (RedisConnections.Lease lease = single.lease()) {
+                // 唯一的连接被占着，flush拿到这批写以后卡在借连接上
+                flushed = pool.submit(slow::flush);
+                long deadline = System.currentTimeMillis() + 5000;
+                while (slow.getPendingFields() > 0 && System.currentTimeMillis() < deadline) {
+                    Thread.sleep(5);
+                }
+                Assert.assertEquals(0, slow.getPendingFields());
+                Assert.assertEquals("shanghai", slow.hget("user:1", "city"));
+            }
+            Assert.assertEquals(Integer.valueOf(1), flushed.get(5, TimeUnit.SECONDS));
+            Assert.assertEquals("shanghai", redis.connections().execute(jedis -> jedis.hget("user:1", "city")));
+        } finally {
+            pool.shutdownNow();
+            slow.close();
+            single.close();
+        }
+    }
+
+    @Test
+    public void writeBackErrorsOnlyDropThatKey() {
+        cache.getAll("user:1");
+        redis.connections().execute(jedis -> jedis.set("user:2", "not a hash"));
+        cache.hset("user:2", "name", "x");
+        cache.hset("user:1", "city", "shanghai");
+        try {
+            cache.flush();
+            Assert.fail();
+        } catch (JedisDataException e) {
+            Assert.assertTrue(e.getMessage().contains("user:2"));
+        }
+        Assert.assertEquals("shanghai", redis.connections().execute(jedis -> jedis.hget("user:1", "city")));
+        Assert.assertEquals(0, cache.getPendingFields());
+        Assert.assertEquals(1, cache.getFieldsDropped());
+    }
+}
@@ -0,0 +1,149 @@
+package com.babyduncan.redis.client;
+
+import com.babyduncan.redis.fixture.EmbeddedRedisFixture;
+import org.junit.Assert;
+import org.junit.ClassRule;
+import org.junit.Rule;
+import org.junit.Test;
+
+import java.util.Arrays;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * User: zgh
+ * Date: 26-10-18
+ * Time: 18:20
+ */
+public class HashMapperTest {
+    @ClassRule
+    @Rule
+    public static final EmbeddedRedisFixture redis = new EmbeddedRedisFixture();
+
+    enum Level {
+        BRONZE, GOLD
+    }
+
+    static class User {
+        String name;
+        int age;
+        long score;
+        double ratio;
+        boolean active;
+        Level level;
+        Integer nullable;
+        transient String ignored = "x";
+        static String alsoIgnored = "y";
+    }
+
+    static final class Point {
+        final int x;
+        final int y;
+        final String label;
+
+        Point(int x, int y, String label) {
+            this.x = x;
+            this.y = y;
+            this.label = label;
+        }
+    }
+
+    private static User user(String name, int age) {
+        User u = new User();
+        u.name = name;
+        u.age = age;
+        u.score = 1L << 40;
+        u.ratio = 0.25;
+        u.active = true;
+        u.level = Level.GOLD;
+        return u;
+    }
+
+    @Test
+    public void saveAndLoadWholeObject() {
+        HashMapper<User> mapper = new HashMapper<User>(redis.connections(), User.class);
+        Assert.assertEquals(Arrays.asList("name", "age", "score", "ratio", "active", "level", "nullable"), mapper.getFieldNames());
+        mapper.save("user:1", user("zgh", 30));
+
+        Map<String, String> raw = redis.connections().execute(jedis -> jedis.hgetAll("user:1"));
+        Assert.assertEquals("zgh", raw.get("name"));
+        Assert.assertEquals("GOLD", raw.get("level"));
+        Assert.assertFalse(raw.containsKey("nullable"));
+        Assert.assertFalse(raw.containsKey("ignored"));
+
+        User loaded = mapper.load("user:1");
+        Assert.assertEquals("zgh", loaded.name);
+        Assert.assertEquals(30, loaded.age);
+        Assert.assertEquals(1L << 40, loaded.score);
+        Assert.assertEquals(0.25, loaded.ratio, 0);
+        Assert.assertTrue(loaded.active);
+        Assert.assertEquals(Level.GOLD, loaded.level);
+        Assert.assertNull(loaded.nullable);
+        Assert.assertNull(mapper.load("user:missing"));
+    }
+
+    @Test
+    public void nullFieldsAreRemovedOnSave() {
+        HashMapper<User> mapper = new HashMapper<User>(redis.connections(), User.class);
+        User u = user("zgh", 30);
+        u.nullable = 7;
+        mapper.save("user:1", u);
+        Assert.assertEquals(Integer.valueOf(7), mapper.load("user:1").nullable);
+        u.nullable = null;
+        mapper.save("user:1", u);
+        Assert.assertFalse(redis.connections().execute(jedis -> jedis.hexists("user:1", "nullable")));
+    }
+
+    @Test
+    public void projectionOnlyReadsRequestedFields() {
+        HashMapper<User> mapper = new HashMapper<User>(redis.connections(), User.class);
+        mapper.save("user:1", user("zgh", 30));
+        User partial = mapper.load("user:1", "age", "level");
+        Assert.assertEquals(30, partial.age);
+        Assert.assertEquals(Level.GOLD, partial.level);
+        Assert.assertNull(partial.name);
+        Assert.assertEquals(0, partial.score);
+        Assert.assertNull(mapper.load("user:missing", "age"));
+    }
+
+    @Test
+    public void pipelinedLoadOfManyEntities() {
+        HashMapper<User> mapper = new HashMapper<User>(redis.connections(), User.class);
+        for (int i = 0; i < 5; i++) {
+            mapper.save("user:" + i, user("u" + i, i));
+        }
+        List<User> all = mapper.loadAll(Arrays.asList("user:0", "user:missing", "user:4"));
+        Assert.assertEquals("u0", all.get(0).name);
+        Assert.assertNull(all.get(1));
+        Assert.assertEquals(4, all.get(2).age);
+        List<User> names = mapper.loadAll(Arrays.asList("user:1", "user:2"), "name");
+        Assert.assertEquals("u1", names.get(0).name);
+        Assert.assertEquals(0, names.get(0).age);
+        Assert.assertEquals("u2", names.get(1).name);
+    }
+
+    @Test
+    public void immutableClassesUseTheAllFieldsConstructor() {
+        HashMapper<Point> mapper = new HashMapper<Point>(redis.connections(), Point.class);
+        mapper.save("point", new Point(3, -4, "p"));
+        Point p = mapper.load("point");
+        Assert.assertEquals(3, p.x);
+        Assert.assertEquals(-4, p.y);
+        Assert.assertEquals("p", p.label);
+        Assert.assertEquals(-4, mapper.load("point", "y").y);
+    }
+
+    static class Unsupported {
+        List<String> tags;
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void unsupportedFieldTypesAreRejectedUpFront() {
+        new HashMapper<Unsupported>(redis.connections(), Unsupported.class);
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void unknownProjectionFieldIsRejected() {
+        new HashMapper<User>(redis.connections(), User.class).load("user:1", "nope");
+    }
+}
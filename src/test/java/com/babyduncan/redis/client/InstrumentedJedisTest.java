@@ -0,0 +1,121 @@
+package com.babyduncan.redis.client;
+
+import com.babyduncan.redis.fixture.EmbeddedRedisFixture;
+import org.junit.Assert;
+import org.junit.Before;
+import org.junit.ClassRule;
+import org.junit.Rule;
+import org.junit.Test;
+import redis.clients.jedis.Jedis;
+import redis.clients.jedis.Pipeline;
+import redis.clients.jedis.exceptions.JedisDataException;
+
+import javax.management.MBeanServer;
+import java.lang.management.ManagementFactory;
+import java.util.Map;
+
+/**
+ * User: zgh
+ * Date: 26-10-18
+ * Time: 10:20
+ */
+public class InstrumentedJedisTest {
+    private static final CommandMetrics metrics = new CommandMetrics("test");
+
+    @ClassRule
+    @Rule
+    public static final EmbeddedRedisFixture redis = new EmbeddedRedisFixture().metrics(metrics);
+
+    @Before
+    public void resetMetrics() {
+        metrics.reset();
+        metrics.snapshotAndReset();
+    }
+
+    @Test
+    public void recordsEveryCommandWithRespByteCounts() {
+        redis.connections().execute(jedis -> {
+            Assert.assertTrue(jedis instanceof InstrumentedJedis);
+            jedis.set("foo", "bar");
+            jedis.get("foo");
+            jedis.get("missing");
+            jedis.hset("h", "f", "v");
+            jedis.hgetAll("h");
+            jedis.sadd("a", "1");
+            jedis.sadd("b", "1");
+            jedis.sinter("a", "b");
+            return null;
+        });
+        Map<String, CommandStats.Snapshot> snapshot = metrics.snapshot();
+        CommandStats.Snapshot set = snapshot.get("SET");
+        Assert.assertEquals(1, set.getCalls());
+        // *3\r\n$3\r\nSET\r\n$3\r\nfoo\r\n$3\r\nbar\r\n
+        Assert.assertEquals(31, set.getRequestBytes());
+        // +OK\r\n
+        Assert.assertEquals(5, set.getResponseBytes());
+        CommandStats.Snapshot get = snapshot.get("GET");
+        Assert.assertEquals(2, get.getCalls());
+        // $3\r\nbar\r\n 加上 $-1\r\n
+        Assert.assertEquals(9 + 5, get.getResponseBytes());
+        Assert.assertEquals(1, snapshot.get("HGETALL").getCalls());
+        Assert.assertEquals(1, snapshot.get("SINTER").getCalls());
+        Assert.assertEquals(2, snapshot.get("SADD").getCalls());
+        Assert.assertTrue(get.getLatency().getValueAtPercentile(99.9) > 0);
+        Assert.assertEquals(0, get.getErrors());
+    }
+
+    @Test
+    public void countsErrorsAndPipelinedCommands() {
+        redis.connections().execute(jedis -> {
+            jedis.set("s", "x");
+            try {
+                jedis.lrange("s", 0, -1);
+                Assert.fail();
+            } catch (JedisDataException expected) {
+            }
+            Pipeline p = jedis.pipelined();
+            for (int i = 0; i < 10; i++) {
+                p.incr("n");
+            }
+            p.lpush("s", "boom");
+            p.sync();
+            // 连接还能正常用，队列没错位
+            Assert.assertEquals("x", jedis.get("s"));
+            return null;
+        });
+        Map<String, CommandStats.Snapshot> snapshot = metrics.snapshotAndReset();
+        Assert.assertEquals(1, snapshot.get("LRANGE").getErrors());
+        Assert.assertEquals(10, snapshot.get("INCR").getCalls());
+        Assert.assertEquals(0, snapshot.get("INCR").getErrors());
+        Assert.assertEquals(1, snapshot.get("LPUSH").getErrors());
+        Assert.assertEquals(1, snapshot.get("GET").getCalls());
+        // 拉增量不动累计值
+        Assert.assertEquals(10, metrics.snapshot().get("INCR").getCalls());
+        Assert.assertEquals(0, metrics.snapshotAndReset().get("INCR").getCalls());
+    }
+
+    @Test
+    public void exposesStatsOverJmx() throws Exception {
+        MBeanServer mbeans = ManagementFactory.getPlatformMBeanServer();
+        CommandMetrics jmx = new CommandMetrics("jmx-test").registerMBeans(mbeans);
+        try {
+            Jedis jedis = new InstrumentedJedis(redis.server().getHost(), redis.server().getPort(), 2000, jmx);
+            try {
+                jedis.set("k", "v");
+                jedis.lrange("k2", 0, -1);
+            } finally {
+                jedis.disconnect();
+            }
+            Assert.assertEquals(1L, mbeans.getAttribute(jmx.objectName("SET"), "Calls"));
+            Assert.assertEquals(1L, mbeans.getAttribute(jmx.objectName("LRANGE"), "Calls"));
+            Assert.assertTrue((Double) mbeans.getAttribute(jmx.objectName("LRANGE"), "P999Micros") > 0);
+            mbeans.invoke(jmx.objectName("SET"), "reset", new Object[0], new String[0]);
+            Assert.assertEquals(0L, mbeans.getAttribute(jmx.objectName("SET"), "Calls"));
+            // JMX上reset不动增量
+            Assert.assertEquals(1, jmx.snapshotAndReset().get("SET").getCalls());
+        } finally {
+            jmx.unregisterMBeans();
+        }
+        Assert.assertFalse(mbeans.isRegistered(jmx.objectName("SET")));
+    }
+}
@@ -0,0 +1,220 @@
+package com.babyduncan.redis.client;
+
+import com.babyduncan.redis.fixture.EmbeddedRedisFixture;
+import org.junit.Assert;
+import org.junit.ClassRule;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+import redis.clients.jedis.Jedis;
+import redis.clients.jedis.Pipeline;
+import redis.clients.jedis.Tuple;
+import redis.clients.jedis.exceptions.JedisDataException;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * User: zgh
+ * Date: 26-10-18
+ * Time: 17:55
+ */
+public class KeySpaceSnapshotTest {
+    @ClassRule
+    @Rule
+    public static final EmbeddedRedisFixture redis = new EmbeddedRedisFixture().maxActive(8);
+
+    @Rule
+    public TemporaryFolder folder = new TemporaryFolder();
+
+    @Test
+    public void allTypesRoundTrip() throws IOException {
+        final byte[] binaryKey = {'b', 0, (byte) 0xFF, '\r', '\n'};
+        final byte[] binaryValue = {0, 1, 2, (byte) 0x80, (byte) 0xFE, '\r', '\n'};
+        redis.connections().execute(jedis -> {
+            jedis.set("s", "hello");
+            jedis.set(binaryKey, binaryValue);
+            jedis.setex("ttl", 1000, "expiring");
+            jedis.hset("h", "f1", "v1");
+            jedis.hset("h", "f2", "");
+            jedis.rpush("l", "c", "a", "b", "a");
+            jedis.sadd("set", "x", "y", "z");
+            jedis.zadd("z", 1.5, "one");
+            jedis.zadd("z", 1.5, "same");
+            jedis.zadd("z", -3, "neg");
+            return null;
+        });
+        Map<String, Object> before = contents();
+
+        Path file = folder.getRoot().toPath().resolve("all.snap");
+        KeySpaceSnapshot snapshot = new KeySpaceSnapshot(redis.connections(), 3);
+        KeySpaceSnapshot.Result dumped = snapshot.dump(file);
+        Assert.assertEquals(7, dumped.getKeys());
+        Assert.assertEquals(Files.size(file), dumped.getBytes());
+
+        redis.connections().execute(jedis -> {
+            jedis.flushAll();
+            // 导入会覆盖同名的key，不管原来是什么类型
+            jedis.sadd("h", "stale");
+            return null;
+        });
+        KeySpaceSnapshot.Result restored = snapshot.restore(file, 2);
+        Assert.assertEquals(7, restored.getKeys());
+        Assert.assertEquals(before, contents());
+        Assert.assertArrayEquals(binaryValue, redis.connections().execute(jedis -> jedis.get(binaryKey)));
+        long ttl = redis.connections().execute(jedis -> jedis.ttl("ttl"));
+        Assert.assertTrue("ttl " + ttl, ttl > 990 && ttl <= 1000);
+        Assert.assertEquals(-1L, (long) redis.connections().execute(jedis -> jedis.ttl("s")));
+    }
+
+    private static Map<String, Object> contents() {
+        return redis.connections().execute(jedis -> {
+            Map<String, Object> result = new HashMap<String, Object>();
+            for (String key : jedis.keys("*")) {
+                String type = jedis.type(key);
+                if ("string".equals(type)) {
+                    result.put(key, jedis.get(key));
+                } else if ("hash".equals(type)) {
+                    result.put(key, jedis.hgetAll(key));
+                } else if ("list".equals(type)) {
+                    result.put(key, jedis.lrange(key, 0, -1));
+                } else if ("set".equals(type)) {
+                    result.put(key, jedis.smembers(key));
+                } else {
+                    List<String> z = new ArrayList<String>();
+                    for (Tuple t : jedis.zrangeWithScores(key, 0, -1)) {
+                        z.add(t.getElement() + "=" + t.getScore());
+                    }
+                    result.put(key, z);
+                }
+            }
+            return result;
+        });
+    }
+
+    @Test
+    public void largeKeySpaceAndCollectionsAreChunked() throws IOException {
+        final int keys = 20000;
+        final int big = KeySpaceSnapshot.MAX_ARGS * 3 + 7;
+        redis.connections().execute(jedis -> {
+            Pipeline p = jedis.pipelined();
+            for (int i = 0; i < keys; i++) {
+                p.set("k:" + i, "value-" + i);
+            }
+            for (int i = 0; i < big; i++) {
+                p.rpush("biglist", String.valueOf(i));
+                p.sadd("bigset", String.valueOf(i));
+                p.hset("bighash", "f" + i, String.valueOf(i));
+                p.zadd("bigzset", i, String.valueOf(i));
+            }
+            p.sync();
+            return null;
+        });
+        Path file = folder.getRoot().toPath().resolve("big.snap");
+        KeySpaceSnapshot snapshot = new KeySpaceSnapshot(redis.connections());
+        Assert.assertEquals(keys + 4, snapshot.dump(file).getKeys());
+        redis.connections().execute(Jedis::flushAll);
+        Assert.assertEquals(keys + 4, snapshot.restore(file, 4).getKeys());
+
+        redis.connections().execute(jedis -> {
+            Assert.assertEquals(Long.valueOf(keys + 4), jedis.dbSize());
+            Assert.assertEquals("value-12345", jedis.get("k:12345"));
+            Assert.assertEquals(Long.valueOf(big), jedis.llen("biglist"));
+            Assert.assertEquals(String.valueOf(big - 1), jedis.lindex("biglist", -1));
+            Assert.assertEquals(Long.valueOf(big), jedis.scard("bigset"));
+            Assert.assertEquals(Long.valueOf(big), jedis.hlen("bighash"));
+            Assert.assertEquals(Long.valueOf(big), jedis.zcard("bigzset"));
+            Assert.assertEquals(Long.valueOf(1000), jedis.zrank("bigzset", "1000"));
+            return null;
+        });
+    }
+
+    @Test
+    public void patternLimitsTheDump() throws IOException {
+        redis.connections().execute(jedis -> {
+            jedis.set("keep:1", "a");
+            jedis.set("keep:2", "b");
+            jedis.set("drop:1", "c");
+            return null;
+        });
+        Path file = folder.getRoot().toPath().resolve("pattern.snap");
+        Assert.assertEquals(2, new KeySpaceSnapshot(redis.connections()).dump(file, "keep:*").getKeys());
+        redis.connections().execute(Jedis::flushAll);
+        new KeySpaceSnapshot(redis.connections()).restore(file);
+        Assert.assertEquals(Arrays.asList("a", "b", null),
+                redis.connections().execute(jedis -> jedis.mget("keep:1", "keep:2", "drop:1")));
+    }
+
+    @Test
+    public void emptyKeySpace() throws IOException {
+        Path file = folder.getRoot().toPath().resolve("empty.snap");
+        KeySpaceSnapshot snapshot = new KeySpaceSnapshot(redis.connections());
+        Assert.assertEquals(0, snapshot.dump(file).getKeys());
+        Assert.assertEquals(0, snapshot.restore(file).getKeys());
+    }
+
+    @Test
+    public void failedBatchesDoNotStopTheRest() throws IOException {
+        redis.connections().execute(jedis -> {
+            jedis.zadd("z", 1.5, "m");
+            for (int i = 0; i < 10; i++) {
+                jedis.set("s" + i, "v" + i);
+            }
+            return null;
+        });
+        Path file = folder.getRoot().toPath().resolve("nan.snap");
+        KeySpaceSnapshot snapshot = new KeySpaceSnapshot(redis.connections(), 1);
+        snapshot.dump(file);
+        // 把zset的分数改成NaN，ZADD会报错
+        byte[] bytes = Files.readAllBytes(file);
+        byte[] score = ByteBuffer.allocate(8).putDouble(1.5).array();
+        int at = indexOf(bytes, score);
+        Assert.assertTrue(at > 0);
+        System.arraycopy(ByteBuffer.allocate(8).putDouble(Double.NaN).array(), 0, bytes, at, 8);
+        Files.write(file, bytes);
+        redis.connections().execute(Jedis::flushAll);
+        try {
+            snapshot.restore(file, 2);
+            Assert.fail();
+        } catch (JedisDataException expected) {
+        }
+        for (int i = 0; i < 10; i++) {
+            final String key = "s" + i;
+            Assert.assertEquals("v" + i, redis.connections().execute(jedis -> jedis.get(key)));
+        }
+    }
+
+    private static int indexOf(byte[] bytes, byte[] part) {
+        for (int i = 0; i + part.length <= bytes.length; i++) {
+            if (Arrays.equals(Arrays.copyOfRange(bytes, i, i + part.length), part)) {
+                return i;
+            }
+        }
+        return -1;
+    }
+
+    @Test(expected = IOException.class)
+    public void rejectsOtherFiles() throws IOException {
+        Path file = folder.getRoot().toPath().resolve("other.snap");
+        Files.write(file, "definitely not a snapshot".getBytes(StandardCharsets.UTF_8));
+        new KeySpaceSnapshot(redis.connections()).restore(file);
+    }
+
+    @Test(expected = IOException.class)
+    public void rejectsTruncatedFiles() throws IOException {
+        redis.connections().execute(jedis -> jedis.set("a", "b"));
+        Path file = folder.getRoot().toPath().resolve("truncated.snap");
+        new KeySpaceSnapshot(redis.connections()).dump(file);
+        byte[] bytes = Files.readAllBytes(file);
+        Files.write(file, Arrays.copyOf(bytes, bytes.length - 12));
+        new KeySpaceSnapshot(redis.connections()).restore(file);
+    }
+}
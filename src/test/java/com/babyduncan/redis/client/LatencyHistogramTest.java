@@ -0,0 +1,72 @@
+package com.babyduncan.redis.client;
+
+import org.junit.Assert;
+import org.junit.Test;
+
+import java.util.Arrays;
+import java.util.Random;
+import java.util.concurrent.CountDownLatch;
+
+/**
+ * User: zgh
+ * Date: 26-10-18
+ * Time: 23:50
+ */
+public class LatencyHistogramTest {
+
+    @Test
+    public void indexesAreContiguousAndCoverEveryValue() {
+        int last = -1;
+        for (long v = 0; v < 1 << 20; v++) {
+            int index = LatencyHistogram.index(v);
+            Assert.assertTrue(index == last || index == last + 1);
+            Assert.assertTrue(LatencyHistogram.highestValue(index) >= v);
+            last = index;
+        }
+    }
+
+    @Test
+    public void percentilesWithinOnePointSixPercent() {
+        Random random = new Random(42);
+        long[] values = new long[100000];
+        LatencyHistogram histogram = new LatencyHistogram();
+        for (int i = 0; i < values.length; i++) {
+            values[i] = 1000 + (long) (random.nextDouble() * random.nextDouble() * 50000000);
+            histogram.record(values[i]);
+        }
+        Arrays.sort(values);
+        LatencyHistogram.Snapshot snapshot = histogram.snapshot();
+        Assert.assertEquals(values.length, snapshot.getCount());
+        Assert.assertEquals(values[values.length - 1], snapshot.getMax());
+        for (double p : new double[]{50, 90, 99, 99.9, 100}) {
+            long exact = values[(int) Math.ceil(p / 100 * values.length) - 1];
+            long reported = snapshot.getValueAtPercentile(p);
+            Assert.assertTrue(p + ": " + reported + " vs " + exact, reported >= exact);
+            Assert.assertTrue(p + ": " + reported + " vs " + exact, reported <= exact + exact / 64 + 1);
+        }
+    }
+
+    @Test
+    public void snapshotAndResetSplitsIntervals() throws InterruptedException {
+        final LatencyHistogram histogram = new LatencyHistogram();
+        final CountDownLatch done = new CountDownLatch(4);
+        for (int t = 0; t < 4; t++) {
+            new Thread(new Runnable() {
+                public void run() {
+                    for (int i = 0; i < 100000; i++) {
+                        histogram.record(i);
+                    }
+                    done.countDown();
+                }
+            }).start();
+        }
+        LatencyHistogram.Snapshot total = LatencyHistogram.Snapshot.empty();
+        while (done.getCount() > 0) {
+            total = total.merge(histogram.snapshotAndReset());
+        }
+        total = total.merge(histogram.snapshotAndReset());
+        Assert.assertEquals(400000, total.getCount());
+        Assert.assertEquals(0, histogram.snapshot().getCount());
+        Assert.assertEquals(99999, total.getMax());
+    }
+}
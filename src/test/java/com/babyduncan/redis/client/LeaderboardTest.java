@@ -0,0 +1,167 @@
+package com.babyduncan.redis.client;
+
+import com.babyduncan.redis.fixture.EmbeddedRedisFixture;
+import org.junit.Assert;
+import org.junit.ClassRule;
+import org.junit.Rule;
+import org.junit.Test;
+import redis.clients.jedis.exceptions.JedisDataException;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * User: zgh
+ * Date: 26-10-18
+ * Time: 11:40
+ */
+public class LeaderboardTest {
+    @ClassRule
+    @Rule
+    public static final EmbeddedRedisFixture redis = new EmbeddedRedisFixture();
+
+    private static Double score(String member) {
+        return redis.connections().execute(jedis -> jedis.zscore("board", member));
+    }
+
+    @Test
+    public void deltasAreMergedIntoOneZincrbyPerMember() {
+        Leaderboard board = new Leaderboard(redis.connections(), "board", 60000, 10, 60000);
+        try {
+            for (int i = 0; i < 1000; i++) {
+                board.incrementScore("alice", 1);
+            }
+            board.incrementScore("bob", 50);
+            board.incrementScore("bob", -20);
+            Assert.assertNull(score("alice"));
+            Assert.assertEquals(1000, board.pending("alice"));
+            Assert.assertEquals(2, board.flush());
+            Assert.assertEquals(1000.0, score("alice"), 0);
+            Assert.assertEquals(30.0, score("bob"), 0);
+            Assert.assertEquals(0, board.pending("alice"));
+            Assert.assertEquals(0, board.flush());
+            Assert.assertEquals(1002, board.getUpdates());
+            Assert.assertEquals(2, board.getCommandsSent());
+        } finally {
+            board.close();
+        }
+    }
+
+    @Test
+    public void topIsServedFromCacheUntilRefreshed() {
+        Leaderboard board = new Leaderboard(redis.connections(), "board", 60000, 3, 60000);
+        try {
+            for (int i = 1; i <= 5; i++) {
+                board.incrementScore("p" + i, i * 10);
+            }
+            board.flush();
+            List<Leaderboard.Entry> top = board.top(3);
+            Assert.assertEquals("[0:p5=50.0, 1:p4=40.0, 2:p3=30.0]", top.toString());
+            Assert.assertEquals(2, board.top(2).size());
+
+            redis.connections().execute(jedis -> jedis.zadd("board", 100, "p1"));
+            Assert.assertEquals("p5", board.top(1).get(0).getMember());
+            Assert.assertEquals(2, board.getCacheHits());
+            Assert.assertEquals("p1", board.refresh().get(0).getMember());
+            // 超过topSize直接查
+            Assert.assertEquals(5, board.top(10).size());
+        } finally {
+            board.close();
+        }
+    }
+
+    @Test
+    public void aroundMeReturnsNeighboursAndCachesWindow() throws InterruptedException {
+        Leaderboard board = new Leaderboard(redis.connections(), "board", 60000, 10, 200);
+        try {
+            for (int i = 0; i < 20; i++) {
+                board.incrementScore("p" + i, i);
+            }
+            board.flush();
+            // p10排第9名（0开始），前后各2个
+            List<Leaderboard.Entry> around = board.aroundMe("p10", 2);
+            Assert.assertEquals("[7:p12=12.0, 8:p11=11.0, 9:p10=10.0, 10:p9=9.0, 11:p8=8.0]", around.toString());
+            Assert.assertEquals(0, board.aroundMe("p19", 1).get(0).getRank());
+            Assert.assertEquals(2, board.aroundMe("p19", 1).size());
+            Assert.assertTrue(board.aroundMe("nobody", 3).isEmpty());
+
+            long misses = board.getCacheMisses();
+            Assert.assertEquals(3, board.aroundMe("p10", 1).size());
+            Assert.assertEquals(misses, board.getCacheMisses());
+            Thread.sleep(250);
+            board.aroundMe("p10", 1);
+            Assert.assertEquals(misses + 1, board.getCacheMisses());
+        } finally {
+            board.close();
+        }
+    }
+
+    @Test
+    public void concurrentUpdatesAreNotLost() throws InterruptedException {
+        final Leaderboard board = new Leaderboard(redis.connections(), "board", 1, 10, 60000);
+        List<Thread> threads = new ArrayList<Thread>();
+        for (int t = 0; t < 4; t++) {
+            Thread thread = new Thread(() -> {
+                for (int i = 0; i < 20000; i++) {
+                    board.incrementScore("p" + (i % 7), 1);
+                }
+            });
+            threads.add(thread);
+            thread.start();
+        }
+        for (Thread thread : threads) {
+            thread.join();
+        }
+        board.close();
+        double total = 0;
+        for (int i = 0; i < 7; i++) {
+            total += score("p" + i);
+        }
+        Assert.assertEquals(80000.0, total, 0);
+        Assert.assertTrue(board.getCommandsSent() < board.getUpdates());
+    }
+
+    @Test
+    public void updatesRacingCloseAreFlushedOrRejected() throws InterruptedException {
+        final Leaderboard board = new Leaderboard(redis.connections(), "board", 1, 10, 60000);
+        final AtomicLong accepted = new AtomicLong();
+        List<Thread> threads = new ArrayList<Thread>();
+        for (int t = 0; t < 4; t++) {
+            Thread thread = new Thread(() -> {
+                try {
+                    while (true) {
+                        board.incrementScore("p", 1);
+                        accepted.incrementAndGet();
+                    }
+                } catch (IllegalStateException closed) {
+                    // close()之后被拒绝
+                }
+            });
+            threads.add(thread);
+            thread.start();
+        }
+        Thread.sleep(50);
+        board.close();
+        for (Thread thread : threads) {
+            thread.join();
+        }
+        Assert.assertEquals((double) accepted.get(), score("p"), 0);
+    }
+
+    @Test
+    public void failedZincrbyKeepsDelta() {
+        redis.connections().execute(jedis -> jedis.set("board", "not a zset"));
+        Leaderboard board = new Leaderboard(redis.connections(), "board", 60000, 10, 60000);
+        board.incrementScore("alice", 5);
+        try {
+            board.flush();
+            Assert.fail();
+        } catch (JedisDataException expected) {
+        }
+        Assert.assertEquals(5, board.pending("alice"));
+        redis.connections().execute(jedis -> jedis.del("board"));
+        board.close();
+        Assert.assertEquals(5.0, score("alice"), 0);
+    }
+}
@@ -0,0 +1,155 @@
+package com.babyduncan.redis.client;
+
+import com.babyduncan.redis.fixture.EmbeddedRedisFixture;
+import org.junit.Assert;
+import org.junit.ClassRule;
+import org.junit.Rule;
+import org.junit.Test;
+import redis.clients.jedis.Tuple;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Random;
+import java.util.TreeSet;
+
+/**
+ * User: zgh
+ * Date: 26-10-18
+ * Time: 13:05
+ */
+public class LocalSortedSetTest {
+    @ClassRule
+    @Rule
+    public static final EmbeddedRedisFixture redis = new EmbeddedRedisFixture();
+
+    private static List<String> members(List<Tuple> tuples) {
+        List<String> members = new ArrayList<String>();
+        for (Tuple t : tuples) {
+            members.add(t.getElement());
+        }
+        return members;
+    }
+
+    @Test
+    public void basicCommands() {
+        LocalSortedSet z = new LocalSortedSet();
+        Assert.assertTrue(z.zadd("aaa", 1));
+        Assert.assertTrue(z.zadd("bbb", 1));
+        Assert.assertTrue(z.zadd("ccc", 2));
+        Assert.assertFalse(z.zadd("aaa", 3));
+        Assert.assertEquals("[bbb, ccc, aaa]", members(z.zrangeWithScores(0, -1)).toString());
+        Assert.assertEquals("[aaa, ccc]", members(z.zrevrangeWithScores(0, 1)).toString());
+        Assert.assertEquals(Long.valueOf(2), z.zrank("aaa"));
+        Assert.assertEquals(Long.valueOf(0), z.zrevrank("aaa"));
+        Assert.assertNull(z.zrank("zzz"));
+        Assert.assertEquals(12.5, z.zincrby("bbb", 11.5), 0);
+        Assert.assertEquals(5.0, z.zincrby("ddd", 5), 0);
+        Assert.assertEquals(Long.valueOf(3), z.zrank("bbb"));
+        Assert.assertEquals(3, z.zcount(2, 10));
+        Assert.assertEquals(2, z.zcount(2, true, 5, false));
+        Assert.assertEquals(1, z.zcount(2, true, 5, true));
+        Assert.assertEquals("[aaa, ddd]", members(z.zrangeByScoreWithScores(2, true, 100, false, 0, 2)).toString());
+        Assert.assertTrue(z.zrem("ccc"));
+        Assert.assertFalse(z.zrem("ccc"));
+        Assert.assertNull(z.zscore("ccc"));
+        Assert.assertEquals(3, z.zcard());
+        Assert.assertEquals(0, z.zcount(100, 200));
+        Assert.assertTrue(z.zrangeWithScores(5, 10).isEmpty());
+    }
+
+    /**
+     * 随机增删改，和TreeSet暴力算的结果对比。
+     */
+    @Test
+    public void matchesNaiveModel() {
+        Random random = new Random(7);
+        LocalSortedSet z = new LocalSortedSet();
+        Map<String, Double> scores = new HashMap<String, Double>();
+        for (int round = 0; round < 20000; round++) {
+            String member = "m" + random.nextInt(500);
+            int op = random.nextInt(10);
+            if (op < 5) {
+                double score = random.nextInt(100);
+                z.zadd(member, score);
+                scores.put(member, score);
+            } else if (op < 8) {
+                double after = z.zincrby(member, random.nextInt(21) - 10);
+                scores.put(member, after);
+            } else {
+                Assert.assertEquals(scores.remove(member) != null, z.zrem(member));
+            }
+            if (round % 500 == 0) {
+                TreeSet<Tuple> model = new TreeSet<Tuple>((a, b) -> {
+                    int c = Double.compare(a.getScore(), b.getScore());
+                    return c != 0 ? c : a.getElement().compareTo(b.getElement());
+                });
+                for (Map.Entry<String, Double> e : scores.entrySet()) {
+                    model.add(new Tuple(e.getKey(), e.getValue()));
+                }
+                List<Tuple> expected = new ArrayList<Tuple>(model);
+                Assert.assertEquals(members(expected), members(z.zrangeWithScores(0, -1)));
+                Assert.assertEquals(expected.size(), z.zcard());
+                for (int i = 0; i < expected.size(); i++) {
+                    Assert.assertEquals(Long.valueOf(i), z.zrank(expected.get(i).getElement()));
+                }
+                double lo = random.nextInt(100) - 10;
+                double hi = lo + random.nextInt(40);
+                long count = 0;
+                for (Tuple t : expected) {
+                    if (t.getScore() >= lo && t.getScore() <= hi) {
+                        count++;
+                    }
+                }
+                Assert.assertEquals(count, z.zcount(lo, hi));
+                Assert.assertEquals(count, z.zrangeByScoreWithScores(lo, hi).size());
+            }
+        }
+    }
+
+    @Test
+    public void loadsSnapshotAndAgreesWithServer() {
+        redis.connections().execute(jedis -> {
+            for (int i = 0; i < 1000; i++) {
+                jedis.zadd("scores", i % 97, "player:" + i);
+            }
+            return null;
+        });
+        LocalSortedSet z = LocalSortedSet.load(redis.connections(), "scores");
+        Assert.assertEquals(1000, z.zcard());
+        redis.connections().execute(jedis -> {
+            for (int i = 0; i < 1000; i += 37) {
+                String member = "player:" + i;
+                Assert.assertEquals(jedis.zrank("scores", member), z.zrank(member));
+                Assert.assertEquals(jedis.zrevrank("scores", member), z.zrevrank(member));
+                Assert.assertEquals(jedis.zscore("scores", member), z.zscore(member));
+            }
+            Assert.assertEquals(jedis.zcount("scores", 10, 20).longValue(), z.zcount(10, 20));
+            Assert.assertEquals(new ArrayList<String>(jedis.zrangeByScore("scores", 50, 51)),
+                    members(z.zrangeByScoreWithScores(50, 51)));
+            // 增量同步
+            jedis.zincrby("scores", 1000, "player:5");
+            z.zincrby("player:5", 1000);
+            Assert.assertEquals(jedis.zrank("scores", "player:5"), z.zrank("player:5"));
+            return null;
+        });
+        Assert.assertTrue(LocalSortedSet.load(redis.connections(), "missing").zrangeWithScores(0, -1).isEmpty());
+    }
+
+    @Test
+    public void negativeZeroIsTheSameScoreAsZero() {
+        LocalSortedSet z = new LocalSortedSet();
+        Assert.assertTrue(z.zadd("m", 0.0));
+        Assert.assertFalse(z.zadd("m", -0.0));
+        z.zadd("n", -0.0);
+        z.zincrby("o", -0.0);
+        Assert.assertEquals(Long.valueOf(0), z.zrank("m"));
+        Assert.assertEquals(0.0, z.zscore("n"), 0);
+        Assert.assertEquals(3, z.zcount(0, 0));
+        Assert.assertTrue(z.zrem("m"));
+        Assert.assertTrue(z.zrem("n"));
+        Assert.assertTrue(z.zrem("o"));
+        Assert.assertEquals(0, z.zcard());
+    }
+}
@@ -0,0 +1,101 @@
+package com.babyduncan.redis.client;
+
+import com.babyduncan.redis.fixture.EmbeddedRedisFixture;
+import org.junit.Assert;
+import org.junit.Before;
+import org.junit.ClassRule;
+import org.junit.Rule;
+import org.junit.Test;
+
+import java.util.Arrays;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * User: zgh
+ * Date: 26-10-18
+ * Time: 17:35
+ */
+public class NearCacheTest {
+    @ClassRule
+    @Rule
+    public static final EmbeddedRedisFixture redis = new EmbeddedRedisFixture();
+    private final AtomicLong clock = new AtomicLong();
+    private NearCache cache;
+
+    @Before
+    public void setUp() {
+        cache = new NearCache(redis.connections(), 100, 10000, clock::get);
+    }
+
+    private void advanceMillis(long millis) {
+        clock.addAndGet(TimeUnit.MILLISECONDS.toNanos(millis));
+    }
+
+    @Test
+    public void repeatedReadsAreServedLocally() {
+        cache.set("foo", "bar");
+        Assert.assertEquals("bar", cache.get("foo"));
+        // 绕过缓存改掉redis里的值，本地在maxTtl之前还是旧的
+        redis.connections().execute(jedis -> jedis.set("foo", "changed"));
+        Assert.assertEquals("bar", cache.get("foo"));
+        Assert.assertEquals(1, cache.getHits());
+        Assert.assertEquals(1, cache.getMisses());
+        advanceMillis(10001);
+        Assert.assertEquals("changed", cache.get("foo"));
+        Assert.assertEquals(1, cache.getExpirations());
+        Assert.assertEquals(0.5, cache.getHitRatio(), 0.2);
+    }
+
+    @Test
+    public void writesInvalidateTheLocalEntry() {
+        cache.set("n", "1");
+        Assert.assertEquals("1", cache.get("n"));
+        Assert.assertEquals(2L, (long) cache.incr("n"));
+        Assert.assertEquals("2", cache.get("n"));
+        cache.append("n", "0");
+        Assert.assertEquals("20", cache.get("n"));
+        cache.setrange("n", 0, "3");
+        Assert.assertEquals("30", cache.get("n"));
+        cache.setex("n", 100, "x");
+        Assert.assertEquals("x", cache.get("n"));
+        cache.del("n");
+        Assert.assertNull(cache.get("n"));
+        Assert.assertEquals(0, cache.getHits());
+        Assert.assertTrue(cache.getInvalidations() >= 5);
+    }
+
+    @Test
+    public void localExpiryFollowsSetexTtl() {
+        cache.setex("session", 2, "token");
+        Assert.assertEquals("token", cache.get("session"));
+        advanceMillis(1500);
+        Assert.assertEquals("token", cache.get("session"));
+        advanceMillis(600);
+        redis.connections().execute(jedis -> jedis.del("session"));
+        Assert.assertNull(cache.get("session"));
+        Assert.assertEquals(1, cache.getExpirations());
+    }
+
+    @Test
+    public void mgetMixesHitsAndMisses() {
+        redis.connections().execute(jedis -> jedis.mset("a", "1", "b", "2", "c", "3"));
+        Assert.assertEquals("1", cache.get("a"));
+        Assert.assertEquals(Arrays.asList("1", "2", null, "3"), cache.mget("a", "b", "missing", "c"));
+        Assert.assertEquals(1, cache.getHits());
+        Assert.assertEquals(4, cache.getMisses());
+        Assert.assertEquals(Arrays.asList("1", "2", "3"), cache.mget("a", "b", "c"));
+        Assert.assertEquals(4, cache.getHits());
+    }
+
+    @Test
+    public void sizeIsBoundedWithLruEviction() {
+        cache = new NearCache(redis.connections(), 16, 10000, clock::get);
+        for (int i = 0; i < 40; i++) {
+            cache.set("k" + i, "v" + i);
+            cache.get("k" + i);
+        }
+        Assert.assertTrue(cache.size() <= 16);
+        Assert.assertEquals(40 - cache.size(), cache.getEvictions());
+    }
+}
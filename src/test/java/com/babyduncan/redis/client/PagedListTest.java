@@ -0,0 +1,80 @@
+package com.babyduncan.redis.client;
+
+import com.babyduncan.redis.fixture.EmbeddedRedisFixture;
+import org.junit.Assert;
+import org.junit.BeforeClass;
+import org.junit.ClassRule;
+import org.junit.Rule;
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Spliterator;
+import java.util.concurrent.Executors;
+import java.util.stream.Collectors;
+import java.util.stream.IntStream;
+
+/**
+ * User: zgh
+ * Date: 26-10-18
+ * Time: 21:50
+ */
+public class PagedListTest {
+    private static final int SIZE = 10007;
+
+    @ClassRule
+    @Rule
+    public static final EmbeddedRedisFixture redis = new EmbeddedRedisFixture().maxActive(16).keepData();
+    private static List<String> expected;
+
+    @BeforeClass
+    public static void seed() {
+        expected = IntStream.range(0, SIZE).mapToObj(Integer::toString).collect(Collectors.toList());
+        new BulkListWriter(redis.connections()).rpush("big", expected);
+    }
+
+    @Test
+    public void iteratesAllWindowsInOrder() {
+        List<String> seen = new ArrayList<String>();
+        for (String s : new PagedList(redis.connections(), "big", 100, Executors.newSingleThreadExecutor())) {
+            seen.add(s);
+        }
+        Assert.assertEquals(expected, seen);
+        Assert.assertEquals(expected, new PagedList(redis.connections(), "big").stream().collect(Collectors.toList()));
+    }
+
+    @Test
+    public void parallelStreamSplitsOnWindows() {
+        PagedList list = new PagedList(redis.connections(), "big", 128, Executors.newCachedThreadPool());
+        Assert.assertEquals(SIZE, list.parallelStream().count());
+        long sum = list.parallelStream().mapToLong(Long::parseLong).sum();
+        Assert.assertEquals((long) SIZE * (SIZE - 1) / 2, sum);
+        Assert.assertEquals(expected, list.parallelStream().collect(Collectors.toList()));
+
+        Spliterator<String> right = list.spliterator();
+        Spliterator<String> left = right.trySplit();
+        Assert.assertNotNull(left);
+        Assert.assertEquals(0, left.estimateSize() % 128);
+        Assert.assertEquals(SIZE, left.estimateSize() + right.estimateSize());
+    }
+
+    @Test
+    public void emptyAndMissingLists() {
+        Assert.assertFalse(new PagedList(redis.connections(), "missing").iterator().hasNext());
+        Assert.assertNull(new PagedList(redis.connections(), "missing").spliterator().trySplit());
+    }
+
+    @Test
+    public void stopsEarlyWhenListShrinks() {
+        redis.connections().execute(jedis -> jedis.rpush("shrinking", "a", "b", "c", "d", "e"));
+        Iterator<String> it = new PagedList(redis.connections(), "shrinking", 2, Runnable::run).iterator();
+        Assert.assertEquals("a", it.next());
+        redis.connections().execute(jedis -> jedis.ltrim("shrinking", 0, 1));
+        List<String> rest = new ArrayList<String>();
+        it.forEachRemaining(rest::add);
+        // 第二个窗口在取第一个窗口时已经同步预取了（Runnable::run），之后的窗口为空
+        Assert.assertEquals("b", rest.get(0));
+        Assert.assertTrue(rest.size() <= 3);
+    }
+}
@@ -0,0 +1,144 @@
+package com.babyduncan.redis.client;
+
+import com.babyduncan.redis.fixture.EmbeddedRedisFixture;
+import org.junit.Assert;
+import org.junit.Before;
+import org.junit.ClassRule;
+import org.junit.Rule;
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * User: zgh
+ * Date: 26-10-18
+ * Time: 00:55
+ */
+public class RateLimiterTest {
+    @ClassRule
+    @Rule
+    public static final EmbeddedRedisFixture redis = new EmbeddedRedisFixture().maxActive(16);
+    private final AtomicLong now = new AtomicLong(1000000);
+
+    @Before
+    public void setUp() {
+    }
+
+    private RateLimiter.Builder limiter(RateLimiter.Mode mode, int limit) {
+        return RateLimiter.builder().connections(redis.connections()).mode(mode).limit(limit)
+                .window(1, TimeUnit.SECONDS).clock(now::get);
+    }
+
+    private static int allowed(RateLimiter limiter, String id, int tries) {
+        int n = 0;
+        for (int i = 0; i < tries; i++) {
+            if (limiter.tryAcquire(id)) {
+                n++;
+            }
+        }
+        return n;
+    }
+
+    @Test
+    public void fixedWindow() {
+        RateLimiter limiter = limiter(RateLimiter.Mode.FIXED_WINDOW, 5).build();
+        Assert.assertEquals(5, allowed(limiter, "a", 8));
+        Assert.assertEquals(5, allowed(limiter, "b", 5));
+        Assert.assertEquals(13, limiter.getRoundTrips());
+        String key = "rate:a:" + now.get() / 1000;
+        Assert.assertEquals("8", redis.connections().execute(jedis -> jedis.get(key)));
+        long ttl = redis.connections().execute(jedis -> jedis.ttl(key));
+        Assert.assertTrue(ttl > 0 && ttl <= 2);
+
+        now.addAndGet(1000);
+        Assert.assertEquals(5, allowed(limiter, "a", 8));
+        Assert.assertEquals(15, limiter.getAllowed());
+        Assert.assertEquals(6, limiter.getRejected());
+    }
+
+    @Test
+    public void slidingLog() {
+        RateLimiter limiter = limiter(RateLimiter.Mode.SLIDING_LOG, 3).build();
+        Assert.assertEquals(3, allowed(limiter, "a", 5));
+        // 被拒绝的请求不留记录
+        Assert.assertEquals(Long.valueOf(3), redis.connections().execute(jedis -> jedis.zcard("rate:a")));
+
+        // 窗口往后滑了半秒，之前的3次都还在窗口里
+        now.addAndGet(500);
+        Assert.assertEquals(0, allowed(limiter, "a", 2));
+        now.addAndGet(500);
+        Assert.assertEquals(3, allowed(limiter, "a", 4));
+        Assert.assertEquals(Long.valueOf(3), redis.connections().execute(jedis -> jedis.zcard("rate:a")));
+        // 先数再加，拒绝也只要一次往返
+        Assert.assertEquals(11, limiter.getRoundTrips());
+    }
+
+    @Test
+    public void preAllocatedMostlyStaysLocal() {
+        RateLimiter limiter = limiter(RateLimiter.Mode.FIXED_WINDOW, 100).preAllocate(10).build();
+        Assert.assertEquals(100, allowed(limiter, "a", 1000));
+        Assert.assertEquals(11, limiter.getRoundTrips());
+        Assert.assertEquals(989, limiter.getLocalDecisions());
+
+        now.addAndGet(1000);
+        Assert.assertEquals(100, allowed(limiter, "a", 150));
+    }
+
+    @Test
+    public void staleClockReadDoesNotMoveTheAllotmentBack() {
+        RateLimiter limiter = limiter(RateLimiter.Mode.FIXED_WINDOW, 100).preAllocate(10).build();
+        long window = now.get() / 1000;
+        now.addAndGet(1000);
+        Assert.assertTrue(limiter.tryAcquire("a"));
+        // 另一个线程在换窗口之前读的时钟
+        now.addAndGet(-1000);
+        Assert.assertTrue(limiter.tryAcquire("a"));
+        Assert.assertEquals("1", redis.connections().execute(jedis -> jedis.get("rate:a:" + window)));
+        now.addAndGet(1000);
+        Assert.assertEquals(9, allowed(limiter, "a", 9));
+        Assert.assertEquals(2, limiter.getRoundTrips());
+    }
+
+    @Test
+    public void preAllocatedGrantsThePartialLastBatch() {
+        RateLimiter limiter = limiter(RateLimiter.Mode.FIXED_WINDOW, 25).preAllocate(10).build();
+        Assert.assertEquals(25, allowed(limiter, "a", 40));
+        Assert.assertEquals(3, limiter.getRoundTrips());
+    }
+
+    @Test
+    public void preAllocatedSharesTheLimitAcrossProcesses() throws Exception {
+        final List<RateLimiter> processes = new ArrayList<RateLimiter>();
+        for (int i = 0; i < 4; i++) {
+            processes.add(limiter(RateLimiter.Mode.FIXED_WINDOW, 1000).preAllocate(50).build());
+        }
+        ExecutorService pool = Executors.newFixedThreadPool(8);
+        try {
+            List<Future<Integer>> results = new ArrayList<Future<Integer>>();
+            for (int t = 0; t < 8; t++) {
+                final RateLimiter limiter = processes.get(t % 4);
+                results.add(pool.submit(() -> allowed(limiter, "hot", 500)));
+            }
+            int total = 0;
+            for (Future<Integer> f : results) {
+                total += f.get(30, TimeUnit.SECONDS);
+            }
+            // 4000次请求里放过的不超过limit，没用完的预领额度最多让每个进程少放过50次
+            Assert.assertTrue(total <= 1000);
+            Assert.assertTrue(total >= 1000 - 4 * 50);
+        } finally {
+            pool.shutdownNow();
+        }
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void preAllocateNeedsFixedWindow() {
+        limiter(RateLimiter.Mode.SLIDING_LOG, 10).preAllocate(5).build();
+    }
+}
@@ -0,0 +1,103 @@
+package com.babyduncan.redis.client;
+
+import com.babyduncan.redis.server.EmbeddedRedisServer;
+import org.junit.After;
+import org.junit.AfterClass;
+import org.junit.Assert;
+import org.junit.BeforeClass;
+import org.junit.Test;
+import redis.clients.jedis.Jedis;
+import redis.clients.jedis.exceptions.JedisConnectionException;
+
+/**
+ * User: zgh
+ * Date: 26-10-18
+ * Time: 15:30
+ */
+public class RedisConnectionsTest {
+    private static EmbeddedRedisServer server;
+    private RedisConnections connections;
+
+    @BeforeClass
+    public static void startServer() throws Exception {
+        server = new EmbeddedRedisServer().start();
+    }
+
+    @AfterClass
+    public static void stopServer() {
+        server.stop();
+    }
+
+    @After
+    public void closePool() {
+        if (connections != null) {
+            connections.close();
+        }
+        awaitConnectedClients(0);
+    }
+
+    private RedisConnections.Builder builder() {
+        return RedisConnections.builder().host(server.getHost()).port(server.getPort());
+    }
+
+    private static void awaitConnectedClients(int expected) {
+        long deadline = System.currentTimeMillis() + 2000;
+        while (server.getConnectedClients() != expected && System.currentTimeMillis() < deadline) {
+            Thread.yield();
+        }
+        Assert.assertEquals(expected, server.getConnectedClients());
+    }
+
+    @Test
+    public void warmUpOpensConnectionsAndBorrowReusesThem() {
+        connections = builder().maxActive(4).warmUp(3).build();
+        awaitConnectedClients(3);
+        for (int i = 0; i < 10; i++) {
+            Jedis jedis = connections.getResource();
+            jedis.incr("counter");
+            connections.returnResource(jedis);
+        }
+        Assert.assertEquals("10", connections.execute(new JedisCallback<String>() {
+            public String doInJedis(Jedis jedis) {
+                return jedis.get("counter");
+            }
+        }));
+        Assert.assertEquals(0, connections.getActive());
+        Assert.assertEquals(3 + 11, connections.getBorrowed());
+        awaitConnectedClients(3);
+    }
+
+    @Test
+    public void leaseReturnsOnCloseAndUsesConfiguredDatabase() {
+        connections = builder().database(3).build();
+        try (RedisConnections.Lease lease = connections.lease()) {
+            lease.jedis().set("db3", "yes");
+            Assert.assertEquals(1, connections.getActive());
+        }
+        Assert.assertEquals(0, connections.getActive());
+        Jedis raw = new Jedis(server.getHost(), server.getPort());
+        Assert.assertNull(raw.get("db3"));
+        raw.select(3);
+        Assert.assertEquals("yes", raw.get("db3"));
+        raw.flushAll();
+        raw.disconnect();
+    }
+
+    @Test
+    public void brokenConnectionsAreDestroyed() {
+        connections = builder().warmUp(1).build();
+        awaitConnectedClients(1);
+        try {
+            connections.execute(new JedisCallback<Object>() {
+                public Object doInJedis(Jedis jedis) {
+                    throw new JedisConnectionException("simulated");
+                }
+            });
+            Assert.fail();
+        } catch (JedisConnectionException expected) {
+        }
+        Assert.assertEquals(1, connections.getBroken());
+        Assert.assertEquals(0, connections.getActive());
+        awaitConnectedClients(0);
+    }
+}
@@ -0,0 +1,146 @@
+package com.babyduncan.redis.client;
+
+import com.babyduncan.redis.fixture.EmbeddedRedisFixture;
+import com.babyduncan.redis.server.VirtualClock;
+import org.junit.Assert;
+import org.junit.ClassRule;
+import org.junit.Rule;
+import org.junit.Test;
+import redis.clients.jedis.Jedis;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * User: zgh
+ * Date: 26-10-18
+ * Time: 23:55
+ */
+public class RedisLockTest {
+    private static final VirtualClock clock = VirtualClock.ticking();
+
+    @ClassRule
+    @Rule
+    public static final EmbeddedRedisFixture redis = new EmbeddedRedisFixture().clock(clock).maxActive(16);
+
+    @Test
+    public void tokensIncreaseWithEachAcquire() throws Exception {
+        RedisLock lock = new RedisLock(redis.connections(), "lock:a");
+        RedisLock.Lease first = lock.acquire(1, TimeUnit.SECONDS);
+        Assert.assertNotNull(first);
+        Assert.assertTrue(first.release());
+        Assert.assertFalse(first.release());
+        try (RedisLock.Lease second = lock.acquire(1, TimeUnit.SECONDS)) {
+            Assert.assertTrue(second.getToken() > first.getToken());
+        }
+        Assert.assertFalse(redis.connections().execute(jedis -> jedis.exists("lock:a")));
+        Assert.assertEquals(2, lock.getAcquired());
+        Assert.assertEquals(2, lock.getReleased());
+    }
+
+    @Test
+    public void heldLockTimesOut() throws Exception {
+        RedisLock mine = new RedisLock(redis.connections(), "lock:b");
+        RedisLock theirs = new RedisLock(redis.connections(), "lock:b");
+        RedisLock.Lease lease = mine.tryAcquire();
+        Assert.assertNotNull(lease);
+        Assert.assertNull(theirs.tryAcquire());
+        long start = System.nanoTime();
+        Assert.assertNull(theirs.acquire(30, TimeUnit.MILLISECONDS));
+        Assert.assertTrue(System.nanoTime() - start >= TimeUnit.MILLISECONDS.toNanos(30));
+        Assert.assertEquals(1, theirs.getTimeouts());
+        lease.release();
+        Assert.assertNotNull(theirs.tryAcquire());
+    }
+
+    @Test
+    public void expiredLeaseCanNotDeleteTheNextHolder() throws Exception {
+        RedisLock slow = new RedisLock(redis.connections(), "lock:c", 1000, false);
+        RedisLock fast = new RedisLock(redis.connections(), "lock:c", 1000, false);
+        RedisLock.Lease stale = slow.acquire(1, TimeUnit.SECONDS);
+        clock.advance(1001, TimeUnit.MILLISECONDS);
+        RedisLock.Lease current = fast.tryAcquire();
+        Assert.assertNotNull(current);
+        Assert.assertTrue(current.getToken() > stale.getToken());
+
+        Assert.assertFalse(stale.extend(1000));
+        Assert.assertFalse(stale.release());
+        Assert.assertEquals(1, slow.getLostLeases());
+        Assert.assertNull(slow.tryAcquire());
+        Assert.assertTrue(current.extend(5000));
+        Assert.assertTrue(current.release());
+    }
+
+    @Test
+    public void waitsAtMostUntilTheLeaseExpires() throws Exception {
+        RedisLock holder = new RedisLock(redis.connections(), "lock:d", 1000, false);
+        RedisLock waiter = new RedisLock(redis.connections(), "lock:d", 1000, false);
+        Assert.assertNotNull(holder.tryAcquire());
+        ExecutorService pool = Executors.newSingleThreadExecutor();
+        try {
+            Future<RedisLock.Lease> f = pool.submit(() -> waiter.acquire(10, TimeUnit.SECONDS));
+            Thread.sleep(20);
+            clock.advance(1000, TimeUnit.MILLISECONDS);
+            Assert.assertNotNull(f.get(5, TimeUnit.SECONDS));
+        } finally {
+            pool.shutdownNow();
+        }
+    }
+
+    @Test
+    public void reloadsScriptsAfterFlush() {
+        RedisLock lock = new RedisLock(redis.connections(), "lock:e");
+        redis.connections().execute(Jedis::scriptFlush);
+        RedisLock.Lease lease = lock.tryAcquire();
+        Assert.assertNotNull(lease);
+        redis.connections().execute(Jedis::scriptFlush);
+        Assert.assertTrue(lease.release());
+    }
+
+    @Test
+    public void mutualExclusion() throws Exception {
+        final int threads = 8;
+        final int rounds = 50;
+        final List<RedisLock> locks = new ArrayList<RedisLock>();
+        // 两个"进程"，每个进程里4个线程
+        locks.add(new RedisLock(redis.connections(), "lock:f"));
+        locks.add(new RedisLock(redis.connections(), "lock:f"));
+        ExecutorService pool = Executors.newFixedThreadPool(threads);
+        try {
+            List<Future<List<Long>>> results = new ArrayList<Future<List<Long>>>();
+            for (int t = 0; t < threads; t++) {
+                final RedisLock lock = locks.get(t % 2);
+                results.add(pool.submit(() -> {
+                    List<Long> tokens = new ArrayList<Long>();
+                    for (int i = 0; i < rounds; i++) {
+                        try (RedisLock.Lease lease = lock.acquire(10, TimeUnit.SECONDS)) {
+                            // 不是原子的读-改-写，只有锁是互斥的才不会丢
+                            String v = redis.connections().execute(jedis -> jedis.get("counter"));
+                            long n = v == null ? 0 : Long.parseLong(v);
+                            redis.connections().execute(jedis -> jedis.set("counter", Long.toString(n + 1)));
+                            tokens.add(lease.getToken());
+                        }
+                    }
+                    return tokens;
+                }));
+            }
+            long total = 0;
+            for (Future<List<Long>> f : results) {
+                List<Long> tokens = f.get(60, TimeUnit.SECONDS);
+                for (int i = 1; i < tokens.size(); i++) {
+                    Assert.assertTrue(tokens.get(i) > tokens.get(i - 1));
+                }
+                total += tokens.size();
+            }
+            Assert.assertEquals(threads * rounds, total);
+            Assert.assertEquals(String.valueOf(threads * rounds), redis.connections().execute(jedis -> jedis.get("counter")));
+            Assert.assertEquals(String.valueOf(threads * rounds), redis.connections().execute(jedis -> jedis.get("lock:f:fence")));
+        } finally {
+            pool.shutdownNow();
+        }
+    }
+}
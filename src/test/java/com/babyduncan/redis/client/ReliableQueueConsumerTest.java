@@ -0,0 +1,126 @@
+package com.babyduncan.redis.client;
+
+import com.babyduncan.redis.fixture.EmbeddedRedisFixture;
+import org.junit.Assert;
+import org.junit.ClassRule;
+import org.junit.Rule;
+import org.junit.Test;
+
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.CountDownLatch;
+import java.util.function.BooleanSupplier;
+
+/**
+ * User: zgh
+ * Date: 26-10-18
+ * Time: 22:40
+ */
+public class ReliableQueueConsumerTest {
+    @ClassRule
+    @Rule
+    public static final EmbeddedRedisFixture redis = new EmbeddedRedisFixture().maxActive(16);
+
+    private static void await(BooleanSupplier condition) throws InterruptedException {
+        long deadline = System.currentTimeMillis() + 10000;
+        while (!condition.getAsBoolean()) {
+            Assert.assertTrue("timed out", System.currentTimeMillis() < deadline);
+            Thread.sleep(5);
+        }
+    }
+
+    private static void publish(int count) {
+        redis.connections().execute(jedis -> {
+            for (int i = 0; i < count; i++) {
+                jedis.lpush("jobs", "job-" + i);
+            }
+            return null;
+        });
+    }
+
+    @Test
+    public void processesAndAcknowledgesEveryMessage() throws Exception {
+        final Set<String> handled = Collections.newSetFromMap(new ConcurrentHashMap<String, Boolean>());
+        ReliableQueueConsumer consumer = ReliableQueueConsumer.builder(redis.connections(), "jobs", handled::add)
+                .workers(2).handlerThreads(4).maxPending(8).build().start();
+        publish(500);
+        await(() -> consumer.getAcked() == 500);
+        Assert.assertEquals(500, handled.size());
+        Assert.assertEquals(0, consumer.getQueueDepth());
+        Assert.assertEquals(0, consumer.getProcessingDepth());
+        Assert.assertEquals(500, consumer.getReceived());
+        Assert.assertTrue(consumer.getThroughput() > 0);
+        consumer.close();
+        Assert.assertEquals(0, consumer.getInFlight());
+    }
+
+    @Test
+    public void failedMessagesAreRequeuedAfterVisibilityTimeout() throws Exception {
+        final Set<String> failedOnce = Collections.newSetFromMap(new ConcurrentHashMap<String, Boolean>());
+        ReliableQueueConsumer consumer = ReliableQueueConsumer.builder(redis.connections(), "jobs", message -> {
+            if (failedOnce.add(message)) {
+                throw new IllegalStateException("first attempt fails");
+            }
+        }).visibilityTimeoutMillis(50).reaperIntervalMillis(20).build().start();
+        publish(10);
+        await(() -> consumer.getAcked() == 10);
+        Assert.assertEquals(10, consumer.getFailed());
+        Assert.assertEquals(10, consumer.getRequeued());
+        Assert.assertEquals(0, consumer.getProcessingDepth());
+        consumer.close();
+    }
+
+    @Test
+    public void reaperRecoversMessagesOfDeadConsumers() throws Exception {
+        // 模拟一个挪进processing list以后就挂掉、连时间戳都没记的消费者
+        redis.connections().execute(jedis -> {
+            jedis.sadd("jobs:processing", "jobs:processing:dead-0");
+            return jedis.lpush("jobs:processing:dead-0", "orphan-1", "orphan-2");
+        });
+        ReliableQueueConsumer reaperOnly = ReliableQueueConsumer.builder(redis.connections(), "jobs", message -> {
+        }).visibilityTimeoutMillis(30).build();
+        Assert.assertEquals(0, reaperOnly.reap());
+        Thread.sleep(50);
+        Assert.assertEquals(2, reaperOnly.reap());
+        Set<String> queued = new HashSet<String>(redis.connections().execute(jedis -> jedis.lrange("jobs", 0, -1)));
+        Assert.assertEquals(new HashSet<String>(java.util.Arrays.asList("orphan-1", "orphan-2")), queued);
+        Assert.assertEquals(0L, (long) redis.connections().execute(jedis -> jedis.llen("jobs:processing:dead-0")));
+        Assert.assertFalse(redis.connections().execute(jedis -> jedis.exists("jobs:inflight:dead-0")));
+    }
+
+    @Test
+    public void closeUnregistersDrainedProcessingLists() throws Exception {
+        ReliableQueueConsumer consumer = ReliableQueueConsumer.builder(redis.connections(), "jobs", message -> {
+        }).consumerId("c").workers(2).build().start();
+        Assert.assertEquals(new HashSet<String>(java.util.Arrays.asList("jobs:processing:c-0", "jobs:processing:c-1")),
+                redis.connections().execute(jedis -> jedis.smembers(consumer.registryKey())));
+        publish(10);
+        await(() -> consumer.getAcked() == 10);
+        consumer.close();
+        Assert.assertTrue(redis.connections().execute(jedis -> jedis.smembers(consumer.registryKey())).isEmpty());
+    }
+
+    @Test
+    public void closeStopsFetchersWaitingForCapacity() throws Exception {
+        final CountDownLatch release = new CountDownLatch(1);
+        final ReliableQueueConsumer consumer = ReliableQueueConsumer.builder(redis.connections(), "jobs", message -> {
+            release.await();
+        }).workers(2).handlerThreads(1).maxPending(1).build().start();
+        publish(10);
+        // 两个许可都用完了，两个fetcher都卡在等许可
+        await(() -> consumer.getReceived() == 2);
+        Thread closer = new Thread(consumer::close);
+        closer.start();
+        Thread.sleep(100);
+        release.countDown();
+        closer.join(10000);
+        Assert.assertFalse(closer.isAlive());
+        Assert.assertEquals(2, consumer.getReceived());
+        Assert.assertEquals(2, consumer.getAcked());
+        Assert.assertEquals(0, consumer.getInFlight());
+        Assert.assertEquals(8, consumer.getQueueDepth());
+        Assert.assertEquals(0, consumer.getProcessingDepth());
+    }
+}
@@ -0,0 +1,136 @@
+package com.babyduncan.redis.client;
+
+import com.babyduncan.redis.fixture.EmbeddedRedisFixture;
+import org.junit.Assert;
+import org.junit.Before;
+import org.junit.ClassRule;
+import org.junit.Rule;
+import org.junit.Test;
+
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.Set;
+
+/**
+ * User: zgh
+ * Date: 26-10-18
+ * Time: 14:45
+ */
+public class SetQueryTest {
+    @ClassRule
+    @Rule
+    public static final EmbeddedRedisFixture redis = new EmbeddedRedisFixture();
+
+    @Before
+    public void seed() {
+        redis.connections().execute(jedis -> {
+            // tag:mN 是N的倍数
+            for (int n : new int[]{2, 3, 5, 7}) {
+                for (int i = 0; i < 1000; i += n) {
+                    jedis.sadd("tag:m" + n, String.valueOf(i));
+                }
+            }
+            for (int i = 0; i < 1000; i += 97) {
+                jedis.sadd("tag:m97", String.valueOf(i));
+            }
+            return null;
+        });
+    }
+
+    private static Set<String> expected(String op, String... keys) {
+        return redis.connections().execute(jedis -> "inter".equals(op) ? jedis.sinter(keys)
+                : "diff".equals(op) ? jedis.sdiff(keys) : jedis.sunion(keys));
+    }
+
+    @Test
+    public void smallInputsAreIntersectedLocally() {
+        SetQuery query = new SetQuery(redis.connections(), 600, 0);
+        String[] keys = {"tag:m2", "tag:m97", "tag:m5"};
+        Set<String> result = query.sinter(keys);
+        Assert.assertEquals(new HashSet<String>(Arrays.asList("0", "970")), result);
+        Assert.assertEquals(expected("inter", keys), result);
+        Assert.assertEquals(1, query.getLocalQueries());
+
+        // tag:m3有334个，超过了阈值就交给SINTER
+        SetQuery strict = new SetQuery(redis.connections(), 300, 0);
+        Assert.assertEquals(expected("inter", "tag:m97", "tag:m3"), strict.sinter("tag:m97", "tag:m3"));
+        Assert.assertEquals(1, strict.getServerQueries());
+        Assert.assertEquals(0, strict.getLocalQueries());
+    }
+
+    @Test
+    public void emptyInputShortCircuits() {
+        SetQuery query = new SetQuery(redis.connections());
+        Assert.assertTrue(query.sinter("tag:m2", "nothing", "tag:m3").isEmpty());
+        Assert.assertEquals(1, query.getShortCircuits());
+        Assert.assertTrue(query.sdiff("nothing", "tag:m2").isEmpty());
+        Assert.assertTrue(query.sunion("nothing", "void").isEmpty());
+        Assert.assertEquals(3, query.getShortCircuits());
+
+        // 只剩一个非空集合也是在redis那边SMEMBERS，不算本地计算
+        Assert.assertEquals(expected("union", "tag:m97"), query.sunion("tag:m97", "nothing"));
+        Assert.assertEquals(0, query.getLocalQueries());
+        Assert.assertEquals(1, query.getServerQueries());
+    }
+
+    @Test
+    public void diffAndUnionMatchRedis() {
+        for (int threshold : new int[]{0, 20, 1000}) {
+            SetQuery query = new SetQuery(redis.connections(), threshold, 0);
+            Assert.assertEquals(expected("diff", "tag:m97", "tag:m2", "nothing"), query.sdiff("tag:m97", "tag:m2", "nothing"));
+            Assert.assertEquals(expected("diff", "tag:m5", "tag:m2", "tag:m3"), query.sdiff("tag:m5", "tag:m2", "tag:m3"));
+            Assert.assertEquals(expected("diff", "tag:m7"), query.sdiff("tag:m7"));
+            Assert.assertEquals(expected("union", "tag:m5", "nothing", "tag:m7"), query.sunion("tag:m5", "nothing", "tag:m7"));
+            Assert.assertEquals(expected("union", "tag:m97", "nothing"), query.sunion("tag:m97", "nothing"));
+            Assert.assertEquals(expected("inter", "tag:m5", "tag:m7", "tag:m2"), query.sinter("tag:m5", "tag:m7", "tag:m2"));
+        }
+    }
+
+    @Test
+    public void repeatedQueriesHitTheStoredResult() {
+        SetQuery query = new SetQuery(redis.connections());
+        Set<String> first = query.sinterCached(60, "tag:m2", "tag:m5");
+        Assert.assertEquals(100, first.size());
+        String cacheKey = SetQuery.cacheKey("inter", "tag:m5", "tag:m2");
+        Assert.assertTrue(redis.connections().execute(jedis -> jedis.ttl(cacheKey)) > 0);
+
+        redis.connections().execute(jedis -> jedis.sadd("tag:m5", "1"));
+        // 参数顺序不同也命中，结果是缓存里的旧值
+        Assert.assertEquals(first, query.sinterCached(60, "tag:m5", "tag:m2"));
+        Assert.assertEquals(1, query.getCacheHits());
+        Assert.assertEquals(1, query.getCacheMisses());
+
+        Assert.assertNotEquals(SetQuery.cacheKey("inter", "a,b", "c"), SetQuery.cacheKey("inter", "a", "b,c"));
+    }
+
+    @Test
+    public void emptyResultsAreCachedToo() {
+        SetQuery query = new SetQuery(redis.connections());
+        redis.connections().execute(jedis -> jedis.sadd("odd", "1"));
+        Assert.assertTrue(query.sinterCached(60, "tag:m2", "odd").isEmpty());
+        Assert.assertTrue(query.sinterCached(60, "tag:m2", "odd").isEmpty());
+        Assert.assertEquals(1, query.getCacheHits());
+
+        // 有一个集合是空的，不做SINTERSTORE，直接缓存空结果
+        Assert.assertTrue(query.sinterCached(60, "tag:m2", "nothing", "tag:m3").isEmpty());
+        Assert.assertEquals(1, query.getShortCircuits());
+        Assert.assertEquals(1, query.getServerQueries());
+        String cacheKey = SetQuery.cacheKey("inter", "tag:m2", "nothing", "tag:m3");
+        Assert.assertTrue(redis.connections().execute(jedis -> jedis.ttl(cacheKey)) > 0);
+        redis.connections().execute(jedis -> jedis.sadd("nothing", "0"));
+        Assert.assertTrue(query.sinterCached(60, "tag:m3", "tag:m2", "nothing").isEmpty());
+        Assert.assertEquals(2, query.getCacheHits());
+    }
+
+    @Test
+    public void cachedCardinalitiesNeverHideNewData() {
+        SetQuery query = new SetQuery(redis.connections(), 20, 60000);
+        Assert.assertTrue(query.sinter("tag:m97", "late").isEmpty());
+        redis.connections().execute(jedis -> jedis.sadd("late", "194"));
+        Assert.assertEquals(Collections.singleton("194"), query.sinter("tag:m97", "late"));
+        // 基数缓存过期前集合变了，算出来的结果还是对的
+        redis.connections().execute(jedis -> jedis.sadd("late", "291", "5"));
+        Assert.assertEquals(new HashSet<String>(Arrays.asList("194", "291")), query.sinter("tag:m97", "late"));
+    }
+}
@@ -0,0 +1,191 @@
+package com.babyduncan.redis.client;
+
+import com.babyduncan.redis.server.EmbeddedRedisServer;
+import org.junit.AfterClass;
+import org.junit.Assert;
+import org.junit.Before;
+import org.junit.BeforeClass;
+import org.junit.Test;
+import redis.clients.jedis.Jedis;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+/**
+ * User: zgh
+ * Date: 26-10-18
+ * Time: 16:40
+ */
+public class ShardedRedisTest {
+    private static final int NODES = 3;
+    private static final EmbeddedRedisServer[] servers = new EmbeddedRedisServer[NODES];
+    private static ShardedRedis sharded;
+
+    @BeforeClass
+    public static void startServers() throws Exception {
+        ShardedRedis.Builder builder = ShardedRedis.builder();
+        for (int i = 0; i < NODES; i++) {
+            servers[i] = new EmbeddedRedisServer().start();
+            builder.node(servers[i].getHost(), servers[i].getPort());
+        }
+        sharded = builder.build();
+    }
+
+    @AfterClass
+    public static void stopServers() {
+        sharded.close();
+        for (EmbeddedRedisServer server : servers) {
+            server.stop();
+        }
+    }
+
+    @Before
+    public void flush() {
+        sharded.forEachShard(Jedis::flushAll);
+    }
+
+    private static String[] keys(String prefix, int n) {
+        String[] keys = new String[n];
+        for (int i = 0; i < n; i++) {
+            keys[i] = prefix + i;
+        }
+        return keys;
+    }
+
+    @Test
+    public void keysAreSpreadOverAllNodes() {
+        Map<String, Integer> counts = new HashMap<String, Integer>();
+        for (String key : keys("user:", 30000)) {
+            counts.merge(sharded.nodeFor(key), 1, Integer::sum);
+        }
+        Assert.assertEquals(NODES, counts.size());
+        for (int count : counts.values()) {
+            // 160个虚拟节点，每个节点应该在1/3上下
+            Assert.assertTrue(counts.toString(), count > 7000 && count < 13000);
+        }
+    }
+
+    @Test
+    public void addingANodeMovesAboutOneNth() {
+        ShardedRedis four = ShardedRedis.builder()
+                .node("a", null).node("b", null).node("c", null).node("d", null).build();
+        ShardedRedis three = ShardedRedis.builder()
+                .node("a", null).node("b", null).node("c", null).build();
+        int moved = 0;
+        String[] keys = keys("user:", 20000);
+        for (String key : keys) {
+            String before = three.nodeFor(key);
+            String after = four.nodeFor(key);
+            if (!before.equals(after)) {
+                Assert.assertEquals("d", after);
+                moved++;
+            }
+        }
+        Assert.assertTrue("moved " + moved, moved > keys.length / 6 && moved < keys.length / 3);
+        three.close();
+        four.close();
+    }
+
+    @Test
+    public void hashTagsCoLocateKeys() {
+        Assert.assertEquals("42", ShardedRedis.hashTag("user:{42}:profile"));
+        Assert.assertEquals("a{}b", ShardedRedis.hashTag("a{}b"));
+        Assert.assertEquals("nobrace{", ShardedRedis.hashTag("nobrace{"));
+        for (int i = 0; i < 100; i++) {
+            Assert.assertEquals(sharded.nodeFor("user:{" + i + "}:profile"), sharded.nodeFor("user:{" + i + "}:orders"));
+        }
+        // 同一个节点上的多key命令可以直接用
+        sharded.execute("user:{7}:a", jedis -> jedis.sadd("user:{7}:a", "x", "y"));
+        sharded.execute("user:{7}:b", jedis -> jedis.sadd("user:{7}:b", "y"));
+        Assert.assertEquals(new HashSet<String>(Arrays.asList("y")),
+                sharded.execute("user:{7}:a", jedis -> jedis.sinter("user:{7}:a", "user:{7}:b")));
+    }
+
+    @Test
+    public void singleKeyCommandsLandOnTheirNode() {
+        String[] keys = keys("k:", 300);
+        for (final String key : keys) {
+            sharded.set(key, "v" + key);
+            sharded.execute(key + ":h", jedis -> jedis.hset(key + ":h", "f", key));
+            sharded.execute(key + ":l", jedis -> jedis.lpush(key + ":l", key));
+            sharded.execute(key + ":z", jedis -> jedis.zadd(key + ":z", 1, key));
+        }
+        long total = 0;
+        for (Long size : sharded.forEachShard(Jedis::dbSize)) {
+            Assert.assertTrue(size > 0);
+            total += size;
+        }
+        Assert.assertEquals(keys.length * 4, total);
+        for (final String key : keys) {
+            Assert.assertEquals("v" + key, sharded.connectionsFor(key).execute(jedis -> jedis.get(key)));
+            Assert.assertEquals(key, sharded.execute(key + ":h", jedis -> jedis.hget(key + ":h", "f")));
+        }
+    }
+
+    @Test
+    public void msetAndMgetFanOutAndKeepOrder() {
+        String[] keys = keys("m:", 500);
+        String[] kv = new String[keys.length * 2];
+        for (int i = 0; i < keys.length; i++) {
+            kv[i * 2] = keys[i];
+            kv[i * 2 + 1] = "value" + i;
+        }
+        sharded.mset(kv);
+
+        String[] query = new String[keys.length + 1];
+        System.arraycopy(keys, 0, query, 0, keys.length);
+        query[keys.length] = "missing";
+        List<String> values = sharded.mget(query);
+        Assert.assertEquals(query.length, values.size());
+        for (int i = 0; i < keys.length; i++) {
+            Assert.assertEquals("value" + i, values.get(i));
+        }
+        Assert.assertNull(values.get(keys.length));
+
+        Assert.assertEquals(keys.length, sharded.keys("m:*").size());
+        Assert.assertEquals(keys.length, sharded.del(query));
+        Assert.assertTrue(sharded.keys("m:*").isEmpty());
+    }
+
+    @Test
+    public void setOperationsMergeAcrossNodes() {
+        // s:mN 是N的倍数，几个key一定会分到不同节点上
+        String[] keys = {"s:m2", "s:m3", "s:m5", "s:m7"};
+        Set<String> nodes = new HashSet<String>();
+        Map<String, Set<String>> local = new HashMap<String, Set<String>>();
+        for (final String key : keys) {
+            final int n = Integer.parseInt(key.substring(3));
+            final List<String> members = new ArrayList<String>();
+            for (int i = 0; i < 1000; i += n) {
+                members.add(String.valueOf(i));
+            }
+            sharded.execute(key, jedis -> jedis.sadd(key, members.toArray(new String[members.size()])));
+            local.put(key, new HashSet<String>(members));
+            nodes.add(sharded.nodeFor(key));
+        }
+        Assert.assertTrue(nodes.size() > 1);
+
+        Set<String> inter = new HashSet<String>(local.get("s:m2"));
+        Set<String> union = new HashSet<String>(local.get("s:m2"));
+        Set<String> diff = new HashSet<String>(local.get("s:m2"));
+        for (String key : Arrays.asList("s:m3", "s:m5", "s:m7")) {
+            inter.retainAll(local.get(key));
+            union.addAll(local.get(key));
+            diff.removeAll(local.get(key));
+        }
+        Assert.assertEquals(inter, sharded.sinter(keys));
+        Assert.assertEquals(union, sharded.sunion(keys));
+        Assert.assertEquals(diff, sharded.sdiff(keys));
+        Assert.assertTrue(sharded.sinter("s:m2", "s:missing").isEmpty());
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void duplicateNodesAreRejected() {
+        ShardedRedis.builder().node("a", null).node("a", null);
+    }
+}
@@ -0,0 +1,61 @@
+package com.babyduncan.redis.fixture;
+
+import org.junit.Assert;
+import org.junit.Rule;
+import org.junit.Test;
+
+import java.util.Arrays;
+import java.util.Collections;
+
+/**
+ * User: zgh
+ * Date: 26-10-18
+ * Time: 19:20
+ */
+@Seed("SET fromclass 1")
+public class RedisFixtureTest {
+    @Rule
+    public final RedisFixture redis = new RedisFixture();
+
+    @Test
+    @Seed({"RPUSH list a \"b c\"", "SET fromclass 2"})
+    public void classSeedsRunBeforeMethodSeeds() {
+        Assert.assertEquals("2", redis.jedis().get("fromclass"));
+        Assert.assertEquals(Arrays.asList("a", "b c"), redis.jedis().lrange("list", 0, -1));
+    }
+
+    // 下面两个不管谁先跑都得过：每个方法拿到的db都是清空过的
+    @Test
+    public void writesDoNotLeakIntoOtherTests() {
+        Assert.assertNull(redis.jedis().get("leak"));
+        redis.jedis().set("leak", "x");
+        Assert.assertEquals(Long.valueOf(2), redis.jedis().dbSize());
+    }
+
+    @Test
+    public void startsWithOnlyTheSeeds() {
+        Assert.assertNull(redis.jedis().get("leak"));
+        redis.jedis().set("leak", "y");
+        Assert.assertEquals(Collections.singleton("fromclass"), redis.jedis().keys("from*"));
+    }
+
+    @Test
+    public void usesItsOwnDatabase() {
+        Assert.assertNotEquals(0, redis.getDatabase());
+        Assert.assertEquals(redis.getDatabase(), redis.connections().getDatabase());
+        Assert.assertEquals("1", redis.connections().execute(jedis -> jedis.get("fromclass")));
+    }
+
+    @Test
+    public void splitsLikeRedisCli() {
+        Assert.assertEquals(Arrays.asList("SET", "k", "hello world", "a\"b"),
+                SeedClient.split("  SET k \"hello world\"   \"a\\\"b\" "));
+        Assert.assertEquals(Arrays.asList("HSET", "h", "f", ""), SeedClient.split("HSET h f \"\""));
+        Assert.assertTrue(SeedClient.split("   ").isEmpty());
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void rejectsUnbalancedQuotes() {
+        SeedClient.split("SET k \"oops");
+    }
+}
@@ -0,0 +1,393 @@
+package com.babyduncan.redis.server;
+
+import com.babyduncan.redis.script.Scripts;
+import org.junit.After;
+import org.junit.AfterClass;
+import org.junit.Assert;
+import org.junit.Before;
+import org.junit.BeforeClass;
+import org.junit.Test;
+import redis.clients.jedis.Client;
+import redis.clients.jedis.Jedis;
+import redis.clients.jedis.Pipeline;
+import redis.clients.jedis.Tuple;
+import redis.clients.jedis.exceptions.JedisDataException;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * User: zgh
+ * Date: 26-10-18
+ * Time: 12:45
+ */
+public class EmbeddedRedisServerTest {
+    private static EmbeddedRedisServer server;
+    private Jedis jedis;
+
+    @BeforeClass
+    public static void startServer() throws Exception {
+        server = new EmbeddedRedisServer().start();
+    }
+
+    @AfterClass
+    public static void stopServer() {
+        server.stop();
+    }
+
+    @Before
+    public void connect() {
+        jedis = new Jedis(server.getHost(), server.getPort());
+        jedis.flushAll();
+    }
+
+    @After
+    public void disconnect() {
+        jedis.disconnect();
+    }
+
+    @Test
+    public void strings() {
+        Assert.assertEquals("PONG", jedis.ping());
+        Assert.assertEquals("OK", jedis.set("foo", "bar"));
+        Assert.assertEquals("bar", jedis.get("foo"));
+        Assert.assertNull(jedis.get("notexist"));
+        Assert.assertEquals(0L, (long) jedis.setnx("foo", "x"));
+        jedis.mset("k1", "v1", "k2", "v2");
+        Assert.assertEquals(Arrays.asList("v1", "v2", null), jedis.mget("k1", "k2", "k3"));
+        Assert.assertEquals(0L, (long) jedis.msetnx("k2", "x", "k3", "y"));
+        Assert.assertNull(jedis.get("k3"));
+        jedis.set("myemail", "BabyDuncan@qq.com");
+        jedis.setrange("myemail", 11, "sina.com");
+        Assert.assertEquals("BabyDuncan@sina.com", jedis.get("myemail"));
+        Assert.assertEquals("Baby", jedis.getrange("myemail", 0, 3));
+        Assert.assertEquals("com", jedis.getrange("myemail", -3, -1));
+        Assert.assertEquals(22L, (long) jedis.incrBy("n", 22));
+        Assert.assertEquals(21L, (long) jedis.decr("n"));
+        Assert.assertEquals(-12L, (long) jedis.decrBy("notvalue", 12));
+        Assert.assertEquals(9L, (long) jedis.append("foo", "barbar"));
+        Assert.assertEquals(9L, (long) jedis.strlen("foo"));
+        Assert.assertEquals("barbarbar", jedis.getSet("foo", "new"));
+        jedis.setbit("bits", 10, true);
+        Assert.assertTrue(jedis.getbit("bits", 10));
+        Assert.assertFalse(jedis.getbit("bits", 11));
+        try {
+            jedis.incr("foo");
+            Assert.fail();
+        } catch (JedisDataException e) {
+            Assert.assertTrue(e.getMessage().contains("not an integer"));
+        }
+    }
+
+    @Test
+    public void expire() throws InterruptedException {
+        jedis.setex("short", 1, "v");
+        Assert.assertEquals(1L, (long) jedis.ttl("short"));
+        jedis.set("persistent", "v");
+        Assert.assertEquals(-1L, (long) jedis.ttl("persistent"));
+        jedis.expire("persistent", 100);
+        Assert.assertEquals(1L, (long) jedis.persist("persistent"));
+        Thread.sleep(1100);
+        Assert.assertNull(jedis.get("short"));
+        Assert.assertFalse(jedis.exists("short"));
+    }
+
+    @Test
+    public void hashes() {
+        Assert.assertEquals(1L, (long) jedis.hset("h", "f1", "v1"));
+        Assert.assertEquals(0L, (long) jedis.hset("h", "f1", "v2"));
+        Assert.assertEquals(0L, (long) jedis.hsetnx("h", "f1", "x"));
+        Map<String, String> m = new HashMap<String, String>();
+        m.put("f2", "v2");
+        m.put("f3", "3");
+        jedis.hmset("h", m);
+        Assert.assertEquals(Arrays.asList("v2", "v2", null), jedis.hmget("h", "f1", "f2", "nope"));
+        Assert.assertEquals(5L, (long) jedis.hincrBy("h", "f3", 2));
+        Assert.assertEquals(3L, (long) jedis.hlen("h"));
+        Assert.assertTrue(jedis.hexists("h", "f2"));
+        Assert.assertEquals(1L, (long) jedis.hdel("h", "f2", "nope"));
+        Assert.assertEquals(new HashSet<String>(Arrays.asList("f1", "f3")), jedis.hkeys("h"));
+        Assert.assertEquals(2, jedis.hvals("h").size());
+        Assert.assertEquals("5", jedis.hgetAll("h").get("f3"));
+        Assert.assertEquals("hash", jedis.type("h"));
+    }
+
+    @Test
+    public void lists() {
+        jedis.lpush("l", "1");
+        jedis.lpush("l", "2");
+        jedis.rpush("l", "0");
+        Assert.assertEquals(Arrays.asList("2", "1", "0"), jedis.lrange("l", 0, -1));
+        jedis.linsert("l", Client.LIST_POSITION.AFTER, "1", "x");
+        jedis.linsert("l", Client.LIST_POSITION.BEFORE, "2", "y");
+        Assert.assertEquals(Arrays.asList("y", "2", "1", "x", "0"), jedis.lrange("l", 0, -1));
+        jedis.lset("l", -1, "end");
+        Assert.assertEquals("end", jedis.lindex("l", -1));
+        Assert.assertNull(jedis.lindex("l", 100));
+        Assert.assertEquals(5L, (long) jedis.llen("l"));
+        jedis.ltrim("l", 1, 2);
+        Assert.assertEquals(Arrays.asList("2", "1"), jedis.lrange("l", 0, -1));
+        Assert.assertEquals("2", jedis.lpop("l"));
+        Assert.assertEquals("1", jedis.rpop("l"));
+        Assert.assertFalse(jedis.exists("l"));
+
+        for (String s : new String[]{"hello", "hello", "world", "hello", "foobar", "hello"}) {
+            jedis.lpush("lremlist", s);
+        }
+        Assert.assertEquals(1L, (long) jedis.lrem("lremlist", 1, "hello"));
+        Assert.assertEquals(1L, (long) jedis.lrem("lremlist", -1, "hello"));
+        Assert.assertEquals(Arrays.asList("foobar", "hello", "world", "hello"), jedis.lrange("lremlist", 0, -1));
+        Assert.assertEquals(2L, (long) jedis.lrem("lremlist", 0, "hello"));
+
+        jedis.rpush("rl", "a", "b", "c");
+        Assert.assertEquals("c", jedis.rpoplpush("rl", "dis"));
+        Assert.assertEquals(Arrays.asList("c"), jedis.lrange("dis", 0, -1));
+    }
+
+    @Test
+    public void blockingPopIsWokenUpByPush() throws Exception {
+        ExecutorService executor = Executors.newSingleThreadExecutor();
+        try {
+            Future<List<String>> popped = executor.submit(() -> {
+                Jedis blocking = new Jedis(server.getHost(), server.getPort());
+                try {
+                    return blocking.blpop(5, "queue");
+                } finally {
+                    blocking.disconnect();
+                }
+            });
+            Thread.sleep(100);
+            jedis.rpush("queue", "job");
+            Assert.assertEquals(Arrays.asList("queue", "job"), popped.get(5, TimeUnit.SECONDS));
+
+            Future<String> moved = executor.submit(() -> {
+                Jedis blocking = new Jedis(server.getHost(), server.getPort());
+                try {
+                    return blocking.brpoplpush("source", "processing", 1);
+                } finally {
+                    blocking.disconnect();
+                }
+            });
+            Thread.sleep(100);
+            jedis.lpush("source", "item");
+            Assert.assertEquals("item", moved.get(5, TimeUnit.SECONDS));
+            Assert.assertEquals(Arrays.asList("item"), jedis.lrange("processing", 0, -1));
+        } finally {
+            executor.shutdownNow();
+        }
+        Assert.assertNull(jedis.brpoplpush("empty", "processing", 1));
+    }
+
+    @Test
+    public void sets() {
+        jedis.sadd("s", "a", "b", "c");
+        Assert.assertEquals(0L, (long) jedis.sadd("s", "c"));
+        Assert.assertEquals(3L, (long) jedis.scard("s"));
+        Assert.assertTrue(jedis.sismember("s", "a"));
+        jedis.srem("s", "a");
+        Assert.assertEquals(new HashSet<String>(Arrays.asList("b", "c")), jedis.smembers("s"));
+        jedis.sadd("t", "c", "d");
+        Assert.assertEquals(new HashSet<String>(Arrays.asList("c")), jedis.sinter("s", "t"));
+        Assert.assertEquals(3, jedis.sunion("s", "t", "missing").size());
+        Assert.assertEquals(new HashSet<String>(Arrays.asList("b")), jedis.sdiff("s", "t"));
+        Assert.assertEquals(1L, (long) jedis.sdiffstore("dst", "t", "s"));
+        Assert.assertEquals(new HashSet<String>(Arrays.asList("d")), jedis.smembers("dst"));
+        Assert.assertEquals(1L, (long) jedis.smove("s", "moved", "b"));
+        Assert.assertEquals(1L, (long) jedis.scard("moved"));
+        Assert.assertEquals("c", jedis.spop("s"));
+        Assert.assertNull(jedis.spop("s"));
+        Assert.assertNotNull(jedis.srandmember("t"));
+    }
+
+    @Test
+    public void sortedSets() {
+        jedis.zadd("z", 1, "aaa");
+        jedis.zadd("z", 1.5, "bbb");
+        jedis.zadd("z", 2, "ccc");
+        Assert.assertEquals(new LinkedHashSet<String>(Arrays.asList("aaa", "bbb", "ccc")),
+                jedis.zrange("z", 0, -1));
+        Assert.assertEquals(11.5, jedis.zincrby("z", 10, "bbb"), 0.0);
+        Assert.assertEquals(2L, (long) jedis.zrank("z", "bbb"));
+        Assert.assertEquals(0L, (long) jedis.zrevrank("z", "bbb"));
+        Assert.assertNull(jedis.zrank("z", "nope"));
+        Assert.assertEquals(2L, (long) jedis.zcount("z", 1, 2));
+        Assert.assertEquals(1L, (long) jedis.zcount("z", "(1", "2"));
+        Assert.assertEquals(3L, (long) jedis.zcard("z"));
+        Assert.assertEquals(2.0, jedis.zscore("z", "ccc"), 0.0);
+        Set<String> byScore = jedis.zrangeByScore("z", "-inf", "+inf", 1, 1);
+        Assert.assertEquals(new HashSet<String>(Arrays.asList("ccc")), byScore);
+        Set<Tuple> top = jedis.zrevrangeWithScores("z", 0, 0);
+        Assert.assertEquals("bbb", top.iterator().next().getElement());
+        Assert.assertEquals(1L, (long) jedis.zremrangeByScore("z", 0, 1));
+        Assert.assertEquals(1L, (long) jedis.zrem("z", "ccc"));
+        Assert.assertEquals(1L, (long) jedis.zcard("z"));
+    }
+
+    @Test
+    public void wrongTypeAndUnknownCommand() {
+        jedis.set("str", "v");
+        try {
+            jedis.lpush("str", "x");
+            Assert.fail();
+        } catch (JedisDataException e) {
+            Assert.assertTrue(e.getMessage().startsWith("WRONGTYPE"));
+        }
+        Assert.assertEquals("v", jedis.get("str"));
+    }
+
+    @Test
+    public void pipelineAndLargeValues() {
+        StringBuilder sb = new StringBuilder();
+        for (int i = 0; i < 200000; i++) {
+            sb.append((char) ('a' + i % 26));
+        }
+        String big = sb.toString();
+        Pipeline p = jedis.pipelined();
+        for (int i = 0; i < 1000; i++) {
+            p.set("p" + i, String.valueOf(i));
+        }
+        p.set("big", big);
+        p.get("big");
+        List<Object> results = p.syncAndReturnAll();
+        Assert.assertEquals(1002, results.size());
+        Assert.assertEquals(big, jedis.get("big"));
+        Assert.assertEquals("999", jedis.get("p999"));
+        Assert.assertEquals(1001L, (long) jedis.dbSize());
+    }
+
+    @Test
+    public void selectAndKeys() {
+        jedis.set("user:1", "a");
+        jedis.set("user:2", "b");
+        jedis.set("order:1", "c");
+        Assert.assertEquals(new HashSet<String>(Arrays.asList("user:1", "user:2")), jedis.keys("user:*"));
+        jedis.select(1);
+        Assert.assertEquals(0L, (long) jedis.dbSize());
+        jedis.select(0);
+        Assert.assertEquals(3L, (long) jedis.dbSize());
+    }
+
+    @Test
+    public void builtinScripts() {
+        List<String> lock = Arrays.asList("lock", "lock:fence");
+        Assert.assertEquals(1L, jedis.eval(Scripts.SET_NX_PX_INCR, lock, Arrays.asList("me", "10000")));
+        long busy = (Long) jedis.eval(Scripts.SET_NX_PX_INCR, lock, Arrays.asList("you", "10000"));
+        Assert.assertTrue(busy < -1 && busy >= -10001);
+        Assert.assertEquals("1", jedis.get("lock:fence"));
+
+        List<String> key = Arrays.asList("lock");
+        Assert.assertEquals(0L, jedis.eval(Scripts.COMPARE_AND_PEXPIRE, key, Arrays.asList("you", "50000")));
+        Assert.assertEquals(1L, jedis.eval(Scripts.COMPARE_AND_PEXPIRE, key, Arrays.asList("me", "50000")));
+        Assert.assertTrue(jedis.ttl("lock") > 10);
+        Assert.assertEquals(0L, jedis.eval(Scripts.COMPARE_AND_DELETE, key, Arrays.asList("you")));
+        Assert.assertEquals(1L, jedis.eval(Scripts.COMPARE_AND_DELETE, key, Arrays.asList("me")));
+        Assert.assertFalse(jedis.exists("lock"));
+        Assert.assertEquals(2L, jedis.eval(Scripts.SET_NX_PX_INCR, lock, Arrays.asList("you", "10000")));
+        jedis.set("forever", "x");
+        Assert.assertEquals(0L, jedis.eval(Scripts.SET_NX_PX_INCR, Arrays.asList("forever", "f"), Arrays.asList("me", "10")));
+    }
+
+    @Test
+    public void hmsetIfExists() {
+        List<String> key = Arrays.asList("h");
+        Assert.assertEquals(0L, jedis.eval(Scripts.HMSET_IF_EXISTS, key, Arrays.asList("60", "a", "1")));
+        Assert.assertFalse(jedis.exists("h"));
+        jedis.hset("h", "a", "0");
+        Assert.assertEquals(1L, jedis.eval(Scripts.HMSET_IF_EXISTS, key, Arrays.asList("60", "a", "1", "b", "2")));
+        Assert.assertEquals("1", jedis.hget("h", "a"));
+        Assert.assertEquals("2", jedis.hget("h", "b"));
+        Assert.assertTrue(jedis.ttl("h") > 50);
+        try {
+            jedis.eval(Scripts.HMSET_IF_EXISTS, key, Arrays.asList("60", "a", "1", "b"));
+            Assert.fail();
+        } catch (JedisDataException e) {
+            Assert.assertTrue(e.getMessage().contains("HMSET"));
+        }
+    }
+
+    @Test
+    public void lremRpush() {
+        List<String> keys = Arrays.asList("processing", "queue", "since");
+        jedis.rpush("processing", "a", "b");
+        jedis.zadd("since", 1, "a");
+        Assert.assertEquals(1L, jedis.eval(Scripts.LREM_RPUSH, keys, Arrays.asList("a")));
+        Assert.assertEquals(Arrays.asList("b"), jedis.lrange("processing", 0, -1));
+        Assert.assertEquals(Arrays.asList("a"), jedis.lrange("queue", 0, -1));
+        Assert.assertFalse(jedis.exists("since"));
+        Assert.assertEquals(0L, jedis.eval(Scripts.LREM_RPUSH, keys, Arrays.asList("a")));
+        Assert.assertEquals(1L, (long) jedis.llen("queue"));
+        jedis.set("queue", "x");
+        try {
+            jedis.eval(Scripts.LREM_RPUSH, keys, Arrays.asList("b"));
+            Assert.fail();
+        } catch (JedisDataException e) {
+            Assert.assertTrue(e.getMessage().startsWith("WRONGTYPE"));
+        }
+        Assert.assertEquals(Arrays.asList("b"), jedis.lrange("processing", 0, -1));
+    }
+
+    @Test
+    public void zaddWithinLimit() {
+        List<String> key = Arrays.asList("log");
+        Assert.assertEquals(1L, jedis.eval(Scripts.ZADD_WITHIN_LIMIT, key, Arrays.asList("0", "100", "a", "2", "60")));
+        Assert.assertEquals(1L, jedis.eval(Scripts.ZADD_WITHIN_LIMIT, key, Arrays.asList("0", "200", "b", "2", "60")));
+        Assert.assertEquals(0L, jedis.eval(Scripts.ZADD_WITHIN_LIMIT, key, Arrays.asList("0", "300", "c", "2", "60")));
+        Assert.assertEquals(Long.valueOf(2), jedis.zcard("log"));
+        // 100以前的滑出窗口，腾出一个位置
+        Assert.assertEquals(1L, jedis.eval(Scripts.ZADD_WITHIN_LIMIT, key, Arrays.asList("100", "300", "c", "2", "60")));
+        Assert.assertEquals(Arrays.asList("b", "c"), new ArrayList<String>(jedis.zrange("log", 0, -1)));
+        Assert.assertTrue(jedis.ttl("log") > 50);
+    }
+
+    @Test
+    public void evalshaNeedsLoadedScript() {
+        String sha = Scripts.sha1(Scripts.COMPARE_AND_DELETE);
+        jedis.scriptFlush();
+        Assert.assertFalse(jedis.scriptExists(sha));
+        try {
+            jedis.evalsha(sha, 1, "k", "v");
+            Assert.fail();
+        } catch (JedisDataException e) {
+            Assert.assertTrue(e.getMessage().startsWith("NOSCRIPT"));
+        }
+        Assert.assertEquals(sha, jedis.scriptLoad(Scripts.COMPARE_AND_DELETE));
+        Assert.assertTrue(jedis.scriptExists(sha));
+        jedis.set("k", "v");
+        Assert.assertEquals(1L, jedis.evalsha(sha, 1, "k", "v"));
+    }
+
+    @Test
+    public void unknownScriptsAndBadArguments() {
+        try {
+            jedis.eval("return 1");
+            Assert.fail();
+        } catch (JedisDataException e) {
+            Assert.assertTrue(e.getMessage().contains("only the scripts in"));
+        }
+        try {
+            jedis.eval(Scripts.COMPARE_AND_DELETE, 2, "a", "b");
+            Assert.fail();
+        } catch (JedisDataException e) {
+            Assert.assertTrue(e.getMessage().contains("expects 1 keys and 1 args"));
+        }
+        jedis.hset("h", "f", "v");
+        try {
+            jedis.eval(Scripts.SET_NX_PX_INCR, 2, "lock", "h", "me", "1000");
+            Assert.fail();
+        } catch (JedisDataException e) {
+            Assert.assertTrue(e.getMessage().startsWith("WRONGTYPE"));
+        }
+        Assert.assertFalse(jedis.exists("lock"));
+        Assert.assertEquals("PONG", jedis.ping());
+    }
+}
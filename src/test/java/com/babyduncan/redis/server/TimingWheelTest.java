@@ -0,0 +1,142 @@
+package com.babyduncan.redis.server;
+
+import org.junit.Assert;
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Random;
+import java.util.Set;
+
+/**
+ * User: zgh
+ * Date: 26-10-18
+ * Time: 20:30
+ */
+public class TimingWheelTest {
+
+    private static TimingWheel.Entry entry(String key, long when) {
+        return new TimingWheel.Entry(null, key, when);
+    }
+
+    @Test
+    public void firesExactlyWhenDue() {
+        long start = 1000000;
+        TimingWheel wheel = new TimingWheel(start);
+        long[] delays = {0, 1, 63, 64, 65, 4095, 4096, 4097, 262143, 262144, 300000, 1L << 31};
+        for (long delay : delays) {
+            wheel.schedule(entry(String.valueOf(delay), start + delay));
+        }
+        for (long delay : delays) {
+            final List<String> fired = new ArrayList<String>();
+            if (delay > 0) {
+                Assert.assertTrue(wheel.advance(start + delay - 1, Integer.MAX_VALUE, e -> fired.add(e.key)));
+                Assert.assertFalse("early " + fired, fired.contains(String.valueOf(delay)));
+            }
+            Assert.assertTrue(wheel.advance(start + delay, Integer.MAX_VALUE, e -> fired.add(e.key)));
+            Assert.assertTrue(fired.contains(String.valueOf(delay)));
+        }
+        Assert.assertEquals(0, wheel.size());
+    }
+
+    @Test
+    public void farFutureKeysAreCascadedDown() {
+        long start = (1L << 36) - 5;
+        TimingWheel wheel = new TimingWheel(start);
+        long when = start + (1L << 40);
+        wheel.schedule(entry("far", when));
+        final List<String> fired = new ArrayList<String>();
+        for (long now = start; now < when; now += 1L << 33) {
+            wheel.advance(now, Integer.MAX_VALUE, e -> fired.add(e.key));
+        }
+        wheel.advance(when - 1, Integer.MAX_VALUE, e -> fired.add(e.key));
+        Assert.assertTrue(fired.isEmpty());
+        Assert.assertEquals(1, wheel.size());
+        wheel.advance(when, Integer.MAX_VALUE, e -> fired.add(e.key));
+        Assert.assertEquals(1, fired.size());
+    }
+
+    @Test
+    public void cancelledAndRescheduledEntries() {
+        TimingWheel wheel = new TimingWheel(0);
+        TimingWheel.Entry a = entry("a", 100);
+        TimingWheel.Entry b = entry("b", 100);
+        TimingWheel.Entry c = entry("c", 100);
+        wheel.schedule(a);
+        wheel.schedule(b);
+        wheel.schedule(c);
+        wheel.cancel(b);
+        wheel.cancel(b);
+        wheel.cancel(c);
+        c.when = 5000;
+        wheel.schedule(c);
+        Assert.assertEquals(2, wheel.size());
+        final List<String> fired = new ArrayList<String>();
+        wheel.advance(4999, Integer.MAX_VALUE, e -> fired.add(e.key));
+        Assert.assertEquals(Collections.singletonList("a"), fired);
+        wheel.advance(5000, Integer.MAX_VALUE, e -> fired.add(e.key));
+        Assert.assertEquals(Arrays.asList("a", "c"), fired);
+    }
+
+    @Test
+    public void budgetStopsAndResumes() {
+        TimingWheel wheel = new TimingWheel(0);
+        for (int i = 0; i < 100; i++) {
+            wheel.schedule(entry("k" + i, i));
+        }
+        final List<String> fired = new ArrayList<String>();
+        Assert.assertFalse(wheel.advance(1000, 10, e -> fired.add(e.key)));
+        Assert.assertEquals(10, fired.size());
+        Assert.assertTrue(wheel.advance(1000, Integer.MAX_VALUE, e -> fired.add(e.key)));
+        Assert.assertEquals(100, fired.size());
+    }
+
+    @Test
+    public void matchesBruteForce() {
+        Random random = new Random(7);
+        long now = random.nextInt(1 << 30);
+        TimingWheel wheel = new TimingWheel(now);
+        Map<String, TimingWheel.Entry> live = new HashMap<String, TimingWheel.Entry>();
+        for (int round = 0; round < 2000; round++) {
+            for (int i = 0; i < 20; i++) {
+                String key = "k" + random.nextInt(5000);
+                TimingWheel.Entry e = live.get(key);
+                // 各种量级的TTL混在一起
+                long when = now + (long) Math.pow(2, random.nextInt(28)) + random.nextInt(64);
+                if (e == null) {
+                    e = entry(key, when);
+                    live.put(key, e);
+                } else if (random.nextInt(4) == 0) {
+                    wheel.cancel(e);
+                    live.remove(key);
+                    continue;
+                } else {
+                    wheel.cancel(e);
+                    e.when = when;
+                }
+                wheel.schedule(e);
+            }
+            now += random.nextInt(3) == 0 ? random.nextInt(1 << 20) : random.nextInt(100);
+            final long until = now;
+            Set<String> expected = new HashSet<String>();
+            for (TimingWheel.Entry e : live.values()) {
+                if (e.when <= until) {
+                    expected.add(e.key);
+                }
+            }
+            final Set<String> fired = new HashSet<String>();
+            wheel.advance(until, Integer.MAX_VALUE, e -> {
+                Assert.assertTrue(e.when <= until);
+                fired.add(e.key);
+            });
+            Assert.assertEquals(expected, fired);
+            live.keySet().removeAll(fired);
+            Assert.assertEquals(live.size(), wheel.size());
+        }
+    }
+}
@@ -0,0 +1,135 @@
+package com.babyduncan.redis.server;
+
+import org.junit.After;
+import org.junit.Assert;
+import org.junit.Before;
+import org.junit.Test;
+import redis.clients.jedis.Jedis;
+import redis.clients.jedis.Pipeline;
+
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * User: zgh
+ * Date: 26-10-18
+ * Time: 20:45
+ */
+public class VirtualClockTest {
+    private VirtualClock clock;
+    private EmbeddedRedisServer server;
+    private Jedis jedis;
+
+    @Before
+    public void start() throws Exception {
+        clock = new VirtualClock();
+        server = new EmbeddedRedisServer().clock(clock).start();
+        jedis = new Jedis(server.getHost(), server.getPort());
+    }
+
+    @After
+    public void stop() {
+        jedis.disconnect();
+        server.stop();
+    }
+
+    @Test
+    public void frozenUntilAdvanced() {
+        jedis.setex("k", 3, "v");
+        long before = System.nanoTime();
+        clock.advance(2999, TimeUnit.MILLISECONDS);
+        Assert.assertEquals("v", jedis.get("k"));
+        Assert.assertEquals(Long.valueOf(0), jedis.ttl("k"));
+        clock.advance(1, TimeUnit.MILLISECONDS);
+        Assert.assertNull(jedis.get("k"));
+        Assert.assertTrue(System.nanoTime() - before < TimeUnit.SECONDS.toNanos(1));
+    }
+
+    @Test
+    public void advanceRemovesDueKeysBeforeReturning() {
+        Pipeline p = jedis.pipelined();
+        for (int i = 0; i < 10000; i++) {
+            p.setex("k" + i, 1 + i % 100, "v");
+        }
+        p.set("forever", "v");
+        p.sync();
+        jedis.select(1);
+        jedis.setex("other", 50, "v");
+
+        clock.advance(50, TimeUnit.SECONDS);
+        // 没有访问这些key，DBSIZE也已经是删完之后的
+        Assert.assertEquals(Long.valueOf(0), jedis.dbSize());
+        jedis.select(0);
+        Assert.assertEquals(Long.valueOf(5000 + 1), jedis.dbSize());
+        clock.advance(50, TimeUnit.SECONDS);
+        Assert.assertEquals(Long.valueOf(1), jedis.dbSize());
+        Assert.assertEquals("v", jedis.get("forever"));
+    }
+
+    @Test
+    public void expireChangesAreHonoured() {
+        jedis.setex("persisted", 10, "v");
+        jedis.persist("persisted");
+        jedis.setex("extended", 10, "v");
+        jedis.expire("extended", 100);
+        jedis.setex("overwritten", 10, "v");
+        jedis.set("overwritten", "v2");
+        jedis.setex("renamed", 10, "v");
+        jedis.rename("renamed", "renamed2");
+        jedis.setex("deleted", 10, "v");
+        jedis.del("deleted");
+        jedis.set("deleted", "v3");
+
+        clock.advance(10, TimeUnit.SECONDS);
+        Assert.assertEquals("v", jedis.get("persisted"));
+        Assert.assertEquals("v", jedis.get("extended"));
+        Assert.assertEquals("v2", jedis.get("overwritten"));
+        Assert.assertNull(jedis.get("renamed2"));
+        Assert.assertEquals("v3", jedis.get("deleted"));
+        clock.advance(90, TimeUnit.SECONDS);
+        Assert.assertNull(jedis.get("extended"));
+    }
+
+    @Test
+    public void blockingPopTimesOutOnVirtualTime() throws Exception {
+        final Jedis blocker = new Jedis(server.getHost(), server.getPort());
+        try {
+            final long[] elapsed = new long[1];
+            final Object[] reply = new Object[1];
+            Thread t = new Thread(() -> {
+                long start = System.nanoTime();
+                reply[0] = blocker.blpop(30, "nothing");
+                elapsed[0] = System.nanoTime() - start;
+            });
+            t.start();
+            Thread.sleep(100);
+            Assert.assertTrue(t.isAlive());
+            clock.advance(30, TimeUnit.SECONDS);
+            t.join(5000);
+            Assert.assertFalse(t.isAlive());
+            Assert.assertTrue(reply[0] == null || ((List<?>) reply[0]).isEmpty());
+            Assert.assertTrue(elapsed[0] < TimeUnit.SECONDS.toNanos(5));
+        } finally {
+            blocker.disconnect();
+        }
+    }
+
+    @Test
+    public void tickingClockFollowsSystemTime() throws Exception {
+        VirtualClock ticking = VirtualClock.ticking();
+        long now = System.currentTimeMillis();
+        Assert.assertTrue(Math.abs(ticking.currentTimeMillis() - now) < 1000);
+        ticking.advance(1, TimeUnit.HOURS);
+        Assert.assertTrue(ticking.currentTimeMillis() - now >= TimeUnit.HOURS.toMillis(1));
+    }
+
+    @Test(expected = IllegalStateException.class)
+    public void clockCannotBeSwappedWhileRunning() {
+        server.clock(ServerClock.SYSTEM);
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void timeOnlyMovesForward() {
+        clock.advance(-1, TimeUnit.SECONDS);
+    }
+}
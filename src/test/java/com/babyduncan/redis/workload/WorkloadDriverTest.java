@@ -0,0 +1,80 @@
+package com.babyduncan.redis.workload;
+
+import com.babyduncan.redis.server.EmbeddedRedisServer;
+import org.junit.AfterClass;
+import org.junit.Assert;
+import org.junit.BeforeClass;
+import org.junit.Test;
+import redis.clients.jedis.Jedis;
+
+import java.io.ByteArrayOutputStream;
+import java.io.PrintStream;
+
+/**
+ * User: zgh
+ * Date: 26-10-18
+ * Time: 23:55
+ */
+public class WorkloadDriverTest {
+    private static EmbeddedRedisServer server;
+
+    @BeforeClass
+    public static void startServer() throws Exception {
+        server = new EmbeddedRedisServer().start();
+    }
+
+    @AfterClass
+    public static void stopServer() {
+        server.stop();
+    }
+
+    @Test
+    public void runsFixedNumberOfOperations() throws Exception {
+        WorkloadOptions options = WorkloadOptions.parse("--host=" + server.getHost(), "--port=" + server.getPort(),
+                "--threads=3", "--operations=3001", "--records=100", "--pipeline=4", "--read-ratio=0.8",
+                "--distribution=zipfian");
+        ByteArrayOutputStream buffer = new ByteArrayOutputStream();
+        WorkloadDriver.Result result = new WorkloadDriver(options, new PrintStream(buffer, true)).run();
+
+        Assert.assertEquals(0, result.getErrors());
+        Assert.assertEquals(3001, result.getOperations());
+        Assert.assertTrue(result.getReads().getCount() > result.getWrites().getCount());
+        Assert.assertTrue(result.getReads().getValueAtPercentile(99.9) > 0);
+        Assert.assertTrue(buffer.toString().contains("p99.9"));
+
+        Jedis jedis = new Jedis(server.getHost(), server.getPort());
+        try {
+            Assert.assertEquals(100, jedis.keys("wl:string:*").size());
+            Assert.assertTrue(jedis.llen("wl:list:0") <= 100);
+        } finally {
+            jedis.disconnect();
+        }
+    }
+
+    @Test
+    public void zipfianIsSkewed() {
+        KeyChooser.Zipfian zipfian = new KeyChooser.Zipfian(10000, 0.99);
+        int top = 0;
+        for (int i = 0; i < 100000; i++) {
+            long rank = zipfian.nextRank();
+            Assert.assertTrue(rank >= 0 && rank < 10000);
+            if (rank < 100) {
+                top++;
+            }
+        }
+        // 前1%的key拿走一半左右的请求
+        Assert.assertTrue("top 1% got " + top, top > 40000 && top < 70000);
+    }
+
+    @Test
+    public void rejectsBadOptions() {
+        for (String bad : new String[]{"--foo=1", "--threads", "--threads=0", "--read-ratio=2", "--mix=string:0",
+                "--mix=queue:1", "--distribution=gauss", "threads=1"}) {
+            try {
+                WorkloadOptions.parse(bad);
+                Assert.fail(bad);
+            } catch (IllegalArgumentException expected) {
+            }
+        }
+    }
+}